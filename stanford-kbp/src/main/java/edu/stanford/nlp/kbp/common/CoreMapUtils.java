@@ -19,15 +19,19 @@ import edu.stanford.nlp.trees.TreeCoreAnnotations;
 import edu.stanford.nlp.util.ArrayCoreMap;
 import edu.stanford.nlp.util.CoreMap;
 import edu.stanford.nlp.util.StringUtils;
+import edu.stanford.nlp.util.TypesafeMap;
 import edu.stanford.nlp.util.logging.Color;
 
+import java.io.ObjectStreamException;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A utility class for manipulating CoreMaps
@@ -69,6 +73,171 @@ public class CoreMapUtils {
     return newSentence;
   }
 
+  /**
+   * Like {@link CoreMapUtils#copyDocument(Annotation)}, but the tokens are not copied:
+   * each token is an {@link OverlayCoreLabel} which reads through to the original token until it is written to.
+   * Annotations added to the overlay never reach the original document.
+   *
+   * The original document must not be modified while the overlay is in use.
+   */
+  public static Annotation overlayDocument( Annotation document ) {
+    Annotation newDocument = new Annotation( document );
+    List<CoreMap> sentences = document.get( CoreAnnotations.SentencesAnnotation.class );
+    List<CoreMap> newSentences = new ArrayList<>( sentences.size() );
+    for( CoreMap sentence : sentences ) {
+      newSentences.add( overlaySentence( sentence ) );
+    }
+    newDocument.set( CoreAnnotations.SentencesAnnotation.class, newSentences );
+    newDocument.set(CoreAnnotations.DocIDAnnotation.class, document.get(CoreAnnotations.DocIDAnnotation.class));
+    return newDocument;
+  }
+
+  /** @see CoreMapUtils#overlayDocument(Annotation) */
+  public static CoreMap overlaySentence( CoreMap sentence ) {
+    CoreMap newSentence = new ArrayCoreMap( sentence );
+    List<CoreLabel> tokens = sentence.get( CoreAnnotations.TokensAnnotation.class );
+    List<CoreLabel> newTokens = new ArrayList<>( tokens.size() );
+    for( CoreLabel token : tokens ) {
+      newTokens.add( new OverlayCoreLabel(token) );
+    }
+    newSentence.set( CoreAnnotations.TokensAnnotation.class, newTokens );
+    return newSentence;
+  }
+
+  /**
+   * Detach a sentence from any document it overlays (see {@link CoreMapUtils#overlayDocument(Annotation)}), for keeping
+   * beyond the life of the overlay: overlaid tokens are replaced by flat copies of what they currently read.
+   * A sentence without overlaid tokens is returned as is.
+   */
+  public static CoreMap detachSentence( CoreMap sentence ) {
+    List<CoreLabel> tokens = sentence.get( CoreAnnotations.TokensAnnotation.class );
+    if (tokens == null) { return sentence; }
+    boolean overlaid = false;
+    for (CoreLabel token : tokens) {
+      if (token instanceof OverlayCoreLabel) { overlaid = true; break; }
+    }
+    if (!overlaid) { return sentence; }
+    CoreMap newSentence = new ArrayCoreMap( sentence );
+    List<CoreLabel> newTokens = new ArrayList<>( tokens.size() );
+    for( CoreLabel token : tokens ) {
+      newTokens.add( token instanceof OverlayCoreLabel ? ((OverlayCoreLabel) token).copy() : token );
+    }
+    newSentence.set( CoreAnnotations.TokensAnnotation.class, newTokens );
+    return newSentence;
+  }
+
+  /**
+   * A copy-on-write view of a token.
+   * Reads fall through to the underlying token, unless the key has been set or removed on the overlay;
+   * writes only ever go to the overlay's own (initially empty) map.
+   */
+  public static class OverlayCoreLabel extends CoreLabel {
+    private static final long serialVersionUID = 1L;
+
+    private final CoreLabel base;
+    /** Keys of the base token which have been removed on this overlay; null if there are none */
+    private Set<Class<?>> removed = null;
+
+    public OverlayCoreLabel(CoreLabel base) {
+      super(1);
+      this.base = base;
+    }
+
+    private boolean masked(Class<?> key) {
+      return removed != null && removed.contains(key);
+    }
+
+    @Override
+    public <VALUE> VALUE get(Class<? extends TypesafeMap.Key<VALUE>> key) {
+      if (super.containsKey(key)) { return super.get(key); }
+      if (masked(key)) { return null; }
+      return base.get(key);
+    }
+
+    @Override
+    public <VALUE> VALUE set(Class<? extends TypesafeMap.Key<VALUE>> key, VALUE value) {
+      VALUE previous = get(key);
+      if (removed != null) { removed.remove(key); }
+      super.set(key, value);
+      return previous;
+    }
+
+    @Override
+    public <VALUE> VALUE remove(Class<? extends TypesafeMap.Key<VALUE>> key) {
+      VALUE previous = get(key);
+      super.remove(key);
+      if (base.containsKey(key)) {
+        if (removed == null) { removed = new HashSet<>(); }
+        removed.add(key);
+      }
+      return previous;
+    }
+
+    @Override
+    public <VALUE> boolean containsKey(Class<? extends TypesafeMap.Key<VALUE>> key) {
+      return super.containsKey(key) || (!masked(key) && base.containsKey(key));
+    }
+
+    @Override
+    public Set<Class<?>> keySet() {
+      Set<Class<?>> keys = new HashSet<>(base.keySet());
+      if (removed != null) { keys.removeAll(removed); }
+      keys.addAll(super.keySet());
+      return keys;
+    }
+
+    @Override
+    public int size() {
+      return keySet().size();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof CoreMap)) return false;
+      CoreMap other = (CoreMap) o;
+      Set<Class<?>> keys = keySet();
+      if (!keys.equals(other.keySet())) return false;
+      for (Class key : keys) {
+        Object mine = get(key);
+        Object theirs = other.get(key);
+        if (mine == null ? theirs != null : !mine.equals(theirs)) return false;
+      }
+      return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int hashCode() {
+      int hash = 0;
+      for (Class key : keySet()) {
+        Object value = get(key);
+        hash += key.hashCode() ^ (value == null ? 0 : value.hashCode());
+      }
+      return hash;
+    }
+
+    /** The number of annotations held by the overlay itself, rather than read through to the underlying token */
+    public int numOverlaidKeys() {
+      return super.size();
+    }
+
+    /** A flat copy of what this token currently reads, which no longer depends on the underlying token */
+    @SuppressWarnings("unchecked")
+    public CoreLabel copy() {
+      Set<Class<?>> keys = keySet();
+      CoreLabel copy = new CoreLabel(keys.size());
+      for (Class key : keys) { copy.set(key, get(key)); }
+      return copy;
+    }
+
+    /** Serialize as a flat copy of the token, as the overlay's own map holds only what was written to it */
+    private Object writeReplace() throws ObjectStreamException {
+      return copy();
+    }
+  }
+
   /**
    * I'd say that words cannot express how much I hate Java's verbosity,
    * but the number of words in this class kind of does.
@@ -6,6 +6,8 @@ import edu.stanford.nlp.pipeline.Annotation;
 import edu.stanford.nlp.pipeline.ProtobufAnnotationSerializer;
 import edu.stanford.nlp.util.CoreMap;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -189,6 +191,30 @@ public class EntityContext {
     }
   }
 
+  /**
+   * Cache the encoded form of this context.
+   */
+  private byte[] encoding;
+
+  /**
+   * Get this context as a length-delimited Protocol Buffer, as read by
+   * {@link KBPProtos.EntityContext#parseDelimitedFrom(java.io.InputStream)}.
+   * The context is only encoded the first time this is called; the returned array should not be modified.
+   */
+  public synchronized byte[] encode() {
+    if (encoding == null) {
+      try {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        toProto().writeDelimitedTo(os);
+        os.close();
+        encoding = os.toByteArray();
+      } catch (IOException e) {
+        throw new RuntimeException(e);  // should be impossible when writing to memory
+      }
+    }
+    return encoding;
+  }
+
   /**
    * Cache the tokenized form of the entity string.
    */
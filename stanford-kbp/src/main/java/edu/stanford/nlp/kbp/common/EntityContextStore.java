@@ -0,0 +1,108 @@
+package edu.stanford.nlp.kbp.common;
+
+import edu.stanford.nlp.ie.machinereading.structure.Span;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.Pair;
+import edu.stanford.nlp.util.logging.Redwood;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Saves entity contexts to a key-value store (by default, {@link Props#DB_TABLE_ENTITY_CONTEXT}),
+ * so that they can be read back in by later linking and training steps.
+ * Contexts are written in batches, and each context is encoded only once (see {@link EntityContext#encode()}),
+ * no matter how many times it is added.
+ */
+public class EntityContextStore {
+  private static final Redwood.RedwoodChannels logger = Redwood.channels("Contexts");
+
+  /** The default number of contexts to queue before writing them out */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  /** The number of keys to remember having written, before forgetting them */
+  private static final int MAX_WRITTEN_KEYS = 100000;
+
+  /** Something which can write a batch of (key, context) pairs */
+  public static interface Sink {
+    public void write(List<Pair<String, EntityContext>> batch) throws SQLException;
+  }
+
+  private final Sink sink;
+  private final int batchSize;
+  private final List<Pair<String, EntityContext>> pending = new ArrayList<>();
+  private final Set<String> written = new HashSet<>();
+
+  public EntityContextStore(Sink sink, int batchSize) {
+    this.sink = sink;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Create a store backed by a Postgres key-value table.
+   * @param table The table to write to, as per {@link PostgresUtils#withKeyEntityContextTable(String, PostgresUtils.KeyEntityContextCallback)}
+   * @param batchSize The number of contexts to queue before writing them out.
+   *                  Any contexts still queued are written when the JVM shuts down.
+   */
+  public static EntityContextStore postgres(final String table, int batchSize) {
+    final EntityContextStore store = new EntityContextStore(batch -> PostgresUtils.withKeyEntityContextTable(table, new PostgresUtils.KeyEntityContextCallback() {
+      @Override
+      public void apply(Connection psql) throws SQLException {
+        if (psql == null) { return; }  // could not connect; the error has already been logged
+        for (Pair<String, EntityContext> entry : batch) {
+          put(psql, table, entry.first, new LinkedHashSet<>(Collections.singleton(entry.second)));
+        }
+        flush(psql, table);
+      }
+    }), batchSize);
+    // Write whatever is left in the last batch on shutdown
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        store.flush();
+      }
+    });
+    return store;
+  }
+
+  /**
+   * The key a context is stored under: the document, sentence and span the entity occurs in, where known,
+   * along with the entity itself.
+   */
+  public static String key(EntityContext context) {
+    StringBuilder key = new StringBuilder();
+    for (Annotation document : context.document) {
+      key.append(document.get(CoreAnnotations.DocIDAnnotation.class)).append("#");
+    }
+    for (Integer sentenceIndex : context.sentenceIndex) { key.append(sentenceIndex).append("#"); }
+    for (Span span : context.entityTokenSpan) { key.append(span.start()).append("-").append(span.end()).append("#"); }
+    return key.append(context.entity.name).append("#").append(context.entity.type.name).toString();
+  }
+
+  /**
+   * Queue a context to be written, if one with the same key has not been already.
+   * @return True if the context was queued.
+   */
+  public synchronized boolean add(EntityContext context) {
+    String key = key(context);
+    if (written.contains(key)) { return false; }
+    if (written.size() >= MAX_WRITTEN_KEYS) { written.clear(); }
+    written.add(key);
+    context.encode();  // encode now, on the caller's thread, so the encoding is shared with any other use of this context
+    pending.add(Pair.makePair(key, context));
+    if (pending.size() >= batchSize) { flush(); }
+    return true;
+  }
+
+  /** Write any queued contexts. */
+  public synchronized void flush() {
+    if (pending.isEmpty()) { return; }
+    try {
+      sink.write(new ArrayList<>(pending));
+    } catch (SQLException e) {
+      logger.err(e);
+    }
+    pending.clear();
+  }
+}
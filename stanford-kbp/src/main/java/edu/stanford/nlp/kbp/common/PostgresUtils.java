@@ -594,7 +594,7 @@ public class PostgresUtils {
     protected void setValue(PreparedStatement stmt, LinkedHashSet<EntityContext> value) throws SQLException, IOException {
       ByteArrayOutputStream os = new ByteArrayOutputStream();
       for (EntityContext context : value) {
-        context.toProto().writeDelimitedTo(os);
+        os.write(context.encode());
       }
       os.close();
       byte[] data = os.toByteArray();
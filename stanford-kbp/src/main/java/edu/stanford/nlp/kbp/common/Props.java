@@ -123,6 +123,10 @@ public class Props {
   @Option(name="entitylinking.wikidictbackoff", gloss="The backoff linker to use")
   public static Class<? extends EntityLinker> ENTITYLINKING_WIKIBACKOFF_CLASS = EntityLinker.GaborsHackyBaseline.class;
   public static Lazy<EntityLinker> ENTITYLINKING_WIKIBACKOFF = null;
+  @Option(name="entitylinking.wikidict.cachesize", gloss="The approximate number of entity names to cache Wikidict articles for")
+  public static int ENTITYLINKING_WIKIDICT_CACHESIZE = 100000;
+  @Option(name="entitylinking.wikidict.warmstart", gloss="A file of precomputed Wikidict articles for entity names, to load into the cache on startup")
+  public static File ENTITYLINKING_WIKIDICT_WARMSTART = null;
 
 
   //
@@ -192,6 +196,8 @@ public class Props {
   public static double INDEX_POSTIRANNOTATOR_MINLINKPERCENT = 0.0;
   @Option(name="index.postirannotator.commonnames", gloss="Do approximate name matching on a first or last name if no full name exists in the article")
   public static File INDEX_POSTIRANNOTATOR_COMMONNAMES = new File("edu/stanford/nlp/kbp/common_names.txt");
+  @Option(name="index.postirannotator.savecontexts", gloss="Save the context of every mention linked to the query entity to the entity context table, e.g., to train an entity linker")
+  public static boolean INDEX_POSTIRANNOTATOR_SAVECONTEXTS = false;
 
   @Option(name="index.websnippets.do", gloss="If true, query for web sentences as well")
   public static boolean INDEX_WEBSNIPPETS_DO = false;
@@ -205,6 +211,15 @@ public class Props {
   @Option(name="index.lucene.abbreviations.do", gloss="If true, construct wildcard queries for abbreviations (this will be more accurate, but much slower)")
   public static boolean INDEX_LUCENE_ABBREVIATIONS_DO = false;
 
+  @Option(name="index.scan.threads", gloss="The number of threads to use when scanning every document in an index (see CorpusScanner)")
+  public static int INDEX_SCAN_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+  @Option(name="index.scan.readahead", gloss="The maximum number of documents decoded ahead of the consumer when scanning an index")
+  public static int INDEX_SCAN_READAHEAD = 64;
+  @Option(name="index.scan.chunksize", gloss="The number of Lucene doc ids in each unit of work (and checkpoint) when scanning an index")
+  public static int INDEX_SCAN_CHUNKSIZE = 1000;
+  @Option(name="index.scan.checkpointdir", gloss="If set, save the doc id ranges scanned so far to this directory, and resume from them on the next scan")
+  public static File INDEX_SCAN_CHECKPOINTDIR = null;
+
   @Option(name="index.train.sentences.per.entity", gloss="Skip documents if no results are found early. This is a useful tweak for speeding up datum caching")
   public static int TRAIN_SENTENCES_PER_ENTITY = 50;
 
@@ -220,11 +235,15 @@ public class Props {
   public static String[] TRAIN_TUPLES_FILES = new String[]{};
   @Option(name="train.tuples.aux", gloss="Additional tuples stored in TSV files")
   public static String[] TRAIN_TUPLES_AUX = new String[]{};
+  @Option(name="train.tuples.snapshotdir", gloss="Directory to cache a binary snapshot of the knowledge base in, keyed by the paths, sizes and modification times of the tuple files (null to disable)")
+  public static File TRAIN_TUPLES_SNAPSHOTDIR = null;
 
   @Option(name="train.model", gloss="Model to train from")
   public static ModelType TRAIN_MODEL = ModelType.LR_INC;
   @Option(name="train.tuples.featurecountthreshold", gloss="Threshold for the minimum number of times a feature should occur")
   public static int FEATURE_COUNT_THRESHOLD = 5;
+  @Option(name="train.dataset.compact", gloss="Store the training dataset flat once it is built; classifiers which shuffle the dataset in place will expand it back out")
+  public static boolean TRAIN_DATASET_COMPACT = false;
   @Option(name="train.spec.kbpmapping", gloss="Directory for mapping between input and KBP slots")
   public static File TRAIN_SPEC_KBP_MAPPING = new File("edu/stanford/nlp/kbp/slot_mapping");
   @Option(name="train.features", gloss="Features to use at training time", required=true)
@@ -303,6 +322,18 @@ public class Props {
   public static boolean TRAIN_JOINTBAYES_TRAINY = true;
   @Option(name="train.jointbayes.multithread", gloss="If set to false, MIML-RE will not multithread.")
   public static boolean TRAIN_JOINTBAYES_MULTITHREAD = true;
+  @Option(name="train.jointbayes.mstep.exact", gloss="If true, train the MIML-RE M-step classifiers exactly as before: Z classifiers through the stock classifier factory, Y classifiers from zero weights, and no stopping on converged weights")
+  public static boolean TRAIN_JOINTBAYES_MSTEP_EXACT = false;
+  @Option(name="train.jointbayes.convergence", gloss="Stop MIML-RE training once an epoch changes the Z classifier weights by less than this fraction of their norm")
+  public static double TRAIN_JOINTBAYES_CONVERGENCE = 1e-3;
+  @Option(name="train.jointbayes.outofcore", gloss="If true, and the training datums are in a columnar dataset (shallowdive.train.columnar), train MIML-RE by streaming the dataset from disk rather than loading it onto the heap")
+  public static boolean TRAIN_JOINTBAYES_OUTOFCORE = false;
+  @Option(name="train.jointbayes.outofcore.chunk", gloss="The number of groups to read from disk at once, when training MIML-RE out of core")
+  public static int TRAIN_JOINTBAYES_OUTOFCORE_CHUNK = 10000;
+  @Option(name="train.jointbayes.outofcore.passes", gloss="The number of stochastic gradient passes over the data for each Z classifier update, when training MIML-RE out of core")
+  public static int TRAIN_JOINTBAYES_OUTOFCORE_PASSES = 1;
+  @Option(name="train.jointbayes.outofcore.rate", gloss="The initial learning rate of the Z classifiers, when training MIML-RE out of core")
+  public static double TRAIN_JOINTBAYES_OUTOFCORE_RATE = 0.1;
 
   @Option(name="train.ensemble.method", gloss="The type of model combination to use (e.g., Bagging or Sub-Bagging")
   public static EnsembleRelationExtractor.EnsembleMethod TRAIN_ENSEMBLE_METHOD = EnsembleRelationExtractor.EnsembleMethod.BAGGING;
@@ -608,6 +639,8 @@ public class Props {
   public static boolean SHALLOWDIVE_TRAIN_REDO = false;
   @Option(name="shallowdive.train.datums", gloss="The table to read training datums from")
   public static String SHALLOWDIVE_TRAIN_DATUMS = "shallowdive_datums";
+  @Option(name="shallowdive.train.columnar", gloss="If set, cache the training datums in this columnar dataset file, and map the dataset from it")
+  public static File SHALLOWDIVE_TRAIN_COLUMNAR = null;
 
   @Option(name="shallowdive.evaluate.do", gloss="If true, actually run the evaluation script")
   public static boolean SHALLOWDIVE_EVALUATE_DO = false;
@@ -2,6 +2,7 @@ package edu.stanford.nlp.kbp.entitylinking;
 
 import edu.stanford.nlp.io.IOUtils;
 import edu.stanford.nlp.kbp.common.*;
+import java.util.function.BiPredicate;
 import java.util.function.Function;
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.logging.Redwood;
@@ -65,10 +66,16 @@ public abstract class EntityLinker implements Function<Pair<EntityContext, Entit
    * @return True if these two contexts refer to the same entity.
    */
   public boolean sameEntity(EntityContext a, EntityContext b) {
+    return sameEntity(a, b, this::link, AcronymMatcher::isAcronym);
+  }
+
+  /** @see EntityLinker#sameEntity(EntityContext, EntityContext) */
+  private boolean sameEntity(EntityContext a, EntityContext b,
+                             Function<EntityContext, Maybe<String>> link, BiPredicate<String[], String[]> isAcronym) {
     // Try conventional entity linking
-    for (String id1 : link(a)) {
+    for (String id1 : link.apply(a)) {
       //noinspection LoopStatementThatDoesntLoop
-      for (String id2 : link(b)) {
+      for (String id2 : link.apply(b)) {
         return id1.equals(id2);
       }
     }
@@ -77,12 +84,62 @@ public abstract class EntityLinker implements Function<Pair<EntityContext, Entit
     // Enforce same type
     if (a.entity.type != b.entity.type) { return false; }
     // Check for acronym match
-    if (AcronymMatcher.isAcronym(a.tokens(), b.tokens())) { return true; }
+    if (isAcronym.test(a.tokens(), b.tokens())) { return true; }
 
     // Backoff to the implementing model
     return sameEntityWithoutLinking(a, b);
   }
 
+  /**
+   * A linking session over a single document, or any other group of mentions which are compared to each other
+   * many times.
+   * Each distinct entity context (by {@link EntityContext#equals(Object)}) is linked only once, acronym matches are
+   * memoized on the tokens of the two mentions, and {@link Session#sameEntity(EntityContext, EntityContext)} is
+   * memoized on the pair of contexts.
+   * A session is not thread safe, and should not outlive the document it was created for.
+   */
+  public class Session {
+    private final Map<EntityContext, Maybe<String>> links = new HashMap<>();
+    private final Map<Pair<List<String>, List<String>>, Boolean> acronyms = new HashMap<>();
+    private final Map<Pair<EntityContext, EntityContext>, Boolean> decisions = new HashMap<>();
+
+    /** @see EntityLinker#link(EntityContext) */
+    public Maybe<String> link(EntityContext context) {
+      Maybe<String> id = links.get(context);
+      if (id == null) {
+        id = EntityLinker.this.link(context);
+        links.put(context, id);
+      }
+      return id;
+    }
+
+    private boolean isAcronym(String[] a, String[] b) {
+      Pair<List<String>, List<String>> key = Pair.makePair(Arrays.asList(a), Arrays.asList(b));
+      Boolean isAcronym = acronyms.get(key);
+      if (isAcronym == null) {
+        isAcronym = AcronymMatcher.isAcronym(a, b);
+        acronyms.put(key, isAcronym);
+      }
+      return isAcronym;
+    }
+
+    /** @see EntityLinker#sameEntity(EntityContext, EntityContext) */
+    public boolean sameEntity(EntityContext a, EntityContext b) {
+      Pair<EntityContext, EntityContext> key = Pair.makePair(a, b);
+      Boolean same = decisions.get(key);
+      if (same == null) {
+        same = EntityLinker.this.sameEntity(a, b, this::link, this::isAcronym);
+        decisions.put(key, same);
+      }
+      return same;
+    }
+  }
+
+  /** Start a new linking session; e.g., for a single document. */
+  public Session newSession() {
+    return new Session();
+  }
+
   @Override
   public Boolean apply(Pair<EntityContext, EntityContext> in) {
     return sameEntity(in.first, in.second);
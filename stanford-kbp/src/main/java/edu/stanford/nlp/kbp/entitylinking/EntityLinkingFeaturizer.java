@@ -656,6 +656,94 @@ public class EntityLinkingFeaturizer implements Serializable{
     }
   }
 
+  /**
+   * The parts of an entity context which the featurizer looks at, computed once per mention so that they can be
+   * shared across every pair the mention is featurized in.
+   * In particular, this caches the entity span under each of the conditions a {@link ConditionalFeature} can
+   * be conditioned on (the whole span, the NER span, and the head), which otherwise requires a head finding pass
+   * over the sentence's tree for every pair.
+   */
+  public static class PrecomputedMention {
+    public final EntityContext context;
+    /** The sentence containing the mention, if known */
+    public final Maybe<CoreMap> sentence;
+    private final Map<String, Maybe<List<CoreLabel>>> spans = new HashMap<>();
+    private final Map<String, String> glosses = new HashMap<>();
+    private final Map<String, String[]> tokens = new HashMap<>();
+    private final String[] nameTokens;
+
+    private PrecomputedMention(EntityContext context, Maybe<CoreMap> sentence) {
+      this.context = context;
+      this.sentence = sentence;
+      this.nameTokens = context.entity.name.split("\\s+");
+    }
+
+    private void putSpan(String condition, Maybe<List<CoreLabel>> span) {
+      spans.put(condition, span);
+      for (List<CoreLabel> tokensInSpan : span) {
+        glosses.put(condition, CoreMapUtils.phraseToOriginalString(tokensInSpan));
+        tokens.put(condition, CoreMapUtils.phraseToOriginalTokens(tokensInSpan));
+      }
+    }
+
+    /** The span of the entity under the given condition ("all", "ner", or "head"), if defined */
+    public Maybe<List<CoreLabel>> span(String condition) {
+      Maybe<List<CoreLabel>> span = spans.get(condition);
+      return span == null ? Maybe.<List<CoreLabel>>Nothing() : span;
+    }
+
+    /** The gloss of {@link PrecomputedMention#span(String)}; only defined if the span is */
+    public String gloss(String condition) { return glosses.get(condition); }
+
+    /** The tokens of {@link PrecomputedMention#span(String)}; only defined if the span is */
+    public String[] tokens(String condition) { return tokens.get(condition); }
+
+    /** The tokens of the entity's name, as opposed to its span in the sentence */
+    public String[] nameTokens() {
+      return nameTokens;
+    }
+  }
+
+  /**
+   * Precompute the features of a single mention, to be passed to
+   * {@link EntityLinkingFeaturizer#featurize(PrecomputedMention, PrecomputedMention, FeatureConsumer)}.
+   */
+  public PrecomputedMention precompute(EntityContext context) {
+    // (sentence)
+    Maybe<CoreMap> sentence = context.sentence;
+    if (context.document.isDefined() && context.sentenceIndex.isDefined()) {
+      sentence = Maybe.Just(context.document.get().get(CoreAnnotations.SentencesAnnotation.class).get(context.sentenceIndex.get()));
+    }
+    PrecomputedMention mention = new PrecomputedMention(context, sentence);
+    // (all)
+    Maybe<List<CoreLabel>> entitySpan = entitySpanInSentence(context);
+    mention.putSpan("all", entitySpan);
+    // (ner)
+    Maybe<List<CoreLabel>> nerSpan = entitySpan;
+    for (List<CoreLabel> span : entitySpan) {
+      NERTag type = context.entity.type;
+      while (span.size() > 1 && !span.get(0).ner().equals(type.name)) {
+        span = span.subList(1, span.size());
+      }
+      while (span.size() > 1 && !span.get(span.size() - 1).ner().equals(type.name)) {
+        span = span.subList(0, span.size() - 1);
+      }
+      nerSpan = Maybe.Just(span);
+    }
+    mention.putSpan("ner", nerSpan);
+    // (head)
+    Maybe<List<CoreLabel>> headSpan = entitySpan;
+    for (Span head : headSpanInSentence(context)) {
+      if (context.document.isDefined() && context.sentenceIndex.isDefined() && context.entityTokenSpan.isDefined()) {
+        headSpan = Maybe.Just(context.document.get().get(CoreAnnotations.SentencesAnnotation.class).get(context.sentenceIndex.get()).get(CoreAnnotations.TokensAnnotation.class).subList(head.start(), head.end()));
+      } else if (context.sentence.isDefined() && context.entityTokenSpan.isDefined()) {
+        headSpan = Maybe.Just(context.sentence.get().get(CoreAnnotations.TokensAnnotation.class).subList(head.start(), head.end()));
+      }
+    }
+    mention.putSpan("head", headSpan);
+    return mention;
+  }
+
   /**
    * TODO(melvin) documentation
    * @param featureSpec
@@ -664,6 +752,11 @@ public class EntityLinkingFeaturizer implements Serializable{
    * @return
    */
   protected <E> Feature featurize2(Object featureSpec, Pair<EntityContext, EntityContext> input) {
+    return featurize2(featureSpec, precompute(input.first), precompute(input.second));
+  }
+
+  /** @see EntityLinkingFeaturizer#featurize2(Object, Pair) */
+  protected Feature featurize2(Object featureSpec, PrecomputedMention one, PrecomputedMention two) {
     // Parameterize the feature spec
     Class<? extends Feature> featureClass = null;
     List<String> featureTypeList = new ArrayList<>();
@@ -685,91 +778,29 @@ public class EntityLinkingFeaturizer implements Serializable{
       }
       // Route feature
       // (get spans according to routing)
-      Maybe<List<CoreLabel>> entitySpan1 = entitySpanInSentence(input.first);
-      Maybe<List<CoreLabel>> entitySpan2 = entitySpanInSentence(input.second);
-      switch (featureType) {
-        case "all":
-          break;
-        case "ner":
-          for (List<CoreLabel> span : entitySpan1) {
-            NERTag type = input.first.entity.type;
-            while (span.size() > 1 && !span.get(0).ner().equals(type.name)) {
-              span = span.subList(1, span.size());
-            }
-            while (span.size() > 1 && !span.get(span.size() - 1).ner().equals(type.name)) {
-              span = span.subList(0, span.size() - 1);
-            }
-            entitySpan1 = Maybe.Just(span);
-          }
-          for (List<CoreLabel> span : entitySpan2) {
-            NERTag type = input.second.entity.type;
-            while (span.size() > 1 && !span.get(0).ner().equals(type.name)) {
-              span = span.subList(1, span.size());
-            }
-            while (span.size() > 1 && !span.get(span.size() - 1).ner().equals(type.name)) {
-              span = span.subList(0, span.size() - 1);
-            }
-            entitySpan2 = Maybe.Just(span);
-          }
-          break;
-        case "head":
-          for (Span headSpan : headSpanInSentence(input.first)) {
-            EntityContext context = input.first;
-            if (context.document.isDefined() && context.sentenceIndex.isDefined() && context.entityTokenSpan.isDefined()) {
-              entitySpan1 = Maybe.Just(context.document.get().get(CoreAnnotations.SentencesAnnotation.class).get(context.sentenceIndex.get()).get(CoreAnnotations.TokensAnnotation.class).subList(headSpan.start(), headSpan.end()));
-            } else if (context.sentence.isDefined() && context.entityTokenSpan.isDefined()) {
-              entitySpan1 = Maybe.Just(context.sentence.get().get(CoreAnnotations.TokensAnnotation.class).subList(headSpan.start(), headSpan.end()));
-            }
-          }
-          for (Span headSpan : headSpanInSentence(input.second)) {
-            EntityContext context = input.second;
-            if (context.document.isDefined() && context.sentenceIndex.isDefined() && context.entityTokenSpan.isDefined()) {
-              entitySpan2 = Maybe.Just(context.document.get().get(CoreAnnotations.SentencesAnnotation.class).get(context.sentenceIndex.get()).get(CoreAnnotations.TokensAnnotation.class).subList(headSpan.start(), headSpan.end()));
-            } else if (context.sentence.isDefined() && context.entityTokenSpan.isDefined()) {
-              entitySpan2 = Maybe.Just(context.sentence.get().get(CoreAnnotations.TokensAnnotation.class).subList(headSpan.start(), headSpan.end()));
-            }
-          }
-          break;
+      Maybe<List<CoreLabel>> entitySpan1 = one.span(featureType);
+      Maybe<List<CoreLabel>> entitySpan2 = two.span(featureType);
+      boolean bothSpansDefined = entitySpan1.isDefined() && entitySpan2.isDefined();
+      if (!bothSpansDefined && !featureType.equals("all")) {
+        continue;
       }
       // (gloss)
-      Pair<String, String> gloss;
-      if (entitySpan1.isDefined() && entitySpan2.isDefined()) {
-        gloss = Pair.makePair(CoreMapUtils.phraseToOriginalString(entitySpan1.get()), CoreMapUtils.phraseToOriginalString(entitySpan2.get()));
-      } else {
-        if(featureType.equals("all")) {
-          gloss = Pair.makePair(input.first.entity.name, input.second.entity.name);
-        } else {
-          continue;
-        }
-      }
+      Pair<String, String> gloss = bothSpansDefined
+          ? Pair.makePair(one.gloss(featureType), two.gloss(featureType))
+          : Pair.makePair(one.context.entity.name, two.context.entity.name);
       // (tokens)
-      Pair<String[], String[]> tokens;
-      if (entitySpan1.isDefined() && entitySpan2.isDefined()) {
-        tokens = Pair.makePair(CoreMapUtils.phraseToOriginalTokens(entitySpan1.get()), CoreMapUtils.phraseToOriginalTokens(entitySpan2.get()));
-      } else {
-        if(featureType.equals("all")) {
-          tokens = Pair.makePair(input.first.entity.name.split("\\s+"), input.second.entity.name.split("\\s+"));
-        } else {
-          continue;
-        }
-      }
+      Pair<String[], String[]> tokens = bothSpansDefined
+          ? Pair.makePair(one.tokens(featureType), two.tokens(featureType))
+          : Pair.makePair(one.nameTokens(), two.nameTokens());
       // (token info)
       Maybe<Pair<List<CoreLabel>, List<CoreLabel>>> tokensInfo = Maybe.Nothing();
-      if (entitySpan1.isDefined() && entitySpan2.isDefined()) {
+      if (bothSpansDefined) {
         tokensInfo = Maybe.Just(Pair.makePair(entitySpan1.get(), entitySpan2.get()));
       }
       // (context info)
       Maybe<Pair<Pair<CoreMap,Span>, Pair<CoreMap,Span>>> context = Maybe.Nothing();
-      Maybe<CoreMap> entity1Sentence = input.first.sentence;
-      if (input.first.document.isDefined() && input.first.sentenceIndex.isDefined()) {
-        entity1Sentence = Maybe.Just(input.first.document.get().get(CoreAnnotations.SentencesAnnotation.class).get(input.first.sentenceIndex.get()));
-      }
-      Maybe<CoreMap> entity2Sentence = input.second.sentence;
-      if (input.second.document.isDefined() && input.second.sentenceIndex.isDefined()) {
-        entity2Sentence = Maybe.Just(input.second.document.get().get(CoreAnnotations.SentencesAnnotation.class).get(input.second.sentenceIndex.get()));
-      }
-      for (CoreMap e1Sentence : entity1Sentence) {
-        for (CoreMap e2Sentence : entity2Sentence) {
+      for (CoreMap e1Sentence : one.sentence) {
+        for (CoreMap e2Sentence : two.sentence) {
           for (List<CoreLabel> e1Span : entitySpan1) {
             for (List<CoreLabel> e2Span : entitySpan2) {
               Span e1SpanAsSpan = new Span(e1Span.get(0).index(), e1Span.get(e1Span.size() - 1).index() + 1);
@@ -780,7 +811,7 @@ public class EntityLinkingFeaturizer implements Serializable{
         }
       }
       // ner tags
-      Pair<NERTag, NERTag> tags = Pair.makePair(input.first.entity.type, input.second.entity.type);
+      Pair<NERTag, NERTag> tags = Pair.makePair(one.context.entity.type, two.context.entity.type);
 
       // Run featurizer
       Feature feature = featurize(featureClass, gloss, tokens, tokensInfo, context, tags, featureType);
@@ -1212,41 +1243,58 @@ public class EntityLinkingFeaturizer implements Serializable{
     }
   }
 
-  public Counter<Feature> featurize(Pair<EntityContext, EntityContext> input) {
+  /** A sink for the features of a pair of mentions, and their counts */
+  public interface FeatureConsumer {
+    public void accept(Feature feature, double count);
+  }
 
+  public Counter<Feature> featurize(Pair<EntityContext, EntityContext> input) {
+    return featurize(precompute(input.first), precompute(input.second));
+  }
 
+  /** @see EntityLinkingFeaturizer#featurize(Pair) */
+  public Counter<Feature> featurize(PrecomputedMention one, PrecomputedMention two) {
     Counter<Feature> features = new ClassicCounter<>();
+    featurize(one, two, features::incrementCount);
+    return features;
+  }
 
+  /**
+   * Featurize a pair of mentions, without collecting the features into a counter.
+   * A feature may be passed to the consumer more than once, in which case its counts should be summed.
+   */
+  @SuppressWarnings("unchecked")
+  public void featurize(PrecomputedMention one, PrecomputedMention two, FeatureConsumer features) {
     for(Object o : FEATURES){
       if(o instanceof ConditionalFeature.Specification){
         //(case: singleton feature)
-        //Option<Double> count = new Option<Double>(1.0);
-        Feature feat = featurize2((ConditionalFeature.Specification) o, input);
+        Feature feat = featurize2((ConditionalFeature.Specification) o, one, two);
 
         if(feat!=null) {
-          Option<Double> count = new Option<Double>(feat.getCount());
-          if(count.get() > 0.0){
-            features.incrementCount(feat, count.get());
+          double count = feat.getCount();
+          if(count > 0.0){
+            features.accept(feat, count);
           }
         }
       } else if(o instanceof Pair){
         //(case: pair of features)
         Pair<Class,Class> pair = (Pair<Class,Class>) o;
+        Pair<EntityContext, EntityContext> input = Pair.makePair(one.context, two.context);
 
         Feature featA = feature(pair.first, input);
         Feature featB = feature(pair.second, input);
         if(featA != null && featB != null) {
-          Option<Double> countA = new Option<Double>(featA.getCount());
-          Option<Double> countB = new Option<Double>(featB.getCount());
-          if(countA.get() * countB.get() > 0.0){
-            features.incrementCount(new Feature.PairFeature(featA, featB), countA.get() * countB.get());
+          double countA = featA.getCount();
+          double countB = featB.getCount();
+          if(countA * countB > 0.0){
+            features.accept(new Feature.PairFeature(featA, featB), countA * countB);
           }
         }
       }
     }
-    features.incrementCount(new Feature.Bias(true), 1.0);
-    return features;
+    features.accept(new Feature.Bias(true), 1.0);
   }
+
   /**
    * Featurize two entity contexts into a datum, which can be passed into a classifier to determine if they
    * refer to the same entity.
@@ -6,12 +6,17 @@ import edu.stanford.nlp.kbp.common.EntityContext;
 import edu.stanford.nlp.kbp.common.Maybe;
 import edu.stanford.nlp.kbp.common.NERTag;
 import edu.stanford.nlp.ling.RVFDatum;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.logging.Redwood;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static edu.stanford.nlp.util.logging.Redwood.log;
 
@@ -38,24 +43,124 @@ public class TrainedEntityLinker extends EntityLinker implements Serializable{
     return Maybe.Nothing();
   }
 
+  /** The maximum number of mentions to keep precomputed features for, before the cache is flushed */
+  private static final int MENTION_CACHE_SIZE = 1000;
+
+  /**
+   * A linear classifier over a frozen feature index, scoring a pair of mentions as a sum of
+   * primitive per-feature margins rather than building a datum and a score counter for every pair.
+   */
+  static class CompactLinearScorer {
+    private final Map<Feature, Integer> featureIndex = new HashMap<>();
+    private final double[] margins;
+    private final double bias;
+
+    CompactLinearScorer(LinearClassifier<Boolean, Feature> classifier) {
+      this.bias = margin(classifier, new ClassicCounter<>());
+      Collection<Feature> features = classifier.features();
+      this.margins = new double[features.size()];
+      for (Feature feature : features) {
+        Counter<Feature> singleton = new ClassicCounter<>();
+        singleton.setCount(feature, 1.0);
+        margins[featureIndex.size()] = margin(classifier, singleton) - bias;
+        featureIndex.put(feature, featureIndex.size());
+      }
+    }
+
+    private static double margin(LinearClassifier<Boolean, Feature> classifier, Counter<Feature> features) {
+      RVFDatum<Boolean, Feature> datum = new RVFDatum<>(features);
+      return classifier.scoreOf(datum, true) - classifier.scoreOf(datum, false);
+    }
+
+    /** The score of "same entity" minus the score of "different entity"; features not in the index are ignored */
+    double score(EntityLinkingFeaturizer featurizer,
+                 EntityLinkingFeaturizer.PrecomputedMention one, EntityLinkingFeaturizer.PrecomputedMention two) {
+      double[] score = new double[]{ bias };
+      featurizer.featurize(one, two, (feature, count) -> {
+        Integer index = featureIndex.get(feature);
+        if (index != null) { score[0] += count * margins[index]; }
+      });
+      return score[0];
+    }
+  }
+
+  /**
+   * The compact form of each linear classifier, created on first use.
+   * This is transient (and so null after deserialization), and created lazily; see {@link TrainedEntityLinker#scorers()}.
+   */
+  private transient volatile Map<NERTag, Maybe<CompactLinearScorer>> scorers;
+  /** The precomputed features of recently seen mentions; see {@link TrainedEntityLinker#mentions()} */
+  private transient volatile Map<EntityContext, EntityLinkingFeaturizer.PrecomputedMention> mentions;
+
+  /** The (lazily created) cache of compiled scorers, safely published across linking threads */
+  private Map<NERTag, Maybe<CompactLinearScorer>> scorers() {
+    Map<NERTag, Maybe<CompactLinearScorer>> rtn = scorers;
+    if (rtn == null) {
+      synchronized (this) {
+        if (scorers == null) { scorers = new ConcurrentHashMap<>(); }
+        rtn = scorers;
+      }
+    }
+    return rtn;
+  }
+
+  /** The (lazily created) cache of precomputed mentions, safely published across linking threads */
+  private Map<EntityContext, EntityLinkingFeaturizer.PrecomputedMention> mentions() {
+    Map<EntityContext, EntityLinkingFeaturizer.PrecomputedMention> rtn = mentions;
+    if (rtn == null) {
+      synchronized (this) {
+        if (mentions == null) { mentions = new ConcurrentHashMap<>(); }
+        rtn = mentions;
+      }
+    }
+    return rtn;
+  }
+
+  @SuppressWarnings("unchecked")
+  Maybe<CompactLinearScorer> scorer(NERTag type) {
+    return scorers().computeIfAbsent(type, t -> {
+      Classifier<Boolean, Feature> classifier = classifiers.get(t);
+      return classifier instanceof LinearClassifier
+          ? Maybe.Just(new CompactLinearScorer((LinearClassifier<Boolean, Feature>) classifier))
+          : Maybe.<CompactLinearScorer>Nothing();
+    });
+  }
+
+  private EntityLinkingFeaturizer.PrecomputedMention precompute(EntityContext context) {
+    Map<EntityContext, EntityLinkingFeaturizer.PrecomputedMention> mentions = mentions();
+    EntityLinkingFeaturizer.PrecomputedMention mention = mentions.get(context);
+    // (contexts which are equal may still differ in their document; only reuse the features of this very context)
+    if (mention == null || mention.context != context) {
+      if (mentions.size() > MENTION_CACHE_SIZE) { mentions.clear(); }
+      mention = featurizer.precompute(context);
+      mentions.put(context, mention);
+    }
+    return mention;
+  }
+
   @Override
   protected boolean sameEntityWithoutLinking(EntityContext entityOne, EntityContext entityTwo) {
-   //((LinearClassifier) classifier).justificationOf(featurizer.featurize(Pair.makePair(entityOne, entityTwo), false));
-    RVFDatum<Boolean, Feature> features = featurizer.featurize(Pair.makePair(entityOne, entityTwo), false);
-    if(entityOne.entity.type.equals(entityTwo.entity.type)) {
-      if(classifiers.get(entityOne.entity.type) != null) {
-        if(classifiers.get(entityOne.entity.type).classOf(features)) {
-          logger.log(entityOne.entity.name+"\t"+entityTwo.entity.name);
-          logger.prettyLog(features);
-          return true;
-        }
-        return false;
-      } else {
-        return false;
-      }
-    } else {
+    if (!entityOne.entity.type.equals(entityTwo.entity.type) || classifiers.get(entityOne.entity.type) == null) {
       return false;
     }
+    EntityLinkingFeaturizer.PrecomputedMention one = precompute(entityOne);
+    EntityLinkingFeaturizer.PrecomputedMention two = precompute(entityTwo);
+    boolean same;
+    Maybe<CompactLinearScorer> scorer = scorer(entityOne.entity.type);
+    double score = scorer.isDefined() ? scorer.get().score(featurizer, one, two) : 0.0;
+    if (scorer.isDefined() && score != 0.0) {
+      same = score > 0.0;
+    } else {
+      // (not a linear classifier, or an exact tie -- defer to the classifier's own decision)
+      RVFDatum<Boolean, Feature> features = new RVFDatum<>(featurizer.featurize(one, two), false);
+      same = classifiers.get(entityOne.entity.type).classOf(features);
+    }
+    if (same) {
+      logger.log(entityOne.entity.name+"\t"+entityTwo.entity.name);
+      // (only linked pairs are logged, so the datum is only built for them)
+      logger.prettyLog(new RVFDatum<>(featurizer.featurize(one, two), false));
+    }
+    return same;
   }
 
   public void printJustification(EntityContext entityOne, EntityContext entityTwo) {
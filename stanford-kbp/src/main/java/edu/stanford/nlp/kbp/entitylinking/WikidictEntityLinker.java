@@ -4,7 +4,6 @@ import edu.stanford.nlp.io.IOUtils;
 import edu.stanford.nlp.kbp.common.*;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.logging.Redwood;
 import org.apache.lucene.analysis.Analyzer;
@@ -17,9 +16,13 @@ import org.apache.lucene.search.*;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * A simple entity linker based on Angel and Val's Wikipedia dictionary.
@@ -33,6 +36,7 @@ public class WikidictEntityLinker extends EntityLinker {
   private static final String FIELD_ARTICLE = "article";
   private static final String FIELD_SCORE = "score";
   private static final Set<String> FIELDS_TO_LOAD = new HashSet<>(Arrays.asList(FIELD_ARTICLE, FIELD_SCORE));
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
   // Lucene variables
   public final IndexReader reader;
@@ -56,6 +60,17 @@ public class WikidictEntityLinker extends EntityLinker {
     this.reader = reader;
     this.searcher = new IndexSearcher(this.reader);
     this.analyzer = new StandardAnalyzer(Version.LUCENE_42);
+    if (Props.ENTITYLINKING_WIKIDICT_WARMSTART != null && Props.ENTITYLINKING_WIKIDICT_WARMSTART.exists()) {
+      try {
+        Map<String, ArticleVector> pinned = loadArticleVectors(Props.ENTITYLINKING_WIKIDICT_WARMSTART);
+        this.cache = new ArticleCache(Props.ENTITYLINKING_WIKIDICT_CACHESIZE, pinned);
+        logger.log("warm started Wikidict cache with " + pinned.size() + " entities");
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    } else {
+      this.cache = new ArticleCache(Props.ENTITYLINKING_WIKIDICT_CACHESIZE, Collections.<String, ArticleVector>emptyMap());
+    }
   }
 
   /** Create a new linker from a Lucene index path pointing to the wikidict */
@@ -68,26 +83,151 @@ public class WikidictEntityLinker extends EntityLinker {
     this(Props.INDEX_WIKIDICT);
   }
 
-  /** A cache of the most recent queries, to avoid filesystem calls when possible */
-  private final WeakHashMap<String, Counter<String>> cache = new WeakHashMap<>();
+  /** The order candidate articles are sorted in: by hash code, and then by name to break ties */
+  private static int compareArticles(int hashOne, String articleOne, int hashTwo, String articleTwo) {
+    if (hashOne != hashTwo) { return hashOne < hashTwo ? -1 : 1; }
+    return articleOne.compareTo(articleTwo);
+  }
+
+  /**
+   * The candidate articles for an entity name, as parallel arrays sorted by the hash code of the article
+   * (see {@link WikidictEntityLinker#compareArticles(int, String, int, String)}).
+   * Two vectors can then be compared as sorted arrays of ints, without keeping a global table of article ids.
+   */
+  protected static class ArticleVector {
+    public static final ArticleVector EMPTY = new ArticleVector(new int[0], new String[0], new double[0]);
+
+    public final int[] hashes;
+    public final String[] articles;
+    public final double[] weights;
+
+    private ArticleVector(int[] hashes, String[] articles, double[] weights) {
+      this.hashes = hashes;
+      this.articles = articles;
+      this.weights = weights;
+    }
+
+    public static ArticleVector of(Counter<String> articleWeights) {
+      String[] articles = articleWeights.keySet().toArray(new String[articleWeights.size()]);
+      Arrays.sort(articles, (a, b) -> compareArticles(a.hashCode(), a, b.hashCode(), b));
+      int[] hashes = new int[articles.length];
+      double[] weights = new double[articles.length];
+      for (int i = 0; i < articles.length; ++i) {
+        hashes[i] = articles[i].hashCode();
+        weights[i] = articleWeights.getCount(articles[i]);
+      }
+      return new ArticleVector(hashes, articles, weights);
+    }
+
+    public int size() {
+      return hashes.length;
+    }
+
+    /**
+     * The largest harmonic mean (2ab / (a + b)) of the weights of an article shared between the two vectors.
+     * @param other The vector to compare against.
+     * @return The largest overlap, or negative infinity if the vectors share no articles.
+     */
+    public double maxHarmonicOverlap(ArticleVector other) {
+      double max = Double.NEGATIVE_INFINITY;
+      int i = 0;
+      int j = 0;
+      while (i < hashes.length && j < other.hashes.length) {
+        int order = compareArticles(hashes[i], articles[i], other.hashes[j], other.articles[j]);
+        if (order < 0) {
+          i += 1;
+        } else if (order > 0) {
+          j += 1;
+        } else {
+          double a = weights[i];
+          double b = other.weights[j];
+          double overlap = 2 * a * b / (a + b);
+          if (overlap > max) { max = overlap; }
+          i += 1;
+          j += 1;
+        }
+      }
+      return max;
+    }
+  }
+
+  /**
+   * A bounded cache of the articles for each (normalized) entity name.
+   * This is two generations of concurrent maps: hits on the old generation are promoted to the young generation,
+   * and once the young generation holds half the cache it replaces the old generation.
+   * The cache therefore holds at most about cacheSize entries, favoring recently used ones, and lookups never
+   * take a lock.
+   */
+  protected static class ArticleCache {
+    private final int cacheSize;
+    private volatile Map<String, ArticleVector> youngCache = new ConcurrentHashMap<>();
+    private volatile Map<String, ArticleVector> oldCache = new ConcurrentHashMap<>();
+    /** Precomputed articles (e.g., from {@link Props#ENTITYLINKING_WIKIDICT_WARMSTART}); these are never evicted. */
+    private final Map<String, ArticleVector> pinnedCache;
+
+    public ArticleCache(int cacheSize, Map<String, ArticleVector> pinned) {
+      this.cacheSize = Math.max(2, cacheSize);
+      this.pinnedCache = Collections.unmodifiableMap(new HashMap<>(pinned));
+    }
+
+    /** The cached articles for a normalized entity name, or null if they are not cached */
+    public ArticleVector get(String key) {
+      ArticleVector value = pinnedCache.get(key);
+      if (value == null) { value = youngCache.get(key); }
+      if (value == null) {
+        value = oldCache.get(key);
+        if (value != null) { put(key, value); }
+      }
+      return value;
+    }
+
+    /** Cache the articles for a normalized entity name, possibly evicting the oldest generation */
+    public void put(String key, ArticleVector value) {
+      Map<String, ArticleVector> young = youngCache;
+      young.put(key, value);
+      if (young.size() > cacheSize / 2) {
+        synchronized (this) {
+          if (youngCache == young) {
+            oldCache = young;
+            youngCache = new ConcurrentHashMap<>();
+          }
+        }
+      }
+    }
+
+    /** A snapshot of every entry in the cache, pinned or not */
+    public Map<String, ArticleVector> entries() {
+      Map<String, ArticleVector> entries = new HashMap<>(oldCache);
+      entries.putAll(youngCache);
+      entries.putAll(pinnedCache);
+      return entries;
+    }
+  }
+
+  private final ArticleCache cache;
+
+  /** The key an entity name is cached and queried under */
+  protected static String normalize(String entityName) {
+    return WHITESPACE.matcher(entityName.trim()).replaceAll(" ");
+  }
 
   /**
    * Return a set of articles which this string form often links to.
    * @param entityName The entity to try to link.
    * @return A set of candidate Wikipedia articles that may be associated with this entity.
+   *         This is shared with the cache, and should not be modified.
    */
-  private Counter<String> articlesForEntity(String entityName) {
+  private ArticleVector articlesForEntity(String entityName) {
     // Check cache
-    synchronized (cache) {
-      Counter<String> cachedValue = cache.get(entityName);
-      if (cachedValue != null) {
-        return cachedValue;
-      }
+    String key = normalize(entityName);
+    ArticleVector cachedValue = cache.get(key);
+    if (cachedValue != null) {
+      return cachedValue;
     }
     // Hit lucene
     try {
       Counter<String> matchScores = new ClassicCounter<String>();
-      Query query = new TermQuery(new Term(FIELD_WORD, entityName));
+      Query query = new TermQuery(new Term(FIELD_WORD, key));
       TopFieldDocs results = this.searcher.search(query, 100, Sort.RELEVANCE);
       for (ScoreDoc result : results.scoreDocs) {
         Document doc = searcher.doc(result.doc, FIELDS_TO_LOAD);  // NOTE: update fieldsLuceneIdToDoc if you need more fields
@@ -100,23 +240,86 @@ public class WikidictEntityLinker extends EntityLinker {
         }
       }
       // Populate cache
-      synchronized (cache) {
-        cache.put(entityName, matchScores);
-      }
-      return matchScores;
+      ArticleVector articles = ArticleVector.of(matchScores);
+      cache.put(key, articles);
+      return articles;
     } catch (IOException e) {
       logger.err(e);
-      return new ClassicCounter<>();
+      return ArticleVector.EMPTY;
+    }
+  }
+
+  /**
+   * Read a file of precomputed articles for entity names, as written by {@link WikidictEntityLinker#saveArticleVectors(File)}.
+   * Each line is an entity name, followed by tab separated article and score pairs.
+   * @param file The file to read.
+   * @return A map from normalized entity names to their articles.
+   * @throws IOException If the file could not be read.
+   */
+  public static Map<String, Counter<String>> readArticleVectors(File file) throws IOException {
+    Map<String, Counter<String>> vectors = new HashMap<>();
+    BufferedReader reader = IOUtils.readerFromString(file.getPath());
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t");
+        Counter<String> articles = new ClassicCounter<>();
+        for (int i = 1; i + 1 < fields.length; i += 2) {
+          articles.incrementCount(fields[i], Double.parseDouble(fields[i + 1]));
+        }
+        vectors.put(normalize(fields[0]), articles);
+      }
+    } finally {
+      reader.close();
+    }
+    return vectors;
+  }
+
+  /**
+   * As {@link WikidictEntityLinker#readArticleVectors(File)}, but ready to be cached.
+   */
+  protected static Map<String, ArticleVector> loadArticleVectors(File file) throws IOException {
+    Map<String, ArticleVector> vectors = new HashMap<>();
+    for (Map.Entry<String, Counter<String>> entry : readArticleVectors(file).entrySet()) {
+      vectors.put(entry.getKey(), ArticleVector.of(entry.getValue()));
+    }
+    return vectors;
+  }
+
+  /**
+   * Save every entity name this linker currently knows the articles for, so that a later run can be warm started
+   * from it (see {@link Props#ENTITYLINKING_WIKIDICT_WARMSTART}).
+   * @param file The file to write to.
+   * @throws IOException If the file could not be written.
+   */
+  public void saveArticleVectors(File file) throws IOException {
+    writeArticleVectors(cache.entries(), file);
+  }
+
+  /** Write articles for entity names, in the format read by {@link WikidictEntityLinker#readArticleVectors(File)} */
+  protected static void writeArticleVectors(Map<String, ArticleVector> vectors, File file) throws IOException {
+    PrintWriter out = IOUtils.getPrintWriter(file);
+    try {
+      for (Map.Entry<String, ArticleVector> entry : vectors.entrySet()) {
+        StringBuilder line = new StringBuilder(entry.getKey());
+        ArticleVector articles = entry.getValue();
+        for (int i = 0; i < articles.size(); ++i) {
+          line.append('\t').append(articles.articles[i]).append('\t').append(articles.weights[i]);
+        }
+        out.println(line);
+      }
+    } finally {
+      out.close();
     }
   }
 
   /**
    * @see WikidictEntityLinker#articlesForEntity(String)
    */
-  private Counter<String> articlesForEntity(EntityContext context) {
+  private ArticleVector articlesForEntity(EntityContext context) {
     // Try vanilla search
     String name = context.entity.name;
-    Counter<String> articles = articlesForEntity(context.entity.name);
+    ArticleVector articles = articlesForEntity(context.entity.name);
     // Trim corporate suffixes
     if (articles.size() == 0) { name = stripCorporateTitles(name); articles = articlesForEntity(name); }
     // Trim determiners
@@ -162,22 +365,15 @@ public class WikidictEntityLinker extends EntityLinker {
     }
 
     // -- Link --
-    Counter<String> articlesOne = articlesForEntity(entityOne);
-    Counter<String> articlesTwo = articlesForEntity(entityTwo);
+    ArticleVector articlesOne = articlesForEntity(entityOne);
+    ArticleVector articlesTwo = articlesForEntity(entityTwo);
     if (articlesOne.size() != 0 && articlesTwo.size() != 0) {
       // Link with Wikipedia
-      Counter<String> intersection = new ClassicCounter<String>();
-      for (String key : articlesOne.keySet()) {
-        if (articlesTwo.containsKey(key)) {
-          double a = articlesOne.getCount(key);
-          double b = articlesTwo.getCount(key);
-          intersection.incrementCount(key, 2 * a * b / (a + b));
-        }
-      }
+      double overlap = articlesOne.maxHarmonicOverlap(articlesTwo);
       if (type == NERTag.PERSON) {
-        return intersection.size() >= 1 && Counters.max(intersection) >= 0.9;  // people are much more finicky
+        return overlap >= 0.9;  // people are much more finicky
       } else {
-        return intersection.size() >= 1 && Counters.max(intersection) >= 0.5;
+        return overlap >= 0.5;
       }
     } else {
       // Hard disallow different last names (this should have been caught by wikidict)
@@ -0,0 +1,595 @@
+package edu.stanford.nlp.kbp.slotfilling.classify;
+
+import edu.stanford.nlp.kbp.common.Maybe;
+import edu.stanford.nlp.kbp.common.SentenceGroup;
+import edu.stanford.nlp.ling.Datum;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.logging.Redwood;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+import static edu.stanford.nlp.util.logging.Redwood.Util.*;
+
+/**
+ * A column-oriented on-disk format for a {@link KBPDataset} over string labels and features.
+ *
+ * <p>
+ *   Labels and features are dictionary encoded; everything else is stored as flat columns of big-endian ints,
+ *   which are memory mapped when the dataset is loaded back.
+ *   The file is laid out as:
+ * </p>
+ * <ol>
+ *   <li>A fixed size header (magic, version, counts, and the size of the dictionaries).</li>
+ *   <li>The label dictionary, then the feature dictionary, each as a count followed by length-prefixed UTF-8 strings.</li>
+ *   <li>The number of sentences in each group.</li>
+ *   <li>The number of features in each sentence.</li>
+ *   <li>The feature ids of every sentence, concatenated.</li>
+ *   <li>The label ids of every group, packed as a count followed by the ids, for each of the positive, negative,
+ *       and unknown labels.</li>
+ *   <li>The sentence gloss keys of each group, as a count (-1 if the group has none) and length-prefixed strings.</li>
+ * </ol>
+ *
+ * <p>
+ *   Groups are encoded in parallel in chunks with chunk-local dictionaries, which are then remapped to the global
+ *   dictionaries in input order; the file (and the resulting dataset) is therefore the same regardless of the number
+ *   of threads, and the same as adding every group to a {@link KBPDataset} in order.
+ * </p>
+ */
+public class ColumnarDataset {
+  private static final Redwood.RedwoodChannels logger = Redwood.channels("Columnar");
+
+  private static final int MAGIC = 0x4b425043;  // "KBPC"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8 + 8 + 8;
+  /** The number of ints to map at once; a single mapped buffer can't exceed 2GB */
+  private static final int SEGMENT_INTS = 1 << 28;
+  /** The default number of groups to encode in a single task */
+  public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+  /**
+   * A single datum group to write, as strings.
+   */
+  public static class Group {
+    public final Set<String> positiveLabels;
+    public final Set<String> negativeLabels;
+    public final Set<String> unknownLabels;
+    public final List<? extends Collection<String>> sentences;
+    public final Maybe<? extends List<String>> sentenceGlossKeys;
+
+    public Group(Set<String> positiveLabels, Set<String> negativeLabels, Set<String> unknownLabels,
+                 List<? extends Collection<String>> sentences, Maybe<? extends List<String>> sentenceGlossKeys) {
+      this.positiveLabels = positiveLabels;
+      this.negativeLabels = negativeLabels;
+      this.unknownLabels = unknownLabels;
+      this.sentences = sentences;
+      this.sentenceGlossKeys = sentenceGlossKeys;
+    }
+
+    public static Group of(Set<String> positiveLabels, Set<String> negativeLabels, Set<String> unknownLabels, SentenceGroup group) {
+      List<Collection<String>> sentences = new ArrayList<>(group.size());
+      for (Datum<String, String> datum : group) {
+        sentences.add(datum.asFeatures());
+      }
+      return new Group(positiveLabels, negativeLabels, unknownLabels, sentences, group.sentenceGlossKeys);
+    }
+  }
+
+  /** A growable column of ints */
+  private static class IntColumn {
+    private int[] data = new int[1024];
+    private int size = 0;
+
+    public void add(int value) {
+      if (size == data.length) { data = Arrays.copyOf(data, data.length * 2); }
+      data[size++] = value;
+    }
+  }
+
+  /** A chunk of groups, encoded against its own dictionaries */
+  private static class EncodedChunk {
+    public final Map<String, Integer> labelIds = new HashMap<>();
+    public final List<String> labels = new ArrayList<>();
+    public final Map<String, Integer> featureIds = new HashMap<>();
+    public final List<String> features = new ArrayList<>();
+    public final IntColumn sentencesPerGroup = new IntColumn();
+    public final IntColumn featuresPerSentence = new IntColumn();
+    public final IntColumn featureColumn = new IntColumn();
+    public final IntColumn labelColumn = new IntColumn();
+    public final List<String[]> glossKeys = new ArrayList<>();
+    public int numGroups = 0;
+
+    private static int intern(String value, Map<String, Integer> ids, List<String> dictionary) {
+      Integer id = ids.get(value);
+      if (id == null) {
+        id = dictionary.size();
+        ids.put(value, id);
+        dictionary.add(value);
+      }
+      return id;
+    }
+
+    private void addLabels(Set<String> labels) {
+      labelColumn.add(labels.size());
+      for (String label : labels) { labelColumn.add(intern(label, labelIds, this.labels)); }
+    }
+
+    public void add(Group group) {
+      if (group.sentenceGlossKeys.isDefined() && group.sentences.size() != group.sentenceGlossKeys.get().size()) {
+        err("Sentence gloss keys don't match datum keys length!");
+        return;
+      }
+      // Labels (in the order a KBPDataset would index them)
+      addLabels(group.positiveLabels);
+      addLabels(group.negativeLabels);
+      addLabels(group.unknownLabels);
+      // Features
+      sentencesPerGroup.add(group.sentences.size());
+      for (Collection<String> sentence : group.sentences) {
+        featuresPerSentence.add(sentence.size());
+        for (String feature : sentence) { featureColumn.add(intern(feature, featureIds, features)); }
+      }
+      // Gloss keys
+      glossKeys.add(group.sentenceGlossKeys.isDefined()
+          ? group.sentenceGlossKeys.get().toArray(new String[group.sentences.size()]) : null);
+      numGroups += 1;
+    }
+  }
+
+  /** A column of ints, mapped from disk in segments */
+  private static class MappedInts {
+    private final IntBuffer[] segments;
+
+    public MappedInts(FileChannel channel, long offset, long length) throws IOException {
+      segments = new IntBuffer[(int) ((length + SEGMENT_INTS - 1) / SEGMENT_INTS)];
+      for (int i = 0; i < segments.length; ++i) {
+        long start = ((long) i) * SEGMENT_INTS;
+        long size = Math.min(SEGMENT_INTS, length - start);
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + 4L * start, 4L * size).asIntBuffer();
+      }
+    }
+
+    public int get(long i) {
+      return segments[(int) (i / SEGMENT_INTS)].get((int) (i % SEGMENT_INTS));
+    }
+  }
+
+  private ColumnarDataset() {}
+
+  private static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) { return null; }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) { return null; }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static List<String> readDictionary(ByteBuffer in) {
+    int size = in.getInt();
+    List<String> dictionary = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) { dictionary.add(readString(in)); }
+    return dictionary;
+  }
+
+  private static DataOutputStream openColumn(File file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+  }
+
+  /**
+   * Write a collection of groups to a columnar dataset file.
+   * The input is only ever read from the calling thread, so it may be backed by something single threaded
+   * (e.g., a database cursor).
+   *
+   * @param input The groups to write, in order.
+   * @param toGroup A function from the input to the group to write. This is run in parallel.
+   * @param file The file to write the dataset to.
+   * @param numThreads The number of threads to encode the groups on.
+   * @param chunkSize The number of groups to encode in a single task.
+   * @return The number of groups written.
+   * @throws IOException If the file could not be written.
+   */
+  public static <E> int write(Iterator<E> input, Function<E, Group> toGroup, File file, int numThreads, int chunkSize) throws IOException {
+    forceTrack("Writing columnar dataset to " + file);
+    File dir = file.getAbsoluteFile().getParentFile();
+    File[] columnFiles = new File[5];
+    DataOutputStream[] columns = new DataOutputStream[columnFiles.length];
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads), runnable -> {
+      Thread thread = new Thread(runnable, "Columnar Encoder");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      for (int i = 0; i < columns.length; ++i) {
+        columnFiles[i] = File.createTempFile(file.getName() + ".", ".column" + i, dir);
+        columns[i] = openColumn(columnFiles[i]);
+      }
+      DataOutputStream sentencesPerGroup = columns[0];
+      DataOutputStream featuresPerSentence = columns[1];
+      DataOutputStream featureColumn = columns[2];
+      DataOutputStream labelColumn = columns[3];
+      DataOutputStream glossColumn = columns[4];
+
+      // Encode chunks in parallel, merging them in order
+      Map<String, Integer> labelIds = new HashMap<>();
+      List<String> labels = new ArrayList<>();
+      Map<String, Integer> featureIds = new HashMap<>();
+      List<String> features = new ArrayList<>();
+      int numGroups = 0;
+      int numSentences = 0;
+      long numFeatureValues = 0;
+      long numLabelValues = 0;
+      Deque<Future<EncodedChunk>> pending = new ArrayDeque<>();
+      while (input.hasNext() || !pending.isEmpty()) {
+        // Keep a bounded number of chunks in flight
+        while (input.hasNext() && pending.size() < 2 * Math.max(1, numThreads)) {
+          final List<E> chunk = new ArrayList<>(chunkSize);
+          while (input.hasNext() && chunk.size() < chunkSize) { chunk.add(input.next()); }
+          pending.add(pool.submit(() -> {
+            EncodedChunk encoded = new EncodedChunk();
+            for (E elem : chunk) { encoded.add(toGroup.apply(elem)); }
+            return encoded;
+          }));
+        }
+        // Merge the oldest chunk into the global dictionaries
+        EncodedChunk chunk;
+        try {
+          chunk = pending.poll().get();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+          throw new RuntimeException(e.getCause());
+        }
+        int[] labelRemap = new int[chunk.labels.size()];
+        for (int i = 0; i < labelRemap.length; ++i) { labelRemap[i] = EncodedChunk.intern(chunk.labels.get(i), labelIds, labels); }
+        int[] featureRemap = new int[chunk.features.size()];
+        for (int i = 0; i < featureRemap.length; ++i) { featureRemap[i] = EncodedChunk.intern(chunk.features.get(i), featureIds, features); }
+        for (int i = 0; i < chunk.sentencesPerGroup.size; ++i) { sentencesPerGroup.writeInt(chunk.sentencesPerGroup.data[i]); }
+        for (int i = 0; i < chunk.featuresPerSentence.size; ++i) { featuresPerSentence.writeInt(chunk.featuresPerSentence.data[i]); }
+        for (int i = 0; i < chunk.featureColumn.size; ++i) { featureColumn.writeInt(featureRemap[chunk.featureColumn.data[i]]); }
+        // (labels are packed as counts followed by ids)
+        int i = 0;
+        while (i < chunk.labelColumn.size) {
+          int count = chunk.labelColumn.data[i++];
+          labelColumn.writeInt(count);
+          for (int k = 0; k < count; ++k) { labelColumn.writeInt(labelRemap[chunk.labelColumn.data[i++]]); }
+        }
+        for (String[] keys : chunk.glossKeys) {
+          if (keys == null) {
+            glossColumn.writeInt(-1);
+          } else {
+            glossColumn.writeInt(keys.length);
+            for (String key : keys) { writeString(glossColumn, key); }
+          }
+        }
+        numGroups += chunk.numGroups;
+        numSentences += chunk.featuresPerSentence.size;
+        numFeatureValues += chunk.featureColumn.size;
+        numLabelValues += chunk.labelColumn.size;
+        if (numGroups % (chunkSize * 10) < chunk.numGroups) {
+          logger.log("encoded " + numGroups + " groups; " + features.size() + " distinct features");
+        }
+      }
+      for (DataOutputStream column : columns) { column.close(); }
+
+      // Assemble the file
+      File tmp = new File(file.getPath() + ".tmp");
+      long dictionaryBytes;
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+        out.write(new byte[HEADER_BYTES]);
+        for (List<String> dictionary : Arrays.asList(labels, features)) {
+          out.writeInt(dictionary.size());
+          for (String entry : dictionary) { writeString(out, entry); }
+        }
+        dictionaryBytes = out.size() - HEADER_BYTES;
+        for (File columnFile : columnFiles) { Files.copy(columnFile.toPath(), out); }
+      }
+      try (RandomAccessFile header = new RandomAccessFile(tmp, "rw")) {
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(numGroups);
+        header.writeInt(numSentences);
+        header.writeLong(numFeatureValues);
+        header.writeLong(numLabelValues);
+        header.writeLong(dictionaryBytes);
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      logger.log("wrote " + numGroups + " groups (" + numSentences + " sentences; " + features.size() + " distinct features) to " + file);
+      return numGroups;
+    } finally {
+      pool.shutdownNow();
+      for (int i = 0; i < columns.length; ++i) {
+        if (columns[i] != null) { try { columns[i].close(); } catch (IOException ignored) { } }
+        if (columnFiles[i] != null && columnFiles[i].exists() && !columnFiles[i].delete()) {
+          warn("could not delete temporary column " + columnFiles[i]);
+        }
+      }
+      endTrack("Writing columnar dataset to " + file);
+    }
+  }
+
+  /** @see ColumnarDataset#write(Iterator, Function, File, int, int) */
+  public static <E> int write(Iterator<E> input, Function<E, Group> toGroup, File file, int numThreads) throws IOException {
+    return write(input, toGroup, file, numThreads, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Load a dataset written by {@link ColumnarDataset#write(Iterator, Function, File, int, int)}.
+   * The int columns are memory mapped rather than read through the heap, and the groups are
+   * materialized in parallel.
+   *
+   * @param file The file to read the dataset from.
+   * @param numThreads The number of threads to materialize the dataset on.
+   * @return The dataset, exactly as if every group had been added to a new {@link KBPDataset} in order.
+   * @throws IOException If the file could not be read, or is not a columnar dataset.
+   */
+  public static KBPDataset<String, String> load(File file, int numThreads) throws IOException {
+    forceTrack("Loading columnar dataset from " + file);
+    try (Reader reader = new Reader(file)) {
+      KBPDataset<String, String> dataset = reader.read(0, reader.numGroups, numThreads, reader.readGlossKeys());
+      logger.log("loaded " + reader.numGroups + " groups (" + reader.numSentences + " sentences; " + reader.featureIndex().size() + " distinct features)");
+      return dataset;
+    } finally {
+      endTrack("Loading columnar dataset from " + file);
+    }
+  }
+
+  /**
+   * An open columnar dataset, from which groups can be read a chunk at a time; this is what allows training
+   * on a dataset larger than the heap (see {@link JointBayesRelationExtractor#train(Reader)}).
+   * Only the dictionaries and a few offsets per group are kept on the heap; the columns themselves are
+   * memory mapped.
+   */
+  public static class Reader implements Closeable {
+    public final File file;
+    public final int numGroups;
+    public final int numSentences;
+    private final FileChannel channel;
+    private final HashIndex<String> labelIndex;
+    private HashIndex<String> featureIndex;
+    /** The map from the feature ids on disk to those of {@link Reader#featureIndex()}, or null if they're the same */
+    private int[] featureMap = null;
+
+    private final MappedInts featuresPerSentence;
+    private final MappedInts featureColumn;
+    private final MappedInts labelColumn;
+    private final long glossOffset;
+    /** The index of the first sentence of each group; of length numGroups + 1 */
+    private final int[] groupStart;
+    /** The index of the first feature of each group in the feature column */
+    private final long[] groupFeatureStart;
+    /** The index of the first label count of each group in the label column */
+    private final long[] groupLabelStart;
+
+    /**
+     * Open a dataset written by {@link ColumnarDataset#write(Iterator, Function, File, int, int)}.
+     * @throws IOException If the file could not be read, or is not a columnar dataset.
+     */
+    public Reader(File file) throws IOException {
+      this.file = file;
+      this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        // Read the header
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        if (header.getInt() != MAGIC) { throw new IOException("Not a columnar dataset: " + file); }
+        int version = header.getInt();
+        if (version != VERSION) { throw new IOException("Unknown columnar dataset version " + version + ": " + file); }
+        this.numGroups = header.getInt();
+        this.numSentences = header.getInt();
+        final long numFeatureValues = header.getLong();
+        final long numLabelValues = header.getLong();
+        final long dictionaryBytes = header.getLong();
+        if (dictionaryBytes > Integer.MAX_VALUE) { throw new IOException("Dictionaries are too large to map: " + file); }
+
+        // Read the dictionaries
+        ByteBuffer dictionaries = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, dictionaryBytes);
+        this.labelIndex = new HashIndex<>(readDictionary(dictionaries));
+        this.featureIndex = new HashIndex<>(readDictionary(dictionaries));
+
+        // Map the columns
+        long offset = HEADER_BYTES + dictionaryBytes;
+        MappedInts sentencesPerGroup = new MappedInts(channel, offset, numGroups);
+        offset += 4L * numGroups;
+        this.featuresPerSentence = new MappedInts(channel, offset, numSentences);
+        offset += 4L * numSentences;
+        this.featureColumn = new MappedInts(channel, offset, numFeatureValues);
+        offset += 4L * numFeatureValues;
+        this.labelColumn = new MappedInts(channel, offset, numLabelValues);
+        offset += 4L * numLabelValues;
+        this.glossOffset = offset;
+
+        // Compute where each group starts
+        this.groupStart = new int[numGroups + 1];
+        this.groupFeatureStart = new long[numGroups + 1];
+        this.groupLabelStart = new long[numGroups + 1];
+        int sentence = 0;
+        long feature = 0;
+        long label = 0;
+        for (int g = 0; g < numGroups; ++g) {
+          groupStart[g] = sentence;
+          groupFeatureStart[g] = feature;
+          groupLabelStart[g] = label;
+          for (int end = sentence + sentencesPerGroup.get(g); sentence < end; ++sentence) { feature += featuresPerSentence.get(sentence); }
+          for (int k = 0; k < 3; ++k) { label += 1 + labelColumn.get(label); }
+        }
+        groupStart[numGroups] = sentence;
+        groupFeatureStart[numGroups] = feature;
+        groupLabelStart[numGroups] = label;
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    /** The labels of the dataset, shared by every chunk read from it */
+    public Index<String> labelIndex() { return labelIndex; }
+
+    /** The features of the dataset, shared by every chunk read from it */
+    public Index<String> featureIndex() { return featureIndex; }
+
+    /** The number of sentences in the given group */
+    public int numSentences(int group) { return groupStart[group + 1] - groupStart[group]; }
+
+    /** The positive labels of the given group, read without reading its features */
+    public Set<Integer> positiveLabels(int group) { return labels(group, 0); }
+
+    /** The negative labels of the given group, read without reading its features */
+    public Set<Integer> negativeLabels(int group) { return labels(group, 1); }
+
+    /** The unknown labels of the given group, read without reading its features */
+    public Set<Integer> unknownLabels(int group) { return labels(group, 2); }
+
+    private Set<Integer> labels(int group, int kind) {
+      long l = groupLabelStart[group];
+      for (int k = 0; k < kind; ++k) { l += 1 + labelColumn.get(l); }
+      int count = labelColumn.get(l++);
+      Set<Integer> labelSet = new HashSet<>(count * 2);
+      for (int k = 0; k < count; ++k) { labelSet.add(labelColumn.get(l++)); }
+      return labelSet;
+    }
+
+    /**
+     * Drop every feature which occurs fewer than <i>threshold</i> times from every chunk read from here on,
+     * exactly as {@link KBPDataset#applyFeatureCountThreshold(int)} would on the loaded dataset.
+     * This makes a single pass over the feature column; the features are remapped as each chunk is read.
+     */
+    public void applyFeatureCountThreshold(int threshold) {
+      int[] counts = new int[featureIndex.size()];
+      for (long f = 0; f < groupFeatureStart[numGroups]; ++f) {
+        int feature = featureMap == null ? featureColumn.get(f) : featureMap[featureColumn.get(f)];
+        if (feature >= 0) { counts[feature] += 1; }
+      }
+      HashIndex<String> newFeatureIndex = new HashIndex<>();
+      int[] newFeatureMap = new int[counts.length];
+      for (int i = 0; i < counts.length; ++i) {
+        if (counts[i] >= threshold) {
+          newFeatureMap[i] = newFeatureIndex.size();
+          newFeatureIndex.add(featureIndex.get(i));
+        } else {
+          newFeatureMap[i] = -1;
+        }
+      }
+      if (featureMap != null) {
+        for (int i = 0; i < featureMap.length; ++i) { featureMap[i] = featureMap[i] < 0 ? -1 : newFeatureMap[featureMap[i]]; }
+      } else {
+        featureMap = newFeatureMap;
+      }
+      logger.log("kept " + newFeatureIndex.size() + " of " + featureIndex.size() + " features occurring at least " + threshold + " times");
+      featureIndex = newFeatureIndex;
+    }
+
+    /**
+     * Read the groups [start, end) of the dataset.
+     * The sentence gloss keys are not read (see {@link Reader#readGlossKeys()}), and so are null.
+     * @param start The first group to read.
+     * @param end One past the last group to read.
+     * @param numThreads The number of threads to materialize the groups on.
+     * @return A dataset of just these groups, sharing this dataset's label and feature indices.
+     */
+    public KBPDataset<String, String> read(int start, int end, int numThreads) {
+      return read(start, end, numThreads, new String[end - start][]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private KBPDataset<String, String> read(final int start, int end, int numThreads, String[][] sentenceGlossKeys) {
+      if (start < 0 || end > numGroups || start > end) { throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + numGroups); }
+      final int size = end - start;
+      final int[] featureMap = this.featureMap;
+
+      // Materialize the features
+      final int[][][] data = new int[size][][];
+      int blockSize = Math.max(1, (size + Math.max(1, numThreads) - 1) / Math.max(1, numThreads));
+      List<Runnable> blocks = new ArrayList<>();
+      for (int blockStart = 0; blockStart < size; blockStart += blockSize) {
+        final int blockBegin = blockStart;
+        final int blockEnd = Math.min(size, blockStart + blockSize);
+        blocks.add(() -> {
+          for (int i = blockBegin; i < blockEnd; ++i) {
+            int g = start + i;
+            int[][] group = new int[groupStart[g + 1] - groupStart[g]][];
+            long featureStart = groupFeatureStart[g];
+            for (int s = 0; s < group.length; ++s) {
+              int length = featuresPerSentence.get(groupStart[g] + s);
+              int[] sentence = new int[length];
+              int kept = 0;
+              for (int f = 0; f < length; ++f) {
+                int feature = featureColumn.get(featureStart + f);
+                if (featureMap == null) {
+                  sentence[kept++] = feature;
+                } else if (featureMap[feature] >= 0) {
+                  sentence[kept++] = featureMap[feature];
+                }
+              }
+              group[s] = kept == length ? sentence : Arrays.copyOf(sentence, kept);
+              featureStart += length;
+            }
+            data[i] = group;
+          }
+        });
+      }
+      threadAndRun("Materializing " + size + " groups", blocks, Math.max(1, numThreads));
+
+      // Read the labels
+      Set<Integer>[] posLabels = new Set[size];
+      Set<Integer>[] negLabels = new Set[size];
+      Set<Integer>[] unkLabels = new Set[size];
+      for (int i = 0; i < size; ++i) {
+        posLabels[i] = positiveLabels(start + i);
+        negLabels[i] = negativeLabels(start + i);
+        unkLabels[i] = unknownLabels(start + i);
+      }
+      return new KBPDataset<String, String>(data, featureIndex, labelIndex,
+          posLabels, negLabels, unkLabels, new Maybe[size][0], sentenceGlossKeys);
+    }
+
+    /** Read the sentence gloss keys of every group; this is a single sequential pass over the end of the file */
+    public String[][] readGlossKeys() throws IOException {
+      String[][] sentenceGlossKeys = new String[numGroups][];
+      DataInputStream glossColumn = new DataInputStream(new BufferedInputStream(
+          Channels.newInputStream(channel.position(glossOffset)), 1 << 16));
+      for (int g = 0; g < numGroups; ++g) {
+        int count = glossColumn.readInt();
+        if (count >= 0) {
+          String[] keys = new String[count];
+          for (int s = 0; s < count; ++s) { keys[s] = readString(glossColumn); }
+          sentenceGlossKeys[g] = keys;
+        }
+      }
+      return sentenceGlossKeys;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
@@ -169,10 +169,6 @@ public class EnsembleRelationExtractor extends RelationClassifier {
   private List<KBPDataset<String, String>> cloneData(KBPDataset<String, String> trainSet, int numSamples) {
     // Get variables we'll be using
     List<KBPDataset<String, String>> result = new ArrayList<KBPDataset<String, String>>();
-    Set<Integer>[] posLabels = trainSet.getPositiveLabelsArray();
-    Set<Integer>[] negLabels = trainSet.getNegativeLabelsArray();
-    Set<Integer>[] unkLabels = trainSet.getUnknownLabelsArray();
-    int[][][] data = trainSet.getDataArray();
 
     // Copy the datasets
     // note[gabor]: this is necessary since JointBayes shuffles the data around
@@ -181,8 +177,8 @@ public class EnsembleRelationExtractor extends RelationClassifier {
           new HashIndex<String>(trainSet.featureIndex()),
           new HashIndex<String>(trainSet.labelIndex()));
       for (int i = 0; i < trainSet.size(); ++i) {
-        clone.addDatum(posLabels[i], negLabels[i], unkLabels[i], data[i], trainSet.getSentenceGlossKey(i),
-            trainSet.getAnnotatedLabels(i));
+        clone.addDatum(trainSet.getPositiveLabelIndices(i), trainSet.getNegativeLabelIndices(i), trainSet.getUnknownLabelIndices(i),
+            trainSet.getGroup(i), trainSet.getSentenceGlossKey(i), trainSet.getAnnotatedLabels(i));
       }
       result.add(clone);
     }
@@ -195,10 +191,6 @@ public class EnsembleRelationExtractor extends RelationClassifier {
       KBPDataset<String, String> trainSet, int numSamples) {
     List<KBPDataset<String, String>> result = new ArrayList<KBPDataset<String, String>>();
     logger.log("numSamples: " + numSamples);
-    Set<Integer>[] posLabels = trainSet.getPositiveLabelsArray();
-    Set<Integer>[] negLabels = trainSet.getNegativeLabelsArray();
-    Set<Integer>[] unkLabels = trainSet.getUnknownLabelsArray();
-    int[][][] data = trainSet.getDataArray();
     
     for (int p = 0; p < numSamples; p++) {
       result.add(new KBPDataset<String,String>(new HashIndex<String>(trainSet.featureIndex()),
@@ -216,8 +208,8 @@ public class EnsembleRelationExtractor extends RelationClassifier {
       assert partition < result.size();
 
       for (int offset = 0; offset < Props.TRAIN_ENSEMBLE_SUBAGREDUNDANCY; ++offset) {
-        result.get( (partition + offset) % result.size() ).addDatum(posLabels[i], negLabels[i], unkLabels[i], data[i],
-            trainSet.getSentenceGlossKey(i), trainSet.getAnnotatedLabels(i));
+        result.get( (partition + offset) % result.size() ).addDatum(trainSet.getPositiveLabelIndices(i), trainSet.getNegativeLabelIndices(i), trainSet.getUnknownLabelIndices(i),
+            trainSet.getGroup(i), trainSet.getSentenceGlossKey(i), trainSet.getAnnotatedLabels(i));
       }
     }
     return result;
@@ -225,12 +217,6 @@ public class EnsembleRelationExtractor extends RelationClassifier {
   
   private List<KBPDataset<String, String>> sampleData(
       KBPDataset<String, String> trainSet, int numSamples) {
-
-    Set<Integer>[] posLabels = trainSet.getPositiveLabelsArray();
-    Set<Integer>[] negLabels = trainSet.getNegativeLabelsArray();
-    Set<Integer>[] unkLabels = trainSet.getUnknownLabelsArray();
-    int[][][] data = trainSet.getDataArray();
-    
     List<KBPDataset<String, String>> result = new ArrayList<KBPDataset<String, String>>();
     logger.log("numSamples: " + numSamples);
     final int n = Math.min(Props.TRAIN_ENSEMBLE_BAGSIZE, trainSet.size());
@@ -243,8 +229,8 @@ public class EnsembleRelationExtractor extends RelationClassifier {
       
       for (int i = 0; i < n; i++) {
         int index = random.nextInt(n);
-        sample.addDatum(posLabels[index], negLabels[index], unkLabels[index],
-            data[index], trainSet.getSentenceGlossKey(index), trainSet.getAnnotatedLabels(index));
+        sample.addDatum(trainSet.getPositiveLabelIndices(index), trainSet.getNegativeLabelIndices(index), trainSet.getUnknownLabelIndices(index),
+            trainSet.getGroup(index), trainSet.getSentenceGlossKey(index), trainSet.getAnnotatedLabels(index));
       }
       result.add(sample);
     }
@@ -253,6 +239,40 @@ public class EnsembleRelationExtractor extends RelationClassifier {
   
   @Override
   public Counter<Pair<String,Maybe<KBPRelationProvenance>>> classifyRelations(SentenceGroup group, Maybe<CoreMap[]> rawSentences) {
+    List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> componentPredictions = new ArrayList<Counter<Pair<String, Maybe<KBPRelationProvenance>>>>();
+    for (RelationClassifier classifier : classifiers) {
+      componentPredictions.add(classifier.classifyRelations(group, rawSentences));
+    }
+    return combine(componentPredictions);
+  }
+
+  /**
+   * Runs each component over the whole batch, so that each can use its own batched (and parallel) classification,
+   * and then combines the components' predictions for each group.
+   */
+  @Override
+  public List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> classifyRelations(List<SentenceGroup> inputs, List<Maybe<CoreMap[]>> rawSentences) {
+    List<List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>>> batchPredictions = new ArrayList<List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>>>();
+    for (RelationClassifier classifier : classifiers) {
+      batchPredictions.add(classifier.classifyRelations(inputs, rawSentences));
+    }
+    List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> results = new ArrayList<Counter<Pair<String, Maybe<KBPRelationProvenance>>>>();
+    for (int i = 0; i < inputs.size(); ++i) {
+      List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> componentPredictions = new ArrayList<Counter<Pair<String, Maybe<KBPRelationProvenance>>>>();
+      for (List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> predictions : batchPredictions) {
+        componentPredictions.add(predictions.get(i));
+      }
+      results.add(combine(componentPredictions));
+    }
+    return results;
+  }
+
+  /**
+   * Combine the predictions of each component classifier on a sentence group,
+   * according to {@link Props#TEST_ENSEMBLE_COMBINATION}.
+   * @param componentPredictions The predictions of each classifier, in the order of {@link EnsembleRelationExtractor#classifiers}.
+   */
+  private Counter<Pair<String,Maybe<KBPRelationProvenance>>> combine(List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> componentPredictions) {
     Counter<Pair<String, Maybe<KBPRelationProvenance>>> result = new ClassicCounter<Pair<String, Maybe<KBPRelationProvenance>>>();
 
     // Intermediate Variables
@@ -262,9 +282,9 @@ public class EnsembleRelationExtractor extends RelationClassifier {
     List<Counter<String>> classifierPredictions = new ArrayList<Counter<String>>();
 
     // Collect Predictions And Statistics
-    for (RelationClassifier classifier : classifiers) {
+    for (Counter<Pair<String, Maybe<KBPRelationProvenance>>> componentPrediction : componentPredictions) {
       Counter<String> predictions = new ClassicCounter<String>();
-      for (Map.Entry<Pair<String, Maybe<KBPRelationProvenance>>, Double> entry : classifier.classifyRelations(group, rawSentences).entrySet()) {
+      for (Map.Entry<Pair<String, Maybe<KBPRelationProvenance>>, Double> entry : componentPrediction.entrySet()) {
         predictions.incrementCount(entry.getKey().first, entry.getValue());  // register prediction
         relationPredictions.add(entry.getKey().first);                       // add to key set
         if (entry.getKey().second.isDefined() &&                             // register provenance if highest weight so far
@@ -0,0 +1,262 @@
+package edu.stanford.nlp.kbp.slotfilling.classify;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The contents of a {@link KBPDataset}, stored flat: this is the backing store of a dataset
+ * which has been {@link KBPDataset#compact() compacted}.
+ *
+ * <ul>
+ *   <li>The features of every sentence are concatenated into a single int pool, indexed by an array of
+ *       sentence offsets, which is in turn indexed by an array of group offsets.</li>
+ *   <li>Each label set of each group is a fixed width bitset, packed into a single long array per kind of label.</li>
+ *   <li>The sentence gloss keys are deduplicated into a dictionary, stored as a single pool of UTF-8 bytes;
+ *       each group stores only the ids of its keys.</li>
+ * </ul>
+ *
+ * This avoids an object header for every sentence, and a hash set of boxed integers for every label set,
+ * which together take up most of the heap of a large dataset.
+ * The storage is immutable; everything returned from it is a fresh copy.
+ */
+class FlatDatasetStorage implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** The number of groups stored */
+  final int size;
+  /** The number of longs each label set of a group takes up */
+  private final int labelWords;
+
+  /** The index of the first sentence of each group in {@link FlatDatasetStorage#sentenceOffsets}; of length size + 1 */
+  private final int[] groupOffsets;
+  /** The index of the first feature of each sentence in {@link FlatDatasetStorage#features}; of length numSentences + 1 */
+  private final int[] sentenceOffsets;
+  /** The features of every sentence, concatenated */
+  private final int[] features;
+
+  private final long[] posLabels;
+  private final long[] negLabels;
+  private final long[] unkLabels;
+  private final long[] origPosLabels;  // null if the original labels were never saved
+  private final long[] origNegLabels;  // null if the original labels were never saved
+
+  /** Whether each group has sentence gloss keys */
+  private final BitSet hasGlossKeys;
+  /** The index of the first gloss key of each group in {@link FlatDatasetStorage#glossKeyIds}; of length size + 1 */
+  private final int[] glossKeyGroupOffsets;
+  /** The id of each gloss key of each group, or -1 if the key is null */
+  private final int[] glossKeyIds;
+  /** The start of each distinct gloss key in {@link FlatDatasetStorage#glossKeyBytes}; of length numKeys + 1 */
+  private final int[] glossKeyOffsets;
+  private final byte[] glossKeyBytes;
+
+  /**
+   * Flatten the given arrays, as stored in a {@link KBPDataset}.
+   * Only the first <code>size</code> entries of each array are read; the arrays are not modified.
+   */
+  FlatDatasetStorage(int size, int[][][] data,
+                     Set<Integer>[] posLabels, Set<Integer>[] negLabels, Set<Integer>[] unkLabels,
+                     Set<Integer>[] origPosLabels, Set<Integer>[] origNegLabels,
+                     String[][] sentenceGlossKeys) {
+    this.size = size;
+    // Features
+    int numSentences = 0;
+    long numFeatures = 0;
+    for (int i = 0; i < size; ++i) {
+      numSentences += data[i].length;
+      for (int[] sentence : data[i]) { numFeatures += sentence.length; }
+    }
+    if (numFeatures > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("Too many features to store in a single pool: " + numFeatures);
+    }
+    this.groupOffsets = new int[size + 1];
+    this.sentenceOffsets = new int[numSentences + 1];
+    this.features = new int[(int) numFeatures];
+    int sentenceI = 0;
+    int featureI = 0;
+    for (int i = 0; i < size; ++i) {
+      groupOffsets[i] = sentenceI;
+      for (int[] sentence : data[i]) {
+        sentenceOffsets[sentenceI++] = featureI;
+        System.arraycopy(sentence, 0, features, featureI, sentence.length);
+        featureI += sentence.length;
+      }
+    }
+    groupOffsets[size] = sentenceI;
+    sentenceOffsets[numSentences] = featureI;
+
+    // Labels
+    int maxLabel = -1;
+    for (Set<Integer>[] labels : Arrays.asList(posLabels, negLabels, unkLabels, origPosLabels, origNegLabels)) {
+      if (labels == null) { continue; }
+      for (int i = 0; i < size; ++i) {
+        if (labels[i] == null) { continue; }
+        for (int label : labels[i]) { maxLabel = Math.max(maxLabel, label); }
+      }
+    }
+    this.labelWords = Math.max(1, (maxLabel + 64) / 64);
+    this.posLabels = packLabels(posLabels);
+    this.negLabels = packLabels(negLabels);
+    this.unkLabels = packLabels(unkLabels);
+    this.origPosLabels = origPosLabels == null ? null : packLabels(origPosLabels);
+    this.origNegLabels = origNegLabels == null ? null : packLabels(origNegLabels);
+
+    // Gloss keys
+    // (the keys of a group are usually, but not always, aligned with its sentences; so, they're indexed separately)
+    this.hasGlossKeys = new BitSet(size);
+    this.glossKeyGroupOffsets = new int[size + 1];
+    int numGlossKeys = 0;
+    for (int i = 0; i < size; ++i) {
+      glossKeyGroupOffsets[i] = numGlossKeys;
+      if (sentenceGlossKeys[i] != null) {
+        hasGlossKeys.set(i);
+        numGlossKeys += sentenceGlossKeys[i].length;
+      }
+    }
+    glossKeyGroupOffsets[size] = numGlossKeys;
+    this.glossKeyIds = new int[numGlossKeys];
+    Map<String, Integer> keyIds = new HashMap<>();
+    List<byte[]> distinctKeys = new ArrayList<>();
+    int numKeyBytes = 0;
+    int keyI = 0;
+    for (int i = 0; i < size; ++i) {
+      if (sentenceGlossKeys[i] == null) { continue; }
+      for (String key : sentenceGlossKeys[i]) {
+        if (key == null) {
+          glossKeyIds[keyI++] = -1;
+        } else {
+          Integer id = keyIds.get(key);
+          if (id == null) {
+            id = distinctKeys.size();
+            keyIds.put(key, id);
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            distinctKeys.add(bytes);
+            numKeyBytes += bytes.length;
+          }
+          glossKeyIds[keyI++] = id;
+        }
+      }
+    }
+    this.glossKeyOffsets = new int[distinctKeys.size() + 1];
+    this.glossKeyBytes = new byte[numKeyBytes];
+    int byteI = 0;
+    for (int k = 0; k < distinctKeys.size(); ++k) {
+      glossKeyOffsets[k] = byteI;
+      byte[] bytes = distinctKeys.get(k);
+      System.arraycopy(bytes, 0, glossKeyBytes, byteI, bytes.length);
+      byteI += bytes.length;
+    }
+    glossKeyOffsets[distinctKeys.size()] = byteI;
+  }
+
+  private long[] packLabels(Set<Integer>[] labels) {
+    long[] bits = new long[size * labelWords];
+    for (int i = 0; i < size; ++i) {
+      if (labels[i] == null) { continue; }
+      for (int label : labels[i]) {
+        bits[i * labelWords + (label >>> 6)] |= 1L << label;
+      }
+    }
+    return bits;
+  }
+
+  private Set<Integer> unpackLabels(long[] bits, int group) {
+    Set<Integer> labels = new HashSet<>();
+    for (int w = 0; w < labelWords; ++w) {
+      long word = bits[group * labelWords + w];
+      while (word != 0) {
+        labels.add((w << 6) + Long.numberOfTrailingZeros(word));
+        word &= word - 1;
+      }
+    }
+    return labels;
+  }
+
+  private Set<Integer>[] unpackLabels(long[] bits) {
+    if (bits == null) { return null; }
+    @SuppressWarnings("unchecked") Set<Integer>[] labels = new Set[size];
+    for (int i = 0; i < size; ++i) { labels[i] = unpackLabels(bits, i); }
+    return labels;
+  }
+
+  Set<Integer> positiveLabels(int group) { return unpackLabels(posLabels, group); }
+  Set<Integer> negativeLabels(int group) { return unpackLabels(negLabels, group); }
+  Set<Integer> unknownLabels(int group) { return unpackLabels(unkLabels, group); }
+
+  Set<Integer>[] positiveLabelsArray() { return unpackLabels(posLabels); }
+  Set<Integer>[] negativeLabelsArray() { return unpackLabels(negLabels); }
+  Set<Integer>[] unknownLabelsArray() { return unpackLabels(unkLabels); }
+  Set<Integer>[] originalPositiveLabelsArray() { return unpackLabels(origPosLabels); }
+  Set<Integer>[] originalNegativeLabelsArray() { return unpackLabels(origNegLabels); }
+
+  int numSentences(int group) {
+    return groupOffsets[group + 1] - groupOffsets[group];
+  }
+
+  int[] sentence(int group, int sentence) {
+    int sentenceI = groupOffsets[group] + sentence;
+    return Arrays.copyOfRange(features, sentenceOffsets[sentenceI], sentenceOffsets[sentenceI + 1]);
+  }
+
+  int[][] group(int group) {
+    int[][] sentences = new int[numSentences(group)][];
+    for (int s = 0; s < sentences.length; ++s) { sentences[s] = sentence(group, s); }
+    return sentences;
+  }
+
+  int[][][] dataArray() {
+    int[][][] data = new int[size][][];
+    for (int i = 0; i < size; ++i) { data[i] = group(i); }
+    return data;
+  }
+
+  /** The total number of features in the dataset, counting every occurrence */
+  int numFeatureOccurrences() {
+    return features.length;
+  }
+
+  /**
+   * The number of bytes this storage takes up: the contents of its arrays, plus a nominal 16 byte header for each array.
+   * Note that this does not depend on the number of sentences or label sets, only on their contents.
+   */
+  long sizeInBytes() {
+    long bytes = 0;
+    for (int[] array : Arrays.asList(groupOffsets, sentenceOffsets, features, glossKeyGroupOffsets, glossKeyIds, glossKeyOffsets)) {
+      bytes += 16 + 4L * array.length;
+    }
+    for (long[] array : Arrays.asList(posLabels, negLabels, unkLabels, origPosLabels, origNegLabels)) {
+      if (array != null) { bytes += 16 + 8L * array.length; }
+    }
+    bytes += 16 + glossKeyBytes.length;
+    bytes += 16 + (hasGlossKeys.size() / 8);
+    return bytes;
+  }
+
+  /** Add the number of times each feature occurs in [start, end) of the feature pool to the given counts */
+  void countFeatures(int[] counts, int start, int end) {
+    for (int i = start; i < end; ++i) { counts[features[i]] += 1; }
+  }
+
+  String glossKey(int group, int sentence) {
+    if (!hasGlossKeys.get(group)) { throw new NullPointerException("No sentence gloss keys for group " + group); }
+    int keyI = glossKeyGroupOffsets[group] + sentence;
+    if (sentence < 0 || keyI >= glossKeyGroupOffsets[group + 1]) { throw new ArrayIndexOutOfBoundsException(sentence); }
+    int id = glossKeyIds[keyI];
+    if (id < 0) { return null; }
+    return new String(glossKeyBytes, glossKeyOffsets[id], glossKeyOffsets[id + 1] - glossKeyOffsets[id], StandardCharsets.UTF_8);
+  }
+
+  String[] glossKeys(int group) {
+    if (!hasGlossKeys.get(group)) { return null; }
+    String[] keys = new String[glossKeyGroupOffsets[group + 1] - glossKeyGroupOffsets[group]];
+    for (int s = 0; s < keys.length; ++s) { keys[s] = glossKey(group, s); }
+    return keys;
+  }
+
+  String[][] glossKeysArray() {
+    String[][] keys = new String[size][];
+    for (int i = 0; i < size; ++i) { keys[i] = glossKeys(i); }
+    return keys;
+  }
+}
@@ -8,6 +8,7 @@ import edu.stanford.nlp.kbp.slotfilling.train.KBPTrainer;
 import edu.stanford.nlp.ling.BasicDatum;
 import edu.stanford.nlp.ling.Datum;
 import edu.stanford.nlp.ling.RVFDatum;
+import edu.stanford.nlp.math.ArrayMath;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
@@ -21,6 +22,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.*;
 
@@ -128,6 +130,9 @@ public class JointBayesRelationExtractor extends RelationClassifier {
 
   private final KBPTrainer.MinimizerType zClassifierMinimizerType;
 
+  /** If true, train the M-step classifiers exactly as before (see {@link Props#TRAIN_JOINTBAYES_MSTEP_EXACT}) */
+  private final boolean exactMStep;
+
   private final Object lock = "I'm a lock :)";
 
   /** A constructor to match the signature of other classifiers -- don't delete me, even if I don't appear used! */
@@ -136,6 +141,11 @@ public class JointBayesRelationExtractor extends RelationClassifier {
   }
 
   public JointBayesRelationExtractor(Properties props, boolean onlyLocal) {
+    this(props, onlyLocal, MetaClass.create(Props.TRAIN_JOINTBAYES_FILTER).<LocalFilter>createInstance());
+  }
+
+  /** Create an extractor with an explicit local data filter, e.g., a {@link LargeFilter}, which can't be created from the properties */
+  JointBayesRelationExtractor(Properties props, boolean onlyLocal, LocalFilter localDataFilter) {
     // We need workDir, serializedRelationExtractorName, modelType, samplingRatio to serialize the initial models
     String srn = "kbp_relation_model";
     if (srn.endsWith(Props.SER_EXT))
@@ -159,7 +169,7 @@ public class JointBayesRelationExtractor extends RelationClassifier {
     numberOfThreads = Props.TRAIN_JOINTBAYES_MULTITHREAD ? Execution.threads : 1;
     zSigma = Props.TRAIN_JOINTBAYES_ZSIGMA;
     ySigma = 1.0;
-    localDataFilter = MetaClass.create(Props.TRAIN_JOINTBAYES_FILTER).createInstance();
+    this.localDataFilter = localDataFilter;
     inferenceType = Props.TRAIN_JOINTBAYES_INFERENCETYPE;
     trainY = Props.TRAIN_JOINTBAYES_TRAINY;
     onlyLocalTraining = onlyLocal;
@@ -169,6 +179,7 @@ public class JointBayesRelationExtractor extends RelationClassifier {
         ModelType.JOINT_BAYES,
         samplingRatio);
     zClassifierMinimizerType = Props.TRAIN_JOINTBAYES_ZMINIMIZER;
+    exactMStep = Props.TRAIN_JOINTBAYES_MSTEP_EXACT;
     log(BLUE, "y features: " + StringUtils.join(Props.TRAIN_JOINTBAYES_YFEATURES, " | "));
   }
 
@@ -246,16 +257,19 @@ public class JointBayesRelationExtractor extends RelationClassifier {
   private void detectDependencyYFeatures(KBPDataset<String, String> data) {
     knownDependencies = new HashSet<String>();
     for(int i = 0; i < data.size(); i ++){
-      Set<Integer> labels = data.getPositiveLabelsArray()[i];
-      for(Integer src: labels) {
-        String srcLabel = data.labelIndex().get(src);
-        for(Integer dst: labels) {
-          if(src.intValue() == dst.intValue()) continue;
-          String dstLabel = data.labelIndex().get(dst);
-          String f = makeCoocurrenceFeature(srcLabel, dstLabel);
-          logger.debug("FOUND COOC: " + f);
-          knownDependencies.add(f);
-        }
+      detectDependencyYFeatures(data.getPositiveLabelsArray()[i], data.labelIndex());
+    }
+  }
+
+  private void detectDependencyYFeatures(Set<Integer> labels, Index<String> labelIndex) {
+    for(Integer src: labels) {
+      String srcLabel = labelIndex.get(src);
+      for(Integer dst: labels) {
+        if(src.intValue() == dst.intValue()) continue;
+        String dstLabel = labelIndex.get(dst);
+        String f = makeCoocurrenceFeature(srcLabel, dstLabel);
+        logger.debug("FOUND COOC: " + f);
+        knownDependencies.add(f);
       }
     }
   }
@@ -294,9 +308,17 @@ public class JointBayesRelationExtractor extends RelationClassifier {
       if (!partOfEnsemble || !Props.TRAIN_JOINTBAYES_MULTITHREAD) { startTrack(title); }
       int [][] foldTrainArray = makeTrainDataArrayForFold(dataArray, fold);
       int [] foldTrainLabels = makeTrainLabelArrayForFold(labelsArray, fold);
-      Dataset<String, String> zd = new Dataset<String, String>(zLabelIndex, foldTrainLabels, featureIndex, foldTrainArray);
-      LinearClassifier<String, String> zClassifier = zFactory.trainClassifierWithInitialWeights(zd, initWeights);
+      LinearClassifier<String, String> zClassifier;
+      if (!exactMStep && zClassifierMinimizerType == KBPTrainer.MinimizerType.QN) {
+        // Same objective as the factory, but with the gradient computed over shards of the fold in parallel
+        double[][] weights = ParallelLogConditionalObjectiveFunction.minimize(foldTrainArray, foldTrainLabels,
+            featureIndex.size(), zLabelIndex.size(), zSigma, 1e-4, initWeights, gradientThreadsPerFold());
+        zClassifier = new LinearClassifier<String, String>(weights, featureIndex, zLabelIndex);
+      } else {
+        Dataset<String, String> zd = new Dataset<String, String>(zLabelIndex, foldTrainLabels, featureIndex, foldTrainArray);
+        zClassifier = zFactory.trainClassifierWithInitialWeights(zd, initWeights);
 //        LinearClassifier<String, String> zClassifier = zFactory.trainClassifier(zd);  // If the above doesn't work, this is the safe bet
+      }
 
       synchronized (lock) {
         zClassifiers[fold] = zClassifier;
@@ -338,7 +360,10 @@ public class JointBayesRelationExtractor extends RelationClassifier {
     return () -> {
       String title = "EPOCH " + epoch + ": Training Y classifier for label " + yLabel;
       if (!partOfEnsemble || !Props.TRAIN_JOINTBAYES_MULTITHREAD) { startTrack(title); }
-      LinearClassifier<String, String> yClassifer = yFactory.trainClassifier(trainSet);
+      LinearClassifier<String, String> previous = yClassifiers.get(yLabel);
+      LinearClassifier<String, String> yClassifer = (exactMStep || previous == null)
+          ? yFactory.trainClassifier(trainSet)
+          : yFactory.trainClassifierWithInitialWeights(trainSet, initialYWeights(previous, trainSet));
       synchronized (lock) {
         yClassifiers.put(yLabel, yClassifer);
       }
@@ -346,6 +371,73 @@ public class JointBayesRelationExtractor extends RelationClassifier {
     };
   }
 
+  /**
+   * The weights of a previous Y classifier, laid out for the features and labels of a new Y dataset.
+   * Features and labels the previous classifier did not know about start from zero.
+   */
+  static double[][] initialYWeights(LinearClassifier<String, String> previous, RVFDataset<String, String> trainSet) {
+    double[][] previousWeights = previous.weights();
+    double[][] weights = new double[trainSet.featureIndex().size()][trainSet.labelIndex().size()];
+    for (int f = 0; f < weights.length; ++f) {
+      int previousF = previous.featureIndex().indexOf(trainSet.featureIndex().get(f));
+      if (previousF < 0 || previousF >= previousWeights.length) { continue; }
+      for (int l = 0; l < weights[f].length; ++l) {
+        int previousL = previous.labelIndex().indexOf(trainSet.labelIndex().get(l));
+        if (previousL >= 0 && previousL < previousWeights[previousF].length) { weights[f][l] = previousWeights[previousF][previousL]; }
+      }
+    }
+    return weights;
+  }
+
+  /** The number of threads to compute the gradient of each Z classifier on, given that the folds are trained in parallel */
+  private int gradientThreadsPerFold() {
+    int threads = (partOfEnsemble && Props.TRAIN_JOINTBAYES_MULTITHREAD)
+        ? Math.max(1, Execution.threads / Props.TRAIN_ENSEMBLE_NUMCOMPONENTS) : numberOfThreads;
+    return Math.max(1, threads / numberOfFolds);
+  }
+
+  /** The current weights of each Z classifier, to compare against after an M-step */
+  private double[][][] zWeights() {
+    double[][][] weights = new double[numberOfFolds][][];
+    for (int fold = 0; fold < numberOfFolds; ++fold) {
+      weights[fold] = zClassifiers[fold] == null ? null : zClassifiers[fold].weights();
+    }
+    return weights;
+  }
+
+  /**
+   * The norm of the change from one set of weights to another, relative to the norm of the first.
+   * This is infinite if there's nothing to compare against, or the two are laid out differently.
+   */
+  static double relativeWeightChange(double[][][] before, double[][][] after) {
+    double change = 0.0;
+    double norm = 0.0;
+    for (int fold = 0; fold < after.length; ++fold) {
+      if (before[fold] == null || before[fold].length != after[fold].length) { return Double.POSITIVE_INFINITY; }
+      for (int f = 0; f < after[fold].length; ++f) {
+        if (before[fold][f].length != after[fold][f].length) { return Double.POSITIVE_INFINITY; }
+        for (int l = 0; l < after[fold][f].length; ++l) {
+          double diff = after[fold][f][l] - before[fold][f][l];
+          change += diff * diff;
+          norm += before[fold][f][l] * before[fold][f][l];
+        }
+      }
+    }
+    return norm == 0.0 ? (change == 0.0 ? 0.0 : Double.POSITIVE_INFINITY) : Math.sqrt(change / norm);
+  }
+
+  /**
+   * Whether EM has converged, in the sense that the last M-step barely changed the Z classifiers.
+   * @param before The weights of the Z classifiers before the M-step.
+   * @param epoch The current epoch, for logging.
+   */
+  private boolean hasConverged(double[][][] before, int epoch) {
+    if (exactMStep) { return false; }
+    double change = relativeWeightChange(before, zWeights());
+    logger.log("In epoch #" + epoch + " the Z weights changed by " + new DecimalFormat("0.0000%").format(change));
+    return change < Props.TRAIN_JOINTBAYES_CONVERGENCE;
+  }
+
   /**
    * Run inference to label the latent Z variables
    * @param zClassifier The classifier to use for the inference
@@ -383,46 +475,59 @@ public class JointBayesRelationExtractor extends RelationClassifier {
     assert(group.length == fixedZ.length);
     // Create runnable
     return () -> {
-
-      int[] originalIndex;
-      Counter<String> [] jointZLogProbs =
-          ErasureUtils.uncheckedCast(new Counter[group.length]);
-
       synchronized (group) {
-        originalIndex = randomizeGroup(group, fixedZ, epoch);
-
-
-        predictZLabels(group, zLabelsPredictedByZi, zClassifier);
+        int[] originalIndex = randomizeGroup(group, fixedZ, epoch);
+        Pair<Counter<String>[], double[]> inferred = inferGroup(zClassifier, yDatasets, group, positiveLabels, negativeLabels,
+            zLabelsPredictedByZi, zLabelsi, fixedZ, epoch);
+        confidences.set(Triple.makeTriple(originalIndex, inferred.first, inferred.second));
+      }
+    };
+  }
 
-        switch(inferenceType) {
-          case SLOW:
-            confidences.set( Triple.makeTriple(
-                originalIndex, jointZLogProbs,
-                inferZLabels(group, positiveLabels, negativeLabels, zLabelsi, fixedZ, jointZLogProbs, zClassifier, epoch) ));
-            break;
-          case STABLE:
-            confidences.set( Triple.makeTriple(
-                originalIndex, jointZLogProbs,
-                inferZLabelsStable(group, positiveLabels, negativeLabels, zLabelsi, fixedZ, jointZLogProbs, zClassifier, epoch) ));
-            break;
-          default:
-            throw new RuntimeException("ERROR: unknown inference type: " + inferenceType);
-        }
+  /**
+   * Infer the latent Z labels of a single (already randomized) group, and add the resulting datums
+   * to the Y datasets.
+   * @return The joint log probabilities of each sentence's labels, and the confidence in each sentence's label.
+   */
+  private Pair<Counter<String>[], double[]> inferGroup(LinearClassifier<String, String> zClassifier,
+                                                       Map<String, RVFDataset<String, String>> yDatasets,
+                                                       int[][] group,
+                                                       Set<Integer> positiveLabels,
+                                                       Set<Integer> negativeLabels,
+                                                       int[] zLabelsPredictedByZi,
+                                                       int[] zLabelsi,
+                                                       Maybe<String>[] fixedZ,
+                                                       int epoch) {
+    Counter<String> [] jointZLogProbs =
+        ErasureUtils.uncheckedCast(new Counter[group.length]);
+
+    predictZLabels(group, zLabelsPredictedByZi, zClassifier);
+
+    double[] confidences;
+    switch(inferenceType) {
+      case SLOW:
+        confidences = inferZLabels(group, positiveLabels, negativeLabels, zLabelsi, fixedZ, jointZLogProbs, zClassifier, epoch);
+        break;
+      case STABLE:
+        confidences = inferZLabelsStable(group, positiveLabels, negativeLabels, zLabelsi, fixedZ, jointZLogProbs, zClassifier, epoch);
+        break;
+      default:
+        throw new RuntimeException("ERROR: unknown inference type: " + inferenceType);
+    }
 
-        // given these predicted z labels, update the features in the y dataset
-        //printGroup(zLabels[i], positiveLabels);
-        synchronized (lock) {
-          for (int y : positiveLabels) {
-            String yLabel = yLabelIndex.get(y);
-            addYDatum(yDatasets.get(yLabel), yLabel, zLabelsi, jointZLogProbs, true);
-          }
-          for (int y : negativeLabels) {
-            String yLabel = yLabelIndex.get(y);
-            addYDatum(yDatasets.get(yLabel), yLabel, zLabelsi, jointZLogProbs, false);
-          }
-        }
+    // given these predicted z labels, update the features in the y dataset
+    //printGroup(zLabels[i], positiveLabels);
+    synchronized (lock) {
+      for (int y : positiveLabels) {
+        String yLabel = yLabelIndex.get(y);
+        addYDatum(yDatasets.get(yLabel), yLabel, zLabelsi, jointZLogProbs, true);
       }
-    };
+      for (int y : negativeLabels) {
+        String yLabel = yLabelIndex.get(y);
+        addYDatum(yDatasets.get(yLabel), yLabel, zLabelsi, jointZLogProbs, false);
+      }
+    }
+    return Pair.makePair(jointZLogProbs, confidences);
   }
 
   @Override
@@ -468,27 +573,7 @@ public class JointBayesRelationExtractor extends RelationClassifier {
     logger.log("Created classifiers");
 
     startTrack("Initializing classifiers");
-    boolean reInitialize = true;
-    if(initialModelPath != null && new File(initialModelPath).exists() && Props.TRAIN_JOINTBAYES_LOADINITMODEL) {
-      // Try to load initial model
-      try {
-        loadInitialModels(initialModelPath);
-        if (data.featureIndex().size() > this.featureIndex.size()) {
-          logger.warn(RED, "Loaded an initial model with fewer features than the dataset! Ignoring...");
-        } else {
-          reInitialize = false;
-        }
-        // yClassifiers = initializeYClassifiersWithAtLeastOnce(yLabelIndex);
-      } catch (Exception e1) {
-        throw new RuntimeException(e1);
-      }
-    } else if (Props.TRAIN_JOINTBAYES_LOADINITMODEL) {
-      if (initialModelPath == null) {
-        logger.warn(RED, "Cannot load initial model: no initial model path");
-      } else if (!new File(initialModelPath).exists()) {
-        logger.warn(RED, "Cannot load initial model: model does not exist at " + initialModelPath);
-      }
-    }
+    boolean reInitialize = !loadInitialModelsIfAvailable(data.featureIndex().size());
     if (reInitialize) {
       featureIndex = data.featureIndex();
       yLabelIndex = data.labelIndex;
@@ -701,6 +786,7 @@ public class JointBayesRelationExtractor extends RelationClassifier {
       // M step
       //
       startTrack("M-STEP");
+      double[][][] zWeightsBefore = zWeights();
       // learn the weights of the sentence-level multi-class classifier
       {
         ArrayList<Runnable> threads = new ArrayList<Runnable>();
@@ -727,25 +813,7 @@ public class JointBayesRelationExtractor extends RelationClassifier {
 
       // learn the weights of each of the top-level two-class classifiers
       if(trainY) {
-        ArrayList<Runnable> threads = new ArrayList<Runnable>();
-        for (String yLabel : yLabelIndex) {
-          Runnable r = createYClassifierTrainer(yFactory, yDatasets, yLabel, epoch);
-          threads.add(r);
-        }
-        if (partOfEnsemble && Props.TRAIN_JOINTBAYES_MULTITHREAD) {
-          // Case: part of ensemble; custom multithreading
-          log("EPOCH " + epoch + ": Training Y classifiers");
-          ExecutorService threadPool = Executors.newFixedThreadPool(Math.max(1, Execution.threads / Props.TRAIN_ENSEMBLE_NUMCOMPONENTS));
-          for( Runnable thread : threads) { threadPool.submit(thread); }
-          threadPool.shutdown();
-          try {
-            threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
-          } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-          }
-        } else {
-          Redwood.Util.threadAndRun("EPOCH " + epoch + ": Training Y classifiers", threads, numberOfThreads);
-        }
+        trainYClassifiers(yFactory, yDatasets, epoch);
       }
       makeSingleZClassifier(zDataset, zFactory);
 
@@ -763,6 +831,10 @@ public class JointBayesRelationExtractor extends RelationClassifier {
       // clear our y datasets so they can be repopulated on next iteration
       yDatasets = initializeYDatasets();
       endTrack("M-STEP");
+      if (hasConverged(zWeightsBefore, epoch)) {
+        logger.log("Stopping training. The Z classifier weights have converged!");
+        break;
+      }
     }
     endTrack("EM");
 
@@ -779,7 +851,7 @@ public class JointBayesRelationExtractor extends RelationClassifier {
           double[] groupConfidences = groupStats.second;
           for (int sentenceI = 0; sentenceI < groupPredictions.length; ++sentenceI) {
             TrainingStatistics.SentenceKey key =
-                new TrainingStatistics.SentenceKey(data.sentenceGlossKeys[groupI][sentenceI]);
+                new TrainingStatistics.SentenceKey(data.getSentenceGlossKey(groupI, sentenceI));
             TrainingStatistics.SentenceStatistics value =
                 new TrainingStatistics.SentenceStatistics(Counters.exp(groupPredictions[sentenceI]),
                     Math.exp(groupConfidences[sentenceI]));
@@ -797,6 +869,397 @@ public class JointBayesRelationExtractor extends RelationClassifier {
     return statistics;
   }
 
+  /**
+   * Train the model out of core, streaming the groups of a columnar dataset from disk a chunk at a time
+   * (see {@link Props#TRAIN_JOINTBAYES_OUTOFCORE}).
+   * Only the model, the latent Z labels of each sentence, and the Y datasets (a handful of features per group and label)
+   * are kept on the heap.
+   * Since the {@link LinearClassifierFactory} needs every sentence in memory at once, the Z classifiers are instead fit
+   * by stochastic gradient descent over the chunks; the Y classifiers are trained as usual.
+   * Guessing the labels of unlabeled groups ({@link Props#TRAIN_UNLABELED}), supervised initialization, and the
+   * per-sentence training statistics are not supported in this mode.
+   * Groups are filtered and split into folds as in {@link JointBayesRelationExtractor#train(KBPDataset)}.
+   *
+   * @param data The dataset to train on; its feature count threshold should already have been applied.
+   * @return Empty training statistics.
+   */
+  public TrainingStatistics train(final ColumnarDataset.Reader data) {
+    if (numberOfThreads <= 0) numberOfThreads = Runtime.getRuntime().availableProcessors();
+    logger.log("Number of threads is " + numberOfThreads);
+    logger.log("Training out of core from " + data.file + " (" + data.numGroups + " groups; " + data.numSentences + " sentences)");
+    if (Props.TRAIN_UNLABELED) {
+      logger.warn(RED, "Cannot guess the labels of unlabeled groups out of core; ignoring train.unlabeled");
+    }
+    LinearClassifierFactory<String, String> yFactory =
+      new LinearClassifierFactory<String, String>(1e-4, false, ySigma);
+    yFactory.setVerbose(false);
+
+    // filter some of the groups (before they are split into folds, as on the heap)
+    forceTrack("Filtering data");
+    final int[] folds = foldsOutOfCore(data);
+    endTrack("Filtering data");
+
+    startTrack("Initializing classifiers");
+    boolean reInitialize = !loadInitialModelsIfAvailable(data.featureIndex().size());
+    if (reInitialize) {
+      featureIndex = data.featureIndex();
+      yLabelIndex = data.labelIndex();
+      zLabelIndex = new HashIndex<String>(yLabelIndex);
+      zLabelIndex.add(RelationMention.UNRELATED);
+
+      // initialize classifiers
+      zClassifiers = initializeZClassifiersOutOfCore(data, folds);
+      yClassifiers = initializeYClassifiersWithAtLeastOnce(yLabelIndex);
+
+      if(initialModelPath != null) {
+        try {
+          saveInitialModels(initialModelPath);
+        } catch (IOException e1) {
+          logger.err(RED, "Could not save initial model: " + e1.getMessage());
+        }
+      }
+    }
+    endTrack("Initializing classifiers");
+    if(onlyLocalTraining) return TrainingStatistics.undefined();
+
+    knownDependencies = new HashSet<String>();
+    for (int i = 0; i < data.numGroups; ++i) {
+      if (folds[i] < 0) { continue; }
+      detectDependencyYFeatures(data.positiveLabels(i), data.labelIndex());
+    }
+
+    // initialize predicted z labels; these are the only per-sentence state we keep
+    forceTrack("Initializing Z labels");
+    final int[][] zLabels = new int[data.numGroups][];
+    forEachChunk(data, Maybe.<Random>Nothing(), (start, chunk) -> {
+      for (int i = 0; i < chunk.size(); ++i) {
+        if (folds[start + i] < 0) { continue; }
+        int[][] group = chunk.getGroup(i);
+        zLabels[start + i] = new int[group.length];
+        predictZLabels(group, zLabels[start + i], zClassifiers[folds[start + i]]);
+      }
+    });
+    endTrack("Initializing Z labels");
+
+    // run EM
+    startTrack("EM");
+    for (int epoch = 0; epoch < numberOfTrainEpochs; epoch++) {
+      zUpdatesInOneEpoch = new AtomicInteger(0);
+      logger.log("***EPOCH " + epoch + "***");
+      // y dataset initialized to be empty, as it will be populated during the E step
+      final Map<String, RVFDataset<String, String>> yDatasets = initializeYDatasets();
+
+      //
+      // E-step
+      //
+      forceTrack("E-Step");
+      final int currentEpoch = epoch;
+      forEachChunk(data, Maybe.<Random>Nothing(), (start, chunk) -> {
+        ArrayList<Runnable> threads = new ArrayList<Runnable>();
+        for (int i = 0; i < chunk.size(); ++i) {
+          final int groupI = start + i;
+          if (folds[groupI] < 0) { continue; }
+          final int[][] group = chunk.getGroup(i);
+          final Set<Integer> positiveLabels = chunk.getPositiveLabelIndices(i);
+          final Set<Integer> negativeLabels = chunk.getNegativeLabelIndices(i);
+          final Maybe<String>[] fixedZ = chunk.getAnnotatedLabels(i);
+          final LinearClassifier<String, String> zClassifier = zClassifiers[folds[groupI]];
+          threads.add(() -> {
+            // The group comes fresh from disk, in its original order; so, shuffle the labels along with it
+            int[] originalIndex = randomizeGroup(group, fixedZ, currentEpoch);
+            int[] zLabelsi = new int[group.length];
+            for (int s = 0; s < group.length; ++s) { zLabelsi[s] = zLabels[groupI][originalIndex[s]]; }
+            inferGroup(zClassifier, yDatasets, group, positiveLabels, negativeLabels,
+                new int[group.length], zLabelsi, fixedZ, currentEpoch);
+            for (int s = 0; s < group.length; ++s) { zLabels[groupI][originalIndex[s]] = zLabelsi[s]; }
+          });
+        }
+        Redwood.Util.threadAndRun("EPOCH " + currentEpoch + ": Inferring hidden sentence labels Z_i's for groups " + start + " to " + (start + chunk.size()),
+            threads, numberOfThreads);
+      });
+      logger.log("In epoch #" + epoch + " zUpdatesInOneEpoch = " + zUpdatesInOneEpoch);
+      if(zUpdatesInOneEpoch.get() == 0){
+        logger.log("Stopping training. Did not find any changes in the Z labels!");
+        endTrack("E-Step");
+        break;
+      }
+      endTrack("E-Step");
+
+      //
+      // M step
+      //
+      startTrack("M-STEP");
+      double[][][] zWeightsBefore = zWeights();
+      // learn the weights of the sentence-level multi-class classifier, starting from the current weights
+      double[][][] weights = new double[numberOfFolds][][];
+      for (int fold = 0; fold < numberOfFolds; ++fold) {
+        double[][] current = zClassifiers[fold].weights();
+        weights[fold] = new double[current.length][];
+        for (int f = 0; f < current.length; ++f) { weights[fold][f] = current[f].clone(); }
+      }
+      zClassifiers = trainZClassifiersOutOfCore(data, folds, weights, 1 + epoch, "EPOCH " + epoch,
+          (groupI, group, positiveLabels, examples) -> {
+            for (int s = 0; s < group.length; ++s) { examples.add(group[s], zLabels[groupI][s], 1.0); }
+          });
+
+      // learn the weights of each of the top-level two-class classifiers
+      if(trainY) {
+        trainYClassifiers(yFactory, yDatasets, epoch);
+      }
+      // (a single Z classifier would need the whole Z dataset in memory)
+      zSingleClassifier = null;
+
+      // save this epoch's model
+      String epochPath = makeEpochPath(epoch);
+      try {
+        if(epochPath != null) {
+          save(epochPath);
+        }
+      } catch (IOException ex) {
+        logger.err(RED, "WARNING: could not save model of epoch " + epoch + " to path: " + epochPath);
+        logger.err(RED, "Exception message: " + ex.getMessage());
+      }
+      endTrack("M-STEP");
+      if (hasConverged(zWeightsBefore, epoch)) {
+        logger.log("Stopping training. The Z classifier weights have converged!");
+        break;
+      }
+    }
+    endTrack("EM");
+
+    TrainingStatistics statistics = TrainingStatistics.empty();
+    this.statistics = Maybe.Just(statistics);
+    return statistics;
+  }
+
+  /** Something to do with a chunk of groups read from disk, given the index of its first group */
+  private static interface ChunkConsumer {
+    public void accept(int start, KBPDataset<String, String> chunk);
+  }
+
+  /**
+   * Read through a columnar dataset a chunk of {@link Props#TRAIN_JOINTBAYES_OUTOFCORE_CHUNK} groups at a time.
+   * @param rand If defined, visit the chunks in a random order.
+   */
+  private void forEachChunk(ColumnarDataset.Reader data, Maybe<Random> rand, ChunkConsumer consumer) {
+    int chunkSize = Math.max(1, Props.TRAIN_JOINTBAYES_OUTOFCORE_CHUNK);
+    List<Integer> starts = new ArrayList<Integer>();
+    for (int start = 0; start < data.numGroups; start += chunkSize) { starts.add(start); }
+    for (Random r : rand) { Collections.shuffle(starts, r); }
+    for (int start : starts) {
+      consumer.accept(start, data.read(start, Math.min(data.numGroups, start + chunkSize), numberOfThreads));
+    }
+  }
+
+  /**
+   * The fold each group of a columnar dataset belongs to, or -1 if it is filtered out of training.
+   * As in {@link JointBayesRelationExtractor#train(KBPDataset)}, groups are filtered first,
+   * and the groups which remain are then split into folds.
+   */
+  int[] foldsOutOfCore(ColumnarDataset.Reader data) {
+    boolean[] kept = new boolean[data.numGroups];
+    int numKept = 0;
+    for (int i = 0; i < data.numGroups; ++i) {
+      // (the large filter only looks at the number of sentences in the group, so we don't need to read it)
+      kept[i] = !(localDataFilter instanceof LargeFilter) ||
+          localDataFilter.filterY(new int[data.numSentences(i)][], data.positiveLabels(i));
+      if (kept[i]) { numKept += 1; }
+    }
+    logger.log("kept " + numKept + " of " + data.numGroups + " groups");
+    int[] folds = new int[data.numGroups];
+    int keptI = 0;
+    for (int i = 0; i < data.numGroups; ++i) {
+      folds[i] = kept[i] ? foldOf(keptI++, numKept) : -1;
+    }
+    return folds;
+  }
+
+  /** The fold a group belongs to, as per {@link JointBayesRelationExtractor#foldStart(int, int)} and {@link JointBayesRelationExtractor#foldEnd(int, int)} */
+  private int foldOf(int groupI, int size) {
+    for (int fold = 0; fold < numberOfFolds - 1; ++fold) {
+      if (groupI < foldEnd(fold, size)) { return fold; }
+    }
+    return numberOfFolds - 1;
+  }
+
+  /** Somewhere to put the weighted training examples of the Z classifiers */
+  private static interface ZExamples {
+    public void add(int[] features, int label, double weight);
+  }
+
+  /** The training examples of the Z classifiers for a single group */
+  private static interface ZExampleExtractor {
+    public void extract(int groupI, int[][] group, Set<Integer> positiveLabels, ZExamples examples);
+  }
+
+  /**
+   * Initialize the Z classifiers out of core, with distant supervision: this is the same model as
+   * {@link JointBayesRelationExtractor#initializeZClassifierLocally(KBPDataset, Index, Index)}, but fit by
+   * stochastic gradient descent.
+   */
+  private LinearClassifier<String, String>[] initializeZClassifiersOutOfCore(ColumnarDataset.Reader data, int[] folds) {
+    if (Props.TRAIN_JOINTBAYES_INITIALIZATION != Initialization.DISTSUP) {
+      logger.warn(RED, "Only distant supervision initialization is supported out of core; initializing from DISTANT SUPERVISION");
+    }
+    logger.log("initializing from DISTANT SUPERVISION classifier");
+    final int nilIndex = zLabelIndex.indexOf(RelationMention.UNRELATED);
+    double[][][] weights = new double[numberOfFolds][][];
+    for (int fold = 0; fold < numberOfFolds; ++fold) { weights[fold] = initializeWeights(featureIndex.size(), zLabelIndex.size()); }
+    return trainZClassifiersOutOfCore(data, folds, weights, 0, "Initialize local Z classifiers",
+        (groupI, group, positiveLabels, examples) -> {
+          if (!localDataFilter.filterZ(group, positiveLabels)) { return; }
+          Collection<Integer> labels = positiveLabels.isEmpty() ? Collections.singleton(nilIndex) : positiveLabels;
+          double weight = 1.0 / (double) labels.size();
+          for (int label : labels) {
+            for (int[] sentence : group) { examples.add(sentence, label, weight); }
+          }
+        });
+  }
+
+  /**
+   * Fit the Z classifier of each fold by stochastic gradient descent, over the training examples of every group
+   * not in that fold; the weights of each fold are updated on their own thread, as each chunk is read.
+   *
+   * @param data The dataset to stream the groups from.
+   * @param folds The fold of each group, or -1 if the group is filtered out; see {@link JointBayesRelationExtractor#foldsOutOfCore(ColumnarDataset.Reader)}.
+   * @param weights The initial weights of each fold's classifier. These are updated in place.
+   * @param round The number of times the classifiers have been fit already; the learning rate decays with this.
+   * @param title The name of this training round, for logging.
+   * @param extractor The training examples of each group.
+   * @return The fit classifiers.
+   */
+  @SuppressWarnings("unchecked")
+  private LinearClassifier<String, String>[] trainZClassifiersOutOfCore(final ColumnarDataset.Reader data,
+                                                                        final int[] folds,
+                                                                        double[][][] weights,
+                                                                        int round,
+                                                                        String title,
+                                                                        final ZExampleExtractor extractor) {
+    forceTrack(title + ": Training Z classifiers out of core");
+    int numSentences = 0;
+    for (int i = 0; i < data.numGroups; ++i) {
+      if (folds[i] >= 0) { numSentences += data.numSentences(i); }
+    }
+    final SGDWeights[] foldWeights = new SGDWeights[numberOfFolds];
+    for (int fold = 0; fold < numberOfFolds; ++fold) {
+      foldWeights[fold] = new SGDWeights(weights[fold], zSigma, Math.max(1, numSentences));
+    }
+    int passes = Math.max(1, Props.TRAIN_JOINTBAYES_OUTOFCORE_PASSES);
+    for (int pass = 0; pass < passes; ++pass) {
+      final double rate = Props.TRAIN_JOINTBAYES_OUTOFCORE_RATE / (1.0 + round * passes + pass);
+      final Random rand = new Random(round * passes + pass);
+      forEachChunk(data, Maybe.Just(rand), (start, chunk) -> {
+        // Visit the groups of the chunk in a random order
+        final int[] order = new int[chunk.size()];
+        for (int i = 0; i < order.length; ++i) { order[i] = i; }
+        for (int i = order.length - 1; i > 0; --i) {
+          int j = rand.nextInt(i + 1);
+          int tmp = order[i];
+          order[i] = order[j];
+          order[j] = tmp;
+        }
+        ArrayList<Runnable> threads = new ArrayList<Runnable>();
+        for (int fold = 0; fold < numberOfFolds; ++fold) {
+          final int myFold = fold;
+          threads.add(() -> {
+            for (int i : order) {
+              int groupI = start + i;
+              if (folds[groupI] < 0 || folds[groupI] == myFold) { continue; }
+              extractor.extract(groupI, chunk.getGroup(i), chunk.getPositiveLabelIndices(i),
+                  (features, label, weight) -> foldWeights[myFold].update(features, label, weight, rate));
+            }
+          });
+        }
+        Redwood.Util.threadAndRun("Updating Z classifiers with groups " + start + " to " + (start + chunk.size()), threads, numberOfThreads);
+      });
+    }
+    LinearClassifier<String, String>[] classifiers = new LinearClassifier[numberOfFolds];
+    for (int fold = 0; fold < numberOfFolds; ++fold) {
+      classifiers[fold] = new LinearClassifier<String, String>(foldWeights[fold].finish(), featureIndex, zLabelIndex);
+    }
+    endTrack(title + ": Training Z classifiers out of core");
+    return classifiers;
+  }
+
+  /**
+   * The weights of a multiclass logistic regression, being fit by stochastic gradient descent with a Gaussian prior.
+   * The prior is applied lazily, as a common scale on every weight, so that each update only touches the
+   * weights of the features present.
+   */
+  private static class SGDWeights {
+    private final double[][] weights;
+    private final double[] scores;
+    /** The amount every weight shrinks by (per unit of learning rate) with each example */
+    private final double decayPerExample;
+    private double scale = 1.0;
+
+    private SGDWeights(double[][] weights, double sigma, int numExamples) {
+      this.weights = weights;
+      this.scores = new double[weights.length == 0 ? 0 : weights[0].length];
+      this.decayPerExample = 1.0 / (sigma * sigma * numExamples);
+    }
+
+    /** Take a gradient step on the log likelihood of a single example */
+    private void update(int[] features, int label, double weight, double rate) {
+      // Apply the prior
+      scale *= Math.max(0.5, 1.0 - rate * decayPerExample);
+      if (scale < 1e-6) { finish(); }
+      // Compute the label distribution
+      Arrays.fill(scores, 0.0);
+      for (int feature : features) {
+        double[] row = weights[feature];
+        for (int l = 0; l < scores.length; ++l) { scores[l] += row[l]; }
+      }
+      double max = Double.NEGATIVE_INFINITY;
+      for (int l = 0; l < scores.length; ++l) { scores[l] *= scale; max = Math.max(max, scores[l]); }
+      double total = 0.0;
+      for (int l = 0; l < scores.length; ++l) { scores[l] = Math.exp(scores[l] - max); total += scores[l]; }
+      // Step along the gradient: (observed - expected) counts
+      double step = rate * weight / scale;
+      for (int l = 0; l < scores.length; ++l) {
+        double gradient = (l == label ? 1.0 : 0.0) - scores[l] / total;
+        if (gradient == 0.0) { continue; }
+        for (int feature : features) { weights[feature][l] += step * gradient; }
+      }
+    }
+
+    /** Fold the scale back into the weights, and return them */
+    private double[][] finish() {
+      if (scale != 1.0) {
+        for (double[] row : weights) {
+          for (int l = 0; l < row.length; ++l) { row[l] *= scale; }
+        }
+        scale = 1.0;
+      }
+      return weights;
+    }
+  }
+
+  /** Learn the weights of each of the top-level two-class classifiers, from the Y datasets of the last E step */
+  private void trainYClassifiers(LinearClassifierFactory<String, String> yFactory,
+                                 Map<String, RVFDataset<String, String>> yDatasets,
+                                 int epoch) {
+    ArrayList<Runnable> threads = new ArrayList<Runnable>();
+    for (String yLabel : yLabelIndex) {
+      Runnable r = createYClassifierTrainer(yFactory, yDatasets, yLabel, epoch);
+      threads.add(r);
+    }
+    if (partOfEnsemble && Props.TRAIN_JOINTBAYES_MULTITHREAD) {
+      // Case: part of ensemble; custom multithreading
+      log("EPOCH " + epoch + ": Training Y classifiers");
+      ExecutorService threadPool = Executors.newFixedThreadPool(Math.max(1, Execution.threads / Props.TRAIN_ENSEMBLE_NUMCOMPONENTS));
+      for( Runnable thread : threads) { threadPool.submit(thread); }
+      threadPool.shutdown();
+      try {
+        threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    } else {
+      Redwood.Util.threadAndRun("EPOCH " + epoch + ": Training Y classifiers", threads, numberOfThreads);
+    }
+  }
+
   private int[] randomizeGroup(int[][] group, Maybe<String>[] knownLabels, int randomSeed) {
     assert(group.length == knownLabels.length);
     Random rand = new Random(randomSeed);
@@ -1371,6 +1834,35 @@ public class JointBayesRelationExtractor extends RelationClassifier {
     return localClassifiers;
   }
 
+  /**
+   * Load the initial models from {@link JointBayesRelationExtractor#initialModelPath}, if we should and we can.
+   * @param numFeatures The number of features in the dataset being trained on.
+   * @return True if usable initial models were loaded.
+   */
+  private boolean loadInitialModelsIfAvailable(int numFeatures) {
+    if(initialModelPath != null && new File(initialModelPath).exists() && Props.TRAIN_JOINTBAYES_LOADINITMODEL) {
+      // Try to load initial model
+      try {
+        loadInitialModels(initialModelPath);
+        if (numFeatures > this.featureIndex.size()) {
+          logger.warn(RED, "Loaded an initial model with fewer features than the dataset! Ignoring...");
+        } else {
+          return true;
+        }
+        // yClassifiers = initializeYClassifiersWithAtLeastOnce(yLabelIndex);
+      } catch (Exception e1) {
+        throw new RuntimeException(e1);
+      }
+    } else if (Props.TRAIN_JOINTBAYES_LOADINITMODEL) {
+      if (initialModelPath == null) {
+        logger.warn(RED, "Cannot load initial model: no initial model path");
+      } else if (!new File(initialModelPath).exists()) {
+        logger.warn(RED, "Cannot load initial model: model does not exist at " + initialModelPath);
+      }
+    }
+    return false;
+  }
+
   @SuppressWarnings("unchecked")
   private void loadInitialModels(String path) throws IOException, ClassNotFoundException {
     InputStream is = new FileInputStream(path);
@@ -1917,7 +2409,7 @@ public class JointBayesRelationExtractor extends RelationClassifier {
    * Implements weighted voting over the different Z classifiers in each fold
    * @return Probabilities (NOT log probs!) for each known label
    */
-  private Counter<String> classifyLocally(Collection<String> sentence) {
+  Counter<String> classifyLocally(Collection<String> sentence) {
     Datum<String, String> datum = new BasicDatum<String, String>(sentence);
 
     if(localClassificationMode == LOCAL_CLASSIFICATION_MODE.WEIGHTED_VOTE) {
@@ -1992,9 +2484,66 @@ public class JointBayesRelationExtractor extends RelationClassifier {
     return yLabels;
   }
 
+  /**
+   * A faster equivalent of {@link JointBayesRelationExtractor#classifyLocally(Collection)} for classifying many sentences.
+   * The features of a sentence are looked up once, rather than once per fold, and scored directly against the weights
+   * of the local classifiers.
+   * This is only possible if the local classifiers share their feature and label indices, as they do when trained
+   * or loaded together.
+   */
+  Maybe<Function<Collection<String>, Counter<String>>> batchLocalClassifier() {
+    if (localClassificationMode == LOCAL_CLASSIFICATION_MODE.WEIGHTED_VOTE && zClassifiers == null) { return Maybe.Nothing(); }
+    final List<LinearClassifier<String, String>> models = (localClassificationMode == LOCAL_CLASSIFICATION_MODE.WEIGHTED_VOTE)
+        ? Arrays.asList(zClassifiers) : Collections.singletonList(zSingleClassifier);
+    if (models.isEmpty() || models.get(0) == null) { return Maybe.Nothing(); }
+    final Index<String> features = models.get(0).featureIndex();
+    final Index<String> labels = models.get(0).labelIndex();
+    final double[][][] weights = new double[models.size()][][];
+    for (int m = 0; m < weights.length; ++m) {
+      LinearClassifier<String, String> model = models.get(m);
+      if (model == null || model.featureIndex() != features || model.labelIndex() != labels) { return Maybe.Nothing(); }
+      weights[m] = model.weights();
+    }
+    Function<Collection<String>, Counter<String>> classifier = sentence -> {
+      // Look up the features
+      int[] featureIds = new int[sentence.size()];
+      int numFeatures = 0;
+      for (String feature : sentence) {
+        int id = features.indexOf(feature);
+        if (id >= 0) { featureIds[numFeatures++] = id; }
+      }
+      // Average P(z | x) over the models
+      double[] sumProbs = new double[labels.size()];
+      double[] scores = new double[labels.size()];
+      for (double[][] modelWeights : weights) {
+        Arrays.fill(scores, 0.0);
+        for (int k = 0; k < numFeatures; ++k) {
+          double[] featureWeights = modelWeights[featureIds[k]];
+          for (int l = 0; l < scores.length; ++l) { scores[l] += featureWeights[l]; }
+        }
+        double logTotal = ArrayMath.logSum(scores);
+        for (int l = 0; l < scores.length; ++l) { sumProbs[l] += Math.exp(scores[l] - logTotal); }
+      }
+      Counter<String> probs = new ClassicCounter<String>();
+      for (int l = 0; l < sumProbs.length; ++l) { probs.setCount(labels.get(l), sumProbs[l] / weights.length); }
+      return probs;
+    };
+    return Maybe.Just(classifier);
+  }
+
+  /**
+   * Classifies the groups in parallel, as the superclass does, but scores all of their sentences
+   * with {@link JointBayesRelationExtractor#batchLocalClassifier()}.
+   */
+  @Override
+  public List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> classifyRelations(final List<SentenceGroup> inputs, final List<Maybe<CoreMap[]>> rawSentences) {
+    final Function<Collection<String>, Counter<String>> localClassifier = batchLocalClassifier().getOrElse(this::classifyLocally);
+    return parallelMap(inputs.size(), i -> classifyRelations(inputs.get(i), rawSentences.get(i), Props.TRAIN_JOINTBAYES_OUTDISTRIBUTION, localClassifier));
+  }
+
   @Override
   public Pair<Double, Maybe<KBPRelationProvenance>> classifyRelation(SentenceGroup input, RelationType relation, Maybe<CoreMap[]> rawSentences) {
-    Counter<Pair<String, Maybe<KBPRelationProvenance>>> predictions =  classifyRelations(input, rawSentences, Props.TRAIN_JOINTBAYES_OUTDISTRIBUTION_TYPES.Y_GIVEN_ZSTAR);
+    Counter<Pair<String, Maybe<KBPRelationProvenance>>> predictions =  classifyRelations(input, rawSentences, Props.TRAIN_JOINTBAYES_OUTDISTRIBUTION_TYPES.Y_GIVEN_ZSTAR, this::classifyLocally);
     for (Map.Entry<Pair<String, Maybe<KBPRelationProvenance>>, Double> entry : predictions.entrySet()) {
       if (entry.getKey().first.equals(relation.canonicalName)) { return Pair.makePair(entry.getValue(), entry.getKey().second); }
     }
@@ -2003,10 +2552,11 @@ public class JointBayesRelationExtractor extends RelationClassifier {
 
   @Override
   public Counter<Pair<String, Maybe<KBPRelationProvenance>>> classifyRelations(SentenceGroup input, Maybe<CoreMap[]> rawSentences) {
-    return classifyRelations(input, rawSentences, Props.TRAIN_JOINTBAYES_OUTDISTRIBUTION);
+    return classifyRelations(input, rawSentences, Props.TRAIN_JOINTBAYES_OUTDISTRIBUTION, this::classifyLocally);
   }
 
-  private Counter<Pair<String, Maybe<KBPRelationProvenance>>> classifyRelations(SentenceGroup input, Maybe<CoreMap[]> rawSentences, Props.TRAIN_JOINTBAYES_OUTDISTRIBUTION_TYPES outputType) {
+  private Counter<Pair<String, Maybe<KBPRelationProvenance>>> classifyRelations(SentenceGroup input, Maybe<CoreMap[]> rawSentences, Props.TRAIN_JOINTBAYES_OUTDISTRIBUTION_TYPES outputType,
+                                                                                Function<Collection<String>, Counter<String>> localClassifier) {
     List<Collection<String>> sentences = RelationClassifier.tupleToFeatureList(input);
     // Variables of interest (filled in below)
     String[]           zLabelsGivenX = new String[sentences.size()];
@@ -2024,7 +2574,7 @@ public class JointBayesRelationExtractor extends RelationClassifier {
     for (int i = 0; i < sentences.size(); i++) {
       // Classify P(zi | xi)
       Collection<String> sentence = sentences.get(i);
-      Counter<String> pZGivenXi = classifyLocally(sentence);
+      Counter<String> pZGivenXi = localClassifier.apply(sentence);
       // Compute Log P(zi | xi)
       pZGivenX[i] = new ClassicCounter<String>();
       for(String l: pZGivenXi.keySet()) {
@@ -3,6 +3,7 @@ package edu.stanford.nlp.kbp.slotfilling.classify;
 import edu.stanford.nlp.kbp.common.Maybe;
 import edu.stanford.nlp.ling.BasicDatum;
 import edu.stanford.nlp.ling.Datum;
+import edu.stanford.nlp.util.Execution;
 import edu.stanford.nlp.util.HashIndex;
 import edu.stanford.nlp.util.Index;
 import edu.stanford.nlp.util.Pair;
@@ -12,11 +13,15 @@ import java.lang.reflect.Array;
 import java.util.*;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.err;
+import static edu.stanford.nlp.util.logging.Redwood.Util.threadAndRun;
 
 @SuppressWarnings("unchecked")
 public class KBPDataset<L, F> implements Serializable {
   private static final long serialVersionUID = 1L;
-  
+
+  /** The fewest groups worth handing to a thread of their own, when counting, remapping or shuffling */
+  private static final int MIN_GROUPS_PER_THREAD = 10000;
+
   public final Index<L> labelIndex;
   private  Index<F> featureIndex;
 
@@ -66,6 +71,12 @@ public class KBPDataset<L, F> implements Serializable {
   /** The size of the dataset, in examples */
   protected int size;
 
+  /**
+   * If this dataset has been {@link KBPDataset#compact() compacted}, its contents; in this case
+   * {@link KBPDataset#data}, the label arrays and {@link KBPDataset#sentenceGlossKeys} are all null.
+   */
+  protected FlatDatasetStorage flat = null;
+
   public KBPDataset() {
     this(10);
   }
@@ -129,34 +140,93 @@ public class KBPDataset<L, F> implements Serializable {
   public int numFeatures() { return featureIndex.size(); }
 
   public int numClasses() { return labelIndex.size(); }
+
+  /**
+   * Move the contents of this dataset into flat storage (see {@link FlatDatasetStorage}), which takes up
+   * a fraction of the heap of the nested arrays and hash sets the dataset is built up in.
+   * The accessors for a single group (e.g., {@link KBPDataset#getDatumGroup(int)}, {@link KBPDataset#getGroup(int)},
+   * {@link KBPDataset#getPositiveLabelIndices(int)}) read the flat storage directly; the accessors for the
+   * arrays backing the dataset (e.g., {@link KBPDataset#getDataArray()}), as well as adding or shuffling data,
+   * expand the dataset back out again.
+   * @return This dataset, for chaining.
+   */
+  public KBPDataset<L, F> compact() {
+    if (flat == null) {
+      flat = new FlatDatasetStorage(size, data, posLabels, negLabels, unkLabels, origPosLabels, origNegLabels, sentenceGlossKeys);
+      data = null;
+      posLabels = null;
+      negLabels = null;
+      unkLabels = null;
+      origPosLabels = null;
+      origNegLabels = null;
+      sentenceGlossKeys = null;
+    }
+    return this;
+  }
+
+  /** Whether this dataset is currently in flat storage; see {@link KBPDataset#compact()} */
+  public boolean isCompact() { return flat != null; }
+
+  /** If this dataset is compacted, expand it back out into its mutable arrays. */
+  protected void expand() {
+    if (flat != null) {
+      data = flat.dataArray();
+      posLabels = flat.positiveLabelsArray();
+      negLabels = flat.negativeLabelsArray();
+      unkLabels = flat.unknownLabelsArray();
+      origPosLabels = flat.originalPositiveLabelsArray();
+      origNegLabels = flat.originalNegativeLabelsArray();
+      sentenceGlossKeys = flat.glossKeysArray();
+      flat = null;
+    }
+  }
   
   public Set<Integer> [] getPositiveLabelsArray() {
+    expand();
     posLabels = trimToSize(posLabels);
     return posLabels;
   }
+
+  /** The indices of the positive labels of a group; this should not be modified. */
+  public Set<Integer> getPositiveLabelIndices(int i) {
+    return flat != null ? flat.positiveLabels(i) : posLabels[i];
+  }
   
   public Set<L> getPositiveLabels(int i) {
-    Set<Integer> positiveIndices = posLabels[i];
+    Set<Integer> positiveIndices = getPositiveLabelIndices(i);
     return getLabels(positiveIndices);
   }
   
   public Set<Integer> [] getNegativeLabelsArray() {
+    expand();
     negLabels = trimToSize(negLabels);
     return negLabels;
   }
+
+  /** The indices of the negative labels of a group; this should not be modified. */
+  public Set<Integer> getNegativeLabelIndices(int i) {
+    return flat != null ? flat.negativeLabels(i) : negLabels[i];
+  }
   
   public Set<L> getNegativeLabels(int i) {
-    Set<Integer> negativeIndices = negLabels[i];
+    Set<Integer> negativeIndices = getNegativeLabelIndices(i);
     return getLabels(negativeIndices);
   }
 
   public Set<Integer> [] getUnknownLabelsArray() {
+    expand();
     unkLabels = trimToSize(unkLabels);
     return unkLabels;
   }
 
+  /** The indices of the unknown labels of a group; this should not be modified. */
+  public Set<Integer> getUnknownLabelIndices(int i) {
+    return flat != null ? flat.unknownLabels(i) : unkLabels[i];
+  }
+
   // Make a copy of the positive/negative labels and save it
   public void finalizeLabels() {
+    expand();
     posLabels = trimToSize(posLabels);
     negLabels = trimToSize(negLabels);
     origPosLabels = copyLabels(posLabels);
@@ -165,12 +235,13 @@ public class KBPDataset<L, F> implements Serializable {
 
   // Restores the positive/negative label from the original
   public void restoreLabels() {
+    expand();
     posLabels = copyLabels(origPosLabels);
     negLabels = copyLabels(origNegLabels);
   }
 
   public Set<L> getUnknownLabels(int i) {
-    Set<Integer> unkIndices = unkLabels[i];
+    Set<Integer> unkIndices = getUnknownLabelIndices(i);
     return getLabels(unkIndices);
   }
 
@@ -195,13 +266,19 @@ public class KBPDataset<L, F> implements Serializable {
   }
 
   public int[][][] getDataArray() {
+    expand();
     data = trimToSize(data);
     return data;
   }
 
+  /** The features of each sentence in a group; this should not be modified. */
+  public int[][] getGroup(int i) {
+    return flat != null ? flat.group(i) : data[i];
+  }
+
   public List<Datum<L, F>> getDatumGroup(int i) {
     List<Datum<L, F>> result = new ArrayList<>();
-    int[][] sentences = data[i];
+    int[][] sentences = getGroup(i);
     for (int[] sentence : sentences) {
       Collection<F> features = featureIndex.objects(sentence);
       result.add(new BasicDatum<L, F>(features));
@@ -210,7 +287,7 @@ public class KBPDataset<L, F> implements Serializable {
   }
 
   public int getNumSentencesInGroup(int i) {
-    return data[i].length;
+    return flat != null ? flat.numSentences(i) : data[i].length;
   }
   
   @SuppressWarnings("unchecked")
@@ -222,43 +299,85 @@ public class KBPDataset<L, F> implements Serializable {
     return newI;
   }
 
-  private <T> void swap(T[] array, int i, int j) {
-    T tmp = array[i];
-    array[i] = array[j];
-    array[j] = tmp;
+  /** Something to run over a block [start, end) of the groups (or features) of this dataset */
+  private static interface Block {
+    public void run(int blockI, int start, int end);
+  }
+
+  /** The number of blocks to split n items into: one per thread, but not so many that each block is tiny */
+  private static int numBlocks(int n) {
+    return Math.max(1, Math.min(Execution.threads, n / MIN_GROUPS_PER_THREAD));
+  }
+
+  /** Run a task over each of the given number of blocks of [0, n), in parallel if there's more than one block */
+  private static void forEachBlock(String title, int n, int numBlocks, final Block task) {
+    if (numBlocks <= 1) {
+      task.run(0, 0, n);
+      return;
+    }
+    List<Runnable> blocks = new ArrayList<>();
+    int blockSize = (n + numBlocks - 1) / numBlocks;
+    for (int blockI = 0; blockI < numBlocks; ++blockI) {
+      final int block = blockI;
+      final int start = Math.min(n, blockI * blockSize);
+      final int end = Math.min(n, start + blockSize);
+      blocks.add(() -> task.run(block, start, end));
+    }
+    threadAndRun(title, blocks, numBlocks);
   }
 
   /**
-   * Randomizes the data array in place
-   * @param randomSeed The random seed to randomize by.
+   * The permutation of the first <code>size</code> groups which the swaps of a Fisher-Yates shuffle with this seed
+   * would produce; that is, the group at index k after the shuffle is the group at index permutation[k] before it.
    */
-  public void randomize(int randomSeed) {
+  private int[] permutation(int randomSeed) {
+    int[] permutation = new int[size];
+    for (int i = 0; i < size; ++i) { permutation[i] = i; }
     Random rand = new Random(randomSeed);
     for(int j = size - 1; j > 0; j --){
       int randIndex = rand.nextInt(j);
+      int tmp = permutation[randIndex];
+      permutation[randIndex] = permutation[j];
+      permutation[j] = tmp;
+    }
+    return permutation;
+  }
 
-      swap(data, randIndex, j);
-      swap(posLabels, randIndex, j);
-      swap(negLabels, randIndex, j);
-      swap(unkLabels, randIndex, j);
-      if (origPosLabels != null) swap(origPosLabels, randIndex, j);
-      if (origNegLabels != null) swap(origNegLabels, randIndex, j);
+  /** Reorder the first <code>size</code> entries of an array, in place, by a permutation from {@link KBPDataset#permutation(int)} */
+  private static <T> void permute(T[] array, int[] permutation) {
+    Object[] original = Arrays.copyOf(array, permutation.length, Object[].class);
+    for (int k = 0; k < permutation.length; ++k) {
+      array[k] = (T) original[permutation[k]];
     }
   }
 
-  public void randomize(int [][] zLabels, int randomSeed) {
-    Random rand = new Random(randomSeed);
-    for(int j = size - 1; j > 0; j --){
-      int randIndex = rand.nextInt(j);
+  /**
+   * Randomizes the data array in place
+   * @param randomSeed The random seed to randomize by.
+   */
+  public void randomize(int randomSeed) {
+    randomize(null, randomSeed);
+  }
 
-      swap(zLabels, randIndex, j);
-      swap(data, randIndex, j);
-      swap(posLabels, randIndex, j);
-      swap(negLabels, randIndex, j);
-      swap(unkLabels, randIndex, j);
-      if (origPosLabels != null) swap(origPosLabels, randIndex, j);
-      if (origNegLabels != null) swap(origNegLabels, randIndex, j);
-    }
+  /**
+   * Randomizes the data array in place, along with the given array of sentence labels (if it's not null).
+   * Only the references to each group are moved; the shuffle is the same as swapping the groups one at a time
+   * with a {@link Random} of this seed, as this method used to do.
+   * Note that the sentence gloss keys and annotated labels are not shuffled.
+   * @param zLabels The sentence labels of each group, to shuffle along with the groups. This may be null.
+   * @param randomSeed The random seed to randomize by.
+   */
+  public void randomize(int [][] zLabels, int randomSeed) {
+    expand();
+    final int[] permutation = permutation(randomSeed);
+    List<Object[]> arrays = new ArrayList<>();
+    arrays.addAll(Arrays.asList(data, posLabels, negLabels, unkLabels));
+    if (zLabels != null) arrays.add(zLabels);
+    if (origPosLabels != null) arrays.add(origPosLabels);
+    if (origNegLabels != null) arrays.add(origNegLabels);
+    final List<Object[]> toPermute = arrays;
+    forEachBlock("Shuffling " + size + " groups", toPermute.size(), size < MIN_GROUPS_PER_THREAD ? 1 : Math.min(Execution.threads, toPermute.size()),
+        (blockI, start, end) -> { for (int i = start; i < end; ++i) { permute(toPermute.get(i), permutation); } });
   }
   
   /**
@@ -267,13 +386,36 @@ public class KBPDataset<L, F> implements Serializable {
    * @return an array containing the counts (indexed by index)
    */
   public float[] getFeatureCounts() {
-    float[] counts = new float[featureIndex.size()];
-    for (int i = 0; i < size; i++) {
-      for (int j = 0; j < data[i].length; j++) {
-        for(int k = 0; k < data[i][j].length; k ++) {
-          counts[data[i][j][k]] += 1.0;
+    // Count into an int array per thread, and sum them at the end
+    final int numFeatures = featureIndex.size();
+    final int[][] blockCounts;
+    if (flat != null) {
+      // (a compacted dataset is split by features rather than by groups)
+      final FlatDatasetStorage flat = this.flat;
+      int numOccurrences = flat.numFeatureOccurrences();
+      blockCounts = new int[numBlocks(numOccurrences / 100)][];
+      forEachBlock("Counting features", numOccurrences, blockCounts.length, (blockI, start, end) -> {
+        int[] counts = new int[numFeatures];
+        flat.countFeatures(counts, start, end);
+        blockCounts[blockI] = counts;
+      });
+    } else {
+      blockCounts = new int[numBlocks(size)][];
+      forEachBlock("Counting features", size, blockCounts.length, (blockI, start, end) -> {
+        int[] counts = new int[numFeatures];
+        for (int i = start; i < end; i++) {
+          for (int[] sentence : data[i]) {
+            for (int feature : sentence) { counts[feature] += 1; }
+          }
         }
-      }
+        blockCounts[blockI] = counts;
+      });
+    }
+    float[] counts = new float[numFeatures];
+    for (int f = 0; f < numFeatures; ++f) {
+      long count = 0;
+      for (int[] block : blockCounts) { count += block[f]; }
+      counts[f] = (float) count;
     }
     return counts;
   }
@@ -283,6 +425,8 @@ public class KBPDataset<L, F> implements Serializable {
    * All features that occur fewer than <i>threshold</i> times are expunged.
    */
   public void applyFeatureCountThreshold(int threshold) {
+    boolean wasCompact = isCompact();
+    expand();
     data = trimToSize(data);
     float[] counts = getFeatureCounts();
     
@@ -307,20 +451,25 @@ public class KBPDataset<L, F> implements Serializable {
     //
     // rebuild the data
     //
-    for (int i = 0; i < size; i++) {
-      for(int j = 0; j < data[i].length; j ++){
-        List<Integer> featList = new ArrayList<>(data[i][j].length);
-        for (int k = 0; k < data[i][j].length; k++) {
-          if (featMap[data[i][j][k]] >= 0) {
-            featList.add(featMap[data[i][j][k]]);
+    final int[] map = featMap;
+    forEachBlock("Remapping features", size, numBlocks(size), (blockI, start, end) -> {
+      for (int i = start; i < end; i++) {
+        for(int j = 0; j < data[i].length; j ++){
+          int[] sentence = data[i][j];
+          int numKept = 0;
+          for (int feature : sentence) {
+            if (map[feature] >= 0) { numKept += 1; }
           }
-        }
-        data[i][j] = new int[featList.size()];
-        for(int k = 0; k < data[i][j].length; k ++) {
-          data[i][j][k] = featList.get(k);
+          int[] remapped = new int[numKept];
+          int k = 0;
+          for (int feature : sentence) {
+            if (map[feature] >= 0) { remapped[k++] = map[feature]; }
+          }
+          data[i][j] = remapped;
         }
       }
-    }
+    });
+    if (wasCompact) { compact(); }
   }
   
 //  public void addDatum(Set<L> yPos, Set<L> yNeg, List<Datum<L, F>> group, Maybe<? extends List<String>> sentenceGlossKeys) {
@@ -343,6 +492,7 @@ public class KBPDataset<L, F> implements Serializable {
       return;
     }
 
+    expand();
     ensureSize();
     
     addPosLabels(yPos);
@@ -377,6 +527,7 @@ public class KBPDataset<L, F> implements Serializable {
    */
   public void addDatum(Set<Integer> yPos, Set<Integer> yNeg, Set<Integer> yUnk, int[][] group, String[] keys,
                        Maybe<L>[] annotatedLabels) {
+    expand();
     ensureSize();
     
     addPosLabelIndices(new HashSet<>(yPos));
@@ -531,7 +682,7 @@ public class KBPDataset<L, F> implements Serializable {
     // Setup Variables
     Pair<Integer, Integer> key = Pair.makePair(-1, -1);
     // Create Structure
-    Maybe<L>[] annotatedLabels = (Maybe<L>[]) new Maybe[data[groupI].length];
+    Maybe<L>[] annotatedLabels = (Maybe<L>[]) new Maybe[getNumSentencesInGroup(groupI)];
     for (int sentI = 0; sentI < annotatedLabels.length; ++sentI) {
       // Get label (if it exists)
       key.first = groupI;
@@ -549,11 +700,11 @@ public class KBPDataset<L, F> implements Serializable {
   }
 
   public String[] getSentenceGlossKey(int i) {
-    return sentenceGlossKeys[i];
+    return flat != null ? flat.glossKeys(i) : sentenceGlossKeys[i];
   }
 
   public String getSentenceGlossKey(int group, int sentence) {
-    return sentenceGlossKeys[group][sentence];
+    return flat != null ? flat.glossKey(group, sentence) : sentenceGlossKeys[group][sentence];
   }
 
   public int countLabels(Set<Integer>[] labels) {
@@ -564,6 +715,16 @@ public class KBPDataset<L, F> implements Serializable {
     return count;
   }
 
+  /** The original positive labels (see {@link KBPDataset#finalizeLabels()}), without expanding a compacted dataset */
+  private Set<Integer>[] originalPositiveLabels() {
+    return flat != null ? flat.originalPositiveLabelsArray() : trimToSize(origPosLabels);
+  }
+
+  /** The original negative labels (see {@link KBPDataset#finalizeLabels()}), without expanding a compacted dataset */
+  private Set<Integer>[] originalNegativeLabels() {
+    return flat != null ? flat.originalNegativeLabelsArray() : trimToSize(origNegLabels);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -576,21 +737,14 @@ public class KBPDataset<L, F> implements Serializable {
       return false;
     if (!labelIndex.equals(that.labelIndex)) return false;
     if (!featureIndex.equals(that.featureIndex)) return false;
-    if (!Arrays.equals(trimToSize(negLabels), trimToSize(that.negLabels))) return false;
-    if (!Arrays.equals(trimToSize(posLabels), trimToSize(that.posLabels))) return false;
-    if (!Arrays.equals(trimToSize(unkLabels), trimToSize(that.unkLabels))) return false;
-    if (!Arrays.equals(trimToSize(origNegLabels), trimToSize(that.origNegLabels))) return false;
-    if (!Arrays.equals(trimToSize(origPosLabels), trimToSize(that.origPosLabels))) return false;
+    if (!Arrays.equals(originalNegativeLabels(), that.originalNegativeLabels())) return false;
+    if (!Arrays.equals(originalPositiveLabels(), that.originalPositiveLabels())) return false;
 
-    if (this.size != that.size) { return false; }
     for (int i = 0; i < this.size; ++i) {
-      if (data[i].length != that.data[i].length) { return false; }
-      for (int j = 0; j < data[i].length; ++j) {
-        if (data[i][j].length != that.data[i][j].length) { return false; }
-        for (int k = 0; k < data[i][j].length; ++k) {
-          if (data[i][j][k] != that.data[i][j][k]) { return false; }
-        }
-      }
+      if (!Objects.equals(getNegativeLabelIndices(i), that.getNegativeLabelIndices(i))) { return false; }
+      if (!Objects.equals(getPositiveLabelIndices(i), that.getPositiveLabelIndices(i))) { return false; }
+      if (!Objects.equals(getUnknownLabelIndices(i), that.getUnknownLabelIndices(i))) { return false; }
+      if (!Arrays.deepEquals(getGroup(i), that.getGroup(i))) { return false; }
     }
 
     return true;
@@ -600,11 +754,13 @@ public class KBPDataset<L, F> implements Serializable {
   public int hashCode() {
     int result = labelIndex.hashCode();
     result = 31 * result + featureIndex.hashCode();
-    result = 31 * result + Arrays.hashCode(posLabels);
-    result = 31 * result + (origPosLabels != null ? Arrays.hashCode(origPosLabels) : 0);
-    result = 31 * result + Arrays.hashCode(negLabels);
-    result = 31 * result + (origNegLabels != null ? Arrays.hashCode(origNegLabels) : 0);
-    result = 31 * result + (unkLabels != null ? Arrays.hashCode(unkLabels) : 0);
+    for (int i = 0; i < size; ++i) {
+      result = 31 * result + Objects.hashCode(getPositiveLabelIndices(i));
+      result = 31 * result + Objects.hashCode(getNegativeLabelIndices(i));
+      result = 31 * result + Objects.hashCode(getUnknownLabelIndices(i));
+    }
+    result = 31 * result + Arrays.hashCode(originalPositiveLabels());
+    result = 31 * result + Arrays.hashCode(originalNegativeLabels());
     result = 31 * result + (annotatedLabels.hashCode());
     result = 31 * result + size;
     return result;
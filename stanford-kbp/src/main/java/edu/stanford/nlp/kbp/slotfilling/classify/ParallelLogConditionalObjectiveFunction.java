@@ -0,0 +1,212 @@
+package edu.stanford.nlp.kbp.slotfilling.classify;
+
+import edu.stanford.nlp.optimization.AbstractCachingDiffFunction;
+import edu.stanford.nlp.optimization.QNMinimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * The objective of a multiclass logistic regression over binary features, with a quadratic prior; that is,
+ * the same objective as the default of a {@link edu.stanford.nlp.classify.LinearClassifierFactory}.
+ * The value and gradient are computed over shards of the data in parallel, each into its own buffer,
+ * and then summed.
+ * Each shard's buffer only covers the features which occur in the shard, so that the shards together take up
+ * memory on the order of the data, rather than a full copy of the weights each.
+ *
+ * <p>
+ *   Parameters are laid out as in {@link edu.stanford.nlp.classify.LogConditionalObjectiveFunction}:
+ *   the weight of feature f for class c is at index f * numClasses + c.
+ * </p>
+ */
+class ParallelLogConditionalObjectiveFunction extends AbstractCachingDiffFunction {
+  private final int[][] data;
+  private final int[] labels;
+  private final int numFeatures;
+  private final int numClasses;
+  private final double sigmaSq;
+  private final ExecutorService pool;
+  private final int[] shardStart;
+  /** The distinct features of each shard, sorted; the gradient buffer of a shard is laid out in this order */
+  private final int[][] shardFeatures;
+  /** The features of each datum, as indices into the features of its shard; null if there is only one shard */
+  private final int[][] shardData;
+  private final double[][] shardDerivatives;
+  private final double[] shardValues;
+
+  ParallelLogConditionalObjectiveFunction(int[][] data, int[] labels, int numFeatures, int numClasses,
+                                          double sigma, ExecutorService pool, int numShards) {
+    this.data = data;
+    this.labels = labels;
+    this.numFeatures = numFeatures;
+    this.numClasses = numClasses;
+    this.sigmaSq = sigma * sigma;
+    this.pool = pool;
+    numShards = Math.max(1, Math.min(numShards, data.length));
+    this.shardStart = new int[numShards + 1];
+    for (int shard = 0; shard <= numShards; ++shard) {
+      shardStart[shard] = (int) (((long) data.length) * shard / numShards);
+    }
+    this.shardDerivatives = new double[numShards][];
+    this.shardValues = new double[numShards];
+    // Map the features of each shard onto a dense range, for its gradient buffer
+    this.shardFeatures = new int[numShards][];
+    if (numShards == 1) {
+      this.shardData = null;
+    } else {
+      this.shardData = new int[data.length][];
+      int[] localIndex = new int[numFeatures];
+      Arrays.fill(localIndex, -1);
+      for (int shard = 0; shard < numShards; ++shard) {
+        int numLocal = 0;
+        for (int d = shardStart[shard]; d < shardStart[shard + 1]; ++d) {
+          for (int feature : data[d]) {
+            if (localIndex[feature] < 0) { localIndex[feature] = numLocal++; }
+          }
+        }
+        int[] features = new int[numLocal];
+        for (int d = shardStart[shard]; d < shardStart[shard + 1]; ++d) {
+          for (int feature : data[d]) { features[localIndex[feature]] = feature; }
+        }
+        Arrays.sort(features);
+        for (int k = 0; k < features.length; ++k) { localIndex[features[k]] = k; }
+        for (int d = shardStart[shard]; d < shardStart[shard + 1]; ++d) {
+          shardData[d] = new int[data[d].length];
+          for (int f = 0; f < data[d].length; ++f) { shardData[d][f] = localIndex[data[d][f]]; }
+        }
+        for (int feature : features) { localIndex[feature] = -1; }
+        shardFeatures[shard] = features;
+      }
+    }
+  }
+
+  @Override
+  public int domainDimension() {
+    return numFeatures * numClasses;
+  }
+
+  /**
+   * The negative log likelihood of the datums [start, end), with its gradient added to the given buffer.
+   * @param gradientFeatures The features of each datum, as indexed in the gradient buffer.
+   */
+  private double calculateShard(double[] x, int start, int end, double[] gradient, int[][] gradientFeatures) {
+    double value = 0.0;
+    double[] scores = new double[numClasses];
+    for (int d = start; d < end; ++d) {
+      int[] features = data[d];
+      Arrays.fill(scores, 0.0);
+      for (int feature : features) {
+        int offset = feature * numClasses;
+        for (int c = 0; c < numClasses; ++c) { scores[c] += x[offset + c]; }
+      }
+      double max = Double.NEGATIVE_INFINITY;
+      for (double score : scores) { max = Math.max(max, score); }
+      double total = 0.0;
+      for (double score : scores) { total += Math.exp(score - max); }
+      double logTotal = max + Math.log(total);
+      value += logTotal - scores[labels[d]];
+      for (int c = 0; c < numClasses; ++c) {
+        double error = Math.exp(scores[c] - logTotal) - (c == labels[d] ? 1.0 : 0.0);
+        for (int feature : gradientFeatures[d]) { gradient[feature * numClasses + c] += error; }
+      }
+    }
+    return value;
+  }
+
+  @Override
+  protected void calculate(final double[] x) {
+    // Likelihood, in parallel
+    if (shardValues.length == 1) {
+      Arrays.fill(derivative, 0.0);
+      value = calculateShard(x, 0, data.length, derivative, data);
+    } else {
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (int shard = 0; shard < shardValues.length; ++shard) {
+        final int myShard = shard;
+        tasks.add(() -> {
+          if (shardDerivatives[myShard] == null) {
+            shardDerivatives[myShard] = new double[shardFeatures[myShard].length * numClasses];
+          } else {
+            Arrays.fill(shardDerivatives[myShard], 0.0);
+          }
+          shardValues[myShard] = calculateShard(x, shardStart[myShard], shardStart[myShard + 1], shardDerivatives[myShard], shardData);
+          return null;
+        });
+      }
+      try {
+        for (Future<Void> future : pool.invokeAll(tasks)) { future.get(); }
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+        throw new RuntimeException(e.getCause());
+      }
+      // (summed in shard order, so the result doesn't depend on scheduling)
+      value = 0.0;
+      Arrays.fill(derivative, 0.0);
+      for (int shard = 0; shard < shardValues.length; ++shard) {
+        double[] shardDerivative = shardDerivatives[shard];
+        int[] features = shardFeatures[shard];
+        for (int k = 0; k < features.length; ++k) {
+          int offset = features[k] * numClasses;
+          int localOffset = k * numClasses;
+          for (int c = 0; c < numClasses; ++c) { derivative[offset + c] += shardDerivative[localOffset + c]; }
+        }
+        value += shardValues[shard];
+      }
+    }
+    // Quadratic prior
+    for (int i = 0; i < x.length; ++i) {
+      value += x[i] * x[i] / (2.0 * sigmaSq);
+      derivative[i] += x[i] / sigmaSq;
+    }
+  }
+
+  /**
+   * Fit a multiclass logistic regression with quasi-Newton, as a {@link edu.stanford.nlp.classify.LinearClassifierFactory}
+   * would, but computing the gradient on several threads.
+   *
+   * @param data The features of each datum.
+   * @param labels The label of each datum.
+   * @param numFeatures The number of features.
+   * @param numClasses The number of labels.
+   * @param sigma The standard deviation of the (quadratic) prior.
+   * @param tolerance The convergence tolerance of the minimizer.
+   * @param initialWeights The weights to start from, indexed by feature then label; or null to start from zero.
+   *                       If this has fewer features or labels than the data, the rest start from zero.
+   * @param numThreads The number of threads to compute the gradient on.
+   * @return The fit weights, indexed by feature then label.
+   */
+  static double[][] minimize(int[][] data, int[] labels, int numFeatures, int numClasses, double sigma,
+                             double tolerance, double[][] initialWeights, int numThreads) {
+    double[] x = new double[numFeatures * numClasses];
+    if (initialWeights != null) {
+      for (int f = 0; f < Math.min(numFeatures, initialWeights.length); ++f) {
+        for (int c = 0; c < Math.min(numClasses, initialWeights[f].length); ++c) { x[f * numClasses + c] = initialWeights[f][c]; }
+      }
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads), runnable -> {
+      Thread thread = new Thread(runnable, "Gradient");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      x = minimize(new ParallelLogConditionalObjectiveFunction(data, labels, numFeatures, numClasses, sigma, pool, numThreads),
+          tolerance, x);
+    } finally {
+      pool.shutdownNow();
+    }
+    double[][] weights = new double[numFeatures][numClasses];
+    for (int f = 0; f < numFeatures; ++f) { System.arraycopy(x, f * numClasses, weights[f], 0, numClasses); }
+    return weights;
+  }
+
+  /** Minimize the given objective with quasi-Newton from the given (flat) weights, as {@link ParallelLogConditionalObjectiveFunction#minimize(int[][], int[], int, int, double, double, double[][], int)} does */
+  static double[] minimize(ParallelLogConditionalObjectiveFunction objective, double tolerance, double[] initial) {
+    QNMinimizer minimizer = new QNMinimizer(15);
+    minimizer.shutUp();
+    return minimizer.minimize(objective, tolerance, initial);
+  }
+}
@@ -6,10 +6,12 @@ import edu.stanford.nlp.kbp.slotfilling.ir.KBPRelationProvenance;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
+import edu.stanford.nlp.math.ArrayMath;
 import edu.stanford.nlp.util.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Function;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.log;
 
@@ -763,6 +765,10 @@ public class PerceptronExtractor extends RelationClassifier {
   }
 
   public Counter<String> classifyMentions(List<Collection<String>> sentences) {
+    return classifyMentions(sentences, localClassifier());
+  }
+
+  private Counter<String> classifyMentions(List<Collection<String>> sentences, Function<Collection<String>, Counter<String>> localClassifier) {
     String[] zLabels = new String[sentences.size()];
     Counter<String> [] zLogProbs = 
       ErasureUtils.uncheckedCast(new Counter[sentences.size()]);
@@ -774,7 +780,7 @@ public class PerceptronExtractor extends RelationClassifier {
     Counter<String> localBest = new ClassicCounter<String>();
     for (int i = 0; i < sentences.size(); i++) {
       Collection<String> sentence = sentences.get(i);
-      Counter<String> probs = classifyLocally(sentence);
+      Counter<String> probs = localClassifier.apply(sentence);
       
       zLogProbs[i] = new ClassicCounter<String>();
       for(String l: probs.keySet()) {
@@ -817,6 +823,17 @@ public class PerceptronExtractor extends RelationClassifier {
     // TODO(gabor) A deeper rewrite than splicing in classifyMentions()
     return RelationClassifier.firstProvenance( classifyMentions(RelationClassifier.tupleToFeatureList(input)), input );
   }
+
+  /**
+   * Classifies the groups in parallel, scoring every sentence in the batch against
+   * the same averaged weights, gathered once.
+   */
+  @Override
+  public List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> classifyRelations(final List<SentenceGroup> inputs, List<Maybe<CoreMap[]>> rawSentences) {
+    final Function<Collection<String>, Counter<String>> localClassifier = localClassifier();
+    return parallelMap(inputs.size(), i ->
+        RelationClassifier.firstProvenance( classifyMentions(RelationClassifier.tupleToFeatureList(inputs.get(i)), localClassifier), inputs.get(i) ));
+  }
   
   private static List<Pair<Integer, Double>> sortPredictions(Counter<Integer> scores) {
     List<Pair<Integer, Double>> sortedScores = new ArrayList<Pair<Integer,Double>>();
@@ -840,26 +857,36 @@ public class PerceptronExtractor extends RelationClassifier {
     });
   }
   
-  private Counter<String> classifyLocally(Collection<String> testDatum) {
-    // fetch all scores 
-    Counter<Integer> allLabelScores = new ClassicCounter<Integer>();
-    // stores all scores also here; needed for the softmax normalization
-    List<Double> scores = new ArrayList<Double>();
-    // scan all labels; this includes NIL, which is needed for proper softmax
-    for(int labelIdx = 0; labelIdx < zWeights.length; labelIdx ++){
-      double score = zWeights[labelIdx].avgDotProduct(testDatum, zFeatureIndex);
-      allLabelScores.setCount(labelIdx, score);
-      scores.add(score);
-    }
-    
-    // convert scores to probabilities using softmax
-    Counter<String> result = new ClassicCounter<String>();
-    for(Integer z: allLabelScores.keySet()){
-      String l = labelIndex.get(z);
-      result.setCount(l, softmax(allLabelScores.getCount(z), scores, gamma));
-    }
-
-    return result;
+  /**
+   * Computes P(z | x) for a sentence, as a softmax over the averaged perceptron scores of every label (including NIL).
+   * The features of the sentence are looked up once for all labels, and the softmax normalizer is computed once.
+   */
+  Function<Collection<String>, Counter<String>> localClassifier() {
+    final double[][] avgWeights = new double[zWeights.length][];
+    for (int labelIdx = 0; labelIdx < zWeights.length; ++labelIdx) { avgWeights[labelIdx] = zWeights[labelIdx].avgWeights; }
+    final Index<String> featureIndex = zFeatureIndex;
+    final Index<String> labels = labelIndex;
+    return testDatum -> {
+      Counter<Integer> vector = new ClassicCounter<Integer>();
+      for (String feat : testDatum) {
+        int idx = featureIndex.indexOf(feat);
+        if (idx >= 0) { vector.incrementCount(idx); }
+      }
+      // scan all labels; this includes NIL, which is needed for proper softmax
+      double[] scores = new double[avgWeights.length];
+      double[] scaledScores = new double[avgWeights.length];
+      for (int labelIdx = 0; labelIdx < avgWeights.length; labelIdx ++) {
+        scores[labelIdx] = LabelWeights.dotProduct(vector, avgWeights[labelIdx]);
+        scaledScores[labelIdx] = gamma * scores[labelIdx];
+      }
+      // convert scores to probabilities using softmax
+      double logNormalizer = ArrayMath.logSum(scaledScores);
+      Counter<String> result = new ClassicCounter<String>();
+      for (int labelIdx = 0; labelIdx < scores.length; labelIdx ++) {
+        result.setCount(labels.get(labelIdx), Math.exp((gamma * scores[labelIdx]) - logNormalizer));
+      }
+      return result;
+    };
   }
 
   public static PerceptronExtractor load(String modelPath, Properties props) throws IOException, ClassNotFoundException {
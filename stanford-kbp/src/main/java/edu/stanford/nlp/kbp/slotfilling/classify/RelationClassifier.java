@@ -10,11 +10,16 @@ import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.Execution;
 import edu.stanford.nlp.util.MetaClass;
 import edu.stanford.nlp.util.Pair;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.*;
 
@@ -51,6 +56,28 @@ public abstract class RelationClassifier implements Serializable {
     return scores;
   }
 
+  /**
+   * Classify a batch of sentence groups, e.g., every candidate slot fill of an entity.
+   * The i'th element of the result is the multinomial of
+   * {@link RelationClassifier#classifyRelations(SentenceGroup, Maybe)} for the i'th group.
+   *
+   * By default, this classifies the groups one at a time.
+   * Classifiers whose single-group method is safe to call concurrently, or which can share work across groups,
+   * should override this; e.g., to classify the groups with {@link RelationClassifier#parallelMap(int, IntFunction)}.
+   *
+   * @param inputs The featurized inputs
+   * @param rawSentences The unfeaturized raw sentences of each input, if available
+   * @return A multinomial over possible relations for each input, in the same order as the inputs
+   */
+  public List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> classifyRelations(final List<SentenceGroup> inputs, final List<Maybe<CoreMap[]>> rawSentences) {
+    if (inputs.size() != rawSentences.size()) {
+      throw new IllegalArgumentException("Got " + inputs.size() + " inputs but " + rawSentences.size() + " raw sentence arrays");
+    }
+    List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> results = new ArrayList<>();
+    for (int i = 0; i < inputs.size(); ++i) { results.add(classifyRelations(inputs.get(i), rawSentences.get(i))); }
+    return results;
+  }
+
   /**
    * Make an individual judgement on whether a particular relation holds, given an input datum:
    * P(relation=r | sentences).
@@ -118,6 +145,78 @@ public abstract class RelationClassifier implements Serializable {
   // Static Methods
   //
 
+  /**
+   * The threads shared by every call to {@link RelationClassifier#parallelMap(int, IntFunction)}; created on first use.
+   * This is sized once, from {@link Execution#threads}: the calling thread takes part as well.
+   */
+  private static ExecutorService parallelMapPool = null;
+  private static int parallelMapPoolSize = 0;
+
+  private static synchronized ExecutorService parallelMapPool() {
+    if (parallelMapPool == null) {
+      parallelMapPoolSize = Math.max(1, Execution.threads - 1);
+      parallelMapPool = Executors.newFixedThreadPool(parallelMapPoolSize, runnable -> {
+        Thread thread = new Thread(runnable, "Relation Classifier");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return parallelMapPool;
+  }
+
+  /**
+   * Compute fn(0), ..., fn(n - 1) on the calling thread, helped by a shared pool of threads (if {@link Execution#threads} > 1).
+   * The threads take the next index as they free up, so that a few large sentence groups don't hold up the rest.
+   * As the calling thread takes part, this always makes progress, even if the pool is busy with other callers.
+   *
+   * @return The results, in order.
+   */
+  protected static <E> List<E> parallelMap(int n, final IntFunction<E> fn) {
+    final List<E> results = new ArrayList<>(Collections.<E>nCopies(n, null));
+    if (Execution.threads <= 1 || n <= 1) {
+      for (int i = 0; i < n; ++i) { results.set(i, fn.apply(i)); }
+      return results;
+    }
+    final AtomicInteger next = new AtomicInteger(0);
+    final int size = n;
+    Runnable worker = () -> {
+      int i;
+      while ((i = next.getAndIncrement()) < size) {
+        E result = fn.apply(i);
+        synchronized (results) { results.set(i, result); }
+      }
+    };
+    ExecutorService pool = parallelMapPool();
+    List<Future<?>> helpers = new ArrayList<>();
+    List<AtomicBoolean> started = new ArrayList<>();
+    int numHelpers;
+    synchronized (RelationClassifier.class) { numHelpers = Math.min(parallelMapPoolSize, n - 1); }
+    for (int t = 0; t < numHelpers; ++t) {
+      final AtomicBoolean helperStarted = new AtomicBoolean(false);
+      started.add(helperStarted);
+      helpers.add(pool.submit(() -> { if (helperStarted.compareAndSet(false, true)) { worker.run(); } }));
+    }
+    try {
+      worker.run();
+      // Every index has been handed out by now, so helpers which haven't started have nothing left to do;
+      // only wait for the ones which have. (so, callers on the pool's own threads can't deadlock)
+      for (int t = 0; t < numHelpers; ++t) {
+        if (!started.get(t).compareAndSet(false, true)) { helpers.get(t).get(); }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      // (if anything failed, stop handing out work, and don't wait for the helpers)
+      next.set(size);
+      for (Future<?> future : helpers) { future.cancel(false); }
+    }
+    synchronized (results) { return results; }
+  }
+
   /** * Converts a KBPTuple into a list of feature sets for classification. */
   protected static List<Collection<String>> tupleToFeatureList(SentenceGroup tuple) {
     List<Collection<String>> mentions = new ArrayList<>();
@@ -57,15 +57,22 @@ public class EntityGraph extends DirectedMultiGraph<KBPEntity, KBPSlotFill> {
     }
 
     // Now check if the slot type already exists; if so, then merge it.
-    List<KBPSlotFill> mergableEdges = new ArrayList<>();
+    // The edges between two vertices are already indexed by (source, destination), so this is a scan over the
+    // (usually very few) relations holding between the pair.
+    List<KBPSlotFill> mergableEdges = null;
     for( KBPSlotFill edge_ : getEdges(source, destination) ) {
-      if( edge_.key.relationName.equals(edge.key.relationName) ) mergableEdges.add(edge);
+      if( edge_.key.relationName.equals(edge.key.relationName) ) {
+        if (mergableEdges == null) { mergableEdges = new ArrayList<>(1); }
+        mergableEdges.add(edge_);
+      }
     }
-    for( KBPSlotFill edge_ : mergableEdges ) {
-      // Firstly remove the edge.
-      removeEdge(source, destination, edge_);
-      // Then merge this with that.
-      edge = mergeEdges( edge, edge_ );
+    if (mergableEdges != null) {
+      for( KBPSlotFill edge_ : mergableEdges ) {
+        // Firstly remove the edge.
+        removeEdge(source, destination, edge_);
+        // Then merge this with that.
+        edge = mergeEdges( edge, edge_ );
+      }
     }
     //noinspection AssertWithSideEffects
     assert( edge.key.getEntity().equals(source) );
@@ -111,7 +118,7 @@ public class EntityGraph extends DirectedMultiGraph<KBPEntity, KBPSlotFill> {
 
   public boolean isValidGraph() {
     for(KBPEntity head : getAllVertices() ) {
-      for(KBPEntity tail : getAllVertices() )  {
+      for(KBPEntity tail : getChildren(head) )  {  // (any other tail has no edges from this head)
         for(KBPSlotFill fill : getEdges(head, tail) ) {
           KBPEntity head_ = fill.key.getEntity();
           KBPEntity tail_ = fill.key.getSlotEntity().orCrash();
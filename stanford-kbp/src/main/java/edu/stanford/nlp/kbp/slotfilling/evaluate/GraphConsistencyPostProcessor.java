@@ -1,5 +1,11 @@
 package edu.stanford.nlp.kbp.slotfilling.evaluate;
 
+import edu.stanford.nlp.kbp.common.KBPEntity;
+import edu.stanford.nlp.kbp.common.Maybe;
+import edu.stanford.nlp.kbp.common.RelationType;
+
+import java.util.*;
+
 /**
  * Performs a number of consistency steps on the graph
  */
@@ -9,17 +15,66 @@ public abstract class GraphConsistencyPostProcessor {
     return postProcess(graph, GoldResponseSet.empty());
   }
 
+  /**
+   * A processor which can run one vertex at a time (see {@link VertexLocal#processVertex(EntityGraph, KBPEntity, GoldResponseSet)}),
+   * reading and writing only the given relations.
+   * Vertex-local processors which touch disjoint relations do not see each other's work,
+   * and so can share a single traversal of the graph (see {@link GraphConsistencyPostProcessor#all(GraphConsistencyPostProcessor...)}).
+   */
+  public static abstract class VertexLocal extends GraphConsistencyPostProcessor {
+    /** The relations this processor reads and writes */
+    protected abstract Set<RelationType> relations();
+
+    /**
+     * Run this processor on a single vertex of the graph, in place.
+     * Running this on every vertex of the graph, in order, must be the same as {@link GraphConsistencyPostProcessor#postProcess(EntityGraph, GoldResponseSet)}.
+     */
+    protected abstract void processVertex(EntityGraph graph, KBPEntity vertex, GoldResponseSet checklist);
+
+    @Override
+    public EntityGraph postProcess(EntityGraph graph, GoldResponseSet checklist) {
+      for (KBPEntity vertex : new ArrayList<>(graph.getAllVertices())) {
+        processVertex(graph, vertex, checklist);
+      }
+      return graph;
+    }
+  }
+
   /**
    * Create a graph consistency processor which runs all of its constituents in sequence.
+   * Consecutive processors which run one vertex at a time on disjoint relations are fused into a single traversal of the graph.
    * @param processors The constituent processors to run.
    * @return A new processor which runs all of the constituents.
    */
   public static GraphConsistencyPostProcessor all(final GraphConsistencyPostProcessor... processors) {
+    // Group the processors into passes
+    final List<List<GraphConsistencyPostProcessor>> passes = new ArrayList<>();
+    Set<RelationType> passRelations = null;  // null if the last pass can't be extended
+    for (GraphConsistencyPostProcessor processor : processors) {
+      Maybe<Set<RelationType>> relations = processor instanceof VertexLocal
+          ? Maybe.Just(((VertexLocal) processor).relations()) : Maybe.<Set<RelationType>>Nothing();
+      if (passRelations != null && relations.isDefined() && Collections.disjoint(passRelations, relations.get())) {
+        passes.get(passes.size() - 1).add(processor);
+        passRelations.addAll(relations.get());
+      } else {
+        passes.add(new ArrayList<>(Collections.singletonList(processor)));
+        passRelations = relations.isDefined() ? new HashSet<>(relations.get()) : null;
+      }
+    }
+
     return new GraphConsistencyPostProcessor() {
       @Override
       public EntityGraph postProcess(EntityGraph graph, GoldResponseSet checklist) {
-        for (GraphConsistencyPostProcessor processor : processors) {
-          graph = processor.postProcess(graph, checklist);
+        for (List<GraphConsistencyPostProcessor> pass : passes) {
+          if (pass.size() == 1) {
+            graph = pass.get(0).postProcess(graph, checklist);
+          } else {
+            for (KBPEntity vertex : new ArrayList<>(graph.getAllVertices())) {
+              for (GraphConsistencyPostProcessor processor : pass) {
+                ((VertexLocal) processor).processVertex(graph, vertex, checklist);  // only vertex-local processors share a pass
+              }
+            }
+          }
         }
         return graph;
       }
@@ -314,34 +314,36 @@ public class GraphConsistencyPostProcessors {
    * Particularly, follow the trail of alternate names
    * TODO(gabor) perhaps this should fall out of Markov Logic?
    */
-  public static class TransitiveRelationPostProcessor extends GraphConsistencyPostProcessor {
+  public static class TransitiveRelationPostProcessor extends GraphConsistencyPostProcessor.VertexLocal {
     public static final Collection<RelationType> transitiveRelations = Arrays.asList(
         RelationType.ORG_ALTERNATE_NAMES,
         RelationType.PER_ALTERNATE_NAMES
     );
 
     @Override
-    public EntityGraph postProcess(EntityGraph graph, GoldResponseSet checklist) {
-      for (KBPEntity node1 : graph.getAllVertices()) {
-        for (KBPSlotFill edge1to2 : graph.getOutgoingEdges(node1)) {
-          if (!edge1to2.key.hasKBPRelation()) { continue; }  // ignore unofficial relations
-          if (!transitiveRelations.contains(edge1to2.key.kbpRelation())) { continue; }
-          for (KBPEntity node2 : edge1to2.key.getSlotEntity()) {
-            for (KBPSlotFill edge2to3 : graph.getOutgoingEdges(node2)) {
-              if (!edge2to3.key.hasKBPRelation()) { continue; }  // ignore unofficial relations
-              if (edge1to2.key.kbpRelation() != edge2to3.key.kbpRelation() ||
-                  !transitiveRelations.contains(edge2to3.key.kbpRelation())) { continue; }
-              for (KBPEntity node3 : edge2to3.key.getSlotEntity()) {
-                graph.add(node1, node3, KBPNew.from(node1).slotValue(node3).rel(edge1to2.key.kbpRelation())
-                    .provenance(edge2to3.provenance.orElse(edge1to2.provenance))
-                    .score(Math.min(edge1to2.score.getOrElse(1.0), edge2to3.score.getOrElse(1.0))).KBPSlotFill()
-                );
-              }
+    protected Set<RelationType> relations() {
+      return new HashSet<>(transitiveRelations);
+    }
+
+    @Override
+    protected void processVertex(EntityGraph graph, KBPEntity node1, GoldResponseSet checklist) {
+      for (KBPSlotFill edge1to2 : graph.getOutgoingEdges(node1)) {
+        if (!edge1to2.key.hasKBPRelation()) { continue; }  // ignore unofficial relations
+        if (!transitiveRelations.contains(edge1to2.key.kbpRelation())) { continue; }
+        for (KBPEntity node2 : edge1to2.key.getSlotEntity()) {
+          for (KBPSlotFill edge2to3 : graph.getOutgoingEdges(node2)) {
+            if (!edge2to3.key.hasKBPRelation()) { continue; }  // ignore unofficial relations
+            if (edge1to2.key.kbpRelation() != edge2to3.key.kbpRelation() ||
+                !transitiveRelations.contains(edge2to3.key.kbpRelation())) { continue; }
+            for (KBPEntity node3 : edge2to3.key.getSlotEntity()) {
+              graph.add(node1, node3, KBPNew.from(node1).slotValue(node3).rel(edge1to2.key.kbpRelation())
+                  .provenance(edge2to3.provenance.orElse(edge1to2.provenance))
+                  .score(Math.min(edge1to2.score.getOrElse(1.0), edge2to3.score.getOrElse(1.0))).KBPSlotFill()
+              );
             }
           }
         }
       }
-      return graph;
     }
   }
 
@@ -352,7 +354,7 @@ public class GraphConsistencyPostProcessors {
    * Add edges for all sorts of symmetric relations
    */
   // TODO(arun): Rename to bijective
-  public static class SymmetricFunctionRewritePostProcessor extends GraphConsistencyPostProcessor {
+  public static class SymmetricFunctionRewritePostProcessor extends GraphConsistencyPostProcessor.VertexLocal {
 
     public static final Map<RelationType,RelationType> symmetricPairs;
     static {
@@ -380,32 +382,47 @@ public class GraphConsistencyPostProcessors {
       // Go through each edge in the graph, and if the symmetric version exists, leave it be,
       // else add it with the same weight and justification
       for( Triple<KBPEntity,KBPEntity,List<KBPSlotFill>> edge : CollectionUtils.groupedEdges(graph) ) {
-        KBPEntity head = edge.first;
-        KBPEntity tail = edge.second;
-
-        // Keep track of this list separately (else face the wrath of a concurrent modification error
-        List<KBPSlotFill> additionalSlots = new ArrayList<>();
-
-        for( KBPSlotFill fill : edge.third ) {
-          for( RelationType reln : fill.key.tryKbpRelation() ) {
-            if( symmetricPairs.containsKey(reln) ) {
-              final RelationType reln_ = symmetricPairs.get(reln);
-              // Check if the symmetric relation already holds
-              if( !CollectionUtils.find( graph.getOutgoingEdges(tail), in -> in.key.tryKbpRelation().equalsOrElse( reln_, false )).isDefined() ) {
-                // No? Let's add it
-                additionalSlots.add(KBPNew.from(tail).slotValue(head.name).slotType(head.type).rel(reln_).provenance(fill.provenance).score(fill.score).KBPSlotFill());
-              }
-            }
-          }
-        }
-        for( KBPSlotFill newEdge : additionalSlots )
-          graph.add(tail, head, newEdge);
+        symmetrize(graph, edge.first, edge.second, edge.third);
       }
 
       endTrack("Symmetrize relations");
 
       return graph;
     }
+
+    @Override
+    protected Set<RelationType> relations() {
+      Set<RelationType> relations = new HashSet<>(symmetricPairs.keySet());
+      relations.addAll(symmetricPairs.values());
+      return relations;
+    }
+
+    @Override
+    protected void processVertex(EntityGraph graph, KBPEntity head, GoldResponseSet checklist) {
+      for (KBPEntity tail : new ArrayList<>(graph.getChildren(head))) {
+        symmetrize(graph, head, tail, graph.getEdges(head, tail));
+      }
+    }
+
+    private void symmetrize(EntityGraph graph, KBPEntity head, KBPEntity tail, List<KBPSlotFill> fills) {
+      // Keep track of this list separately (else face the wrath of a concurrent modification error
+      List<KBPSlotFill> additionalSlots = new ArrayList<>();
+
+      for( KBPSlotFill fill : fills ) {
+        for( RelationType reln : fill.key.tryKbpRelation() ) {
+          if( symmetricPairs.containsKey(reln) ) {
+            final RelationType reln_ = symmetricPairs.get(reln);
+            // Check if the symmetric relation already holds
+            if( !CollectionUtils.find( graph.getOutgoingEdges(tail), in -> in.key.tryKbpRelation().equalsOrElse( reln_, false )).isDefined() ) {
+              // No? Let's add it
+              additionalSlots.add(KBPNew.from(tail).slotValue(head.name).slotType(head.type).rel(reln_).provenance(fill.provenance).score(fill.score).KBPSlotFill());
+            }
+          }
+        }
+      }
+      for( KBPSlotFill newEdge : additionalSlots )
+        graph.add(tail, head, newEdge);
+    }
   }
 
 
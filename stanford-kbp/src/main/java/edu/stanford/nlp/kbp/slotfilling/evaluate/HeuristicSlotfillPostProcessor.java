@@ -61,6 +61,138 @@ public abstract class HeuristicSlotfillPostProcessor extends SlotfillPostProcess
     }
   }
 
+  /**
+   * The scope of a pairwise check: which pairs of slot fills {@link HeuristicSlotfillPostProcessor#pairwiseKeepLowerScoringFill(KBPEntity, KBPSlotFill, KBPSlotFill)}
+   * could ever reject. Pairs outside of the scope are not compared at all.
+   */
+  public enum PairwiseScope {
+    /** Fills with the same relation (up to aliases of the same KBP relation) may conflict */
+    SAME_RELATION,
+    /** Fills with the same slot value may conflict */
+    SAME_SLOT_VALUE,
+    /** Any two fills may conflict */
+    ANY
+  }
+
+  /**
+   * Incremental bookkeeping for the nonlocal consistency checks.
+   * The active fills are always consistent with each other, so enabling a fill only needs to check that fill against the
+   * active fills it could conflict with (found through the relation and slot value indices), and re-run the hold-one-out checks.
+   */
+  private class ConsistencyState {
+    private final KBPEntity pivot;
+    private final KBPSlotFill[] slotFills;
+    private final boolean[] slotsActive;
+    private final Boolean[] singletonValid;
+    private final String[] relationKeys;
+    private final Set<PairwiseScope> scope;
+    private final boolean checkLeaveOneOut;
+    private final Map<String, List<Integer>> activeByRelation = new HashMap<>();
+    private final Map<String, List<Integer>> activeBySlotValue = new HashMap<>();
+    private final IdentityHashSet<KBPSlotFill> active = new IdentityHashSet<>();
+
+    private ConsistencyState(KBPEntity pivot, KBPSlotFill[] slotFills, boolean[] slotsActive) {
+      this.pivot = pivot;
+      this.slotFills = slotFills;
+      this.slotsActive = slotsActive;
+      this.singletonValid = new Boolean[slotFills.length];
+      this.relationKeys = new String[slotFills.length];
+      for (int i = 0; i < slotFills.length; ++i) {
+        relationKeys[i] = slotFills[i].key.relationName;
+        for (RelationType relation : slotFills[i].key.tryKbpRelation()) { relationKeys[i] = relation.canonicalName; }
+      }
+      this.scope = pairwiseScope();
+      this.checkLeaveOneOut = hasLeaveOneOutCheck();
+    }
+
+    /** Whether the given fill can be enabled, keeping the active fills consistent */
+    private boolean canEnable(int toEnable) {
+      assert !slotsActive[toEnable];
+      // -- Singleton Consistency
+      if (singletonValid[toEnable] == null) {
+        singletonValid[toEnable] = isValidSlotAndRewrite(pivot, slotFills[toEnable]).isDefined();
+      }
+      if (!singletonValid[toEnable]) { return false; }
+      if (active.contains(slotFills[toEnable])) {
+        // The same fill is already active at another index; the incremental hold-one-out checks don't apply
+        return blockGibbsCanTransition(pivot, slotFills, new GibbsState(slotsActive, toEnable, toEnable, toEnable));
+      }
+
+      // -- Pairwise Consistency
+      for (int other : conflictCandidates(toEnable)) {
+        if (!(other < toEnable ? pairwiseKeepLowerScoringFill(pivot, slotFills[other], slotFills[toEnable])
+                               : pairwiseKeepLowerScoringFill(pivot, slotFills[toEnable], slotFills[other]))) {
+          return false;
+        }
+      }
+
+      // -- Hold-one-out Consistency
+      if (checkLeaveOneOut) {
+        if (!leaveOneOutKeepHeldOutSlot(pivot, active, slotFills[toEnable])) { return false; }
+        active.add(slotFills[toEnable]);
+        try {
+          for (int i = 0; i < slotFills.length; ++i) {
+            if (slotsActive[i]) {
+              active.remove(slotFills[i]);
+              boolean keep = leaveOneOutKeepHeldOutSlot(pivot, active, slotFills[i]);
+              active.add(slotFills[i]);
+              if (!keep) { return false; }
+            }
+          }
+        } finally {
+          active.remove(slotFills[toEnable]);
+        }
+      }
+
+      // -- Everything Passes
+      return true;
+    }
+
+    /** The active fills which could conflict with the given fill, in increasing order */
+    private Collection<Integer> conflictCandidates(int toEnable) {
+      if (scope.isEmpty() || active.isEmpty()) { return Collections.emptyList(); }
+      if (scope.contains(PairwiseScope.ANY)) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < slotFills.length; ++i) {
+          if (slotsActive[i]) { candidates.add(i); }
+        }
+        return candidates;
+      }
+      Set<Integer> candidates = new TreeSet<>();
+      if (scope.contains(PairwiseScope.SAME_RELATION)) {
+        candidates.addAll(activeByRelation.getOrDefault(relationKeys[toEnable], Collections.emptyList()));
+      }
+      if (scope.contains(PairwiseScope.SAME_SLOT_VALUE)) {
+        candidates.addAll(activeBySlotValue.getOrDefault(slotFills[toEnable].key.slotValue, Collections.emptyList()));
+      }
+      return candidates;
+    }
+
+    private void enable(int toEnable) {
+      slotsActive[toEnable] = true;
+      active.add(slotFills[toEnable]);
+      activeByRelation.computeIfAbsent(relationKeys[toEnable], x -> new ArrayList<>()).add(toEnable);
+      activeBySlotValue.computeIfAbsent(slotFills[toEnable].key.slotValue, x -> new ArrayList<>()).add(toEnable);
+    }
+
+    /** Try to enable a fill, returning whether it was enabled */
+    private boolean tryEnable(int toEnable) {
+      boolean canEnable = canEnable(toEnable);
+      // Check against the full consistency check, if it's cheap enough
+      assert slotFills.length > 100 ||
+          canEnable == blockGibbsCanTransition(pivot, slotFills, new GibbsState(slotsActive, toEnable, toEnable, toEnable));
+      if (canEnable) { enable(toEnable); }
+      return canEnable;
+    }
+
+    private void clear() {
+      Arrays.fill(slotsActive, false);
+      active.clear();
+      activeByRelation.clear();
+      activeBySlotValue.clear();
+    }
+  }
+
   private boolean blockGibbsCanTransition(KBPEntity pivot, KBPSlotFill[] slotFills, GibbsState state) {
     return state.restoreAndReturn(isConsistent(pivot, slotFills, state.slotsActive));
   }
@@ -100,14 +232,13 @@ public abstract class HeuristicSlotfillPostProcessor extends SlotfillPostProcess
     return true;
   }
 
-  private int greedyEnableSlotsInPlace(KBPEntity pivot, KBPSlotFill[] sortedSlots, boolean[] slotsActive) {
+  private int greedyEnableSlotsInPlace(ConsistencyState state) {
     int slotsEnabled = 0;
-    for (int i = 0; i < sortedSlots.length; ++i) {
-      if (blockGibbsCanTransition(pivot, sortedSlots, new GibbsState(slotsActive, i, i, i))) {
-        slotsActive[i] = true;
+    for (int i = 0; i < state.slotFills.length; ++i) {
+      if (state.tryEnable(i)) {
         slotsEnabled += 1;
       } else {
-        assert !slotsActive[i];
+        assert !state.slotsActive[i];
       }
     }
     return slotsEnabled;
@@ -138,7 +269,8 @@ public abstract class HeuristicSlotfillPostProcessor extends SlotfillPostProcess
     KBPSlotFill[] sortedSlots = filteredSlots.toArray(new KBPSlotFill[filteredSlots.size()]);
     Arrays.sort(sortedSlots);
     boolean[] slotsActive = new boolean[sortedSlots.length];
-    int slotsEnabled = greedyEnableSlotsInPlace(pivot, sortedSlots, slotsActive);
+    ConsistencyState state = new ConsistencyState(pivot, sortedSlots, slotsActive);
+    int slotsEnabled = greedyEnableSlotsInPlace(state);
     // (pass 1: greedy)
     assert (isConsistent(pivot, sortedSlots, slotsActive));
     // (pass 2: pairwise hops)
@@ -155,12 +287,10 @@ public abstract class HeuristicSlotfillPostProcessor extends SlotfillPostProcess
       log("initial objective: " + max);
       //   sample
       for (int i = 0; i < Props.TEST_CONSISTENCY_MIXINGTIME; ++i) {
-        Arrays.fill(slotsActive, false);
+        state.clear();
         ArrayMath.shuffle(enableOrder, rand);
         for (int toEnable : enableOrder) {
-          if (blockGibbsCanTransition(pivot, sortedSlots, new GibbsState(slotsActive, toEnable, toEnable, toEnable))) {
-            slotsActive[toEnable] = true;
-          }
+          state.tryEnable(toEnable);
         }
         double newObjective = objectiveFn.apply(Pair.makePair(slotsActive, sortedSlots));
         if (newObjective > max) {
@@ -274,6 +404,17 @@ public abstract class HeuristicSlotfillPostProcessor extends SlotfillPostProcess
           return outer.leaveOneOutKeepHeldOutSlot(pivot, others, candidate) &&
               hpp.leaveOneOutKeepHeldOutSlot(pivot, others, candidate);
         }
+        @Override
+        public Set<PairwiseScope> pairwiseScope() {
+          Set<PairwiseScope> scope = EnumSet.noneOf(PairwiseScope.class);
+          scope.addAll(outer.pairwiseScope());
+          scope.addAll(hpp.pairwiseScope());
+          return scope;
+        }
+        @Override
+        protected boolean hasLeaveOneOutCheck() {
+          return outer.hasLeaveOneOutCheck() || hpp.hasLeaveOneOutCheck();
+        }
       };
     } else {
       return super.and(alsoProcess);
@@ -316,6 +457,33 @@ public abstract class HeuristicSlotfillPostProcessor extends SlotfillPostProcess
    */
   public abstract boolean leaveOneOutKeepHeldOutSlot(KBPEntity pivot, IdentityHashSet<KBPSlotFill> others, KBPSlotFill candidate);
 
+  /**
+   * The pairs of slot fills which {@link HeuristicSlotfillPostProcessor#pairwiseKeepLowerScoringFill(KBPEntity, KBPSlotFill, KBPSlotFill)}
+   * could reject. By default, this is no pairs if the check is inherited from {@link Default}, and any pair otherwise;
+   * checks which only compare fills with the same relation or slot value should say so, as only those pairs are then compared.
+   * @return The scopes of the pairwise check; the empty set if it never rejects a pair.
+   */
+  public Set<PairwiseScope> pairwiseScope() {
+    return isInheritedFromDefault("pairwiseKeepLowerScoringFill", KBPEntity.class, KBPSlotFill.class, KBPSlotFill.class)
+        ? EnumSet.noneOf(PairwiseScope.class) : EnumSet.of(PairwiseScope.ANY);
+  }
+
+  /**
+   * Whether {@link HeuristicSlotfillPostProcessor#leaveOneOutKeepHeldOutSlot(KBPEntity, IdentityHashSet, KBPSlotFill)}
+   * could ever reject a slot fill. By default, this is false only if the check is inherited from {@link Default}.
+   */
+  protected boolean hasLeaveOneOutCheck() {
+    return !isInheritedFromDefault("leaveOneOutKeepHeldOutSlot", KBPEntity.class, IdentityHashSet.class, KBPSlotFill.class);
+  }
+
+  private boolean isInheritedFromDefault(String methodName, Class<?>... parameterTypes) {
+    try {
+      return getClass().getMethod(methodName, parameterTypes).getDeclaringClass() == Default.class;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
   /**
    * A default implementation (effectively a NOOP) so that selective methods can be overwritten
    */
@@ -14,6 +14,7 @@ import edu.stanford.nlp.util.IdentityHashSet;
 import edu.stanford.nlp.util.logging.Redwood;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -653,6 +654,10 @@ public class HeuristicSlotfillPostProcessors {
 
   /** Don't duplicate a slot fill */
   public static class NoDuplicates extends HeuristicSlotfillPostProcessor.Default {
+    @Override
+    public Set<PairwiseScope> pairwiseScope() {
+      return EnumSet.of(PairwiseScope.SAME_SLOT_VALUE);
+    }
     @Override
     public boolean pairwiseKeepLowerScoringFill(KBPEntity pivot, KBPSlotFill higherScoring, KBPSlotFill lowerScoring) {
       if (higherScoring.equals(lowerScoring)) { return nonlocalFailure(lowerScoring, this.getClass()); }
@@ -691,6 +696,10 @@ public class HeuristicSlotfillPostProcessors {
       this.irComponent = Maybe.Just(ir);
     }
 
+    @Override
+    public Set<PairwiseScope> pairwiseScope() {
+      return EnumSet.of(PairwiseScope.SAME_RELATION);
+    }
 
     @SuppressWarnings({"LoopStatementThatDoesntLoop", "SimplifiableIfStatement"})
     @Override
@@ -740,6 +749,10 @@ public class HeuristicSlotfillPostProcessors {
 
   /** Don't propose multiple entries for single-valued slots */
   public static class DuplicateRelationOnlyInListRelations extends HeuristicSlotfillPostProcessor.Default {
+    @Override
+    public Set<PairwiseScope> pairwiseScope() {
+      return EnumSet.of(PairwiseScope.SAME_RELATION);
+    }
     @SuppressWarnings("SimplifiableIfStatement")
     @Override
     public boolean pairwiseKeepLowerScoringFill(KBPEntity pivot, KBPSlotFill higherScoring, KBPSlotFill lowerScoring) {
@@ -755,6 +768,10 @@ public class HeuristicSlotfillPostProcessors {
 
   /** Don't predict a low weight slot if there's another candidate of reputable weight */
   public static class RemoveLowWeightRelationUnlessOnlyOneOfType extends HeuristicSlotfillPostProcessor.Default {
+    @Override
+    public Set<PairwiseScope> pairwiseScope() {
+      return EnumSet.of(PairwiseScope.SAME_RELATION);
+    }
     @Override
     public boolean pairwiseKeepLowerScoringFill(KBPEntity pivot, KBPSlotFill higherScoring, KBPSlotFill lowerScoring) {
       return !(higherScoring.key.relationName.equals(lowerScoring.key.relationName) &&
@@ -764,6 +781,10 @@ public class HeuristicSlotfillPostProcessors {
 
   /** Respect the incmpatible relations declared in RelationType */
   public static class RespectDeclaredIncompatibilities extends HeuristicSlotfillPostProcessor.Default {
+    @Override
+    public Set<PairwiseScope> pairwiseScope() {
+      return EnumSet.of(PairwiseScope.SAME_SLOT_VALUE);
+    }
     @Override
     public boolean pairwiseKeepLowerScoringFill(KBPEntity pivot, KBPSlotFill higherScoring, KBPSlotFill lowerScoring) {
       if (!higherScoring.key.hasKBPRelation() || !lowerScoring.key.hasKBPRelation()) { return true; }
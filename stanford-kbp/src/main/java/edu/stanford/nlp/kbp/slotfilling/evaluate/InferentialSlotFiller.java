@@ -21,6 +21,11 @@ import edu.stanford.nlp.util.logging.Redwood;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.*;
@@ -34,6 +39,12 @@ public class InferentialSlotFiller extends SimpleSlotFiller {
   protected OpenIERelationExtractor reverbRelationExtractor;
   protected GraphInferenceEngine graphInferenceEngine;
 
+  /**
+   * The pools for each stage of graph extraction, shared by every slot filler; keyed by stage name.
+   * Each is sized from Execution.threads on first use and never replaced.
+   */
+  private static final Map<String, ExecutorService> stagePools = new HashMap<>();
+
   public InferentialSlotFiller(Properties props,
                                KBPIR ir,
                                KBPProcess process,
@@ -99,14 +110,16 @@ public class InferentialSlotFiller extends SimpleSlotFiller {
       relationGraph = new GraphConsistencyPostProcessors.EntityMergingPostProcessor().postProcess(relationGraph, goldResponses);
       assert relationGraph.containsVertex(queryEntity);
     }
-    // Compute transitive completion of relations
+    // Compute transitive completion of relations, and symmetric function rewrite by default
+    // (these touch disjoint relations, and so share a single pass over the graph)
+    List<GraphConsistencyPostProcessor> completion = new ArrayList<>();
     if (Props.TEST_GRAPH_TRANSITIVE_DO) {
-      relationGraph = new GraphConsistencyPostProcessors.TransitiveRelationPostProcessor().postProcess(relationGraph, goldResponses);
+      completion.add(new GraphConsistencyPostProcessors.TransitiveRelationPostProcessor());
     }
-    // Symmetric function rewrite by default
     if (Props.TEST_GRAPH_SYMMETERIZE_DO) {
-      relationGraph = new GraphConsistencyPostProcessors.SymmetricFunctionRewritePostProcessor().postProcess(relationGraph, goldResponses);
+      completion.add(new GraphConsistencyPostProcessors.SymmetricFunctionRewritePostProcessor());
     }
+    relationGraph = GraphConsistencyPostProcessor.all(completion.toArray(new GraphConsistencyPostProcessor[completion.size()])).postProcess(relationGraph, goldResponses);
 
     List<KBPSlotFill> initiallyDiscardedEdges = new ArrayList<>();
     if(Props.TEST_GRAPH_INFERENCE_HACKS_GLOBAL_CONSISTENCY) {
@@ -227,8 +240,10 @@ public class InferentialSlotFiller extends SimpleSlotFiller {
     // Get supporting sentences
     // Get sentences number of documents and keep pulling out sentences
     // till you find sufficiently many of them.
+    // Documents flow through the stages as they become available: each one is annotated as soon as it is fetched,
+    // and the Reverb pass works on its own copy of the document alongside.
     forceTrack("Querying IR");
-    List<Annotation> rawDocuments = new ArrayList<>();
+    List<CompletableFuture<Annotation>> rawDocuments = new ArrayList<>();
     if (docidFilter.isDefined()) {
       // We don't want to take all the documents, so we query docids first
       List<String> docids = irComponent.queryDocIDs(entity.name, entity.type,
@@ -236,27 +251,45 @@ public class InferentialSlotFiller extends SimpleSlotFiller {
           documentsPerEntity * 5);
       Iterator<String> docidIter = docids.iterator();
       while (rawDocuments.size() < documentsPerEntity && docidIter.hasNext()) {
-        String docid = docidIter.next();
-        if (!docidFilter.isDefined() || docidFilter.get().apply(docid)) { rawDocuments.add(irComponent.fetchDocument(docid)); }
+        final String docid = docidIter.next();
+        if (!docidFilter.isDefined() || docidFilter.get().apply(docid)) {
+          rawDocuments.add(CompletableFuture.supplyAsync(() -> irComponent.fetchDocument(docid), stagePool("fetch")));
+        }
       }
     } else {
       // This is the standard case, where we query documents directly
-      rawDocuments.addAll(irComponent.queryDocuments(entity,
+      for (Annotation doc : irComponent.queryDocuments(entity,
           entity.representativeDocumentId().isDefined() ? new HashSet<>(Arrays.asList(entity.representativeDocumentId().get())) : new HashSet<String>(),
-          documentsPerEntity));
+          documentsPerEntity)) {
+        rawDocuments.add(CompletableFuture.completedFuture(doc));
+      }
     }
-    logger.log("fetched " + rawDocuments.size() + " documents");
+    logger.log("fetching " + rawDocuments.size() + " documents");
     endTrack("Querying IR");
     if( rawDocuments.size() == 0 ) {
       logger.warn("No documents found :-/!");
       return new EntityGraph();
     }
 
+    // -- Start the Reverb pass
+    // This annotates a copy-on-write overlay of each document as it is fetched, so it does not see the first pass.
+    // The overlay reads through to the original document, so the first pass only gets a document once Reverb is done with it.
+    List<CompletableFuture<List<KBPSlotFill>>> reverbFills = new ArrayList<>();
+    if( Props.TEST_GRAPH_OPENIE_DO) {
+      List<CompletableFuture<Annotation>> reverbDoneDocuments = new ArrayList<>(rawDocuments.size());
+      for (CompletableFuture<Annotation> doc : rawDocuments) {
+        CompletableFuture<List<KBPSlotFill>> fills = doc.thenApplyAsync(in -> extractReverbRelations(entity, CoreMapUtils.overlayDocument(in)), stagePool("reverb"));
+        reverbFills.add(fills);
+        reverbDoneDocuments.add(fills.thenCombine(doc, (ignored, original) -> original));
+      }
+      rawDocuments = reverbDoneDocuments;
+    }
+
     // Begin constructing the graph
 
     // -- First pass construct a graph using the relation classifier
     forceTrack("Constructing graph");
-    final EntityGraph graph = extractRelationGraphFromSimpleSlotFiller(entity, rawDocuments);
+    final EntityGraph graph = extractRelationGraphFromPendingDocuments(entity, rawDocuments);
     endTrack("Constructing Graph");
     assert graph.containsVertex(entity);
     graph.restrictGraph(graph.getConnectedComponent(entity));
@@ -266,20 +299,10 @@ public class InferentialSlotFiller extends SimpleSlotFiller {
 
     // -- Second pass for Reverb
     if( Props.TEST_GRAPH_OPENIE_DO) {
-      // Take care of the annotation required
-      AnnotationPipeline pipeline = new AnnotationPipeline();
-      pipeline.addAnnotator(new PostIRAnnotator(entity, true));
-      pipeline.addAnnotator(new EntityMentionAnnotator(entity));
-      pipeline.addAnnotator(new SlotMentionAnnotator());
-      pipeline.addAnnotator(new RelationMentionAnnotator(entity, Collections.EMPTY_LIST, AnnotateMode.ALL_PAIRS));
-
       forceTrack("Augmenting with Reverb extractions");
-      for( Annotation doc : rawDocuments ) {
-        // Annotate with the details
-        doc = CoreMapUtils.copyDocument(doc);
-        pipeline.annotate(doc);
-        // Extract relations using ReVerb
-        for( KBPSlotFill fill :  reverbRelationExtractor.extractRelations(doc) ) {
+      // Merge in document order, regardless of which document finished first
+      for (CompletableFuture<List<KBPSlotFill>> fills : reverbFills) {
+        for( KBPSlotFill fill : await(fills) ) {
           if( (!Props.TEST_GRAPH_OPENIE_PRUNE || graphInferenceEngine.isUsefulRelation(fill.key.relationName)) && fill.key.getSlotEntity().isDefined() ) {
             graph.add( fill.key.getEntity(), fill.key.getSlotEntity().get(), fill );
           }
@@ -302,39 +325,49 @@ public class InferentialSlotFiller extends SimpleSlotFiller {
     return graph;
   }
 
+  /**
+   * Annotate a (copied or overlaid) document for the Reverb pass, and extract its relations.
+   * This runs on the Reverb pool, so it should not touch the graph.
+   */
   @SuppressWarnings("unchecked")
+  protected List<KBPSlotFill> extractReverbRelations(KBPOfficialEntity entity, Annotation doc) {
+    // Take care of the annotation required
+    AnnotationPipeline pipeline = new AnnotationPipeline();
+    pipeline.addAnnotator(new PostIRAnnotator(entity, true));
+    pipeline.addAnnotator(new EntityMentionAnnotator(entity));
+    pipeline.addAnnotator(new SlotMentionAnnotator());
+    pipeline.addAnnotator(new RelationMentionAnnotator(entity, Collections.EMPTY_LIST, AnnotateMode.ALL_PAIRS));
+    pipeline.annotate(doc);
+    // Extract relations using ReVerb
+    synchronized (reverbRelationExtractor) {
+      return reverbRelationExtractor.extractRelations(doc);
+    }
+  }
+
   protected EntityGraph extractRelationGraphFromSimpleSlotFiller(KBPEntity originalQueryEntity, List<Annotation> documents) {
-    EntityGraph graph = new EntityGraph();
+    List<CompletableFuture<Annotation>> futures = new ArrayList<>(documents.size());
+    for (Annotation doc : documents) { futures.add(CompletableFuture.completedFuture(doc)); }
+    return extractRelationGraphFromPendingDocuments(originalQueryEntity, futures);
+  }
 
-    // Run necessary annotators
-    AnnotationPipeline initialPipeline = new AnnotationPipeline();
-    initialPipeline.addAnnotator(new PostIRAnnotator(originalQueryEntity instanceof KBPOfficialEntity ? (KBPOfficialEntity) originalQueryEntity : KBPNew.from(originalQueryEntity).KBPOfficialEntity(), true));
-    initialPipeline.addAnnotator(new EntityMentionAnnotator(originalQueryEntity));
-    initialPipeline.addAnnotator(new SlotMentionAnnotator());
-    for (Annotation doc : documents) { initialPipeline.annotate(doc); }
+  /**
+   * Construct the relation graph from the documents, annotating each document as soon as it is available.
+   * Classification for each pivot entity then runs in order, as it shares (and re-annotates) the documents' sentences.
+   */
+  protected EntityGraph extractRelationGraphFromPendingDocuments(final KBPEntity originalQueryEntity, List<CompletableFuture<Annotation>> pendingDocuments) {
+    EntityGraph graph = new EntityGraph();
 
-    // Get all entities in documents
+    // Run necessary annotators, and get all entities in documents
+    List<CompletableFuture<List<Set<KBPEntity>>>> pendingCooccurrences = new ArrayList<>(pendingDocuments.size());
+    for (CompletableFuture<Annotation> doc : pendingDocuments) {
+      pendingCooccurrences.add(doc.thenApplyAsync(in -> annotateCooccurrences(originalQueryEntity, in), stagePool("extract")));
+    }
+    List<Annotation> documents = new ArrayList<>(pendingDocuments.size());
     List<Set<KBPEntity>> cooccurrences = new ArrayList<>();
-    for (Annotation doc : documents) {
-      for (CoreMap sentence : doc.get(CoreAnnotations.SentencesAnnotation.class)) {
-        // Get mentions
-        Set<EntityMention> mentions = new HashSet<>();
-        mentions.addAll(Maybe.fromNull(sentence.get(MachineReadingAnnotations.EntityMentionsAnnotation.class)).getOrElse(Collections.EMPTY_LIST));
-        mentions.addAll(Maybe.fromNull(sentence.get(KBPAnnotations.SlotMentionsAnnotation.class)).getOrElse(Collections.EMPTY_LIST));
-        // Compute co-occurrences
-        Set<KBPEntity> cooccurrenceSet = new HashSet<>();
-        for (EntityMention mention : mentions) {
-          for (NERTag mentionType : Utils.getNERTag(mention)) {
-            KBPEntity candidate = KBPNew.entName(mention.getNormalizedName() != null ? (Utils.isInteger(mention.getNormalizedName()) ? mention.getFullValue() : mention.getNormalizedName()) : mention.getFullValue()).entType(mentionType).KBPEntity();
-            if (candidate.equals(originalQueryEntity)) {
-              cooccurrenceSet.add(originalQueryEntity);
-            } else {
-              cooccurrenceSet.add(candidate);
-            }
-          }
-        }
-        cooccurrences.add(cooccurrenceSet);
-      }
+    for (int i = 0; i < pendingDocuments.size(); ++i) {
+      // Concatenate in document order, regardless of which document finished first
+      cooccurrences.addAll(await(pendingCooccurrences.get(i)));
+      documents.add(await(pendingDocuments.get(i)));
     }
     Set<KBPEntity> allEntities = CollectionUtils.transitiveClosure(cooccurrences, originalQueryEntity, Props.TEST_GRAPH_DEPTH);
 
@@ -389,6 +422,70 @@ public class InferentialSlotFiller extends SimpleSlotFiller {
     return graph;
   }
 
+  /**
+   * Run the annotators the first pass needs over a single document, and collect the entities which co-occur in each of its sentences.
+   * This runs on the extraction pool, with a pipeline of its own.
+   */
+  @SuppressWarnings("unchecked")
+  protected List<Set<KBPEntity>> annotateCooccurrences(KBPEntity originalQueryEntity, Annotation doc) {
+    AnnotationPipeline initialPipeline = new AnnotationPipeline();
+    initialPipeline.addAnnotator(new PostIRAnnotator(originalQueryEntity instanceof KBPOfficialEntity ? (KBPOfficialEntity) originalQueryEntity : KBPNew.from(originalQueryEntity).KBPOfficialEntity(), true));
+    initialPipeline.addAnnotator(new EntityMentionAnnotator(originalQueryEntity));
+    initialPipeline.addAnnotator(new SlotMentionAnnotator());
+    initialPipeline.annotate(doc);
+
+    List<Set<KBPEntity>> cooccurrences = new ArrayList<>();
+    for (CoreMap sentence : doc.get(CoreAnnotations.SentencesAnnotation.class)) {
+      // Get mentions
+      Set<EntityMention> mentions = new HashSet<>();
+      mentions.addAll(Maybe.fromNull(sentence.get(MachineReadingAnnotations.EntityMentionsAnnotation.class)).getOrElse(Collections.EMPTY_LIST));
+      mentions.addAll(Maybe.fromNull(sentence.get(KBPAnnotations.SlotMentionsAnnotation.class)).getOrElse(Collections.EMPTY_LIST));
+      // Compute co-occurrences
+      Set<KBPEntity> cooccurrenceSet = new HashSet<>();
+      for (EntityMention mention : mentions) {
+        for (NERTag mentionType : Utils.getNERTag(mention)) {
+          KBPEntity candidate = KBPNew.entName(mention.getNormalizedName() != null ? (Utils.isInteger(mention.getNormalizedName()) ? mention.getFullValue() : mention.getNormalizedName()) : mention.getFullValue()).entType(mentionType).KBPEntity();
+          if (candidate.equals(originalQueryEntity)) {
+            cooccurrenceSet.add(originalQueryEntity);
+          } else {
+            cooccurrenceSet.add(candidate);
+          }
+        }
+      }
+      cooccurrences.add(cooccurrenceSet);
+    }
+    return cooccurrences;
+  }
+
+  /**
+   * Get the shared pool for a stage of graph extraction. This is created once per stage, so a slot filler
+   * still extracting on it is never shut down from under it.
+   */
+  private static synchronized ExecutorService stagePool(final String stage) {
+    ExecutorService pool = stagePools.get(stage);
+    if (pool == null) {
+      final AtomicInteger threadId = new AtomicInteger(0);
+      pool = Executors.newFixedThreadPool(Math.max(1, Execution.threads), runnable -> {
+        Thread thread = new Thread(runnable, "graph-" + stage + "-" + threadId.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      });
+      stagePools.put(stage, pool);
+    }
+    return pool;
+  }
+
+  /** Wait for a stage to finish, rethrowing its exception (if any) */
+  private static <E> E await(CompletableFuture<E> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+      if (e.getCause() instanceof Error) { throw (Error) e.getCause(); }
+      throw e;
+    }
+  }
+
   @SuppressWarnings("UnusedDeclaration")
   protected void printGraph( String name, EntityGraph relationGraph) {
     VisualizationUtils.logGraph(name,
@@ -18,7 +18,6 @@ import edu.stanford.nlp.kbp.slotfilling.classify.RelationClassifier;
 import edu.stanford.nlp.kbp.common.KBPOfficialEntity;
 import edu.stanford.nlp.kbp.common.Maybe;
 import edu.stanford.nlp.kbp.common.*;
-import edu.stanford.nlp.kbp.common.CollectionUtils;
 import edu.stanford.nlp.kbp.slotfilling.ir.KBPIR;
 import edu.stanford.nlp.kbp.slotfilling.ir.PostIRAnnotator;
 import edu.stanford.nlp.kbp.slotfilling.ir.StandardIR;
@@ -195,11 +194,16 @@ public class SimpleSlotFiller implements SlotFiller {
         }
       }
     } else {
-      tuplesWithRelation = CollectionUtils.map(datumsAndSentences.first, input -> {
+      // vvv RUN CLASSIFIER vvv
+      List<Maybe<CoreMap[]>> groupSentences = new ArrayList<>();
+      for (SentenceGroup input : datumsAndSentences.first) { groupSentences.add(Maybe.fromNull(datumsAndSentences.second.get(input.key))); }
+      List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> relationsPerGroup = classifyComponent.classifyRelations(datumsAndSentences.first, groupSentences);
+      // ^^^                ^^^
 
-        // vvv RUN CLASSIFIER vvv
-        Counter<Pair<String, Maybe<KBPRelationProvenance>>> relationsAsStrings = classifyComponent.classifyRelations(input, Maybe.fromNull(datumsAndSentences.second.get(input.key)));
-        // ^^^                ^^^
+      tuplesWithRelation = new ArrayList<>();
+      for (int groupI = 0; groupI < datumsAndSentences.first.size(); ++groupI) {
+        SentenceGroup input = datumsAndSentences.first.get(groupI);
+        Counter<Pair<String, Maybe<KBPRelationProvenance>>> relationsAsStrings = relationsPerGroup.get(groupI);
 
         // Convert to Probabilities
         Counter<KBPSlotFill> countsForKBPair = new ClassicCounter<>();
@@ -217,8 +221,8 @@ public class SimpleSlotFiller implements SlotFiller {
         }
 
         // output
-        return countsForKBPair;
-      });
+        tuplesWithRelation.add(countsForKBPair);
+      }
     }
     endTrack("Classifying Relations");
     // Display predictions
@@ -7,9 +7,13 @@ import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.util.ArrayIterable;
 import edu.stanford.nlp.util.Execution;
 import edu.stanford.nlp.util.Index;
-import edu.stanford.nlp.util.logging.Redwood;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.log;
 
@@ -17,6 +21,15 @@ import static edu.stanford.nlp.util.logging.Redwood.Util.log;
  * A very simple Bayes Net taking only binary variables.
  * Not on accident, this is exactly the type of net we need for inference.
  *
+ * <p>
+ *   Sampling runs one chain per {@link Execution#threads}, seeded by the chain's index, on a pool of sampler threads
+ *   shared by every net. Each chain caches the current value of every factor, so a flip only evaluates
+ *   the factors neighbouring the flipped variable, and only in the flipped state.
+ *   The chains are merged in seed order, so a given net and seed set always produces the same result.
+ *   If the net was built to check for convergence, the chains also stop early once they agree
+ *   (on the MAP score, or on every marginal).
+ * </p>
+ *
  * @author Gabor Angeli
  */
 public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
@@ -41,8 +54,17 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
     public double logScore;
     public long numIters = 0;
 
-    public boolean[] bestAssignment;
+    private boolean[] bestAssignment;
+    /** If true, the best assignment is the current assignment, and has yet to be copied */
+    private boolean bestIsCurrent = false;
     public double bestLogScore = Double.NEGATIVE_INFINITY;
+    /** The best log score at the last convergence check */
+    public double lastCheckedLogScore = Double.NEGATIVE_INFINITY;
+
+    /** The value of each factor under the current assignment */
+    private final double[] factorValues = new double[factors.length];
+    /** The value of each neighbouring factor of the variable being flipped, under the flipped assignment */
+    private final double[] flippedValues = new double[maxNeighbourhood];
 
     public AssignmentState(int seed) {
       this.rand = new Random(seed);
@@ -57,7 +79,7 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
       this.bestAssignment = new boolean[assignment.length];
 
       randomRestart();
-      this.logScore = computeLogScore();
+      this.logScore = recomputeLogScore();
       assert !SloppyMath.isVeryDangerous(this.logScore);
     }
 
@@ -66,7 +88,7 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
       this.assignment = assignment;
       this.counts = new double[predicates.length];
       this.bestAssignment = new boolean[assignment.length];
-      this.logScore = computeLogScore();
+      this.logScore = recomputeLogScore();
       assert !SloppyMath.isVeryDangerous(this.logScore);
     }
 
@@ -75,6 +97,7 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
      * TODO(arun): Use prior probabilities to set these
      */
     protected void randomRestart() {
+      if (bestIsCurrent) { saveBest(); }
       // Update counts
       if(doMarginal)
         updateCounts();
@@ -83,7 +106,7 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
           this.assignment[i] = rand.nextDouble() < priors[i];
         }
       }
-      this.logScore = computeLogScore();
+      this.logScore = recomputeLogScore();
     }
 
     protected void updateCounts() {
@@ -109,7 +132,7 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
         }
         // Compute empirical score
         assert Double.isInfinite(logScore) || Math.abs(logScore - computeLogScore()) < 0.1;
-        this.logScore = computeLogScore();
+        this.logScore = recomputeLogScore();
       }
 
       // Chose the variable to flip
@@ -130,28 +153,20 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
       assert !isFixed[toFlip];
 
       // Compute the scores for each domain
-      double scoreTrue;
-      double scoreFalse;
+      // The current value of each factor is cached; only the flipped value is evaluated
+      final boolean current = assignment[toFlip];
+      final Factor[] neighbours = neighbourhood[toFlip];
+      final int[] neighbourIds = neighbourhoodIds[toFlip];
       double tmpScore = this.logScore;
-      if (assignment[toFlip]) {
-        scoreTrue = tmpScore;
-        for (Factor fact : factorsByPredicate[toFlip]) {
-          assignment[toFlip] = true;
-          tmpScore -= fact.logProb(assignment);
-          assignment[toFlip] = false;
-          tmpScore += fact.logProb(assignment);
-        }
-        scoreFalse = tmpScore;
-      } else {
-        scoreFalse = tmpScore;
-        for (Factor fact : factorsByPredicate[toFlip]) {
-          assignment[toFlip] = false;
-          tmpScore -= fact.logProb(assignment);
-          assignment[toFlip] = true;
-          tmpScore += fact.logProb(assignment);
-        }
-        scoreTrue = tmpScore;
+      assignment[toFlip] = !current;
+      for (int k = 0; k < neighbours.length; ++k) {
+        tmpScore -= factorValues[neighbourIds[k]];
+        flippedValues[k] = neighbours[k].logProb(assignment);
+        tmpScore += flippedValues[k];
       }
+      assignment[toFlip] = current;
+      double scoreTrue = current ? this.logScore : tmpScore;
+      double scoreFalse = current ? tmpScore : this.logScore;
       // Compute conditional probability
       double probTrue;
       if(Double.isInfinite(scoreTrue) && Double.isInfinite(scoreFalse))
@@ -169,31 +184,36 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
       if (probTrue > 1.0) { probTrue = 1.0; }
 
       // Do Gibbs Flip
-      if (deterministicHillclimb) {
-        if (probTrue > 0.5) {
-          assignment[toFlip] = true;
-          this.logScore = scoreTrue;
-        } else {
-          assignment[toFlip] = false;
-          this.logScore = scoreFalse;
-        }
-      } else {
-        if (rand.nextDouble() < probTrue) {
-          assignment[toFlip] = true;
-          this.logScore = scoreTrue;
-        } else {
-          assignment[toFlip] = false;
-          this.logScore = scoreFalse;
+      boolean value = deterministicHillclimb ? probTrue > 0.5 : rand.nextDouble() < probTrue;
+      if (value != current) {
+        if (bestIsCurrent) { saveBest(); }
+        assignment[toFlip] = value;
+        for (int k = 0; k < neighbours.length; ++k) {
+          factorValues[neighbourIds[k]] = flippedValues[k];
         }
       }
+      this.logScore = value ? scoreTrue : scoreFalse;
 
       // keep track of best assignment
+      // (the copy is deferred until the assignment next changes)
       if (doMAP && this.logScore > bestLogScore) {
-        System.arraycopy(assignment, 0, bestAssignment, 0, assignment.length);
+        bestIsCurrent = true;
         bestLogScore = tmpScore;
       }
     }
 
+    /** Copy the current assignment into the best assignment */
+    private void saveBest() {
+      System.arraycopy(assignment, 0, bestAssignment, 0, assignment.length);
+      bestIsCurrent = false;
+    }
+
+    /** The best assignment seen so far */
+    public boolean[] bestAssignment() {
+      if (bestIsCurrent) { saveBest(); }
+      return bestAssignment;
+    }
+
     public double computeLogScore() {
       double logScore = 0.0;
       for (Factor factor : factors) {
@@ -202,6 +222,16 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
       return logScore;
     }
 
+    /** Compute the log score from scratch, refreshing the cached factor values along the way */
+    private double recomputeLogScore() {
+      double logScore = 0.0;
+      for (int f = 0; f < factors.length; ++f) {
+        factorValues[f] = factors[f].logProb(assignment);
+        logScore += factorValues[f];
+      }
+      return logScore;
+    }
+
     public String toString() {
       StringBuilder sb = new StringBuilder();
       sb.append(logScore).append(" ");
@@ -222,12 +252,35 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
   private final boolean[] isFixed; // If a variable has a 'fixedValue' do not ever change it.
   private final double[] priors; // If a variable has a 'fixedValue' do not ever change it.
   protected final int[] adjustable;
+  /** The factors touching each variable, as in factorsByPredicate */
+  private final Factor[][] neighbourhood;
+  /** The indices (into factors) of the factors touching each variable */
+  private final int[][] neighbourhoodIds;
+  /** The size of the largest neighbourhood */
+  private final int maxNeighbourhood;
 
   private final boolean doHillclimb;
+  private final boolean checkConvergence;
+
+  /** The number of Gibbs steps between convergence checks, at a minimum */
+  private static final int CONVERGENCE_CHECK_INTERVAL = 1000;
+  /** The number of checks without any chain improving its MAP score before we consider the chains converged */
+  private static final int CONVERGENCE_PATIENCE = 3;
+  /** The maximum disagreement between chains on any marginal before we consider the chains converged */
+  private static final double CONVERGENCE_TOLERANCE = 0.02;
+
+  /** The sampler threads, shared by every net; sized from Execution.threads on first use and never replaced */
+  private static ExecutorService samplerPool = null;
 
   protected BayesNet(Index<E> index, E[] predicates, Factor[] factors,
                      Map<Integer,Double> priors, Map<Integer,Boolean> initialValues,
                      boolean doHillclimb) {
+    this(index, predicates, factors, priors, initialValues, doHillclimb, false);
+  }
+
+  protected BayesNet(Index<E> index, E[] predicates, Factor[] factors,
+                     Map<Integer,Double> priors, Map<Integer,Boolean> initialValues,
+                     boolean doHillclimb, boolean checkConvergence) {
     this.index = index;
     this.predicates = predicates;
     this.factors = factors;
@@ -249,16 +302,37 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
     }
 
     this.doHillclimb = doHillclimb;
+    this.checkConvergence = checkConvergence;
     //noinspection unchecked
     this.factorsByPredicate = new Collection[predicates.length];
     for (int i = 0; i < factorsByPredicate.length; ++i) {
       factorsByPredicate[i] = new ArrayList<>();
     }
-    for (Factor factor : factors) {
-      for (int component : factor.components()) {
-        factorsByPredicate[component].add(factor);
+    List<List<Integer>> idsByPredicate = new ArrayList<>(predicates.length);
+    for (int i = 0; i < predicates.length; ++i) {
+      idsByPredicate.add(new ArrayList<>());
+    }
+    for (int f = 0; f < factors.length; ++f) {
+      for (int component : factors[f].components()) {
+        factorsByPredicate[component].add(factors[f]);
+        idsByPredicate.get(component).add(f);
+      }
+    }
+    // Flatten the neighbourhoods, in the same order as factorsByPredicate
+    this.neighbourhood = new Factor[predicates.length][];
+    this.neighbourhoodIds = new int[predicates.length][];
+    int maxNeighbourhood = 0;
+    for (int i = 0; i < predicates.length; ++i) {
+      List<Integer> ids = idsByPredicate.get(i);
+      neighbourhood[i] = new Factor[ids.size()];
+      neighbourhoodIds[i] = new int[ids.size()];
+      for (int k = 0; k < ids.size(); ++k) {
+        neighbourhood[i][k] = factors[ids.get(k)];
+        neighbourhoodIds[i][k] = ids.get(k);
       }
+      maxNeighbourhood = Math.max(maxNeighbourhood, ids.size());
     }
+    this.maxNeighbourhood = maxNeighbourhood;
   }
 
   @Override
@@ -287,28 +361,38 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
     }
 
     // Sample
-    Collection<Runnable> threads = new ArrayList<>();
+    List<AssignmentState> chains = new ArrayList<>(Execution.threads);
+    for (int i = 0; i < Execution.threads; ++i) {
+      AssignmentState state = new AssignmentState(i);
+      state.doMAP = true;
+      chains.add(state);
+    }
+    final Pointer<Integer> roundsWithoutImprovement = new Pointer<>(0);
+    sample(chains, numIters, () -> {
+      // Converged if no chain has improved in a while, and the chains agree on the best score
+      boolean improved = false;
+      double best = Double.NEGATIVE_INFINITY;
+      for (AssignmentState chain : chains) {
+        if (chain.bestLogScore > chain.lastCheckedLogScore) { improved = true; }
+        chain.lastCheckedLogScore = chain.bestLogScore;
+        best = Math.max(best, chain.bestLogScore);
+      }
+      roundsWithoutImprovement.set(improved ? 0 : roundsWithoutImprovement.dereference().get() + 1);
+      int chainsAtBest = 0;
+      for (AssignmentState chain : chains) {
+        if (Math.abs(chain.bestLogScore - best) < 1e-6) { chainsAtBest += 1; }
+      }
+      return roundsWithoutImprovement.dereference().get() >= CONVERGENCE_PATIENCE && (chains.size() == 1 || chainsAtBest > 1);
+    });
+    // Merge chains (in seed order, so ties always go the same way)
     final boolean[] bestAssignment = new boolean[this.predicates.length];
     final Pointer<Double> bestLogScore = new Pointer<>(Double.NEGATIVE_INFINITY);
-    for (int i = 0; i < Execution.threads; ++i) {
-      final int seed = i;
-      threads.add(() -> {
-        AssignmentState state = new AssignmentState(seed);
-        state.doMAP = true;
-        for (int k = 0; k < numIters; ++k) {
-          state.gibbsStep();
-        }
-
-        synchronized (bestLogScore) {
-          if (bestLogScore.dereference().get() < state.bestLogScore) {
-            bestLogScore.set(state.bestLogScore);
-            System.arraycopy(state.bestAssignment, 0, bestAssignment, 0, state.bestAssignment.length);
-          }
-        }
-      });
+    for (AssignmentState state : chains) {
+      if (bestLogScore.dereference().get() < state.bestLogScore) {
+        bestLogScore.set(state.bestLogScore);
+        System.arraycopy(state.bestAssignment(), 0, bestAssignment, 0, bestAssignment.length);
+      }
     }
-    // Run (multithread)
-    Redwood.Util.threadAndRun("Gibbs Sampling", threads, threads.size());
     // Translate Assignment
     log("Best assignment had log score: " + bestLogScore.dereference().getOrElse(-1.));
     Counter<E> assignment = new ClassicCounter<>();
@@ -330,31 +414,87 @@ public class BayesNet<E> extends AbstractSet<BayesNet.Factor> {
       return assignment;
     }
     // Sample
-    Collection<Runnable> threads = new ArrayList<>();
-    final Counter<E> marginals = new ClassicCounter<>();
-    final Pointer<Double> bestLogScore = new Pointer<>(Double.NEGATIVE_INFINITY);
+    List<AssignmentState> chains = new ArrayList<>(Execution.threads);
     for (int i = 0; i < Execution.threads; ++i) {
-      final int seed = i;
-      threads.add(() -> {
-        AssignmentState state = new AssignmentState(seed);
-        state.doMarginal = true;
-        for (int k = 0; k < numIters; ++k) {
-          state.gibbsStep();
+      AssignmentState state = new AssignmentState(i);
+      state.doMarginal = true;
+      chains.add(state);
+    }
+    sample(chains, numIters, () -> {
+      // Converged if the chains agree on every marginal
+      if (chains.size() < 2) { return false; }
+      for (AssignmentState chain : chains) { chain.updateCounts(); }
+      for (int k = 0; k < predicates.length; ++k) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (AssignmentState chain : chains) {
+          min = Math.min(min, chain.counts[k]);
+          max = Math.max(max, chain.counts[k]);
         }
-        state.updateCounts();
+        if (max - min > CONVERGENCE_TOLERANCE) { return false; }
+      }
+      return true;
+    });
+    // Merge chains (in seed order, so the sum is always the same)
+    final Counter<E> marginals = new ClassicCounter<>();
+    for (AssignmentState state : chains) {
+      state.updateCounts();
+      for(int k = 0; k < predicates.length; k++)
+        marginals.incrementCount(predicates[k], state.counts[k] / chains.size());
+    }
+    return marginals;
+  }
 
-        synchronized (bestLogScore) {
-          if (bestLogScore.dereference().get() < state.bestLogScore) {
-            bestLogScore.set(state.bestLogScore);
-          }
-          for(int k = 0; k < predicates.length; k++)
-            marginals.incrementCount(predicates[k], state.counts[k] / Execution.threads);
+  /**
+   * Run each chain for the given number of Gibbs steps, in parallel on the sampler pool.
+   * If this net checks for convergence, the chains are run in rounds, and stop early once the given
+   * check passes between rounds; otherwise, each chain runs straight through.
+   * Either way, a chain takes exactly the same steps it would have taken on its own.
+   */
+  private void sample(List<AssignmentState> chains, int numIters, BooleanSupplier converged) {
+    int interval = checkConvergence ? Math.max(CONVERGENCE_CHECK_INTERVAL, 10 * adjustable.length) : numIters;
+    int done = 0;
+    while (done < numIters) {
+      final int steps = Math.min(interval, numIters - done);
+      if (chains.size() == 1) {
+        // Don't bother handing a single chain off to another thread
+        AssignmentState state = chains.get(0);
+        for (int k = 0; k < steps; ++k) { state.gibbsStep(); }
+      } else {
+        ExecutorService pool = samplerPool();
+        List<Future<?>> rounds = new ArrayList<>(chains.size());
+        for (AssignmentState state : chains) {
+          rounds.add(pool.submit(() -> { for (int k = 0; k < steps; ++k) { state.gibbsStep(); } }));
+        }
+        try {
+          for (Future<?> round : rounds) { round.get(); }
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
         }
+      }
+      done += steps;
+      if (checkConvergence && done < numIters && converged.getAsBoolean()) {
+        log("Gibbs chains converged after " + done + " of " + numIters + " steps");
+        break;
+      }
+    }
+  }
+
+  /**
+   * Get the shared sampler pool. This is created once, so a sampler running on another net is never shut down
+   * from under it; if there are more chains than threads, the extra chains simply wait for a free thread.
+   */
+  private static synchronized ExecutorService samplerPool() {
+    if (samplerPool == null) {
+      samplerPool = Executors.newFixedThreadPool(Math.max(1, Execution.threads), runnable -> {
+        Thread thread = new Thread(runnable, "Gibbs Sampler");
+        thread.setDaemon(true);
+        return thread;
       });
     }
-    // Run (multithread)
-    Redwood.Util.threadAndRun("Gibbs Sampling", threads, threads.size());
-    return marginals;
+    return samplerPool;
   }
 
   /**
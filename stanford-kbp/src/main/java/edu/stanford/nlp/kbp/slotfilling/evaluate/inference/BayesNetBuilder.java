@@ -374,13 +374,76 @@ public class BayesNetBuilder {
     }
   }
 
+  /**
+   * The inputs which determine the table of an {@link EagerTableFactor}, up to renaming the variables:
+   * the merge method, and the probabilities and antecedent positions of each rule, in order.
+   */
+  private static final class TableKey {
+    private final FactorMergeMethod method;
+    private final double[] logProbs;
+    private final int[][] positions;
+    private final int hashCode;
+
+    private TableKey(TableFactor factor) {
+      this.method = Props.TEST_GRAPH_INFERENCE_RULE_MERGE_METHOD;
+      this.logProbs = new double[2 * (factor.rules.size() + 1)];
+      this.positions = new int[factor.rules.size()][];
+      logProbs[0] = factor.prior.logProbTrue;
+      logProbs[1] = factor.prior.logProbFalse;
+      for (int r = 0; r < positions.length; ++r) {
+        GroundedRule rule = factor.rules.get(r);
+        logProbs[2 * r + 2] = rule.logProbTrue;
+        logProbs[2 * r + 3] = rule.logProbFalse;
+        positions[r] = new int[rule.antecedents.length];
+        for (int i = 0; i < rule.antecedents.length; ++i) {
+          positions[r][i] = factor.antecedentMap.get(rule.antecedents[i]);
+        }
+      }
+      this.hashCode = 31 * (31 * method.hashCode() + Arrays.hashCode(logProbs)) + Arrays.deepHashCode(positions);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof TableKey)) return false;
+      TableKey other = (TableKey) o;
+      return hashCode == other.hashCode && method == other.method &&
+          Arrays.equals(logProbs, other.logProbs) && Arrays.deepEquals(positions, other.positions);
+    }
+
+    @Override
+    public int hashCode() { return hashCode; }
+  }
+
+  /** Tables shared between structurally identical factors, across nets; the tables are never modified */
+  private static final Map<TableKey, double[][]> sharedTables = new HashMap<>();
+
   protected static class EagerTableFactor extends TableFactor {
 
     double[] logProbTrue;
     double[] logProbFalse;
 
     void constructTable() {
+      TableKey key = new TableKey(this);
+      double[][] table;
+      synchronized (sharedTables) {
+        table = sharedTables.get(key);
+      }
+      if (table == null) {
+        table = computeTable();
+        synchronized (sharedTables) {
+          if (sharedTables.size() > 10000) { sharedTables.clear(); }
+          sharedTables.put(key, table);
+        }
+      }
+      logProbTrue = table[0];
+      logProbFalse = table[1];
+    }
+
+    private double[][] computeTable() {
       int entries = (1 << antecedents.length);
+      double[] logProbTrue = new double[entries];
+      double[] logProbFalse = new double[entries];
       int maxAssignment = 0;
       for(int antecedent : antecedents)
         maxAssignment = Math.max(maxAssignment, antecedent);
@@ -400,26 +463,19 @@ public class BayesNetBuilder {
         for(int i = 0; i < antecedents.length; i++)
           assignmentVector[antecedents[i]] = false;
       }
+      return new double[][]{ logProbTrue, logProbFalse };
     }
 
     public EagerTableFactor(List<GroundedRule> rules) {
       super(rules);
       assert(antecedents.length < 16);
-      // Construct a table eagerly.
-      // Create the mega-table;
-      int entries = (1 << antecedents.length);
-      logProbTrue = new double[entries];
-      logProbFalse = new double[entries];
+      // Construct a table eagerly (or find an identical one).
       constructTable();
     }
     public EagerTableFactor(TableFactor factor) {
       super(factor);
       assert(antecedents.length < 12);
-      // Construct a table eagerly.
-      // Create the mega-table;
-      int entries = (1 << antecedents.length);
-      logProbTrue = new double[entries];
-      logProbFalse = new double[entries];
+      // Construct a table eagerly (or find an identical one).
       constructTable();
     }
 
@@ -444,6 +500,9 @@ public class BayesNetBuilder {
   private MLNText program = new MLNText();
   private Map<String, Collection<String>> domains = new HashMap<>();
   private Map<MLNText.Predicate, List<MLNText.Literal>> closedWorldEvidence = new HashMap<>();
+  private Map<MLNText.Predicate, Map<String, List<MLNText.Literal>>> closedWorldEvidenceByArg1 = new HashMap<>();
+  private Map<MLNText.Predicate, Map<String, List<MLNText.Literal>>> closedWorldEvidenceByArg2 = new HashMap<>();
+  private Map<MLNText.Rule, RuleTemplate> templates = new IdentityHashMap<>();
   private Map<Integer, List<GroundedRule>> factorsForLiteral = new HashMap<>();
 
   protected static class GroundedRule {
@@ -477,6 +536,7 @@ public class BayesNetBuilder {
 
   // Parameters
   private boolean doHillclimb = false;
+  private boolean checkConvergence = false;
 
   protected boolean isConstant(String arg) {
     return Character.isUpperCase(arg.charAt(0));
@@ -486,9 +546,9 @@ public class BayesNetBuilder {
   protected void registerRuleInstance(double logProbTrue, double logProbFalse, final MLNText.Literal[] groundedLiterals) {
     // Note: Not error checking because post modifying rule weights, things can no longer be probabilities.
 
-    MLNText.Rule rule = new MLNText.Rule(logProbTrue - logProbFalse, Arrays.asList(groundedLiterals) );
-    logProbTrue = clipLogProb(rule.toString(), logProbTrue);
-    logProbFalse = clipLogProb(rule.toString(), logProbFalse);
+    String name = new MLNText.Rule(logProbTrue - logProbFalse, Arrays.asList(groundedLiterals) ).toString();
+    logProbTrue = clipLogProb(name, logProbTrue);
+    logProbFalse = clipLogProb(name, logProbFalse);
 
 
     // Activate all the literals
@@ -511,127 +571,162 @@ public class BayesNetBuilder {
 
     if(!factorsForLiteral.containsKey(consequent))
       factorsForLiteral.put(consequent, new ArrayList<GroundedRule>());
-    factorsForLiteral.get(consequent).add(new GroundedRule(rule.toString(), logProbTrue, logProbFalse, consequent, antecedents));
+    factorsForLiteral.get(consequent).add(new GroundedRule(name, logProbTrue, logProbFalse, consequent, antecedents));
   }
 
   /**
-   * Recursively ground the provided rule template
+   * A rule compiled for grounding: the predicate of each literal, and the order in which to join the literals --
+   * closed (evidence) literals first, then whichever literal has the most arguments already bound.
+   * The grounded literals are always reported in the rule's own order.
+   */
+  private static class RuleTemplate {
+    final MLNText.Rule rule;
+    final MLNText.Predicate[] predicates;
+    final int[] joinOrder;
+
+    private RuleTemplate(MLNText.Rule rule, MLNText.Predicate[] predicates, int[] joinOrder) {
+      this.rule = rule;
+      this.predicates = predicates;
+      this.joinOrder = joinOrder;
+    }
+  }
+
+  /** Compile a rule into a template, or get the template if it has already been compiled */
+  private RuleTemplate compile(MLNText.Rule rule) {
+    RuleTemplate template = templates.get(rule);
+    if (template != null) { return template; }
+    int numLiterals = rule.literals.size();
+    MLNText.Predicate[] predicates = new MLNText.Predicate[numLiterals];
+    for (int i = 0; i < numLiterals; ++i) {
+      predicates[i] = program.getPredicateByName(rule.literals.get(i).name).orCrash();
+    }
+    // Greedily pick the join order
+    int[] joinOrder = new int[numLiterals];
+    boolean[] placed = new boolean[numLiterals];
+    Set<String> bound = new HashSet<>();
+    for (int k = 0; k < numLiterals; ++k) {
+      int best = -1;
+      int bestScore = -1;
+      for (int i = 0; i < numLiterals; ++i) {
+        if (placed[i]) { continue; }
+        MLNText.Literal literal = rule.literals.get(i);
+        int score = (predicates[i].closed ? 4 : 0) +
+            (isConstant(literal.arg1) || bound.contains(literal.arg1) ? 1 : 0) +
+            (isConstant(literal.arg2) || bound.contains(literal.arg2) ? 1 : 0);
+        if (score > bestScore) {
+          best = i;
+          bestScore = score;
+        }
+      }
+      placed[best] = true;
+      joinOrder[k] = best;
+      MLNText.Literal literal = rule.literals.get(best);
+      if (!isConstant(literal.arg1)) { bound.add(literal.arg1); }
+      if (!isConstant(literal.arg2)) { bound.add(literal.arg2); }
+    }
+    template = new RuleTemplate(rule, predicates, joinOrder);
+    templates.put(rule, template);
+    return template;
+  }
+
+  /**
+   * Recursively ground the provided rule template, joining each literal against the bindings so far.
+   * Closed literals are joined against the evidence indexed by whichever argument is bound;
+   * open literals are joined against the valid pairings of their first argument, if there are any,
+   * and against the domains of their types otherwise.
    * Note:  A capital argument is a ground variable.
-   * @param rule - Rule template
-   * @param groundedLiterals - partially grounded literals
+   * Distinct variables are always bound to distinct values, whereas a variable repeated within a literal
+   * (e.g., p(x,x)) is bound to the same value in both places, and so only grounds to literals like p(a,a).
+   * @param template - Compiled rule template
+   * @param groundedLiterals - partially grounded literals, in the rule's order
    * @param binding - variable binding
-   * @param index - grounding progress
+   * @param depth - grounding progress, as an index into the join order
    */
-  private void registerRuleTemplateHelper(final MLNText.Rule rule, double logProbTrue, double logProbFalse, final MLNText.Literal[] groundedLiterals, final Map<String, String> binding, final int index) {
-    if (index >= groundedLiterals.length) {
+  private void registerRuleTemplateHelper(final RuleTemplate template, double logProbTrue, double logProbFalse, final MLNText.Literal[] groundedLiterals, final Map<String, String> binding, final int depth) {
+    if (depth >= groundedLiterals.length) {
       registerRuleInstance(logProbTrue, logProbFalse, groundedLiterals);
-    } else {
-      // Try to bind this relation.
-      boolean[] backtrackBinding = {false, false};
-      MLNText.Literal literal = rule.literals.get(index);
-      MLNText.Predicate pred = program.getPredicateByName(literal.name).orCrash();
-
-      if(pred.closed) {
-        // Go through all the evidence of this closed type and attempt to ground it.
-        for(MLNText.Literal groundedLiteral : closedWorldEvidence.get(pred) ) {
-          // Attempt to bind 1
-          if(isConstant(literal.arg1)) {
-            if(!groundedLiteral.arg1.equals(literal.arg1)) continue;
-          } else if(binding.containsKey(literal.arg1)) {
-            if(!groundedLiteral.arg1.equals(binding.get(literal.arg1))) continue;
-          } else {
-            backtrackBinding[0] = true;
-          }
-
-          if(isConstant(literal.arg2)) {
-            if(!groundedLiteral.arg2.equals(literal.arg2)) continue;
-          } else if(binding.containsKey(literal.arg2)) {
-            if(!groundedLiteral.arg2.equals(binding.get(literal.arg2))) continue;
-          } else {
-            backtrackBinding[1] = true;
-          }
-
-
-          if(backtrackBinding[0]) {
-            if(binding.containsValue(groundedLiteral.arg1)) continue;
-            binding.put(literal.arg1, groundedLiteral.arg1);
-          }
-          if(backtrackBinding[1]) {
-            if(binding.containsValue(groundedLiteral.arg2)) continue;
-            binding.put(literal.arg2, groundedLiteral.arg2);
-          }
-
-          // Store this as the current literal and proceed.
-          groundedLiterals[index] = literal.withArgs(groundedLiteral.arg1, groundedLiteral.arg2);
-          registerRuleTemplateHelper(rule, logProbTrue, logProbFalse, groundedLiterals, binding, index+1);
-          if(backtrackBinding[0])
-            binding.remove(literal.arg1);
-          if(backtrackBinding[1])
-            binding.remove(literal.arg2);
-        }
+      return;
+    }
+    int index = template.joinOrder[depth];
+    MLNText.Literal literal = template.rule.literals.get(index);
+    MLNText.Predicate pred = template.predicates[index];
+    // The values of the arguments, if they are already bound
+    String bound1 = isConstant(literal.arg1) ? literal.arg1 : binding.get(literal.arg1);
+    String bound2 = isConstant(literal.arg2) ? literal.arg2 : binding.get(literal.arg2);
+
+    if(pred.closed) {
+      // Join against the evidence of this closed type
+      List<MLNText.Literal> candidates;
+      if (bound1 != null) {
+        candidates = closedWorldEvidenceByArg1.get(pred).getOrDefault(bound1, Collections.emptyList());
+      } else if (bound2 != null) {
+        candidates = closedWorldEvidenceByArg2.get(pred).getOrDefault(bound2, Collections.emptyList());
       } else {
-        // Ground literals of index
-        String type1 = pred.type1;
-        String type2 = pred.type2;
-
-        // Error checking
-        if(domains.get(type1) == null) {
-          warn("No entities registered of type : " + type1 + "; see registerDomain()");
-          return;
-        }
-        if(domains.get(type2) == null) {
-          warn("No entities registered of type : " + type2 + "; see registerDomain()");
-          return;
-        }
-        // Is this variable bound?
-        Collection<String> candidates1;
-        if(isConstant(literal.arg1)) {// Capital letter => ground constant
-          candidates1 = Collections.singleton(literal.arg1);
-        } else if (binding.containsKey(literal.arg1)) {
-          candidates1 = Collections.singleton(binding.get(literal.arg1));
-        } else {
-          candidates1 = domains.get(type1);
-          backtrackBinding[0] = true;
-        }
+        candidates = closedWorldEvidence.get(pred);
+      }
+      for(MLNText.Literal groundedLiteral : candidates) {
+        if (bound1 != null && !groundedLiteral.arg1.equals(bound1)) continue;
+        if (bound2 != null && !groundedLiteral.arg2.equals(bound2)) continue;
+        bindAndRecurse(template, logProbTrue, logProbFalse, groundedLiterals, binding, depth, groundedLiteral.arg1, groundedLiteral.arg2, bound1 == null, bound2 == null);
+      }
+    } else {
+      // Error checking
+      Collection<String> domain1 = domains.get(pred.type1);
+      Collection<String> domain2 = domains.get(pred.type2);
+      if(domain1 == null) {
+        warn("No entities registered of type : " + pred.type1 + "; see registerDomain()");
+        return;
+      }
+      if(domain2 == null) {
+        warn("No entities registered of type : " + pred.type2 + "; see registerDomain()");
+        return;
+      }
+      Collection<String> candidates1 = bound1 != null ? Collections.singleton(bound1) : domain1;
+      for(String arg1 : candidates1) {
+        Set<String> pairings = validPairings.get(arg1);
         Collection<String> candidates2;
-        if(isConstant(literal.arg2)) {// Capital letter => ground constant
-          candidates2 = Collections.singleton(literal.arg2);
-        } else if (binding.containsKey(literal.arg2)) {
-          candidates2 = Collections.singleton(binding.get(literal.arg2));
+        if (bound2 != null) {
+          candidates2 = Collections.singleton(bound2);
+        } else if (pairings != null) {
+          // Join against the valid pairings, rather than scanning the domain
+          candidates2 = new ArrayList<>();
+          for (String arg2 : pairings) {
+            if (domain2.contains(arg2)) { candidates2.add(arg2); }
+          }
         } else {
-          candidates2 = domains.get(type2);
-          backtrackBinding[1] = true;
+          candidates2 = domain2;
         }
-
-        for(String arg1 : candidates1) {
-          for(String arg2 : candidates2) {
-            // Make sure this is a valid pairing
-            if(validPairings.containsKey(arg1) && !validPairings.get(arg1).contains(arg2)) continue;
-
-            // Variable names are unique! so if you've bound this before, don't.
-            if(backtrackBinding[0]) {
-              if(binding.containsValue(arg1)) continue;
-              binding.put(literal.arg1, arg1);
-            }
-            if(backtrackBinding[1]) {
-              if(binding.containsValue(arg2)) continue;
-              binding.put(literal.arg2, arg2);
-            }
-
-            // Store this as the current literal and proceed.
-            groundedLiterals[index] = literal.withArgs(arg1, arg2);
-            // Recursive call -- eek intractable! Grounding is hard...
-            registerRuleTemplateHelper(rule, logProbTrue, logProbFalse, groundedLiterals, binding, index+1);
-            if(backtrackBinding[0])
-              binding.remove(literal.arg1);
-            if(backtrackBinding[1])
-              binding.remove(literal.arg2);
-          }
+        for(String arg2 : candidates2) {
+          // Make sure this is a valid pairing
+          if(pairings != null && !pairings.contains(arg2)) continue;
+          bindAndRecurse(template, logProbTrue, logProbFalse, groundedLiterals, binding, depth, arg1, arg2, bound1 == null, bound2 == null);
         }
       }
     }
   }
 
+  /** Bind the free arguments of the literal at the given depth, recurse, and then unbind them */
+  private void bindAndRecurse(final RuleTemplate template, double logProbTrue, double logProbFalse, final MLNText.Literal[] groundedLiterals, final Map<String, String> binding, final int depth,
+                              String arg1, String arg2, boolean bind1, boolean bind2) {
+    int index = template.joinOrder[depth];
+    MLNText.Literal literal = template.rule.literals.get(index);
+    if (bind1 && bind2 && literal.arg1.equals(literal.arg2)) {
+      // The same variable twice
+      if (!arg1.equals(arg2)) return;
+      bind2 = false;
+    }
+    // Variable names are unique! so if you've bound this before, don't.
+    if (bind1 && binding.containsValue(arg1)) return;
+    if (bind2 && (binding.containsValue(arg2) || (bind1 && arg1.equals(arg2)))) return;
+    if (bind1) { binding.put(literal.arg1, arg1); }
+    if (bind2) { binding.put(literal.arg2, arg2); }
+    // Store this as the current literal and proceed.
+    groundedLiterals[index] = literal.withArgs(arg1, arg2);
+    registerRuleTemplateHelper(template, logProbTrue, logProbFalse, groundedLiterals, binding, depth + 1);
+    if (bind1) { binding.remove(literal.arg1); }
+    if (bind2) { binding.remove(literal.arg2); }
+  }
+
   /**
    * Recursively ground the provided rule template.
    * @param rule
@@ -641,7 +736,7 @@ public class BayesNetBuilder {
     // Copy rule
     MLNText.Literal[] literals = new MLNText.Literal[rule.literals.size()];
     Map<String, String> binding = new HashMap<>();
-    registerRuleTemplateHelper(rule, logProbTrue, logProbFalse, literals, binding, 0);
+    registerRuleTemplateHelper(compile(rule), logProbTrue, logProbFalse, literals, binding, 0);
     return this;
   }
 
@@ -671,6 +766,8 @@ public class BayesNetBuilder {
     assert pred.closed;
     // Set as things that are fixed true / false
     closedWorldEvidence.get(pred).add(literal);
+    closedWorldEvidenceByArg1.get(pred).computeIfAbsent(literal.arg1, x -> new ArrayList<>()).add(literal);
+    closedWorldEvidenceByArg2.get(pred).computeIfAbsent(literal.arg2, x -> new ArrayList<>()).add(literal);
     {
       int idx = variableIndexer.addToIndex(literal.asTrue());
       fixedValues.put(idx, literal.truth);
@@ -684,8 +781,11 @@ public class BayesNetBuilder {
       program.predicates.add(predicate);
       registerDomain(predicate.type1);
       registerDomain(predicate.type2);
-      if(predicate.closed)
+      if(predicate.closed) {
         closedWorldEvidence.put(predicate, new ArrayList<MLNText.Literal>());
+        closedWorldEvidenceByArg1.put(predicate, new HashMap<>());
+        closedWorldEvidenceByArg2.put(predicate, new HashMap<>());
+      }
     }
     return this;
   }
@@ -695,6 +795,12 @@ public class BayesNetBuilder {
     return this;
   }
 
+  /** If true, stop sampling early once the chains agree (see {@link BayesNet}); otherwise, always run every iteration */
+  public BayesNetBuilder paramCheckConvergence(boolean checkConvergence) {
+    this.checkConvergence = checkConvergence;
+    return this;
+  }
+
   public BayesNetBuilder addPredicates(Collection<MLNText.Predicate> predicates) {
     for(MLNText.Predicate predicate : predicates)
       registerPredicate(predicate);
@@ -782,6 +888,10 @@ public class BayesNetBuilder {
       registerRuleTemplate(rule, logProbTrue, logProbFalse);
     }
     // Now ground all the priors only on the literals you've considered so far.
+    Map<String, List<MLNText.Literal>> literalsByName = new HashMap<>();
+    for(MLNText.Literal literal : variableIndexer.objectsList()) {
+      literalsByName.computeIfAbsent(literal.name, x -> new ArrayList<>()).add(literal);
+    }
     for(MLNText.Rule rule: program.rules) {
       if(rule.literals.size() != 1) continue;
       double prob = SloppyMath.sigmoid(rule.weight);
@@ -791,10 +901,8 @@ public class BayesNetBuilder {
       MLNText.Literal priorLiteral = rule.literals.get(0);
 
       // For every literal we've grounded so far, add this prior
-      for(MLNText.Literal literal : variableIndexer.objectsList()) {
-        if(literal.name.equals(priorLiteral.name)) {
-          registerRuleInstance(logProbTrue, logProbFalse, new MLNText.Literal[]{priorLiteral.withArgs(literal.arg1, literal.arg2)});
-        }
+      for(MLNText.Literal literal : literalsByName.getOrDefault(priorLiteral.name, Collections.emptyList())) {
+        registerRuleInstance(logProbTrue, logProbFalse, new MLNText.Literal[]{priorLiteral.withArgs(literal.arg1, literal.arg2)});
       }
     }
 
@@ -820,7 +928,8 @@ public class BayesNetBuilder {
             factors.toArray(new BayesNet.Factor[factors.size()]),
             priors,
             fixedValues,
-            this.doHillclimb);
+            this.doHillclimb,
+            this.checkConvergence);
   }
 
   /**
@@ -14,6 +14,8 @@ public class MLNText {
     final String name;
     final String type1;
     final String type2;
+    /** The string form of this predicate, which defines its equality; computed lazily */
+    private String repr;
 
     // TODO(arun): Extend to more than 2 args
     public Predicate(boolean closed, String name, String type1, String type2) {
@@ -27,7 +29,10 @@ public class MLNText {
     }
 
     public String toString() {
-      return String.format( "%s%s(%s,%s)", closed ? "*" : "", name, type1, type2);
+      if (repr == null) {
+        repr = String.format( "%s%s(%s,%s)", closed ? "*" : "", name, type1, type2);
+      }
+      return repr;
     }
 
     @Override
@@ -55,6 +60,8 @@ public class MLNText {
     final String arg1;
     final String arg2;
     final boolean truth;
+    /** The string form of this literal, which defines its equality; computed lazily, as literals are hashed a lot */
+    private String repr;
 
     public Literal(boolean truth, String name, String arg1, String arg2) {
       this.truth = truth;
@@ -68,10 +75,13 @@ public class MLNText {
     }
 
     public String toString() {
-      if(truth)
-        return String.format( "%s(%s,%s)", name, arg1, arg2);
-      else
-        return String.format( "!%s(%s,%s)", name, arg1, arg2);
+      if (repr == null) {
+        if(truth)
+          repr = String.format( "%s(%s,%s)", name, arg1, arg2);
+        else
+          repr = String.format( "!%s(%s,%s)", name, arg1, arg2);
+      }
+      return repr;
     }
 
     @Override
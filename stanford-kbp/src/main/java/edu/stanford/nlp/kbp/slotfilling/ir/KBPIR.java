@@ -12,9 +12,14 @@ import edu.stanford.nlp.util.IterableIterator;
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.logging.Redwood;
 
-import java.io.BufferedReader;
-import java.io.IOException;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -82,6 +87,28 @@ public abstract class KBPIR {
     return slurpDocuments(Integer.MAX_VALUE);
   }
 
+  /**
+   * Apply a function to every document known to the IR index, in parallel.
+   * These documents satisfy the same contract as those from {@link KBPIR#slurpDocuments(int)}.
+   * Implementations should run this on a bounded pool, with bounded memory, as it is intended for full-index passes.
+   * @param maxDocuments The maximum number of documents to process.
+   * @param fn The function to apply to every document. This must be threadsafe.
+   */
+  public void scanDocuments(int maxDocuments, Consumer<Annotation> fn) {
+    scanDocuments(Maybe.<String>Nothing(), maxDocuments, fn);
+  }
+
+  /**
+   * As {@link KBPIR#scanDocuments(int, Consumer)}, but for a named job, which implementations may checkpoint so that
+   * running the same job again resumes where it left off.
+   * @param job The name of the pass over the documents, if it should be checkpointed.
+   * @param maxDocuments The maximum number of documents to process.
+   * @param fn The function to apply to every document. This must be threadsafe.
+   */
+  public void scanDocuments(Maybe<String> job, int maxDocuments, Consumer<Annotation> fn) {
+    slurpDocuments(maxDocuments).forEach(fn);
+  }
+
 
   /** The top level function to query for sentences */
   protected List<CoreMap> querySentences(KBPEntity entity, Maybe<KBPEntity> slotValue,
@@ -128,25 +155,119 @@ public abstract class KBPIR {
    * This is to allow reading it from a simple serialized file, rather than having to parse
    * the XML each time.
    */
-  protected static KnowledgeBase knowledgeBase = new KnowledgeBase();
+  protected static volatile KnowledgeBase knowledgeBase = new KnowledgeBase();
+
+  /**
+   * The knowledge base being (or having been) loaded. The first caller of {@link KBPIR#getKnowledgeBase()}
+   * loads the knowledge base; any concurrent callers wait on this future rather than on a global lock.
+   */
+  private static final AtomicReference<CompletableFuture<KnowledgeBase>> knowledgeBaseFuture = new AtomicReference<>();
 
   /**
    * Retrieve the knowledge base. Note that unlike {@link edu.stanford.nlp.kbp.slotfilling.ir.KBPIR#trainingTriples()},
    * this method will return the entire known knowledge base, not limited by {@link Props#TRAIN_TUPLES_COUNT}.
+   * The knowledge base returned is frozen (see {@link KnowledgeBase#freeze()}).
+   */
+  public KnowledgeBase getKnowledgeBase() {
+    CompletableFuture<KnowledgeBase> future = knowledgeBaseFuture.get();
+    if (future == null) {
+      CompletableFuture<KnowledgeBase> ours = new CompletableFuture<>();
+      if (knowledgeBaseFuture.compareAndSet(null, ours)) {
+        // We're the first caller -- load the knowledge base
+        forceTrack("Reading KB");
+        try {
+          KnowledgeBase kb = readKnowledgeBase().freeze();
+          knowledgeBase = kb;
+          ours.complete(kb);
+        } catch (Throwable t) {
+          // (including Errors -- e.g., running out of memory -- so that no caller waits forever)
+          knowledgeBaseFuture.set(null);  // let the next caller try again
+          ours.completeExceptionally(t);
+        } finally {
+          endTrack("Reading KB");
+        }
+        future = ours;
+      } else {
+        future = knowledgeBaseFuture.get();
+        if (future == null) { return getKnowledgeBase(); }  // the load failed and was reset; try again
+      }
+    }
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+      if (e.getCause() instanceof Error) { throw (Error) e.getCause(); }
+      throw e;
+    }
+  }
+
+  /**
+   * Read the knowledge base from {@link Props#TRAIN_TUPLES_FILES} and {@link Props#TRAIN_TUPLES_AUX}.
+   * If snapshots are enabled (see {@link Props#TRAIN_TUPLES_SNAPSHOTDIR}) and one exists for exactly these files,
+   * it is loaded from there; otherwise, the files are parsed and, if enabled, a snapshot is written for next time.
    */
-  public synchronized KnowledgeBase getKnowledgeBase() {
-    forceTrack("Reading KB");
-    if (knowledgeBase == null || knowledgeBase.isEmpty()) {
-      // Knowledge base is not cached -- start caching it
-      for (KBTriple tuple: trainingDataFromKBPTSV(Integer.MAX_VALUE, Props.TRAIN_TUPLES_FILES)) {
-        knowledgeBase.put(KBPNew.from(tuple).KBPSlotFill());
+  protected KnowledgeBase readKnowledgeBase() {
+    // Try to read a snapshot
+    Maybe<String> snapshotKey = Props.TRAIN_TUPLES_SNAPSHOTDIR == null ? Maybe.<String>Nothing()
+        : knowledgeBaseSnapshotKey(Props.TRAIN_TUPLES_FILES, Props.TRAIN_TUPLES_AUX);
+    Maybe<File> snapshotFile = Maybe.Nothing();
+    if (snapshotKey.isDefined()) {
+      snapshotFile = Maybe.Just(new File(Props.TRAIN_TUPLES_SNAPSHOTDIR, "kb_" + snapshotKey.get().substring(0, 16) + ".snapshot.gz"));
+      try {
+        Maybe<KnowledgeBase> snapshot = KnowledgeBase.readSnapshot(snapshotFile.get(), snapshotKey.get());
+        if (snapshot.isDefined()) {
+          logger.log("read knowledge base snapshot from " + snapshotFile.get());
+          return snapshot.get();
+        }
+      } catch (IOException | RuntimeException e) {
+        logger.warn("could not read knowledge base snapshot " + snapshotFile.get() + "; re-parsing the knowledge base");
+        logger.warn(e);
       }
-      for (KBTriple tuple: trainingDataFromTSV(Integer.MAX_VALUE, Props.TRAIN_TUPLES_AUX)) {
-        knowledgeBase.put(KBPNew.from(tuple).KBPSlotFill());
+    }
+
+    // Parse the knowledge base
+    final KnowledgeBase kb = new KnowledgeBase();
+    streamTuplesFromKBPTSV(Integer.MAX_VALUE, tuple -> kb.put(KBPNew.from(tuple).KBPSlotFill()), Props.TRAIN_TUPLES_FILES);
+    streamTuplesFromTSV(Integer.MAX_VALUE, tuple -> kb.put(KBPNew.from(tuple).KBPSlotFill()), Props.TRAIN_TUPLES_AUX);
+
+    // Write a snapshot
+    for (File file : snapshotFile) {
+      try {
+        if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) { throw new IOException("could not create directory for " + file); }
+        kb.writeSnapshot(file, snapshotKey.get());
+        logger.log("wrote knowledge base snapshot to " + file);
+      } catch (IOException e) {
+        logger.warn("could not write knowledge base snapshot to " + file);
+        logger.warn(e);
       }
     }
-    endTrack("Reading KB");
-    return knowledgeBase;
+    return kb;
+  }
+
+  /**
+   * Compute a key identifying the knowledge base read from the given files, as a SHA-256 of their paths, sizes and
+   * modification times. This is cheap to compute, as the files themselves are never read; a file rewritten in place
+   * with the same size within the file system's timestamp resolution is not noticed.
+   * @return The key, or {@link Maybe#Nothing()} if one of the files could not be read.
+   */
+  private static Maybe<String> knowledgeBaseSnapshotKey(String[] kbptsvFiles, String[] tsvFiles) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      for (String[] files : new String[][]{ kbptsvFiles, tsvFiles }) {
+        md.update((byte) '|');
+        for (String file : files) {
+          File f = new File(file);
+          if (!f.canRead()) { throw new IOException("cannot read " + file); }
+          md.update((f.getAbsolutePath() + "\t" + f.length() + "\t" + f.lastModified() + "\n").getBytes("UTF-8"));
+        }
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : md.digest()) { sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1)); }
+      return Maybe.Just(sb.toString());
+    } catch (IOException | NoSuchAlgorithmException e) {
+      logger.warn("could not compute knowledge base snapshot key: " + e.getMessage());
+      return Maybe.Nothing();
+    }
   }
 
   //
@@ -164,17 +285,27 @@ public abstract class KBPIR {
    */
   public List<KBTriple> trainingDataFromTSV(int limit, String... files) {
     List<KBTriple> kb = new ArrayList<>();
+    streamTuplesFromTSV(limit, kb::add, files);
+    return kb;
+  }
+
+  /**
+   * @see KBPIR#trainingDataFromTSV(int, String...)
+   * @param sink The function to call on every triple read, in order.
+   */
+  public void streamTuplesFromTSV(int limit, Consumer<KBTriple> sink, String... files) {
     int numRead = 0;
     for (String file : files) {
+      int numReadFromFile = 0;
       for (String line : IOUtils.linesFromFile(file)) {
-        String[] fields = line.split("\t");
-        kb.add(KBPNew.entName(fields[0]).entType(fields[1]).slotValue(fields[3]).slotType(fields[4]).rel(fields[2]).KBTriple());
+        String[] fields = TAB_PATTERN.split(line);
+        sink.accept(KBPNew.entName(fields[0]).entType(fields[1]).slotValue(fields[3]).slotType(fields[4]).rel(fields[2]).KBTriple());
         numRead += 1;
-        if (numRead > limit) { return kb; }
+        numReadFromFile += 1;
+        if (numRead > limit) { return; }
       }
-      logger.log("read " + kb.size() + " triples from " + file);
+      logger.log("read " + numReadFromFile + " triples from " + file);
     }
-    return kb;
   }
 
 
@@ -187,45 +318,62 @@ public abstract class KBPIR {
    */
   public List<KBTriple> trainingDataFromKBPTSV(int limit, String... files) {
     List<KBTriple> tuples = new ArrayList<>();
+    streamTuplesFromKBPTSV(limit, tuples::add, files);
+    return tuples;
+  }
+
+  /**
+   * @see KBPIR#trainingDataFromKBPTSV(int, String...)
+   * @param sink The function to call on every triple read, in order.
+   */
+  public void streamTuplesFromKBPTSV(int limit, Consumer<KBTriple> sink, String... files) {
+    int[] numRead = new int[]{ 0 };
     for (String file:files) {
-      readTuplesFromKBPTSV(tuples, file, limit);
+      if (!readTuplesFromKBPTSV(sink, numRead, file, limit)) { return; }
     }
-    return tuples;
   }
 
   /** The tab character */
   private static final Pattern TAB_PATTERN = Pattern.compile("\\t");
   /**
-   * Get the list of training tuples, from one TSV file.
+   * Read the training tuples from one TSV file.
    * Format of the file is tab delimited with fields: entityId, entityName, relationName, and slotValue
-   * @return A list of KBTriple objects, corresponding to the (entity, relation, slotValue) triples found in the TSV file.
+   *
+   * The file is read twice: once to vote on the NER tag of every entity, and again to create the triples.
+   * Thus, only the entity votes are held in memory, and not the lines of the file.
+   *
+   * @param sink The function to call on every KBTriple found in the TSV file.
+   * @param numRead The number of tuples read so far, across all files; this is updated.
+   * @return False if the limit was reached.
    */
-  private List<KBTriple> readTuplesFromKBPTSV(List<KBTriple> tuples, String filename, int limit) {
+  private boolean readTuplesFromKBPTSV(Consumer<KBTriple> sink, int[] numRead, String filename, int limit) {
     try {
-      // Slurp file
+      // Compute entity NER votes
+      Map<String, Counter<NERTag>> entityNERCounts = new HashMap<>();
       BufferedReader bufferedReader = IOUtils.getBufferedFileReader(filename);
       String line;
-      List<String[]> lines = new ArrayList<>();
       while ((line = bufferedReader.readLine()) != null) {
-        lines.add(TAB_PATTERN.split(line));
-      }
-
-      // Compute entity NER votes
-      Map<String, Counter<NERTag>> entityNERCounts = new HashMap<>();
-      for (String[] fields : lines) {
+        String[] fields = TAB_PATTERN.split(line);
+        if (fields.length != 4) { continue; }  // error thrown below
         String entityName = fields[1];
         if (!entityNERCounts.containsKey(entityName)) { entityNERCounts.put(entityName, new ClassicCounter<NERTag>()); }
         NERTag entType = NERTag.fromRelation(fields[2]).orCrash("Unknown relation " + fields[2]);
         entityNERCounts.get(entityName).incrementCount(entType);
       }
+      bufferedReader.close();
       Map<String, NERTag> entityNERTags = new HashMap<>();
       for (Map.Entry<String, Counter<NERTag>> entry : entityNERCounts.entrySet()) {
         entityNERTags.put(entry.getKey(), Counters.argmax(entry.getValue()));
       }
+      entityNERCounts.clear();
 
+      // Read the tuples
       int count = 0;
+      int startCount = numRead[0];
       boolean tuplesCountReached = false;
-      for (String[] fields : lines) {
+      bufferedReader = IOUtils.getBufferedFileReader(filename);
+      while ((line = bufferedReader.readLine()) != null) {
+        String[] fields = TAB_PATTERN.split(line);
         count++;
         if (fields.length == 4) {
           // 0 is entityId, 1 is entityName, 2 is relationName, 3 is slotValue
@@ -243,21 +391,23 @@ public abstract class KBPIR {
                     triple.slotType.get().isRegexNERType && !relation.validNamedEntityLabels.contains(triple.slotType.get())) ) {
               logger.debug("invalid KB entry: " + triple);
             } else {
-              tuples.add(triple);
+              sink.accept(triple);
+              numRead[0] += 1;
             }
           }
 
-          if (limit > 0 && tuples.size() >= limit) {
+          if (limit > 0 && numRead[0] >= limit) {
             tuplesCountReached = true;
             break;
           }
         } else {
+          bufferedReader.close();
           throw new RuntimeException("Error reading tuples from TSV: Invalid line at " + filename + ":" + count);
         }
       }
-      logger.log("read " + tuples.size() + " triples from " + filename + ((tuplesCountReached) ? " reached tupled count" : ""));
+      logger.log("read " + (numRead[0] - startCount) + " triples from " + filename + ((tuplesCountReached) ? " reached tupled count" : ""));
       bufferedReader.close();
-      return tuples;
+      return !tuplesCountReached;
     } catch (IOException ex) {
       throw new RuntimeException("Error reading tuples from " + filename, ex);
     }
@@ -84,7 +84,9 @@ public class KBPRelationProvenance implements Serializable {
     // Be careful: a bunch of these get serialized as datums.
     CoreMap lossySentence;
     if (Props.KBP_VALIDATE && Props.VALIDATE_RULES_DO) {
-      lossySentence = containingSentence;  // in validation mode, this is our only hook into the original sentence
+      // in validation mode, this is our only hook into the original sentence
+      // (so, it must not read through to a document overlay, whose original is modified once the overlay is done with)
+      lossySentence = containingSentence == null ? null : CoreMapUtils.detachSentence(containingSentence);
     } else {
 
       lossySentence = new ArrayCoreMap(1);
@@ -2,27 +2,130 @@ package edu.stanford.nlp.kbp.slotfilling.ir;
 
 import edu.stanford.nlp.kbp.common.*;
 
+import java.io.*;
 import java.util.*;
-import java.io.Serializable;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.warn;
 
 /**
  * A representation of the knowledge base.
+ *
+ * <p>
+ *   In addition to the fills for each entity, this keeps secondary indices on (entity, relation),
+ *   (entity, slot value), and (slot value, relation), so that membership checks and lookups
+ *   by relation do not need to scan every fill for an entity.
+ *   Once the knowledge base is loaded, {@link KnowledgeBase#freeze()} creates a compact, immutable copy
+ *   which can be shared across threads.
+ * </p>
  */
 public class KnowledgeBase implements Serializable {
+  private static final long serialVersionUID = 1L;
 
-  public final LinkedHashMap<KBPEntity, LinkedHashSet<KBPSlotFill>> data;
+  /** The fills for each entity, in the order they were added; unmodifiable once frozen */
+  public final Map<KBPEntity, Set<KBPSlotFill>> data;
+  /** The fills for each entity name, for any entity type; unmodifiable once frozen */
   public final Map<String, Set<KBPSlotFill>> dataByName;
 
+  /** An index from (entity, relation) to the fills with that entity and relation */
+  private final Map<KBPEntity, Map<String, List<KBPSlotFill>>> byEntityRelation;
+  /** An index from (entity, slot value) to the fills with that entity and slot value */
+  private final Map<KBPEntity, Map<String, List<KBPSlotFill>>> byEntitySlotValue;
+  /** An index from (slot value, relation) to the fills with that slot value and relation */
+  private final Map<String, Map<String, List<KBPSlotFill>>> bySlotValueRelation;
+
+  /** If true, this knowledge base cannot be modified */
+  public final boolean isFrozen;
+
   public KnowledgeBase() {
     data = new LinkedHashMap<>();
     dataByName = new HashMap<>();
+    byEntityRelation = new HashMap<>();
+    byEntitySlotValue = new HashMap<>();
+    bySlotValueRelation = new HashMap<>();
+    isFrozen = false;
+  }
+
+  /** Create a frozen copy of the given knowledge base; see {@link KnowledgeBase#freeze()} */
+  private KnowledgeBase(KnowledgeBase toFreeze) {
+    Map<KBPEntity, Set<KBPSlotFill>> data = new LinkedHashMap<>(toFreeze.data.size() * 4 / 3 + 1);
+    for (Map.Entry<KBPEntity, Set<KBPSlotFill>> entry : toFreeze.data.entrySet()) {
+      data.put(entry.getKey(), Collections.unmodifiableSet(new LinkedHashSet<>(entry.getValue())));
+    }
+    this.data = Collections.unmodifiableMap(data);
+    Map<String, Set<KBPSlotFill>> dataByName = new HashMap<>(toFreeze.dataByName.size() * 4 / 3 + 1);
+    for (Map.Entry<String, Set<KBPSlotFill>> entry : toFreeze.dataByName.entrySet()) {
+      dataByName.put(entry.getKey(), Collections.unmodifiableSet(new HashSet<>(entry.getValue())));
+    }
+    this.dataByName = Collections.unmodifiableMap(dataByName);
+    byEntityRelation = freezeIndex(toFreeze.byEntityRelation);
+    byEntitySlotValue = freezeIndex(toFreeze.byEntitySlotValue);
+    bySlotValueRelation = freezeIndex(toFreeze.bySlotValueRelation);
+    isFrozen = true;
+  }
+
+  /** Copy an index into exactly-sized, unmodifiable maps and lists */
+  private static <K> Map<K, Map<String, List<KBPSlotFill>>> freezeIndex(Map<K, Map<String, List<KBPSlotFill>>> index) {
+    Map<K, Map<String, List<KBPSlotFill>>> frozen = new HashMap<>(index.size() * 4 / 3 + 1);
+    for (Map.Entry<K, Map<String, List<KBPSlotFill>>> entry : index.entrySet()) {
+      Map<String, List<KBPSlotFill>> inner;
+      if (entry.getValue().size() == 1) {
+        Map.Entry<String, List<KBPSlotFill>> singleton = entry.getValue().entrySet().iterator().next();
+        inner = Collections.singletonMap(singleton.getKey(), freezeList(singleton.getValue()));
+      } else {
+        inner = new HashMap<>(entry.getValue().size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<KBPSlotFill>> innerEntry : entry.getValue().entrySet()) {
+          inner.put(innerEntry.getKey(), freezeList(innerEntry.getValue()));
+        }
+        inner = Collections.unmodifiableMap(inner);
+      }
+      frozen.put(entry.getKey(), inner);
+    }
+    return Collections.unmodifiableMap(frozen);
+  }
+
+  private static List<KBPSlotFill> freezeList(List<KBPSlotFill> fills) {
+    if (fills.size() == 1) { return Collections.singletonList(fills.get(0)); }
+    return Collections.unmodifiableList(Arrays.asList(fills.toArray(new KBPSlotFill[fills.size()])));
+  }
+
+  /**
+   * Create an immutable copy of this knowledge base, with compact indices.
+   * The copy is safe to share across threads; any attempt to {@link KnowledgeBase#put(KBPSlotFill)} into
+   * it, or to modify its {@link KnowledgeBase#data} or {@link KnowledgeBase#dataByName}, will throw an exception.
+   */
+  public KnowledgeBase freeze() {
+    if (isFrozen) { return this; }
+    return new KnowledgeBase(this);
+  }
+
+  /** Look up a value in one of the indices, returning an empty list if it's not there */
+  private static <K> List<KBPSlotFill> lookup(Map<K, Map<String, List<KBPSlotFill>>> index, K outer, String inner) {
+    Map<String, List<KBPSlotFill>> innerMap = index.get(outer);
+    if (innerMap == null) { return Collections.emptyList(); }
+    List<KBPSlotFill> fills = innerMap.get(inner);
+    return fills == null ? Collections.<KBPSlotFill>emptyList() : fills;
+  }
+
+  /** Add a value to one of the indices */
+  private static <K> void index(Map<K, Map<String, List<KBPSlotFill>>> index, K outer, String inner, KBPSlotFill fill) {
+    Map<String, List<KBPSlotFill>> innerMap = index.get(outer);
+    if (innerMap == null) {
+      innerMap = new HashMap<>(4);
+      index.put(outer, innerMap);
+    }
+    List<KBPSlotFill> fills = innerMap.get(inner);
+    if (fills == null) {
+      fills = new ArrayList<>(1);
+      innerMap.put(inner, fills);
+    }
+    fills.add(fill);
   }
 
   /** Check whether the knowledge base has this (entity, relation, slotValue) triple */
   public boolean contains(KBTriple triple) {
-    for (KBPSlotFill fill : data.get(triple.getEntity())) {
+    for (KBPSlotFill fill : lookup(byEntitySlotValue, triple.getEntity(), triple.slotValue)) {
       if (fill.key.equals(triple)) { return true; }
     }
     return false;
@@ -30,11 +133,7 @@ public class KnowledgeBase implements Serializable {
 
   /** Check whether the knowledge base has this (entity, slotValue) pair, for any relation */
   public boolean contains(KBPair pair) {
-    LinkedHashSet<KBPSlotFill> fills = data.get(pair.getEntity());
-    if (fills == null) {
-      return false;
-    }
-    for (KBPSlotFill fill : fills) {
+    for (KBPSlotFill fill : lookup(byEntitySlotValue, pair.getEntity(), pair.slotValue)) {
       if (pair.equals(fill.key)) { return true; }
     }
     return false;
@@ -51,18 +150,25 @@ public class KnowledgeBase implements Serializable {
     }
   }
   public void put(KBPSlotFill fact) {
+    if (isFrozen) { throw new UnsupportedOperationException("Cannot add to a frozen knowledge base: " + fact); }
     KBPEntity entity = fact.key.getEntity();
     if(!data.containsKey(entity)) {
       data.put(entity, new LinkedHashSet<KBPSlotFill>());
+    }
+    if (!dataByName.containsKey(entity.name)) {
       dataByName.put(entity.name, new HashSet<KBPSlotFill>());
     }
-    data.get(entity).add(fact);
+    if (data.get(entity).add(fact)) {
+      index(byEntityRelation, entity, fact.key.relationName, fact);
+      index(byEntitySlotValue, entity, fact.key.slotValue, fact);
+      index(bySlotValueRelation, fact.key.slotValue, fact.key.relationName, fact);
+    }
     dataByName.get(entity.name).add(fact);
   }
 
   public Maybe<Set<KBPSlotFill>> get(KBPEntity entity) {
     if( data.containsKey(entity) ) {
-      return Maybe.Just((Set<KBPSlotFill>) data.get(entity));
+      return Maybe.Just(data.get(entity));
     } else if (dataByName.containsKey(entity.name)) {
       return Maybe.Just(dataByName.get(entity.name));
     } else {
@@ -70,17 +176,136 @@ public class KnowledgeBase implements Serializable {
     }
   }
 
+  /** Get all the fills for the given entity and relation; the returned list should not be modified */
+  public List<KBPSlotFill> getByRelation(KBPEntity entity, String relationName) {
+    return lookup(byEntityRelation, entity, relationName);
+  }
+
+  /** Get all the fills for the given entity and slot value, for any relation; the returned list should not be modified */
+  public List<KBPSlotFill> getBySlotValue(KBPEntity entity, String slotValue) {
+    return lookup(byEntitySlotValue, entity, slotValue);
+  }
+
+  /** Get all the fills with the given slot value and relation, for any entity; the returned list should not be modified */
+  public List<KBPSlotFill> getBySlotValueAndRelation(String slotValue, String relationName) {
+    return lookup(bySlotValueRelation, slotValue, relationName);
+  }
+
   public boolean isEmpty() {
     return data.isEmpty();
   }
 
+  /** The magic number at the start of a knowledge base snapshot */
+  private static final int SNAPSHOT_MAGIC = 0x4b425053;  // "KBPS"
+  /** The version of the snapshot format; bump this if the format changes */
+  private static final int SNAPSHOT_VERSION = 1;
+
+  /**
+   * Write a compact binary snapshot of this knowledge base, to be read back with
+   * {@link KnowledgeBase#readSnapshot(File, String)}.
+   * Strings are written once, and referenced by index thereafter.
+   *
+   * @param file The file to write the snapshot to. This is written atomically.
+   * @param key A key identifying the source of this knowledge base (e.g., a hash of the files it was read from).
+   */
+  public void writeSnapshot(File file, String key) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))));
+    try {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(SNAPSHOT_VERSION);
+      out.writeUTF(key);
+      int numFills = 0;
+      for (Set<KBPSlotFill> fills : data.values()) { numFills += fills.size(); }
+      out.writeInt(numFills);
+      Map<String, Integer> stringIndex = new HashMap<>();
+      for (Set<KBPSlotFill> fills : data.values()) {
+        for (KBPSlotFill fill : fills) {
+          KBTriple triple = fill.key;
+          writeString(out, stringIndex, triple.entityId.orNull());
+          writeString(out, stringIndex, triple.entityName);
+          out.writeByte(triple.entityType.ordinal());
+          writeString(out, stringIndex, triple.relationName);
+          writeString(out, stringIndex, triple.slotValue);
+          out.writeByte(triple.slotType.isDefined() ? triple.slotType.get().ordinal() : -1);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(file)) {
+      if (!file.delete() || !tmp.renameTo(file)) { throw new IOException("Could not move snapshot into place: " + file); }
+    }
+  }
+
+  /**
+   * Read a snapshot written with {@link KnowledgeBase#writeSnapshot(File, String)}.
+   * @param file The snapshot file.
+   * @param key The key the snapshot must have been written with; if it doesn't match, the snapshot is stale.
+   * @return The knowledge base, or {@link Maybe#Nothing()} if there is no valid snapshot for this key.
+   */
+  public static Maybe<KnowledgeBase> readSnapshot(File file, String key) throws IOException {
+    if (!file.exists()) { return Maybe.Nothing(); }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+    try {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION || !in.readUTF().equals(key)) {
+        return Maybe.Nothing();
+      }
+      int numFills = in.readInt();
+      List<String> strings = new ArrayList<>();
+      NERTag[] tags = NERTag.values();
+      KnowledgeBase kb = new KnowledgeBase();
+      for (int i = 0; i < numFills; ++i) {
+        String entityId = readString(in, strings);
+        String entityName = readString(in, strings);
+        NERTag entityType = tags[in.readByte()];
+        String relationName = readString(in, strings);
+        String slotValue = readString(in, strings);
+        byte slotType = in.readByte();
+        kb.put(KBPNew.entName(entityName).entType(entityType).entId(Maybe.fromNull(entityId))
+            .slotValue(slotValue).rel(relationName).slotType(slotType < 0 ? Maybe.<NERTag>Nothing() : Maybe.Just(tags[slotType]))
+            .KBPSlotFill());
+      }
+      return Maybe.Just(kb);
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Write a (nullable) string, as either a reference to a string already written or the string itself */
+  private static void writeString(DataOutputStream out, Map<String, Integer> stringIndex, String str) throws IOException {
+    if (str == null) {
+      out.writeInt(-1);
+    } else if (stringIndex.containsKey(str)) {
+      out.writeInt(stringIndex.get(str));
+    } else {
+      out.writeInt(-2);
+      out.writeUTF(str);
+      stringIndex.put(str, stringIndex.size());
+    }
+  }
+
+  /** @see KnowledgeBase#writeString(DataOutputStream, Map, String) */
+  private static String readString(DataInputStream in, List<String> strings) throws IOException {
+    int index = in.readInt();
+    if (index == -1) {
+      return null;
+    } else if (index == -2) {
+      String str = in.readUTF();
+      strings.add(str);
+      return str;
+    } else {
+      return strings.get(index);
+    }
+  }
+
   public List<KBTriple> triples() {
     return triples(Integer.MAX_VALUE);
   }
   public List<KBTriple> triples(int maxTriples) {
     List<KBTriple> triples = new ArrayList<>();
     int numTr = 0;
-    for (LinkedHashSet<KBPSlotFill> fills : data.values()) {
+    for (Set<KBPSlotFill> fills : data.values()) {
       for (KBPSlotFill fill : fills) {
         assert this.contains(fill.key);
         numTr++;
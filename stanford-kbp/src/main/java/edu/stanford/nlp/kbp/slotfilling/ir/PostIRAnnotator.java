@@ -141,6 +141,16 @@ public class PostIRAnnotator implements Annotator {
   public static Connection psql = null;
   public static PreparedStatement insertPos = null, insertNeg = null;
 
+  /** Where to save the contexts of linked mentions; shared across documents, so that writes can be batched */
+  private static EntityContextStore savedContexts = null;
+
+  private static synchronized EntityContextStore savedContexts() {
+    if (savedContexts == null) {
+      savedContexts = EntityContextStore.postgres(Props.DB_TABLE_ENTITY_CONTEXT, EntityContextStore.DEFAULT_BATCH_SIZE);
+    }
+    return savedContexts;
+  }
+
   public Connection getConnection() throws SQLException {
     Connection psql = DriverManager.getConnection(PostgresUtils.uri(), Props.PSQL_USERNAME, Props.PSQL_PASSWORD);
     psql.setAutoCommit(false);
@@ -349,6 +359,14 @@ public class PostIRAnnotator implements Annotator {
       return;
     }
 
+    // Link each distinct mention in this document only once
+    EntityLinker.Session linking = Props.ENTITYLINKING_LINKER.get().newSession();
+    EntityLinker.Session baselineLinking = new EntityLinker.GaborsHackyBaseline().newSession();
+    // (the query context is the same for every mention)
+    EntityContext queryContext = entity.representativeContext.isDefined()
+        ? entity.representativeContext.get()
+        : new EntityContext(entity);
+
     Collection<Pair<List<CorefChain.CorefMention>, CorefChain.CorefMention>> cleanedChains = cleanCorefChains(corpus.get(CorefCoreAnnotations.CorefChainAnnotation.class));
     for (Pair<List<CorefChain.CorefMention>,CorefChain.CorefMention> mentionsAndRepresentantiveMention : cleanedChains) {
       // By default, trust Coref
@@ -373,10 +391,6 @@ public class PostIRAnnotator implements Annotator {
         if (nerVotesForMention.size() > 1) { nerVotesForMention.remove(NERTag.DATE.name); }
         for (NERTag ner : NERTag.fromString(Counters.argmax(nerVotesForMention, (o1, o2) -> o1 == null ? 0 : o1.compareTo(o2)))) {
           // Try to link
-          // (get query context)
-          EntityContext queryContext = entity.representativeContext.isDefined()
-              ? entity.representativeContext.get()
-              : new EntityContext(entity);
           KBPEntity mentionEntity = KBPNew.entName(mentionString).entType(ner).KBPEntity();
           // (get mention context)
           EntityContext mentionContext;
@@ -396,7 +410,7 @@ public class PostIRAnnotator implements Annotator {
             representativeMention = mention;
           }
           // (link)
-          boolean isLinked = Props.ENTITYLINKING_LINKER.get().sameEntity(mentionContext, queryContext);
+          boolean isLinked = linking.sameEntity(mentionContext, queryContext);
           if (isLinked) {
             if (forceLink && (antecedent == null || representativeMention == null)) {
               antecedent = entityName;
@@ -407,17 +421,9 @@ public class PostIRAnnotator implements Annotator {
             }
             numMentionsMatchEntity += 1;
             //logger.log(mentionContext.entity.name + "\t" + queryContext.entity.name);
-            try {
-              ByteArrayOutputStream os1 = new ByteArrayOutputStream();
-              mentionContext.toProto().writeDelimitedTo(os1);
-              os1.close();
-              ByteArrayOutputStream os2 = new ByteArrayOutputStream();
-              queryContext.toProto().writeDelimitedTo(os2);
-              os2.close();
-              //doInsert(psql, insert, numQueuesWritten, mentionContext.entity.name, queryContext.entity.name, os1.toByteArray(), os2.toByteArray());
-              // insert here
-            } catch (IOException e) {
-              logger.err(e);
+            if (Props.INDEX_POSTIRANNOTATOR_SAVECONTEXTS) {
+              savedContexts().add(mentionContext);
+              savedContexts().add(queryContext);
             }
           }
         }
@@ -439,7 +445,7 @@ public class PostIRAnnotator implements Annotator {
           String mentionString = cleanGloss(mention, corpus);
           if (entity.name.equals(antecedent) && entity.type == NERTag.PERSON &&
               !dictionaries.allPronouns.contains(mentionString.toLowerCase()) &&
-              !new EntityLinker.GaborsHackyBaseline().sameEntity(
+              !baselineLinking.sameEntity(
                   new EntityContext(entity),
                   new EntityContext(KBPNew.entName(mentionString).entType(entity.type).KBPEntity()))) {
             logger.debug("Not linking '" + mentionString + "' to '" + antecedent + "'");
@@ -510,6 +516,11 @@ public class PostIRAnnotator implements Annotator {
       return;
     }
 
+    // (the query context is the same for every mention, and is only encoded once)
+    EntityContext queryContext = entity.representativeContext.isDefined()
+        ? entity.representativeContext.get()
+        : new EntityContext(entity);
+
     Collection<Pair<List<CorefChain.CorefMention>, CorefChain.CorefMention>> cleanedChains = cleanCorefChains(corpus.get(CorefCoreAnnotations.CorefChainAnnotation.class));
     for (Pair<List<CorefChain.CorefMention>,CorefChain.CorefMention> mentionsAndRepresentantiveMention : cleanedChains) {
       // By default, trust Coref
@@ -534,10 +545,6 @@ public class PostIRAnnotator implements Annotator {
         if (nerVotesForMention.size() > 1) { nerVotesForMention.remove(NERTag.DATE.name); }
         for (NERTag ner : NERTag.fromString(Counters.argmax(nerVotesForMention, (o1, o2) -> o1 == null ? 0 : o1.compareTo(o2)))) {
           // Try to link
-          // (get query context)
-          EntityContext queryContext = entity.representativeContext.isDefined()
-                  ? entity.representativeContext.get()
-                  : new EntityContext(entity);
           KBPEntity mentionEntity = KBPNew.entName(mentionString).entType(ner).KBPEntity();
           // (get mention context)
           EntityContext mentionContext;
@@ -582,33 +589,15 @@ public class PostIRAnnotator implements Annotator {
             numMentionsMatchEntity += 1;
             //logger.log(mentionContext.entity.name + "\t" + queryContext.entity.name);
             try {
-              ByteArrayOutputStream os1 = new ByteArrayOutputStream();
-              mentionContext.toProto().writeDelimitedTo(os1);
-              os1.close();
-              ByteArrayOutputStream os2 = new ByteArrayOutputStream();
-              queryContext.toProto().writeDelimitedTo(os2);
-              os2.close();
-              //doInsert(psql, insert, numQueuesWritten, mentionContext.entity.name, queryContext.entity.name, os1.toByteArray(), os2.toByteArray());
-              // insert here
-              try {
-                insertPos.setString(1, mentionContext.entity.name);
-                insertPos.setString(2, queryContext.entity.name);
-                insertPos.setBinaryStream(3, new ByteArrayInputStream(os1.toByteArray()), os1.toByteArray().length);
-                insertPos.setBinaryStream(4, new ByteArrayInputStream(os2.toByteArray()), os2.toByteArray().length);
-                insertPos.addBatch();
-                psql.commit();
-              } catch (SQLException e) {
-                if (e instanceof BatchUpdateException) {
-                  BatchUpdateException be = (BatchUpdateException) e;
-                  Exception cause;
-                  if ( (cause = be.getNextException()) != null) {
-                    logger.log(cause);
-                  }
-                }
-                throw new RuntimeException(e);
-              }
-            } catch (IOException e) {
-              logger.err(e);
+              byte[] mentionEncoding = mentionContext.encode();
+              byte[] queryEncoding = queryContext.encode();
+              insertPos.setString(1, mentionContext.entity.name);
+              insertPos.setString(2, queryContext.entity.name);
+              insertPos.setBinaryStream(3, new ByteArrayInputStream(mentionEncoding), mentionEncoding.length);
+              insertPos.setBinaryStream(4, new ByteArrayInputStream(queryEncoding), queryEncoding.length);
+              insertPos.addBatch();
+            } catch (SQLException e) {
+              throw new RuntimeException(e);
             }
           } else {
             /*try {
@@ -646,6 +635,7 @@ public class PostIRAnnotator implements Annotator {
       try {
         insertPos.executeBatch();
         //insertNeg.executeBatch();
+        psql.commit();
       } catch (SQLException e) {
         if (e instanceof BatchUpdateException) {
           BatchUpdateException be = (BatchUpdateException) e;
@@ -740,6 +730,9 @@ public class PostIRAnnotator implements Annotator {
 
     // Get cluster positions from chains ...
 
+    // Link each distinct mention in this document only once
+    EntityLinker.Session linking = Props.ENTITYLINKING_LINKER.get().newSession();
+
     Collection<Pair<List<CorefChain.CorefMention>, CorefChain.CorefMention>> cleanedChains = cleanCorefChains(corpus.get(CorefCoreAnnotations.CorefChainAnnotation.class));
     Counter<String> nerVotes = new ClassicCounter<>();
     Counter<String> nerVotesForMention = new ClassicCounter<>();
@@ -883,7 +876,7 @@ public class PostIRAnnotator implements Annotator {
           }
 
           // Link
-          if (Props.ENTITYLINKING_LINKER.get().sameEntity(entityContext, candidateContext)) {
+          if (linking.sameEntity(entityContext, candidateContext)) {
             antecedent = entityName;
           }
         }
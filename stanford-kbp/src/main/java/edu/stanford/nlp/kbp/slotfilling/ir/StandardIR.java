@@ -18,6 +18,7 @@ import java.lang.ref.SoftReference;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.*;
@@ -442,6 +443,27 @@ public class
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>Lucene backends are scanned with a {@link CorpusScanner}, one index at a time, each with its own
+   *    checkpoint for the job; as with {@link StandardIR#slurpDocuments(int)}, other backends are skipped.</p>
+   */
+  @Override
+  public void scanDocuments(Maybe<String> job, int maxDocuments, Consumer<Annotation> fn) {
+    if (Props.SHALLOWDIVE_OFFICIALONLY && Props.INDEX_MODE != Props.QueryMode.NOOP ) {
+      new CorpusScanner(officialIndex, job).forEach(maxDocuments, fn);
+    } else {
+      maxDocuments = maxDocuments / backends.length;
+      for (Querier backend : backends) {
+        if (backend instanceof LuceneQuerier) {
+          new CorpusScanner((LuceneQuerier) backend, job).forEach(maxDocuments, fn);
+        } else {
+          logger.warn("not scanning backend which is not a Lucene index: " + backend);
+        }
+      }
+    }
+  }
+
   /**
    * Ask the knowledge pair if it knows about any valid relations between given
    * entity pair.
@@ -455,7 +477,10 @@ public class
       warn("getting relations without having loaded KB! Loading training KB by default");
       this.trainingTriples();
     }
-    Collection<KBPSlotFill> triples = knowledgeBase.get(entity).getOrElse(new HashSet<KBPSlotFill>());
+    // (use the slot value index if we know about this exact entity; otherwise, fall back to matching by name)
+    Collection<KBPSlotFill> triples = knowledgeBase.data.containsKey(entity)
+        ? knowledgeBase.getBySlotValue(entity, pair.slotValue)
+        : knowledgeBase.get(entity).getOrElse(new HashSet<KBPSlotFill>());
 
     Set<String> trueRelations = new HashSet<>();
 
@@ -0,0 +1,419 @@
+package edu.stanford.nlp.kbp.slotfilling.ir.query;
+
+import edu.stanford.nlp.io.IOUtils;
+import edu.stanford.nlp.kbp.common.Maybe;
+import edu.stanford.nlp.kbp.common.Props;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.logging.Redwood;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static edu.stanford.nlp.util.logging.Redwood.Util.*;
+
+/**
+ * Scans every document in a Lucene index, for full-corpus passes (e.g., shallow dive featurization
+ * or mining scripts) which may run for many hours.
+ *
+ * <p>
+ *   Unlike a parallel stream over the doc ids, this runs on its own pool of worker threads (so it doesn't
+ *   compete with the common ForkJoin pool), bounds the number of documents decoded at once,
+ *   and can record the doc id ranges it has finished in a {@link Checkpoint} so that a scan can be resumed.
+ *   A checkpoint belongs to a single job over a single index, and is deleted once that job's scan completes.
+ * </p>
+ *
+ * <p>
+ *   Documents are annotated with the dummy {@link edu.stanford.nlp.kbp.slotfilling.ir.PostIRAnnotator}
+ *   exactly as {@link LuceneQuerier#slurp(int)} would do.
+ * </p>
+ */
+public class CorpusScanner {
+  protected static final Redwood.RedwoodChannels logger = Redwood.channels("Scan");
+
+  /** The index to scan */
+  public final LuceneQuerier querier;
+  /** The documents to scan; the index, save for in tests */
+  private final DocumentSource source;
+  /** The number of worker threads decoding (and, for {@link CorpusScanner#forEach(int, Consumer)}, processing) documents */
+  public final int numThreads;
+  /** The maximum number of decoded documents waiting to be consumed, for {@link CorpusScanner#stream(int)} */
+  public final int readAhead;
+  /** The number of doc ids in each unit of work; this is also the granularity of the checkpoint */
+  public final int chunkSize;
+  /** The file to save and resume the checkpoint from, if any */
+  public final Maybe<File> checkpointFile;
+
+  public CorpusScanner(LuceneQuerier querier, int numThreads, int readAhead, int chunkSize, Maybe<File> checkpointFile) {
+    this(querier, new LuceneSource(querier), numThreads, readAhead, chunkSize, checkpointFile);
+  }
+
+  CorpusScanner(LuceneQuerier querier, DocumentSource source, int numThreads, int readAhead, int chunkSize, Maybe<File> checkpointFile) {
+    if (numThreads < 1) { throw new IllegalArgumentException("Must have at least one thread: " + numThreads); }
+    if (readAhead < 1) { throw new IllegalArgumentException("Must read ahead at least one document: " + readAhead); }
+    if (chunkSize < 1) { throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize); }
+    this.querier = querier;
+    this.source = source;
+    this.numThreads = numThreads;
+    this.readAhead = readAhead;
+    this.chunkSize = chunkSize;
+    this.checkpointFile = checkpointFile;
+  }
+
+  /** Create a scanner for the given index, configured from {@link Props}, which does not checkpoint */
+  public CorpusScanner(LuceneQuerier querier) {
+    this(querier, Maybe.<String>Nothing());
+  }
+
+  /**
+   * Create a scanner for the given index, configured from {@link Props}.
+   * @param querier The index to scan.
+   * @param job The name of the pass over the index. If this is defined and {@link Props#INDEX_SCAN_CHECKPOINTDIR} is set,
+   *            the scan is checkpointed under this name, so that only a scan for the same job over the same index resumes from it.
+   */
+  public CorpusScanner(LuceneQuerier querier, Maybe<String> job) {
+    this(querier, Props.INDEX_SCAN_THREADS, Props.INDEX_SCAN_READAHEAD, Props.INDEX_SCAN_CHUNKSIZE,
+        Props.INDEX_SCAN_CHECKPOINTDIR == null ? Maybe.<File>Nothing()
+            : job.map(name -> checkpointFile(Props.INDEX_SCAN_CHECKPOINTDIR, querier.indexDirectory.getOrElse(new File("unknown_index")), name)));
+  }
+
+  /** The checkpoint file for a job over an index: [index name].[job].checkpoint, with the job made safe for a file name */
+  static File checkpointFile(File checkpointDir, File indexDirectory, String job) {
+    return new File(checkpointDir, indexDirectory.getName() + "." + job.replaceAll("[^A-Za-z0-9_.-]", "_") + ".checkpoint");
+  }
+
+  /** The documents a scanner reads, by doc id */
+  interface DocumentSource {
+    /** One past the largest doc id */
+    public int maxDoc();
+    /** Whether the document with this id has not been deleted */
+    public boolean isLive(int docId);
+    /** Fetch and annotate a document, if it exists */
+    public Maybe<Annotation> fetch(int docId);
+  }
+
+  /** The documents of a Lucene index, annotated as {@link LuceneQuerier#slurp(int)} would */
+  private static class LuceneSource implements DocumentSource {
+    private final LuceneQuerier querier;
+    private final Bits liveDocs;
+    private LuceneSource(LuceneQuerier querier) {
+      this.querier = querier;
+      this.liveDocs = MultiFields.getLiveDocs(querier.reader);
+    }
+    @Override
+    public int maxDoc() { return querier.reader.maxDoc(); }
+    @Override
+    public boolean isLive(int docId) { return liveDocs == null || liveDocs.get(docId); }
+    @Override
+    public Maybe<Annotation> fetch(int docId) { return querier.slurpDocument(docId); }
+  }
+
+  /**
+   * A set of doc id ranges which have been fully processed.
+   * Adjacent ranges are merged, so this stays small even over a full index.
+   */
+  public static class Checkpoint {
+    /** Map from the start of a range (inclusive) to the end of that range (exclusive) */
+    private final TreeMap<Integer, Integer> ranges = new TreeMap<>();
+
+    /** Mark the doc ids in [start, end) as done */
+    public synchronized void markDone(int start, int end) {
+      if (end <= start) { return; }
+      // Merge with a range ending at or after our start
+      Map.Entry<Integer, Integer> before = ranges.floorEntry(start);
+      if (before != null && before.getValue() >= start) {
+        start = before.getKey();
+        end = Math.max(end, before.getValue());
+        ranges.remove(before.getKey());
+      }
+      // Merge with any ranges starting within our range
+      Map.Entry<Integer, Integer> after;
+      while ( (after = ranges.ceilingEntry(start)) != null && after.getKey() <= end) {
+        end = Math.max(end, after.getValue());
+        ranges.remove(after.getKey());
+      }
+      ranges.put(start, end);
+    }
+
+    /** Returns true if every doc id in [start, end) has been marked as done */
+    public synchronized boolean isDone(int start, int end) {
+      Map.Entry<Integer, Integer> range = ranges.floorEntry(start);
+      return range != null && range.getValue() >= end;
+    }
+
+    /** The total number of doc ids marked as done */
+    public synchronized long numDone() {
+      long sum = 0;
+      for (Map.Entry<Integer, Integer> entry : ranges.entrySet()) { sum += entry.getValue() - entry.getKey(); }
+      return sum;
+    }
+
+    /** The number of disjoint ranges in this checkpoint */
+    public synchronized int numRanges() {
+      return ranges.size();
+    }
+
+    /** Write this checkpoint to a file, as tab separated [start, end) pairs; the write is atomic */
+    public synchronized void save(File file) throws IOException {
+      File tmp = new File(file.getPath() + ".tmp");
+      PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8")));
+      try {
+        for (Map.Entry<Integer, Integer> entry : ranges.entrySet()) {
+          out.println(entry.getKey() + "\t" + entry.getValue());
+        }
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(file)) {
+        if (!file.delete() || !tmp.renameTo(file)) { throw new IOException("Could not move checkpoint into place: " + file); }
+      }
+    }
+
+    /** Read a checkpoint written by {@link Checkpoint#save(File)}; a missing file is an empty checkpoint */
+    public static Checkpoint load(File file) throws IOException {
+      Checkpoint checkpoint = new Checkpoint();
+      if (!file.exists()) { return checkpoint; }
+      BufferedReader reader = IOUtils.readerFromString(file.getPath());
+      try {
+        for (String line; (line = reader.readLine()) != null; ) {
+          if (line.trim().isEmpty()) { continue; }
+          String[] fields = line.split("\t");
+          checkpoint.markDone(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]));
+        }
+      } finally {
+        IOUtils.closeIgnoringExceptions(reader);
+      }
+      return checkpoint;
+    }
+  }
+
+  /** Load the checkpoint for this scanner, or an empty one if there is no checkpoint */
+  private Checkpoint loadCheckpoint() {
+    for (File file : checkpointFile) {
+      try {
+        Checkpoint checkpoint = Checkpoint.load(file);
+        if (checkpoint.numRanges() > 0) {
+          logger.log("resuming from checkpoint " + file + " (" + checkpoint.numDone() + " doc ids done)");
+        }
+        return checkpoint;
+      } catch (IOException | RuntimeException e) {
+        logger.warn("could not read checkpoint " + file + "; starting from scratch");
+        logger.warn(e);
+      }
+    }
+    return new Checkpoint();
+  }
+
+  private void saveCheckpoint(Checkpoint checkpoint) {
+    for (File file : checkpointFile) {
+      try {
+        checkpoint.save(file);
+      } catch (IOException e) {
+        logger.err(e);
+      }
+    }
+  }
+
+  /** Delete the checkpoint of a finished scan, so that the next scan for this job starts over */
+  private void clearCheckpoint() {
+    for (File file : checkpointFile) {
+      if (file.exists() && !file.delete()) { logger.warn("could not delete finished checkpoint " + file); }
+    }
+  }
+
+  /** Create a pool of daemon threads for a single scan */
+  private ExecutorService newPool() {
+    final AtomicInteger threadId = new AtomicInteger(0);
+    return Executors.newFixedThreadPool(numThreads, runnable -> {
+      Thread thread = new Thread(runnable, "corpus-scan-" + threadId.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Hand out chunks of doc ids to workers, skipping chunks that have already been done according to the checkpoint.
+   * @return The [start, end) of the next chunk, or null if there are no more chunks.
+   */
+  private static int[] nextChunk(AtomicInteger nextStart, int maxDocuments, int chunkSize, Checkpoint checkpoint) {
+    while (true) {
+      int start = nextStart.getAndAdd(chunkSize);
+      if (start >= maxDocuments || start < 0) { return null; }
+      int end = Math.min(maxDocuments, start + chunkSize);
+      if (!checkpoint.isDone(start, end)) { return new int[]{ start, end }; }
+    }
+  }
+
+  /**
+   * Apply a function to every live document in the index, in parallel on this scanner's worker threads.
+   * Each worker decodes and processes one document at a time, so at most {@link CorpusScanner#numThreads}
+   * documents are resident at once. This method blocks until the scan is complete.
+   *
+   * @param maxDocuments The maximum Lucene doc id to scan up to.
+   * @param fn The function to apply to each document. This must be threadsafe.
+   */
+  public void forEach(int maxDocuments, final Consumer<Annotation> fn) {
+    final int limit = Math.min(maxDocuments, source.maxDoc());
+    final Checkpoint checkpoint = loadCheckpoint();
+    final AtomicInteger nextStart = new AtomicInteger(0);
+    final AtomicLong docsProcessed = new AtomicLong(0);
+    final AtomicLong lastSave = new AtomicLong(System.currentTimeMillis());
+    forceTrack("Scanning " + querier + " with " + numThreads + " threads");
+
+    ExecutorService pool = newPool();
+    List<Future<?>> workers = new ArrayList<>();
+    for (int i = 0; i < numThreads; ++i) {
+      workers.add(pool.submit(() -> {
+        int[] chunk;
+        while ( (chunk = nextChunk(nextStart, limit, chunkSize, checkpoint)) != null ) {
+          for (int luceneId = chunk[0]; luceneId < chunk[1]; ++luceneId) {
+            if (!source.isLive(luceneId)) { continue; }
+            try {
+              for (Annotation doc : source.fetch(luceneId)) {
+                fn.accept(doc);
+              }
+            } catch (RuntimeException e) {
+              logger.err(e);
+            }
+            long processed = docsProcessed.incrementAndGet();
+            if (processed % 10000 == 0) { logger.log("scanned " + processed + " documents"); }
+          }
+          checkpoint.markDone(chunk[0], chunk[1]);
+          // Save the checkpoint at most once a minute
+          long last = lastSave.get();
+          if (System.currentTimeMillis() - last > 60000 && lastSave.compareAndSet(last, System.currentTimeMillis())) {
+            saveCheckpoint(checkpoint);
+          }
+        }
+      }));
+    }
+
+    // Wait for the scan to finish
+    boolean finished = false;
+    try {
+      for (Future<?> worker : workers) { worker.get(); }
+      finished = true;
+    } catch (InterruptedException e) {
+      logger.warn("interrupted while scanning; saving checkpoint");
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      logger.err(e.getCause());
+    } finally {
+      pool.shutdownNow();
+      if (finished) {
+        clearCheckpoint();
+      } else {
+        saveCheckpoint(checkpoint);
+      }
+      logger.log("scanned " + docsProcessed.get() + " documents");
+      endTrack("Scanning " + querier + " with " + numThreads + " threads");
+    }
+  }
+
+  /**
+   * Get a stream over every live document in the index.
+   * Documents are decoded on this scanner's worker threads into a buffer of at most
+   * {@link CorpusScanner#readAhead} documents, and handed to the (sequential) stream as they become available;
+   * thus, the order of the documents is not guaranteed.
+   * Checkpoints are not used here, as the scanner cannot know when the consumer has finished with a document;
+   * use {@link CorpusScanner#forEach(int, Consumer)} for resumable scans.
+   * The stream should be closed if it is not read to the end; if it is simply dropped, the workers notice once
+   * it has been garbage collected, and stop.
+   *
+   * @param maxDocuments The maximum Lucene doc id to scan up to.
+   */
+  public Stream<Annotation> stream(int maxDocuments) {
+    final int limit = Math.min(maxDocuments, source.maxDoc());
+    final Checkpoint nothingDone = new Checkpoint();
+    final AtomicInteger nextStart = new AtomicInteger(0);
+    final AtomicInteger workersRemaining = new AtomicInteger(numThreads);
+    final BlockingQueue<Maybe<Annotation>> buffer = new ArrayBlockingQueue<>(readAhead + numThreads);
+    final ExecutorService pool = newPool();
+
+    Iterator<Annotation> iter = new Iterator<Annotation>() {
+      // Nothing means no cached element; null means no more elements ever
+      private Maybe<Annotation> next = Maybe.Nothing();
+      @Override
+      public boolean hasNext() {
+        if (next == null) { return false; }
+        if (next.isDefined()) { return true; }
+        try {
+          Maybe<Annotation> result = buffer.take();
+          next = result.isDefined() ? result : null;
+        } catch (InterruptedException e) {
+          pool.shutdownNow();
+          next = null;
+          Thread.currentThread().interrupt();
+        }
+        return next != null;
+      }
+      @Override
+      public Annotation next() {
+        if (!hasNext()) { throw new NoSuchElementException(); }
+        Annotation rtn = next.get();
+        next = Maybe.Nothing();
+        return rtn;
+      }
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+
+    // (the workers only hold the consumer weakly, so that they can tell when the stream has been dropped)
+    final WeakReference<Iterator<Annotation>> consumer = new WeakReference<>(iter);
+    for (int i = 0; i < numThreads; ++i) {
+      pool.submit(() -> {
+        try {
+          int[] chunk;
+          while ( (chunk = nextChunk(nextStart, limit, chunkSize, nothingDone)) != null ) {
+            for (int luceneId = chunk[0]; luceneId < chunk[1]; ++luceneId) {
+              if (!source.isLive(luceneId)) { continue; }
+              try {
+                for (Annotation doc : source.fetch(luceneId)) {
+                  if (!offer(buffer, Maybe.Just(doc), consumer)) { return; }
+                }
+              } catch (RuntimeException e) {
+                logger.err(e);
+              }
+            }
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          // The last worker out signals the end of the stream
+          if (workersRemaining.decrementAndGet() == 0) {
+            try {
+              offer(buffer, Maybe.<Annotation>Nothing(), consumer);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        }
+      });
+    }
+    pool.shutdown();
+
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, Spliterator.NONNULL), false)
+        .onClose(pool::shutdownNow);
+  }
+
+  /**
+   * Put an element into a stream's buffer, waiting for space for as long as the stream's consumer is still reachable.
+   * @return False if the consumer was garbage collected before the element could be added.
+   */
+  private static <E> boolean offer(BlockingQueue<E> buffer, E element, WeakReference<?> consumer) throws InterruptedException {
+    while (!buffer.offer(element, 1, TimeUnit.SECONDS)) {
+      if (consumer.get() == null) { return false; }
+    }
+    return true;
+  }
+}
@@ -15,7 +15,6 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.spans.SpanMultiTermQueryWrapper;
@@ -23,7 +22,7 @@ import org.apache.lucene.search.spans.SpanNearQuery;
 import org.apache.lucene.search.spans.SpanQuery;
 import org.apache.lucene.search.spans.SpanTermQuery;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Counter;
 import org.apache.lucene.util.Version;
 
@@ -32,13 +31,15 @@ import static edu.stanford.nlp.util.logging.Redwood.Util.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 /**
  * The base class for querying Lucene for documents.
@@ -195,6 +196,14 @@ public abstract class LuceneQuerier implements Querier {
                                                        Maybe<KBPEntity> slotValue,
                                                        Set<String> docidsToForce,
                                                        Maybe<Integer> maxDocuments) {
+    return queryDocument(entity, slotValue, docidsToForce, maxDocuments, fetchDocument);
+  }
+
+  private IterableIterator<Pair<Annotation, Double>> queryDocument(KBPEntity entity,
+                                                       Maybe<KBPEntity> slotValue,
+                                                       Set<String> docidsToForce,
+                                                       Maybe<Integer> maxDocuments,
+                                                       Function<Pair<Integer, Double>, Pair<Annotation, Double>> fetcher) {
     try {
       startTrack("Query Document");
       logger.log("queryDocuments: entity=" + entity.name + "(" + entity.type +  ")"
@@ -217,7 +226,7 @@ public abstract class LuceneQuerier implements Querier {
         docs = new IterableIterator<>(docsWithForced.iterator());
       }
       startTrack("Read Documents");
-      return CollectionUtils.mapIgnoreNull(docs, fetchDocument);
+      return CollectionUtils.mapIgnoreNull(docs, fetcher);
     } catch (IOException e) {
       logger.err(e);
       return new IterableIterator<>(new LinkedList<Pair<Annotation,Double>>().iterator());
@@ -237,9 +246,10 @@ public abstract class LuceneQuerier implements Querier {
     final AtomicInteger docsSeen = new AtomicInteger(0);
     startTrack("Query Sentences");
     try {
-      return CollectionUtils.flatMapIgnoreNull(queryDocument(entity, slotValue, docidsToForce, maxDocuments),
+      return CollectionUtils.flatMapIgnoreNull(queryDocument(entity, slotValue, docidsToForce, maxDocuments, fetchDocumentShallow),
           fetchSentences(entity, slotValue, maxDocuments, docsSeen));
     } finally {
+      logger.debug("fetch stats: " + fetchStats);
       endTrack("Query Sentences");
     }
   }
@@ -247,26 +257,26 @@ public abstract class LuceneQuerier implements Querier {
   /**
    * {@inheritDoc}
    * <p>Note that a dummy PostIRAnnotator is run on this document once it has left this method. </p>
+   * <p>The documents are decoded by a {@link CorpusScanner}, configured from {@link Props}; see that class
+   *    for a parallel, resumable alternative to this method.</p>
    */
   @Override
   public Stream<Annotation> slurp(int maxDocuments) {
-    // Variables we'll need
-    final Bits liveDocs = MultiFields.getLiveDocs(reader);
-
-    final PostIRAnnotator dummyPostIR = new PostIRAnnotator(KBPNew.entName("__NO ENTITY__").entType(NERTag.PERSON).KBPOfficialEntity());
-    if(maxDocuments > reader.maxDoc())
-      maxDocuments  = reader.maxDoc();
-    // Create stream
-    Stream<Integer> idStream = StreamSupport.stream(CollectionUtils.seqIter(maxDocuments).spliterator(), true);
-    return idStream.map(luceneDocId -> {
-      if (liveDocs == null || liveDocs.get(luceneDocId)) {
-        Annotation doc = fetchDocument.apply(Pair.makePair(luceneDocId, 1.0)).first;
-        dummyPostIR.annotate(doc);
-        return doc;
-      } else {
-        return null;
-      }
-    }).filter(ann -> ann != null);
+    return new CorpusScanner(this).stream(maxDocuments);
+  }
+
+  /** The entity used for the dummy PostIRAnnotator run on slurped documents */
+  private static final KBPOfficialEntity slurpEntity = KBPNew.entName("__NO ENTITY__").entType(NERTag.PERSON).KBPOfficialEntity();
+
+  /**
+   * Fetch a document by its Lucene id, and run the dummy PostIRAnnotator over it.
+   * @see LuceneQuerier#slurp(int)
+   */
+  Maybe<Annotation> slurpDocument(int luceneDocId) {
+    Pair<Annotation, Double> doc = fetchDocument.apply(Pair.makePair(luceneDocId, 1.0));
+    if (doc == null) { return Maybe.Nothing(); }
+    postIRAnnotator(slurpEntity, Maybe.<KBPEntity>Nothing()).annotate(doc.first);
+    return Maybe.Just(doc.first);
   }
 
   /**
@@ -546,104 +556,148 @@ public abstract class LuceneQuerier implements Querier {
   }
 
 
+  /** Fetch a document, setting the auxiliary annotations (docid, date, source) on the document and every sentence */
   private final Function<Pair<Integer, Double>, Pair<Annotation, Double>> fetchDocument =
-      new Function<Pair<Integer, Double>, Pair<Annotation, Double>>() {
-        @SuppressWarnings("ConstantConditions")
-        @Override
-        public Pair<Annotation, Double> apply(Pair<Integer, Double> docPair) {
-          try {
-
-            // --- CODE BEGINS HERE ---
-            // -- Get Annotation
-            int luceneId = docPair.first;
-
-            Timing timing = null; // new Timing();
-
-            // Fetch lucene document
-            if (timing != null) timing.start();
-            Document doc = searcher.doc(luceneId, fieldsLuceneIdToDoc);  // NOTE: update fieldsLuceneIdToDoc if you need more fields
-            if (timing != null) timing.report("Fetch doc " + luceneId + " from " + indexDirectory);
-
-            // Get document id
-            Maybe<String> docId = Maybe.Nothing();
-            String idOrNull = docReader.getDocid(doc);
-            if (idOrNull != null) { docId = Maybe.Just(idOrNull.trim()); }
-            if (!docId.isDefined()) { logger.warn("could not find docid for document!"); }
-
-            // Load coremap
-            if (timing != null) timing.start();
-            Maybe<Annotation> coremapDocument = docReader.getAnnotation(doc);
-            if (timing != null) timing.report("Load coremap for " + docId);
-            if (!coremapDocument.isDefined()) { return null; }
-
-            // Pass to do any re-annotation
-            if (reannotatePipeline != null) {
-              if (timing != null) timing.start();
-              reannotatePipeline.annotate(coremapDocument.get());
-              if (timing != null) timing.report("Re-annotate " + docId);
-            }
+      docPair -> fetchDocument(docPair, true);
 
-            // -- Set auxiliary annotations
-            // These are set both on the document, and on each of the sentences in the document
-            CoreMap[] coremapsToAnnotate = coremapDocument.get().get(SentencesAnnotation.class).toArray(new CoreMap[coremapDocument.get().get(SentencesAnnotation.class).size() + 1]);
-            coremapsToAnnotate[coremapsToAnnotate.length - 1] = coremapDocument.get();
-            // (get fields))
-            Maybe<String> datetime = Maybe.Nothing();
-            String dateTimeOrNull = doc.get(KBPField.DATETIME.fieldName());
-            if (dateTimeOrNull != null) { datetime = Maybe.Just(dateTimeOrNull.trim()); }
-            // (annotate)
-            for (CoreMap toAnnotate : coremapsToAnnotate) {
-              // Set source
-              for (File directory : indexDirectory) {
-                toAnnotate.set(KBPAnnotations.SourceIndexAnnotation.class, directory.getPath());
-              }
-              // Set Doc ID
-              for (String id : docId) {
-                toAnnotate.set(DocIDAnnotation.class, id);
-              }
-              // Set DateTime
-              for (String date : datetime) {
-                toAnnotate.set(KBPAnnotations.DatetimeAnnotation.class, date);
-              }
-              // Set Lucene DocID
-              toAnnotate.set(KBPAnnotations.SourceIndexDocIDAnnotation.class, luceneId);
-            }
-            // Return
-            return Pair.makePair(coremapDocument.get(), docPair.second);
-            // --- CODE ENDS HERE ---
-
-          } catch (IOException e) {
-            logger.err(e);
-            return null;
-          } catch (ClassNotFoundException e) {
-            logger.err(e);
-            return null;
-          }
+  /**
+   * Fetch a document, setting the auxiliary annotations only on the document itself.
+   * This is used by the sentence-level fetch path, which copies these annotations onto only
+   * the sentences that it ends up returning (see {@link LuceneQuerier#copyDocumentMetadata(CoreMap, CoreMap)}).
+   */
+  private final Function<Pair<Integer, Double>, Pair<Annotation, Double>> fetchDocumentShallow =
+      docPair -> fetchDocument(docPair, false);
+
+  @SuppressWarnings("ConstantConditions")
+  private Pair<Annotation, Double> fetchDocument(Pair<Integer, Double> docPair, boolean annotateSentences) {
+    try {
+
+      // --- CODE BEGINS HERE ---
+      // -- Get Annotation
+      int luceneId = docPair.first;
+
+      Timing timing = null; // new Timing();
+
+      // Fetch lucene document
+      if (timing != null) timing.start();
+      Document doc = searcher.doc(luceneId, fieldsLuceneIdToDoc);  // NOTE: update fieldsLuceneIdToDoc if you need more fields
+      if (timing != null) timing.report("Fetch doc " + luceneId + " from " + indexDirectory);
+
+      // Get document id
+      Maybe<String> docId = Maybe.Nothing();
+      String idOrNull = docReader.getDocid(doc);
+      if (idOrNull != null) { docId = Maybe.Just(idOrNull.trim()); }
+      if (!docId.isDefined()) { logger.warn("could not find docid for document!"); }
+
+      // Load coremap
+      if (timing != null) timing.start();
+      Maybe<Annotation> coremapDocument = docReader.getAnnotation(doc);
+      if (timing != null) timing.report("Load coremap for " + docId);
+      if (!coremapDocument.isDefined()) { return null; }
+      fetchStats.registerDocument(doc, coremapDocument.get());
+
+      // Pass to do any re-annotation
+      if (reannotatePipeline != null) {
+        if (timing != null) timing.start();
+        reannotatePipeline.annotate(coremapDocument.get());
+        if (timing != null) timing.report("Re-annotate " + docId);
+      }
+
+      // -- Set auxiliary annotations
+      // These are set on the document, and (if requested) on each of the sentences in the document
+      List<CoreMap> coremapsToAnnotate = new ArrayList<>();
+      coremapsToAnnotate.add(coremapDocument.get());
+      if (annotateSentences) { coremapsToAnnotate.addAll(coremapDocument.get().get(SentencesAnnotation.class)); }
+      // (get fields))
+      Maybe<String> datetime = Maybe.Nothing();
+      String dateTimeOrNull = doc.get(KBPField.DATETIME.fieldName());
+      if (dateTimeOrNull != null) { datetime = Maybe.Just(dateTimeOrNull.trim()); }
+      // (annotate)
+      for (CoreMap toAnnotate : coremapsToAnnotate) {
+        // Set source
+        for (File directory : indexDirectory) {
+          toAnnotate.set(KBPAnnotations.SourceIndexAnnotation.class, directory.getPath());
         }
-      };
+        // Set Doc ID
+        for (String id : docId) {
+          toAnnotate.set(DocIDAnnotation.class, id);
+        }
+        // Set DateTime
+        for (String date : datetime) {
+          toAnnotate.set(KBPAnnotations.DatetimeAnnotation.class, date);
+        }
+        // Set Lucene DocID
+        toAnnotate.set(KBPAnnotations.SourceIndexDocIDAnnotation.class, luceneId);
+      }
+      fetchStats.coremapsAnnotated.addAndGet(coremapsToAnnotate.size());
+      // Return
+      return Pair.makePair(coremapDocument.get(), docPair.second);
+      // --- CODE ENDS HERE ---
 
-  private static Function<Pair<Annotation, Double>, Iterator<Pair<CoreMap, Double>>>
+    } catch (IOException e) {
+      logger.err(e);
+      return null;
+    } catch (ClassNotFoundException e) {
+      logger.err(e);
+      return null;
+    }
+  }
+
+  /**
+   * Copy the auxiliary document-level annotations set in {@link LuceneQuerier#fetchDocument(Pair, boolean)}
+   * onto a single sentence of that document.
+   */
+  private static void copyDocumentMetadata(CoreMap document, CoreMap sentence) {
+    if (document.containsKey(KBPAnnotations.SourceIndexAnnotation.class)) {
+      sentence.set(KBPAnnotations.SourceIndexAnnotation.class, document.get(KBPAnnotations.SourceIndexAnnotation.class));
+    }
+    if (document.containsKey(DocIDAnnotation.class)) {
+      sentence.set(DocIDAnnotation.class, document.get(DocIDAnnotation.class));
+    }
+    if (document.containsKey(KBPAnnotations.DatetimeAnnotation.class)) {
+      sentence.set(KBPAnnotations.DatetimeAnnotation.class, document.get(KBPAnnotations.DatetimeAnnotation.class));
+    }
+    if (document.containsKey(KBPAnnotations.SourceIndexDocIDAnnotation.class)) {
+      sentence.set(KBPAnnotations.SourceIndexDocIDAnnotation.class, document.get(KBPAnnotations.SourceIndexDocIDAnnotation.class));
+    }
+  }
+
+  /**
+   * PostIRAnnotators are entity-specific but otherwise stateless, so we share one per (entity, slot value)
+   * rather than creating one per query.
+   * This is cleared if it gets too large, akin to the serializer map in {@link LuceneDocumentReader}.
+   */
+  private static final Map<Pair<KBPOfficialEntity, Maybe<KBPEntity>>, PostIRAnnotator> postIRAnnotators = new ConcurrentHashMap<>();
+
+  /** Get a shared PostIRAnnotator for the given entity and optional slot value */
+  protected static PostIRAnnotator postIRAnnotator(KBPEntity entity, Maybe<KBPEntity> slotValue) {
+    if (postIRAnnotators.size() > 100) {
+      postIRAnnotators.clear();
+    }
+    final KBPOfficialEntity officialEntity = entity instanceof KBPOfficialEntity ? (KBPOfficialEntity) entity : KBPNew.from(entity).KBPOfficialEntity();
+    return postIRAnnotators.computeIfAbsent(Pair.makePair(officialEntity, slotValue), key -> {
+      if (key.second.isDefined()) {
+        return new PostIRAnnotator(key.first, key.second.get(), true);
+      } else {
+        return new PostIRAnnotator(key.first, true);
+      }
+    });
+  }
+
+  private Function<Pair<Annotation, Double>, Iterator<Pair<CoreMap, Double>>>
   fetchSentences(final KBPEntity entity, final Maybe<KBPEntity> slotValue,
                  final Maybe<Integer> maxDocuments,
                  final AtomicInteger docsSeen) {
-    final PostIRAnnotator postIRAnnotator;
-    if (slotValue.isDefined()) {
-      postIRAnnotator = new PostIRAnnotator(
-          entity instanceof KBPOfficialEntity ? (KBPOfficialEntity) entity : KBPNew.from(entity).KBPOfficialEntity(),
-          slotValue.get(), true);
-    } else {
-      postIRAnnotator = new PostIRAnnotator(
-          entity instanceof KBPOfficialEntity ? (KBPOfficialEntity) entity : KBPNew.from(entity).KBPOfficialEntity(),
-          true);
-    }
+    final PostIRAnnotator postIRAnnotator = postIRAnnotator(entity, slotValue);
     return new Function<Pair<Annotation, Double>, Iterator<Pair<CoreMap, Double>>>() {
       @Override
       public Iterator<Pair<CoreMap, Double>> apply(final Pair<Annotation, Double> docPair) {
         try {
           // --- CODE BEGINS HERE ---
-          Annotation document = docPair.first;
+          final Annotation document = docPair.first;
           final List<CoreMap> sentences = document.get(SentencesAnnotation.class);
-          Set<Integer> goodSentences = new HashSet<>();
+          // Sorted, so that sentences come out in document order
+          Set<Integer> goodSentences = new TreeSet<>();
 
           if (Props.INDEX_POSTIRANNOTATOR_DO) {
             // Annotate document
@@ -666,8 +720,13 @@ public abstract class LuceneQuerier implements Querier {
           return CollectionUtils.mapIgnoreNull(goodSentences.iterator(), in -> {
             if (in == null) { logger.warn("null sentence index"); return null; }
             if (in >= sentences.size() || in < 0) { logger.warn("sentence index is out of bounds"); return null; }
-            logger.debug("found sentence: " + CoreMapUtils.sentenceToMinimalString(sentences.get(in)));
-            return Pair.makePair(sentences.get(in), docPair.second);
+            CoreMap sentence = sentences.get(in);
+            // Only the sentences we return get the document metadata
+            copyDocumentMetadata(document, sentence);
+            fetchStats.coremapsAnnotated.incrementAndGet();
+            fetchStats.sentencesReturned.incrementAndGet();
+            logger.debug("found sentence: " + CoreMapUtils.sentenceToMinimalString(sentence));
+            return Pair.makePair(sentence, docPair.second);
           });
           // --- CODE ENDS HERE ---
 
@@ -680,6 +739,43 @@ public abstract class LuceneQuerier implements Querier {
     };
   }
 
+  /**
+   * Statistics on how much work the document fetches from this index are doing; in particular,
+   * how many bytes were decoded and how many CoreMaps were annotated for every sentence returned
+   * from {@link LuceneQuerier#querySentences(KBPEntity, Maybe, Maybe, Set, Maybe)}.
+   */
+  public static class FetchStats {
+    public final AtomicLong bytesDecoded = new AtomicLong(0);
+    public final AtomicLong documentsDecoded = new AtomicLong(0);
+    public final AtomicLong sentencesDecoded = new AtomicLong(0);
+    public final AtomicLong coremapsAnnotated = new AtomicLong(0);
+    public final AtomicLong sentencesReturned = new AtomicLong(0);
+
+    private void registerDocument(Document doc, Annotation ann) {
+      BytesRef data = doc.getBinaryValue(KBPField.COREMAP.fieldName());
+      if (data != null) {
+        bytesDecoded.addAndGet(data.length);
+      } else {
+        String coreMapFile = doc.get(KBPField.COREMAP_FILE.fieldName());
+        if (coreMapFile != null) { bytesDecoded.addAndGet(new File(coreMapFile).length()); }
+      }
+      documentsDecoded.incrementAndGet();
+      List<CoreMap> sentences = ann.get(SentencesAnnotation.class);
+      if (sentences != null) { sentencesDecoded.addAndGet(sentences.size()); }
+    }
+
+    @Override
+    public String toString() {
+      long returned = Math.max(1, sentencesReturned.get());
+      return "documents=" + documentsDecoded.get() + " sentences=" + sentencesDecoded.get() + " returned=" + sentencesReturned.get() +
+          " bytes/returned=" + (bytesDecoded.get() / returned) +
+          " coremapsAnnotated/returned=" + new DecimalFormat("0.00").format(((double) coremapsAnnotated.get()) / ((double) returned));
+    }
+  }
+
+  /** The fetch statistics for this index */
+  public final FetchStats fetchStats = new FetchStats();
+
   /** A list of fields that need to be loaded to get a document from a lucene id */
   private static final Set<String> fieldsLuceneIdToDoc = new HashSet<>(
           Arrays.asList(new String[]{ "date", KBPField.DOCID.fieldName(), KBPField.DATETIME.fieldName(),
@@ -13,10 +13,15 @@ import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.util.*;
 import edu.stanford.nlp.util.logging.Redwood;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.*;
@@ -33,6 +38,12 @@ public class MineInferentialPaths {
   private static int count = Integer.MAX_VALUE;
   @Execution.Option(name="mine-inferential-paths.cutoff", gloss="Only take KBP relations not in the kB above this threshold")
   private static double cutoff = 0.0;
+  @Execution.Option(name="mine-inferential-paths.threads", gloss="The number of workers to shard the entities over; by default, the number of threads")
+  private static int threads = -1;
+  @Execution.Option(name="mine-inferential-paths.batch", gloss="The number of entities a worker mines before merging its counts into Postgres")
+  private static int batchSize = 25;
+  @Execution.Option(name="mine-inferential-paths.checkpoint", gloss="A local file of the entities already mined, so that a stopped job can be resumed; by default, nothing is checkpointed")
+  private static File checkpoint = null;
 
 
   public static void main(String[] args) {
@@ -61,24 +72,49 @@ public class MineInferentialPaths {
       logger.log(BLUE, "" + entities.length + " entities in KB");
       logger.log(BLUE, "querying [" + begin + ", " + Math.min(begin + count, entities.length) + "]");
 
+      // Skip the entities we've already mined
+      final Checkpoint minedEntities;
+      try {
+        minedEntities = checkpoint == null ? new Checkpoint() : new Checkpoint(checkpoint, runKey());
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      final List<KBPOfficialEntity> toMine = new ArrayList<>();
+      for (int i = begin; i < Math.min(begin + count, entities.length); ++i) {
+        if (!minedEntities.contains(entities[i])) { toMine.add(entities[i]); }
+      }
+      final int numWorkers = Math.max(1, threads > 0 ? threads : Execution.threads);
+      logger.log(BLUE, "" + minedEntities.size() + " entities already mined (according to " + (checkpoint == null ? "no checkpoint" : checkpoint) + "); " +
+          toMine.size() + " entities to mine over " + numWorkers + " workers");
+
       // Annotate files
       PostgresUtils.withSet("mined_documents", new PostgresUtils.SetCallback() {
         @Override
         public void apply(final Connection psql) throws SQLException {
-          try {
-            // CASE: Run Query By Query
-            for (int i = begin; i < Math.min(begin + count, entities.length); ++i) {
-              KBPOfficialEntity pivot = entities[i];
-              forceTrack("Mining paths for " + pivot);
-              try {
+          // The documents a worker has claimed, but not yet registered as mined
+          final Set<String> claimedDocids = Collections.newSetFromMap(new ConcurrentHashMap<>());
+          // CASE: Run Query By Query, with the queries sharded over the workers
+          List<Runnable> workers = new ArrayList<>();
+          for (int w = 0; w < numWorkers; ++w) {
+            final int shard = w;
+            workers.add(() -> {
+              // Counts are aggregated here, and merged into Postgres every batch of entities
+              Counter<List<KBTriple>> batchCounts = new ClassicCounter<>();
+              Set<String> batchDocids = new HashSet<>();
+              List<KBPOfficialEntity> batchEntities = new ArrayList<>();
+              for (int i = shard; i < toMine.size(); i += numWorkers) {
+                KBPOfficialEntity pivot = toMine.get(i);
+                forceTrack("Mining paths for " + pivot);
                 final Set<String> docidsToRegister = new HashSet<>();
-                runOnGraph(
-                    enforceKBInGraph(
-                        slotFiller.extractRelationGraph(pivot, Props.TEST_SENTENCES_PER_ENTITY, Maybe.Just(new Function<String, Boolean>() {
-                  @Override
-                  public Boolean apply(String docid) {
+                try {
+                  Counter<List<KBTriple>> formulas = minePaths(
+                      enforceKBInGraph(
+                          slotFiller.extractRelationGraph(pivot, Props.TEST_SENTENCES_PER_ENTITY, Maybe.<Function<String, Boolean>>Just(docid -> {
                     try {
-                      if (contains(psql, "mined_documents", docid)) {
+                      if (docidsToRegister.contains(docid)) {
+                        return true;
+                      }
+                      if (contains(psql, "mined_documents", docid) || !claimedDocids.add(docid)) {
                         return false;
                       }
                       docidsToRegister.add(docid);
@@ -86,21 +122,25 @@ public class MineInferentialPaths {
                       logger.err(e);
                     }
                     return true;
-                  }
-                })), kb), ir);
-                for (String docid : docidsToRegister) { add(psql, "mined_documents", docid); }
-                flush(psql, "mined_documents");
-              } catch (Throwable e) {
-                logger.err(e);
-              } finally {
-                endTracksUntil("Mining paths for " + pivot);
+                  })), kb), ir, 1);
+                  Counters.addInPlace(batchCounts, formulas);
+                  batchDocids.addAll(docidsToRegister);
+                  batchEntities.add(pivot);
+                } catch (Throwable e) {
+                  logger.err(e);
+                  claimedDocids.removeAll(docidsToRegister);  // let someone else have a go at these
+                } finally {
+                  endTracksUntil("Mining paths for " + pivot);
+                }
+                endTrack("Mining paths for " + pivot);
+                if (batchEntities.size() >= batchSize) {
+                  mergeBatch(this, psql, batchCounts, batchDocids, batchEntities, minedEntities);
+                }
               }
-              endTrack("Mining paths for " + pivot);
-
-            }
-          } catch (Exception e) {
-            logger.err(e);
+              mergeBatch(this, psql, batchCounts, batchDocids, batchEntities, minedEntities);
+            });
           }
+          threadAndRun("Mining paths", workers, numWorkers);
         }
       });
 
@@ -125,7 +165,7 @@ public class MineInferentialPaths {
       KBPEntity source = fill.key.getEntity();
       // Check
       if (kb.data.containsKey(source)) {  // if entity in KB
-        LinkedHashSet<KBPSlotFill> knownEdges = kb.data.get(source);
+        Set<KBPSlotFill> knownEdges = kb.data.get(source);
         for (KBPSlotFill knownEdge : knownEdges) {  // for each known relation in the KB
           if (knownEdge.key.slotValue.equals(fill.key.slotValue)) {  // if the slot values also match
             for (RelationType guessRel : fill.key.tryKbpRelation()) {  // if it's an official relation
@@ -179,16 +219,24 @@ public class MineInferentialPaths {
   }
 
   public static void runOnGraph(EntityGraph graph, KBPIR ir) {
+    // Save path
+    saveInferentialPaths(minePaths(graph, ir, Execution.threads));
+  }
+
+  /**
+   * Filter the graph, and extract the formulas in it.
+   * @param numThreads The number of threads to abstract the formulas on.
+   * @see MineInferentialPaths#extractAllFormulas(EntityGraph, KBPIR, int)
+   */
+  private static Counter<List<KBTriple>> minePaths(EntityGraph graph, KBPIR ir, int numThreads) {
     // Run Filters
     graph = new GraphConsistencyPostProcessors.UnaryConsistencyPostProcessor(SlotfillPostProcessor.unary).postProcess(graph);
 
     // vv Extract Paths vv
-    Counter<List<KBTriple>> preds = extractAllFormulas(graph, ir);
+    Counter<List<KBTriple>> preds = extractAllFormulas(graph, ir, numThreads);
     // ^^               ^^
 
-    // Save path
     logger.log(GREEN, "" + preds.size() + " formulas extracted");
-    saveInferentialPaths(preds);
     // Print path
     if (preds.size() <= 100) {
       startTrack("Formulas");
@@ -197,6 +245,102 @@ public class MineInferentialPaths {
       }
       endTrack("Formulas");
     }
+    return preds;
+  }
+
+  /**
+   * Merge a worker's batch of formula counts into Postgres, register its documents as mined,
+   * and only then record its entities in the checkpoint.
+   * The batch is cleared afterwards.
+   */
+  private static void mergeBatch(PostgresUtils.SetCallback minedDocuments, Connection psql,
+                                 Counter<List<KBTriple>> counts, Set<String> docids, List<KBPOfficialEntity> entities,
+                                 Checkpoint minedEntities) {
+    if (entities.isEmpty()) { return; }
+    synchronized (minedDocuments) {
+      saveInferentialPaths(counts);
+      try {
+        for (String docid : docids) { minedDocuments.add(psql, "mined_documents", docid); }
+        minedDocuments.flush(psql, "mined_documents");
+        minedEntities.record(entities);
+      } catch (SQLException | IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    logger.log("merged " + counts.size() + " formulas from " + entities.size() + " entities");
+    counts.clear();
+    docids.clear();
+    entities.clear();
+  }
+
+  /**
+   * The inputs which determine the counts mined for an entity, and where they were merged to;
+   * a checkpoint only applies to a run with the same inputs.
+   */
+  private static String runKey() {
+    return "table=" + Props.DB_TABLE_MINED_FORMULAS + " cutoff=" + cutoff + " sentences=" + Props.TEST_SENTENCES_PER_ENTITY;
+  }
+
+  /**
+   * A local file with the entities which have been mined, and whose counts have been merged into Postgres;
+   * one entity per line, after a header line with the inputs of the run which mined them.
+   */
+  protected static class Checkpoint {
+    private static final String HEADER = "# ";
+    private final Maybe<File> file;
+    private final String run;
+    private final Set<String> done = new HashSet<>();
+
+    /** A checkpoint which is not saved anywhere; nothing has been mined */
+    public Checkpoint() {
+      this.file = Maybe.Nothing();
+      this.run = "";
+    }
+
+    /**
+     * Read (or start) the checkpoint of a run.
+     * @param file The file to save the checkpoint in.
+     * @param run The inputs of this run; see {@link MineInferentialPaths#runKey()}.
+     * @throws IllegalStateException If the file is the checkpoint of a run with different inputs.
+     */
+    public Checkpoint(File file, String run) throws IOException {
+      this.file = Maybe.Just(file);
+      this.run = run;
+      if (file.exists()) {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(HEADER + run)) {
+          throw new IllegalStateException("Checkpoint " + file + " is from a different run (" +
+              (lines.isEmpty() ? "no header" : lines.get(0).substring(Math.min(HEADER.length(), lines.get(0).length()))) +
+              "; this run is " + run + "); delete it, or choose another checkpoint");
+        }
+        done.addAll(lines.subList(1, lines.size()));
+      }
+    }
+
+    private static String key(KBPEntity entity) {
+      return entity.name.replace('\n', ' ') + "\t" + entity.type.name();
+    }
+
+    public synchronized boolean contains(KBPEntity entity) {
+      return done.contains(key(entity));
+    }
+
+    public synchronized int size() {
+      return done.size();
+    }
+
+    /** Record these entities as mined, appending them to the file */
+    public synchronized void record(Collection<? extends KBPEntity> entities) throws IOException {
+      List<String> lines = new ArrayList<>(entities.size() + 1);
+      for (File file : this.file) {
+        if (!file.exists()) { lines.add(HEADER + run); }
+      }
+      for (KBPEntity entity : entities) { lines.add(key(entity)); }
+      for (File file : this.file) {
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      }
+      for (KBPEntity entity : entities) { done.add(key(entity)); }
+    }
   }
 
   /**
@@ -405,6 +549,15 @@ public class MineInferentialPaths {
    * @param ir The slotfilling system's IR component, for querying document match counts.
    */
   public static Counter<List<KBTriple>> extractAllFormulas(final EntityGraph graph, final KBPIR ir) {
+    return extractAllFormulas(graph, ir, Execution.threads);
+  }
+
+  /**
+   * @see MineInferentialPaths#extractAllFormulas(EntityGraph, KBPIR)
+   * @param numThreads The number of threads to abstract the formulas on; if this is 1, everything runs on the calling thread.
+   */
+  public static Counter<List<KBTriple>> extractAllFormulas(final EntityGraph graph, final KBPIR ir, int numThreads) {
+    numThreads = Math.max(1, numThreads);
     List<List<KBTriple>> pathsToAbstract = new ArrayList<>();
 
     // Initialize Tries
@@ -436,7 +589,6 @@ public class MineInferentialPaths {
     }
 
     // Multithreading -- split data
-    int numThreads = Execution.threads;
     final List<List<List<KBTriple>>> inputData = new ArrayList<>();
     for (int i = 0; i < numThreads; ++i) { inputData.add(new ArrayList<List<KBTriple>>()); }
     int i = 0;
@@ -475,7 +627,11 @@ public class MineInferentialPaths {
       });
     }
     // Multithreading -- run
-    threadAndRun(tasks);
+    if (numThreads == 1) {
+      tasks.get(0).run();
+    } else {
+      threadAndRun(tasks, numThreads);
+    }
     // Multithreading -- merge
     final Counter<List<KBTriple>> preds = new ClassicCounter<>();
     for (Counter<List<KBTriple>> output : outputs) {
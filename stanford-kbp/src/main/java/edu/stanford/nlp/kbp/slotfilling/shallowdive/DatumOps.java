@@ -2,6 +2,7 @@ package edu.stanford.nlp.kbp.slotfilling.shallowdive;
 
 import edu.stanford.nlp.io.IOUtils;
 import edu.stanford.nlp.kbp.common.*;
+import edu.stanford.nlp.kbp.slotfilling.classify.ColumnarDataset;
 import edu.stanford.nlp.kbp.slotfilling.classify.KBPDataset;
 import edu.stanford.nlp.kbp.slotfilling.classify.RelationClassifier;
 import edu.stanford.nlp.kbp.slotfilling.classify.TrainingStatistics;
@@ -9,6 +10,7 @@ import edu.stanford.nlp.kbp.slotfilling.ir.KBPIR;
 import edu.stanford.nlp.kbp.slotfilling.train.KBPTrainer;
 import edu.stanford.nlp.kbp.slotfilling.train.KryoDatumCache;
 import edu.stanford.nlp.time.SUTimeSimpleParser;
+import edu.stanford.nlp.util.Execution;
 import edu.stanford.nlp.util.Factory;
 import edu.stanford.nlp.util.IterableIterator;
 import edu.stanford.nlp.util.Pair;
@@ -96,8 +98,12 @@ public class DatumOps {
     }
   }
 
-  @SuppressWarnings("unchecked")
-  public KBPDataset<String, String> mkDataset(String datumTable) {
+  /**
+   * Read the datums from a datum table, grouped by key and subsampled for negatives.
+   * @param datumTable The Postgres table to read the datums from.
+   * @return An iterator over the datum groups, backed by a Postgres cursor.
+   */
+  private static IterableIterator<KBPDatum> readDatums(String datumTable) {
     Pointer<IterableIterator<KBPDatum>> datumIterator = new Pointer<>();
 
     PostgresUtils.withConnection(datumTable, psql -> {
@@ -173,9 +179,11 @@ public class DatumOps {
                   }
                   currentDatum.registerRelation(cursor.getBoolean("truth"), cursor.getString("relation_name"));
                 } else {
+                  KBPDatum datum = currentDatum;
                   currentKey = key;
+                  currentDatum = new KBPDatum(SentenceGroup.empty(currentKey));
                   didsSeen.clear();
-                  return Maybe.Just(currentDatum);
+                  return Maybe.Just(datum);
                 }
               }
             } else {
@@ -184,6 +192,7 @@ public class DatumOps {
                 KBPair key = mkKey(cursor);
                 if (!key.equals(currentKey)) {
                   currentKey = key;
+                  currentDatum = new KBPDatum(SentenceGroup.empty(currentKey));
                   didsSeen.clear();
                   return Maybe.<KBPDatum>Nothing();
                 }
@@ -208,20 +217,62 @@ public class DatumOps {
       }
     });
 
-    // Create dataset from iterator
+    return datumIterator.dereference().get();
+  }
+
+  /**
+   * Write the datums of a datum table to the columnar dataset {@link Props#SHALLOWDIVE_TRAIN_COLUMNAR},
+   * unless it's already there.
+   * @param datumTable The Postgres table to read the datums from.
+   * @return The columnar dataset file.
+   * @throws IOException If the columnar dataset could not be written.
+   */
+  private File mkColumnarDataset(String datumTable) throws IOException {
+    File columnar = Props.SHALLOWDIVE_TRAIN_COLUMNAR;
+    if (Props.SHALLOWDIVE_TRAIN_REDO || !columnar.exists()) {
+      ColumnarDataset.write(readDatums(datumTable),
+          datum -> ColumnarDataset.Group.of(datum.positiveLabels, datum.negativeLabels, datum.unknownLabels, datum.group),
+          columnar, Execution.threads);
+    } else {
+      logger.log("reading cached datums from " + columnar);
+    }
+    return columnar;
+  }
+
+  /**
+   * Create a dataset from a datum table.
+   * If {@link Props#SHALLOWDIVE_TRAIN_COLUMNAR} is set, the datums are first written to (or, if it already exists,
+   * read from) a {@link ColumnarDataset}, which is then mapped into memory; otherwise, the dataset is built up
+   * on the heap directly from the table.
+   * @param datumTable The Postgres table to read the datums from.
+   * @return The dataset, with the feature count threshold applied.
+   */
+  @SuppressWarnings("unchecked")
+  public KBPDataset<String, String> mkDataset(String datumTable) {
     forceTrack("Creating dataset");
-    KBPDataset<String,String> dataset = new KBPDataset<>();
-    for (KBPDatum datum : datumIterator.dereference().get()) {
-      Maybe<String>[] annotatedLabels = new Maybe[datum.group.size()];
-      dataset.addDatum( datum.positiveLabels, datum.negativeLabels, datum.unknownLabels, datum.group, datum.group.sentenceGlossKeys, annotatedLabels );
+    KBPDataset<String,String> dataset;
+    if (Props.SHALLOWDIVE_TRAIN_COLUMNAR != null) {
+      try {
+        dataset = ColumnarDataset.load(mkColumnarDataset(datumTable), Execution.threads);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    } else {
+      dataset = new KBPDataset<>();
+      for (KBPDatum datum : readDatums(datumTable)) {
+        Maybe<String>[] annotatedLabels = new Maybe[datum.group.size()];
+        Arrays.fill(annotatedLabels, Maybe.<String>Nothing());
+        dataset.addDatum( datum.positiveLabels, datum.negativeLabels, datum.unknownLabels, datum.group, datum.group.sentenceGlossKeys, annotatedLabels );
+      }
     }
     dataset.applyFeatureCountThreshold(Props.FEATURE_COUNT_THRESHOLD);
+    if (Props.TRAIN_DATASET_COMPACT) { dataset.compact(); }
     startTrack("Dataset Info");
     logger.log(BLUE, "                                size: " + dataset.size());
     logger.log(BLUE, "           number of feature classes: " + dataset.numFeatures());
     logger.log(BLUE, "                 number of relations: " + dataset.numClasses());
     endTrack("Dataset Info");
-    endTrack("Creating Dataset");
+    endTrack("Creating dataset");
     return dataset;
   }
 
@@ -238,7 +289,18 @@ public class DatumOps {
   public Pair<RelationClassifier, TrainingStatistics> train(String tableName, KBPIR ir) {
     // Train
     forceTrack("Training");
-    Pair<RelationClassifier, TrainingStatistics> statistics = trainer.trainOnData(mkDataset(tableName));
+    Pair<RelationClassifier, TrainingStatistics> statistics;
+    if (Props.TRAIN_JOINTBAYES_OUTOFCORE && Props.SHALLOWDIVE_TRAIN_COLUMNAR != null && trainer.canTrainOutOfCore()) {
+      // Stream the dataset from disk, rather than loading it
+      try (ColumnarDataset.Reader dataset = new ColumnarDataset.Reader(mkColumnarDataset(tableName))) {
+        dataset.applyFeatureCountThreshold(Props.FEATURE_COUNT_THRESHOLD);
+        statistics = trainer.trainOnData(dataset);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    } else {
+      statistics = trainer.trainOnData(mkDataset(tableName));
+    }
     // Save classifier
     try {
       logger.log(BOLD, BLUE, "saving model to " + Props.KBP_MODEL_PATH);
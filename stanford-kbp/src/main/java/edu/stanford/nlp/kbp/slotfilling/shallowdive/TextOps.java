@@ -30,7 +30,7 @@ import edu.stanford.nlp.time.Timex;
 import edu.stanford.nlp.util.*;
 
 import java.io.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
@@ -152,6 +152,14 @@ public class TextOps {
     logger.log("read " + annotationForSentence.size() + " labelled sentence annotations");
   }
 
+  /** Create a TextOps from already loaded resources, without any annotated sentences; e.g., for passes over the corpus alone */
+  TextOps(KBPIR ir, IndexSearcher searcher, Map<String, String> wikidictCached, Set<String> firstNames) {
+    this.ir = ir;
+    this.searcher = searcher;
+    this.wikidictCached = wikidictCached;
+    this.firstNames = firstNames;
+  }
+
   public Collection<Mention> mentions(CoreMap sentence) {
     // Setup
     List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
@@ -410,84 +418,203 @@ public class TextOps {
     public void apply(E metadata, Annotation document, CoreMap sentence, List<KBPSlotFill> openieExtractions);
   }
 
+  /**
+   * A callback over all the (usable) sentences of a document at once.
+   * @see TextOps#applyToEverySentence(WorkerResource, SentenceBatchCallback, int)
+   */
+  public static interface SentenceBatchCallback<E> {
+    public void apply(E resource, Annotation document, List<CoreMap> sentences, List<KBPSlotFill> openieExtractions);
+  }
+
+  /**
+   * A heavyweight resource which a sentence pass needs one of per worker thread -- e.g., a set of prepared
+   * statements, or an OpenIE extractor.
+   * Each worker creates its own the first time it asks for one, and keeps it for the rest of the pass,
+   * so getting the resource never takes a lock.
+   */
+  public static class WorkerResource<E> {
+    /** A worker's resource; the worker's ThreadLocal only ever holds this, so the resource itself can be dropped */
+    private static class Slot<E> {
+      private E resource = null;
+    }
+
+    private final Factory<E> factory;
+    private final ThreadLocal<Slot<E>> local = ThreadLocal.withInitial(Slot::new);
+    /** The slots of every worker which has created a resource */
+    private final Queue<Slot<E>> created = new ConcurrentLinkedQueue<>();
+
+    public WorkerResource(final Factory<E> factory) {
+      this.factory = factory;
+    }
+
+    /** The resource for the calling thread, creating it if necessary */
+    public E get() {
+      Slot<E> slot = local.get();
+      if (slot.resource == null) {
+        slot.resource = factory.create();
+        created.add(slot);
+      }
+      return slot.resource;
+    }
+
+    /** Every resource created so far; e.g., to flush them once the pass is over */
+    public Collection<E> created() {
+      List<E> resources = new ArrayList<>(created.size());
+      for (Slot<E> slot : created) { resources.add(slot.resource); }
+      return resources;
+    }
+
+    /**
+     * Drop the resource of every worker, once the pass is over.
+     * The worker threads may well outlive the pass, and would otherwise keep their resources for as long as they live.
+     * A worker which asks for a resource afterwards creates a new one.
+     */
+    public void clear() {
+      Slot<E> slot;
+      while ((slot = created.poll()) != null) { slot.resource = null; }
+      local.remove();
+    }
+  }
+
   public <E> void applyToEverySentence(final Factory<E> createData,
                                        final Function<E, Exception> destroyData,
                                        final SentenceCallback<E> fn) {
     applyToEverySentence(createData, destroyData, fn, Integer.MAX_VALUE);
   }
 
+  /**
+   * Apply a function to every sentence in the corpus.
+   * The data for the function is created once per worker thread (see {@link WorkerResource}),
+   * and destroyed (e.g., flushed) after each document.
+   * @see TextOps#applyToEverySentence(WorkerResource, SentenceBatchCallback, int)
+   */
   public <E> void applyToEverySentence(final Factory<E> createData,
                                        final Function<E, Exception> destroyData,
                                        final SentenceCallback<E> fn, int maxDocuments) {
+    applyToEverySentence(Maybe.<String>Nothing(), createData, destroyData, fn, maxDocuments);
+  }
+
+  /**
+   * As {@link TextOps#applyToEverySentence(Factory, Function, SentenceCallback, int)}, but checkpointing the pass
+   * under the given job name (see {@link KBPIR#scanDocuments(Maybe, int, java.util.function.Consumer)}).
+   * The data should be durable once it has been destroyed, as a resumed pass skips the documents it has already seen.
+   */
+  public <E> void applyToEverySentence(Maybe<String> job,
+                                       final Factory<E> createData,
+                                       final Function<E, Exception> destroyData,
+                                       final SentenceCallback<E> fn, int maxDocuments) {
+    WorkerResource<E> resource = new WorkerResource<>(createData);
+    try {
+      applyToEverySentence(job, resource, (statement, document, sentences, openieExtractions) -> {
+        for (CoreMap sentence : sentences) {
+          // -- APPLY FUNCTION --
+          try {
+            fn.apply(statement, document, sentence, openieExtractions);
+          } catch (Exception e) {
+            logger.log(e);
+          }
+          // --                --
+        }
+        // Flush
+        try {
+          Exception t = destroyData.apply(statement);
+          if (t != null) {
+            throw t;
+          }
+        } catch (SQLException e) {
+          logger.err(e);
+          logger.err(e.getNextException());
+        } catch (Exception e) {
+          logger.err(e);
+        }
+      }, maxDocuments);
+    } finally {
+      resource.clear();
+    }
+  }
+
+  /**
+   * Apply a function to every sentence in the corpus, in parallel.
+   * The sentences of each document are handed to the function together, along with the calling worker's resource;
+   * the scan over the corpus (see {@link KBPIR#scanDocuments(int, java.util.function.Consumer)}) bounds the number of
+   * documents in memory at once.
+   * The resource is not cleared once the pass is over, as the caller may still need to flush it;
+   * the caller should {@link WorkerResource#clear()} it when done.
+   *
+   * @param resource The per-worker resource the function needs, if any.
+   * @param fn The function to apply to the sentences of every document.
+   * @param maxDocuments The maximum number of documents to process.
+   */
+  public <E> void applyToEverySentence(final WorkerResource<E> resource,
+                                       final SentenceBatchCallback<E> fn, int maxDocuments) {
+    applyToEverySentence(Maybe.<String>Nothing(), resource, fn, maxDocuments);
+  }
+
+  /**
+   * As {@link TextOps#applyToEverySentence(WorkerResource, SentenceBatchCallback, int)}, but checkpointing the pass
+   * under the given job name, if any; a pass which dies part way can then be resumed by running the same job again.
+   */
+  public <E> void applyToEverySentence(Maybe<String> job, final WorkerResource<E> resource,
+                                       final SentenceBatchCallback<E> fn, int maxDocuments) {
     final AtomicInteger docCount = new AtomicInteger(0);
-    final Map<Long, OpenIERelationExtractor> openie = new HashMap<>();
-    ir.slurpDocuments(maxDocuments).filter(in ->
-          in != null && in.get(CoreAnnotations.TokensAnnotation.class) != null &&
-            in.get(CoreAnnotations.TokensAnnotation.class).size() < 5000).forEach( document -> {
-            try {
-            E statement = createData.create();
-            int id = docCount.getAndIncrement();
-
-            // Process OpenIE
-            List<KBPSlotFill> openieExtractions = Collections.EMPTY_LIST;
-            if (Props.SHALLOWDIVE_FEATURIZE_OPENIE) {
-              new SlotMentionAnnotator().annotate(document);  // TODO(gabor) needed for the OpenIE extractor, but otherwise a bit nasty to have here
-              try {
-                OpenIERelationExtractor openieExtractor;
-                synchronized (openie) {
-                  if (!openie.containsKey(Thread.currentThread().getId())) {
-                    openie.put(Thread.currentThread().getId(), new ReverbRelationExtractor());
-                  }
-                  openieExtractor = openie.get(Thread.currentThread().getId());
-                }
-                openieExtractions = openieExtractor.extractRelations(document);
-              } catch (Exception ignored) {
-              }
-            }
+    final AtomicLong sentenceCount = new AtomicLong(0);
+    final long startTime = System.currentTimeMillis();
+    final WorkerResource<OpenIERelationExtractor> openie = new WorkerResource<>(ReverbRelationExtractor::new);
+    try {
+      ir.scanDocuments(job, maxDocuments, document -> {
+        if (document == null || document.get(CoreAnnotations.TokensAnnotation.class) == null ||
+            document.get(CoreAnnotations.TokensAnnotation.class).size() >= 5000) { return; }
+        try {
+          int id = docCount.getAndIncrement();
 
-            // Process sentences
+          // Process OpenIE
+          List<KBPSlotFill> openieExtractions = Collections.EMPTY_LIST;
+          if (Props.SHALLOWDIVE_FEATURIZE_OPENIE) {
+            new SlotMentionAnnotator().annotate(document);  // TODO(gabor) needed for the OpenIE extractor, but otherwise a bit nasty to have here
             try {
-              for (CoreMap sentence : document.get(CoreAnnotations.SentencesAnnotation.class)) {
-                // Discard awful sentences
-                if (sentence.get(CoreAnnotations.TokensAnnotation.class).size() > 50) {
-                  logger.warn("[" + id + "] ignoring sentence of length > 50");
-                  continue;
-                }
-                SemanticGraph dependencyGraph = sentence.get(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class);
-                if (dependencyGraph == null) {
-                  logger.warn("[" + id + "] malformed semantic graph for sentence");
-                  continue;
-                }
-                // -- APPLY FUNCTION --
-                try {
-                  fn.apply(statement, document, sentence, openieExtractions);
-                } catch (Exception e) {
-                  logger.log(e);
-                }
-                // --                --
-              }
-            } catch (Exception e) {
-              logger.err(e);
+              openieExtractions = openie.get().extractRelations(document);
+            } catch (Exception ignored) {
             }
+          }
 
-            // Flush
-            synchronized (statement) {
-              try {
-                Exception t = destroyData.apply(statement);
-                if (t != null) {
-                  throw t;
-                }
-              } catch (SQLException e) {
-                logger.err(e);
-                logger.err(e.getNextException());
-              } catch (Exception e) {
-                logger.err(e);
-              }
+          // Collect sentences
+          List<CoreMap> sentences = new ArrayList<>();
+          for (CoreMap sentence : document.get(CoreAnnotations.SentencesAnnotation.class)) {
+            // Discard awful sentences
+            if (sentence.get(CoreAnnotations.TokensAnnotation.class).size() > 50) {
+              logger.warn("[" + id + "] ignoring sentence of length > 50");
+              continue;
+            }
+            SemanticGraph dependencyGraph = sentence.get(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class);
+            if (dependencyGraph == null) {
+              logger.warn("[" + id + "] malformed semantic graph for sentence");
+              continue;
             }
-          } catch (Throwable t) {
-            logger.err(t);
+            sentences.add(sentence);
           }
-        });
+
+          // Process sentences
+          try {
+            fn.apply(resource.get(), document, sentences, openieExtractions);
+          } catch (Exception e) {
+            logger.err(e);
+          }
+
+          // Report progress
+          long numSentences = sentenceCount.addAndGet(sentences.size());
+          if ((id + 1) % 10000 == 0) {
+            double seconds = Math.max(1.0, (System.currentTimeMillis() - startTime) / 1000.0);
+            logger.log("processed " + (id + 1) + " documents; " + numSentences + " sentences " +
+                "(" + ((int) (numSentences / seconds)) + " sentences / second)");
+          }
+        } catch (Throwable t) {
+          logger.err(t);
+        }
+      });
+    } finally {
+      openie.clear();
+    }
+    logger.log("processed " + docCount.get() + " documents; " + sentenceCount.get() + " sentences");
   }
 
   public void applyToEverySentence(SentenceCallback<Class<Void>> callback) {
@@ -592,28 +719,24 @@ public class TextOps {
     final Map<KBPair, Set<String>> kb = linkKB(ir.trainingTriples());
     final AtomicLong id = new AtomicLong(0);
 
-    Map<Long, Triple<PreparedStatement, PreparedStatement, PreparedStatement>> statements = new ConcurrentHashMap<>();
-    Map<Long, AtomicInteger> queueSize = new ConcurrentHashMap<>();
+    // -- Create New Statements (once per worker) --
+    WorkerResource<Triple<PreparedStatement, PreparedStatement, PreparedStatement>> statements = new WorkerResource<>(() ->
+        Triple.makeTriple(
+            insertStatementFactory.dereference().orCrash().create(),
+            trueRelationInsertFactory.dereference().orCrash().create(),
+            falseRelationInsertFactory.dereference().orCrash().create()));
+    // (the number of documents each worker has queued; only ever touched by that worker)
+    WorkerResource<int[]> queueSize = new WorkerResource<>(() -> new int[1]);
+    // (a checkpointed pass must write each document before it is marked as done)
+    final int flushEvery = Props.INDEX_SCAN_CHECKPOINTDIR != null ? 1 : 10000;
     applyToEverySentence(
-
-        // -- Create New Statements --
-        () -> {
-          Triple<PreparedStatement, PreparedStatement, PreparedStatement> triple = statements.get(Thread.currentThread().getId());
-          if (triple == null) {
-            triple = Triple.makeTriple(
-                insertStatementFactory.dereference().orCrash().create(),
-                trueRelationInsertFactory.dereference().orCrash().create(),
-                falseRelationInsertFactory.dereference().orCrash().create());
-            statements.put(Thread.currentThread().getId(), triple);
-            queueSize.put(Thread.currentThread().getId(), new AtomicInteger());
-          }
-          return triple;
-        },
+        Maybe.Just("featurize_" + tableName),
+        () -> statements.get(),
 
         // -- Flush Statements --
         in -> {
           try {
-            if (queueSize.get(Thread.currentThread().getId()).incrementAndGet() % 10000 == 0) {
+            if (++queueSize.get()[0] % flushEvery == 0) {
               in.first.executeBatch();
               in.second.executeBatch();
               in.third.executeBatch();
@@ -725,11 +848,12 @@ public class TextOps {
               logger.log(e);
             }
           }
-        }
+        },
+        Integer.MAX_VALUE
     );
 
     // Clean up
-    for (Triple<PreparedStatement, PreparedStatement, PreparedStatement> triple : statements.values()) {
+    for (Triple<PreparedStatement, PreparedStatement, PreparedStatement> triple : statements.created()) {
       try {
         triple.first.executeBatch();
         triple.second.executeBatch();
@@ -738,6 +862,8 @@ public class TextOps {
         logger.err(e);
       }
     }
+    statements.clear();
+    queueSize.clear();
 
     afterFeaturizeToTable(tableName);
   }
@@ -12,12 +12,17 @@ import edu.stanford.nlp.pipeline.Annotation;
 import edu.stanford.nlp.time.TimeAnnotations;
 import edu.stanford.nlp.time.Timex;
 import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.Execution;
 import edu.stanford.nlp.util.Pair;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,6 +43,39 @@ public abstract class OfficialOutputWriter {
    */
   public abstract void yieldLine(StringBuilder builder, KBPSlotFill fill) throws IOException;
 
+  /**
+   * Yield the lines for a number of slot fills which all have the same provenance document
+   * (or, all have no provenance).
+   * By default, this is just {@link OfficialOutputWriter#yieldLine(StringBuilder, KBPSlotFill)} on each fill;
+   * writers which read the provenance document override this to fetch it only once.
+   * @param builders The StringBuilders to append to, one per fill
+   * @param fills The slot fills to write
+   */
+  protected void yieldLines(List<StringBuilder> builders, List<KBPSlotFill> fills) throws IOException {
+    for (int i = 0; i < fills.size(); ++i) {
+      yieldLine(builders.get(i), fills.get(i));
+    }
+  }
+
+  /** The threads resolving provenance, shared by every writer */
+  private static ExecutorService resolverPool = null;
+
+  /**
+   * Get the shared provenance resolver pool.
+   * It is sized from Execution.threads when first used, and never replaced, so that callers
+   * (possibly writing concurrently) never find the pool they submitted to shut down under them.
+   */
+  private static synchronized ExecutorService resolverPool() {
+    if (resolverPool == null) {
+      resolverPool = Executors.newFixedThreadPool(Math.max(1, Execution.threads), runnable -> {
+        Thread thread = new Thread(runnable, "Provenance Resolver");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return resolverPool;
+  }
+
   /**
    * Output a set of relations to a file. This is the file to be read by the scoring script.
    * @param os The output stream to write to
@@ -53,7 +91,11 @@ public abstract class OfficialOutputWriter {
     RelationType[] relationTypes = RelationType.values();
     Arrays.sort(relationTypes);
 
-    // now, for each entity mention, output the block of text as expected
+    // now, for each entity mention, lay out the block of text as expected.
+    // Lines with slot fills are only filled in below, one provenance document at a time.
+    List<StringBuilder> lines = new ArrayList<>();
+    Map<String, List<Integer>> linesByDocument = new LinkedHashMap<>();
+    List<KBPSlotFill> fillForLine = new ArrayList<>();
     for (KBPOfficialEntity entity : entities) {
       Collection<KBPSlotFill> mentions = rawRelations.get(entity);
 
@@ -83,27 +125,61 @@ public abstract class OfficialOutputWriter {
         // Create a common prefix, which doesn't change across years
         String prefix = entity.queryId.orCrash() + tab() + officialRelationName + tab() + runId + tab();
         if (slotFills == null || slotFills.size() == 0) {
-          os.println(prefix + "NIL");
+          lines.add(new StringBuilder(prefix).append("NIL"));
+          fillForLine.add(null);
         } else {
           for (KBPSlotFill mention : slotFills) {
             // For each relation...
             if( !threshold.containsKey(mention.key.kbpRelation()) ||
                 mention.score.orCrash() >= threshold.get(mention.key.kbpRelation())) {
-              // ... if it's over the minimum threshold
-              StringBuilder line = new StringBuilder(prefix);
-              try {
-                // ... append it to the line
-                yieldLine(line, mention);
-              } catch (IOException e) {
-                throw new RuntimeException(e);
-              }
-              // Write line of output
-              os.println(line.toString().trim());
+              // ... if it's over the minimum threshold, it gets a line
+              String docid = mention.provenance.isDefined() ? mention.provenance.get().docId : "";
+              if (!linesByDocument.containsKey(docid)) { linesByDocument.put(docid, new ArrayList<>()); }
+              linesByDocument.get(docid).add(lines.size());
+              lines.add(new StringBuilder(prefix));
+              fillForLine.add(mention);
             }
           }
         }
       }
     }
+
+    // Append the slot fills to their lines, one task per provenance document
+    List<Runnable> tasks = new ArrayList<>(linesByDocument.size());
+    for (List<Integer> lineIndices : linesByDocument.values()) {
+      List<StringBuilder> builders = new ArrayList<>(lineIndices.size());
+      List<KBPSlotFill> fills = new ArrayList<>(lineIndices.size());
+      for (int i : lineIndices) {
+        builders.add(lines.get(i));
+        fills.add(fillForLine.get(i));
+      }
+      tasks.add(() -> {
+        try {
+          yieldLines(builders, fills);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+    }
+    if (tasks.size() <= 1 || Execution.threads <= 1) {
+      for (Runnable task : tasks) { task.run(); }
+    } else {
+      ExecutorService pool = resolverPool();
+      List<Future<?>> results = new ArrayList<>(tasks.size());
+      for (Runnable task : tasks) { results.add(pool.submit(task)); }
+      try {
+        for (Future<?> result : results) { result.get(); }
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+      }
+    }
+
+    // Write the output, in order
+    for (StringBuilder line : lines) {
+      os.println(line.toString().trim());
+    }
   }
 
   /**
@@ -142,7 +218,7 @@ public abstract class OfficialOutputWriter {
    * @return The official string form of the relation
    */
   public static String officialRelationName(RelationType relation, Props.YEAR kbp_year) {
-    String name = relation.canonicalName.replaceAll("SLASH", "/");
+    String name = relation.canonicalName.replace("SLASH", "/");
     switch (kbp_year) {
       case KBP2009:
         switch (relation) {
@@ -216,8 +292,10 @@ public abstract class OfficialOutputWriter {
    * @return A slot value that is valid to add to the output score file
    */
   protected String escapeSlotValue(String raw) {
-    return raw.replaceAll("\n", " ").replaceAll("\t", " ").replaceAll("\\s+", " ");
+    return WHITESPACE.matcher(raw).replaceAll(" ");
   }
+  /** Any run of whitespace, including the newlines and tabs which would corrupt the score file */
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
   /**
    * Format a list of spans into a valid field for the output file.
@@ -304,6 +382,11 @@ public abstract class OfficialOutputWriter {
    * A writer to output the official response files for 2013
    */
   public static class OfficialOutputWriter2013 extends OfficialOutputWriter {
+    /**
+     * The format of the confidence score.
+     * DecimalFormat is not thread-safe, and lines are written concurrently: format with
+     * {@link OfficialOutputWriter2013#formatScore(double)}, which synchronizes on it.
+     */
     protected static DecimalFormat df = new DecimalFormat("0.000");
     public final StandardIR ir;
 
@@ -311,6 +394,68 @@ public abstract class OfficialOutputWriter {
       this.ir = ir;
     }
 
+    /**
+     * A provenance document, fetched once and shared by every slot fill justified by it.
+     * Coreference is resolved on an overlay of the document, one per fill
+     * (see {@link OfficialOutputWriter2013#corefDocument(ProvenanceDocument)}), so the document itself is never modified.
+     */
+    protected static class ProvenanceDocument {
+      public final String docid;
+      public final Annotation annotation;
+      /** The document date, if we've looked for it already */
+      private Maybe<Span> docDate = null;
+
+      public ProvenanceDocument(String docid, Annotation annotation) {
+        this.docid = docid;
+        this.annotation = annotation;
+      }
+    }
+
+    /** Fetch a provenance document from the official index */
+    protected ProvenanceDocument fetchProvenanceDocument(String docid) throws IOException {
+      return new ProvenanceDocument(docid,
+          ir.officialIndex.fetchDocument(docid).orCrash("Could not find document in official index: " + docid));
+    }
+
+    @Override
+    protected void yieldLines(List<StringBuilder> builders, List<KBPSlotFill> fills) throws IOException {
+      ProvenanceDocument doc = null;
+      for (int i = 0; i < fills.size(); ++i) {
+        KBPSlotFill fill = fills.get(i);
+        if (!fill.provenance.isDefined()) { throw new IllegalArgumentException("No provenance for slot fill: " + fill); }
+        if (doc == null) { doc = fetchProvenanceDocument(fill.provenance.get().docId); }
+        yieldLine(builders.get(i), fill, doc);
+      }
+    }
+
+    @Override
+    public void yieldLine(StringBuilder builder, KBPSlotFill fill) throws IOException {
+      if (!fill.provenance.isDefined()) { throw new IllegalArgumentException("No provenance for slot fill: " + fill); }
+      yieldLine(builder, fill, fetchProvenanceDocument(fill.provenance.get().docId));
+    }
+
+    /**
+     * The document to resolve the coreference of a single slot fill in: a copy-on-write overlay of the
+     * shared provenance document, created only if needed.
+     * Both the entity and the slot value are resolved in the same overlay, so the second resolution
+     * sees the annotations of the first, as it did when every fill fetched its own copy of the document.
+     */
+    protected Lazy<Annotation> corefDocument(final ProvenanceDocument provenanceDocument) {
+      return new Lazy<Annotation>() {
+        @Override
+        protected Annotation compute() {
+          return CoreMapUtils.overlayDocument(provenanceDocument.annotation);
+        }
+      };
+    }
+
+    /** Format a confidence score; safe to call from multiple threads */
+    protected static String formatScore(double score) {
+      synchronized (df) {
+        return df.format(score);
+      }
+    }
+
     /** Offsets for a particular well-defined span */
     protected Span characterOffset(List<CoreLabel> tokens, Span tokenOffset) {
       int start = tokens.get(tokenOffset.start()).get(CoreAnnotations.CharacterOffsetBeginAnnotation.class);
@@ -392,12 +537,24 @@ public abstract class OfficialOutputWriter {
     public static final Pattern DATETIME = Pattern.compile("<DATETIME>\\s*([^<]+)\\s*</DATETIME>");
 
     protected Span resolveDocDate(Annotation doc, Span defaultReturnValue) {
+      return findDocDate(doc).getOrElse(defaultReturnValue);
+    }
+
+    /** Like {@link OfficialOutputWriter2013#resolveDocDate(Annotation, Span)}, but only searches the document once */
+    protected Span resolveDocDate(ProvenanceDocument doc, Span defaultReturnValue) {
+      if (doc.docDate == null) { doc.docDate = findDocDate(doc.annotation); }
+      return doc.docDate.getOrElse(defaultReturnValue);
+    }
+
+    /** Find the character offsets of the document date, if there is one */
+    protected Maybe<Span> findDocDate(Annotation doc) {
       // Try to find a literal datetime
       String rawText = doc.get(CoreAnnotations.TextAnnotation.class);
       Matcher datetimeMatcher = DATETIME.matcher(rawText);
       if (datetimeMatcher.find()) {
         String datetimeString = datetimeMatcher.group(1).trim();
-        return new Span(rawText.indexOf(datetimeString), rawText.indexOf(datetimeString) + datetimeString.length());
+        int start = rawText.indexOf(datetimeString);
+        return Maybe.Just(new Span(start, start + datetimeString.length()));
       }
       // Try to glean the datetime from the doc id
 
@@ -409,29 +566,33 @@ public abstract class OfficialOutputWriter {
           // Get time chunk
           Timex timex = token.get(TimeAnnotations.TimexAnnotation.class);
           int end = start + 1;
-          while(Maybe.fromNull(tokens.get(end).get(TimeAnnotations.TimexAnnotation.class)).equalsOrElse(timex, false)) {
+          while(end < tokens.size() && Maybe.fromNull(tokens.get(end).get(TimeAnnotations.TimexAnnotation.class)).equalsOrElse(timex, false)) {
             end += 1;
           }
           // Check chunk
           Span candidateTokenSpan = new Span(start, end);
           if (YEAR.matcher(CoreMapUtils.sentenceSpanString(tokens, candidateTokenSpan)).find()) {
-            return characterOffset(tokens, candidateTokenSpan);
+            return Maybe.Just(characterOffset(tokens, candidateTokenSpan));
           }
           start = end;
         }
       }
-      return defaultReturnValue;
+      return Maybe.Nothing();
     }
 
-    @Override
-    public void yieldLine(StringBuilder builder, KBPSlotFill fill) throws IOException {
+    /**
+     * Yield a single line of the score file, given the (already fetched) provenance document of the fill.
+     * @see OfficialOutputWriter#yieldLine(StringBuilder, KBPSlotFill)
+     */
+    protected void yieldLine(StringBuilder builder, KBPSlotFill fill, ProvenanceDocument provenanceDocument) throws IOException {
       // -- Variables
       // Get Provenances
       if (!fill.provenance.isDefined()) { throw new IllegalArgumentException("No provenance for slot fill: " + fill); }
       KBPRelationProvenance primaryProvenance = fill.provenance.get();
       Maybe<KBPRelationProvenance> secondaryProvenance = Maybe.Nothing(); // TODO(gabor) multipe provenances
       // Get Sentences
-      Annotation doc = ir.officialIndex.fetchDocument(primaryProvenance.docId).orCrash("Could not find document in official index: " + primaryProvenance.docId);
+      Annotation doc = provenanceDocument.annotation;
+      Lazy<Annotation> corefDoc = corefDocument(provenanceDocument);
       CoreMap primarySentence = doc.get(CoreAnnotations.SentencesAnnotation.class).get(primaryProvenance.sentenceIndex.get());
       Maybe<CoreMap> secondarySentence = Maybe.Nothing();
       if (secondaryProvenance.isDefined()) {
@@ -450,7 +611,7 @@ public abstract class OfficialOutputWriter {
       // resolve coref
       Span valueAntecedent = primaryValueOffset;
       if (!CoreMapUtils.sentenceSpanString(primarySentence, primaryProvenance.slotValueMentionInSentence.orCrash()).equalsIgnoreCase(fill.key.slotValue)) {
-        valueAntecedent = resolveLiteralCoref(doc, fill.key, false).getOrElse(primaryValueOffset);
+        valueAntecedent = resolveLiteralCoref(corefDoc.get(), fill.key, false).getOrElse(primaryValueOffset);
       }
       if (Span.overlaps(primaryValueOffset, valueAntecedent)) {
         primaryValueOffset = valueAntecedent;
@@ -459,7 +620,7 @@ public abstract class OfficialOutputWriter {
       Span docDate = primaryValueOffset;
       if (fill.key.kbpRelation().isDateRelation() &&
           !YEAR.matcher(CoreMapUtils.sentenceSpanString(primarySentence, primaryProvenance.slotValueMentionInSentence.orCrash())).find()) {
-        docDate = resolveDocDate(doc, primaryValueOffset);
+        docDate = resolveDocDate(provenanceDocument, primaryValueOffset);
       }
       if (Span.overlaps(primaryValueOffset, docDate)) {
         docDate = valueAntecedent;
@@ -487,7 +648,7 @@ public abstract class OfficialOutputWriter {
       // resolve coref
       Span entityAntecedent = primaryEntityOffset;
       if (!CoreMapUtils.sentenceSpanString(primarySentence, primaryProvenance.entityMentionInSentence.orCrash()).equalsIgnoreCase(fill.key.entityName)) {
-        entityAntecedent = resolveLiteralCoref(doc, fill.key, true).getOrElse(entityAntecedent);
+        entityAntecedent = resolveLiteralCoref(corefDoc.get(), fill.key, true).getOrElse(entityAntecedent);
       }
       if (Span.overlaps(primaryEntityOffset, entityAntecedent)) {
         primaryEntityOffset = entityAntecedent;
@@ -522,7 +683,7 @@ public abstract class OfficialOutputWriter {
       double score = fill.score.getOrElse(0.5);
       if (score > 1.0 || score < 0.0) score = 1.0 / (1.0 + Math.exp( -score ));  // sigmoid score if out of bounds
       assert score <= 1.0 && score >= 0.0;
-      builder.append(df.format(score));
+      builder.append(formatScore(score));
     }
   }
 
@@ -535,14 +696,15 @@ public abstract class OfficialOutputWriter {
     }
 
     @Override
-    public void yieldLine(StringBuilder builder, KBPSlotFill fill) throws IOException {
+    protected void yieldLine(StringBuilder builder, KBPSlotFill fill, ProvenanceDocument provenanceDocument) throws IOException {
       // -- Variables
       // Get Provenances
       if (!fill.provenance.isDefined()) { throw new IllegalArgumentException("No provenance for slot fill: " + fill); }
       KBPRelationProvenance primaryProvenance = fill.provenance.get();
       Maybe<KBPRelationProvenance> secondaryProvenance = Maybe.Nothing(); // TODO(gabor) multipe provenances
       // Get Sentences
-      Annotation doc = ir.officialIndex.fetchDocument(primaryProvenance.docId).orCrash("Could not find document in official index: " + primaryProvenance.docId);
+      Annotation doc = provenanceDocument.annotation;
+      Lazy<Annotation> corefDoc = corefDocument(provenanceDocument);
       CoreMap primarySentence = doc.get(CoreAnnotations.SentencesAnnotation.class).get(primaryProvenance.sentenceIndex.get());
       Maybe<CoreMap> secondarySentence = Maybe.Nothing();
       if (secondaryProvenance.isDefined()) {
@@ -555,7 +717,7 @@ public abstract class OfficialOutputWriter {
       // resolve coref
       Span entityAntecedent = primaryEntityOffset;
       if (!CoreMapUtils.sentenceSpanString(primarySentence, primaryProvenance.entityMentionInSentence.orCrash()).equalsIgnoreCase(fill.key.entityName)) {
-        entityAntecedent = resolveLiteralCoref(doc, fill.key, true).getOrElse(entityAntecedent);
+        entityAntecedent = resolveLiteralCoref(corefDoc.get(), fill.key, true).getOrElse(entityAntecedent);
       }
       if (Span.overlaps(primaryEntityOffset, entityAntecedent)) {
         primaryEntityOffset = entityAntecedent;
@@ -565,7 +727,7 @@ public abstract class OfficialOutputWriter {
       // resolve coref
       Span valueAntecedent = primaryValueOffset;
       if (!CoreMapUtils.sentenceSpanString(primarySentence, primaryProvenance.slotValueMentionInSentence.orCrash()).equalsIgnoreCase(fill.key.slotValue)) {
-        valueAntecedent = resolveLiteralCoref(doc, fill.key, false).getOrElse(primaryValueOffset);
+        valueAntecedent = resolveLiteralCoref(corefDoc.get(), fill.key, false).getOrElse(primaryValueOffset);
       }
       if (Span.overlaps(primaryValueOffset, valueAntecedent)) {
         primaryValueOffset = valueAntecedent;
@@ -596,7 +758,7 @@ public abstract class OfficialOutputWriter {
       Span docDate = primaryValueOffset;
       if (fill.key.kbpRelation().isDateRelation() &&
           !YEAR.matcher(CoreMapUtils.sentenceSpanString(primarySentence, primaryProvenance.slotValueMentionInSentence.orCrash())).find()) {
-        docDate = resolveDocDate(doc, primaryValueOffset);
+        docDate = resolveDocDate(provenanceDocument, primaryValueOffset);
       }
       if (Span.overlaps(primaryValueOffset, docDate)) {
         docDate = valueAntecedent;
@@ -623,7 +785,7 @@ public abstract class OfficialOutputWriter {
       double score = fill.score.getOrElse(0.5);
       if (score > 1.0 || score < 0.0) score = 1.0 / (1.0 + Math.exp( -score ));  // sigmoid score if out of bounds
       assert score <= 1.0 && score >= 0.0;
-      builder.append(df.format(score));
+      builder.append(formatScore(score));
     }
   }
 
@@ -12,6 +12,8 @@ import au.com.bytecode.opencsv.CSVReader;
 import edu.stanford.nlp.ie.machinereading.structure.RelationMention;
 import edu.stanford.nlp.ie.machinereading.structure.Span;
 import edu.stanford.nlp.io.IOUtils;
+import edu.stanford.nlp.kbp.slotfilling.classify.ColumnarDataset;
+import edu.stanford.nlp.kbp.slotfilling.classify.JointBayesRelationExtractor;
 import edu.stanford.nlp.kbp.slotfilling.classify.KBPDataset;
 import edu.stanford.nlp.kbp.slotfilling.classify.RelationClassifier;
 import edu.stanford.nlp.kbp.slotfilling.classify.TrainingStatistics;
@@ -98,6 +100,23 @@ public class KBPTrainer {
     return Pair.makePair(classifier, statistics);
   }
 
+  /** Whether the classifier can be trained on a dataset streamed from disk; see {@link KBPTrainer#trainOnData(ColumnarDataset.Reader)} */
+  public boolean canTrainOutOfCore() {
+    return classifier instanceof JointBayesRelationExtractor;
+  }
+
+  /**
+   * Train the classifier out of core, on a dataset streamed from disk.
+   * @param dataset The dataset to train on.
+   * @return - classifier
+   * @see JointBayesRelationExtractor#train(ColumnarDataset.Reader)
+   */
+  public Pair<RelationClassifier, TrainingStatistics> trainOnData( ColumnarDataset.Reader dataset ) {
+    if (!canTrainOutOfCore()) { throw new IllegalStateException("Cannot train out of core: " + classifier.getClass().getSimpleName()); }
+    TrainingStatistics statistics = ((JointBayesRelationExtractor) classifier).train(dataset);
+    return Pair.makePair(classifier, statistics);
+  }
+
   /**
    * Find relevant sentences, construct relation datums and train the classifier
    * @param tuples - List of true (entity, rel, entity) triples.
@@ -731,6 +750,7 @@ public class KBPTrainer {
     forceTrack("Applying feature count threshold (" + Props.FEATURE_COUNT_THRESHOLD + ")");
     dataset.applyFeatureCountThreshold(Props.FEATURE_COUNT_THRESHOLD);
     endTrack("Applying feature count threshold (" + Props.FEATURE_COUNT_THRESHOLD + ")");
+    if (Props.TRAIN_DATASET_COMPACT) { dataset.compact(); }
 
     // Sanity Checks
     if (dataset.size() < numDatumsWithPositiveLabels) { throw new IllegalStateException("Fewer datums in dataset than in input"); }
@@ -34,6 +34,8 @@ import static edu.stanford.nlp.util.logging.Redwood.Util.err;
 
 /**
  * A FileBackedCache, but with serialization backed by the Kryo serializer.
+ * Buckets are stored in the indexed, append-only layout (see {@link FileBackedCache.Codec});
+ * caches written in the older stream format are migrated bucket by bucket as they are read.
  *
  * @author Gabor Angeli
  */
@@ -127,8 +129,52 @@ public class KryoDatumCache extends FileBackedCache<KBTriple, Map<KBPair, Senten
     kryo.setDefaultSerializer(CompatibleFieldSerializer.class);
   }
 
+  /** Encodes keys and values for the log-structured buckets, with the same Kryo configuration as the streams */
+  private static final Codec<KBTriple, Map<KBPair, SentenceGroup>> codec = new Codec<KBTriple, Map<KBPair, SentenceGroup>>() {
+    @Override
+    public byte[] encodeKey(KBTriple key) {
+      Output output = new Output(256, -1);
+      synchronized (globalLock) {
+        kryo.writeClassAndObject(output, key);
+      }
+      return output.toBytes();
+    }
+    @Override
+    public KBTriple decodeKey(byte[] bytes) {
+      synchronized (globalLock) {
+        return (KBTriple) kryo.readClassAndObject(new Input(bytes));
+      }
+    }
+    @Override
+    public byte[] encodeValue(Map<KBPair, SentenceGroup> value) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      Output output = new Output(new GZIPOutputStream(bytes));
+      synchronized (globalLock) {
+        kryo.writeClassAndObject(output, value);
+      }
+      output.close();
+      return bytes.toByteArray();
+    }
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<KBPair, SentenceGroup> decodeValue(byte[] bytes) throws IOException {
+      Input input = new Input(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+      Map<KBPair, SentenceGroup> value;
+      synchronized (globalLock) {
+        value = (Map<KBPair, SentenceGroup>) kryo.readClassAndObject(input);
+      }
+      input.close();
+      return value;
+    }
+  };
+
   public KryoDatumCache(File directoryToCacheIn, int maxFiles) {
-    super(directoryToCacheIn, maxFiles);
+    super(directoryToCacheIn, maxFiles, codec);
+  }
+
+  @Override
+  protected FileSemaphore lockForAppend(File log) throws IOException {
+    return Props.CACHE_LOCK ? acquireFileLock(log) : null;
   }
 
   @Override
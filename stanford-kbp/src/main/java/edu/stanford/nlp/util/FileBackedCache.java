@@ -5,9 +5,13 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -62,6 +66,16 @@ import static edu.stanford.nlp.util.logging.Redwood.Util.*;
  *     <li>@See FileBackedCache#readNextObject</li>
  *   </ul>
  *
+ * <p>
+ *   Alternately, a cache can be created with a {@link Codec}, in which case each bucket is stored as an append-only
+ *   log of length-prefixed records, with an in-memory offset index per bucket.
+ *   A get then seeks directly to the key's latest record rather than deserializing the whole bucket;
+ *   puts and removes append a record (or a tombstone) rather than rewriting the bucket;
+ *   and buckets which are mostly dead records are compacted in the background.
+ *   Blocks written in the stream format above are migrated into the log the first time their bucket is touched,
+ *   so the stream hooks should still be able to read whatever was written with them.
+ * </p>
+ *
  * @param <KEY> The key to cache by
  * @param <T> The object to cache
  *
@@ -92,6 +106,15 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
   /** A map indicating whether the JVM holds a file lock on the given file */
   private static final IdentityHashMap<File, FileSemaphore> fileLocks = Generics.newIdentityHashMap();
 
+  /** The codec for the log-structured layout, or null if every bucket is a single serialized stream */
+  private final Codec<KEY, T> codec;
+
+  /** The log-structured buckets we have opened, keyed by their canonical log file */
+  private final Map<File, Bucket> buckets = new ConcurrentHashMap<File, Bucket>();
+
+  /** Buckets waiting to be compacted by the background compactor */
+  private final BlockingQueue<Bucket> compactionQueue = new LinkedBlockingQueue<Bucket>();
+
   //
   // Constructors
   //
@@ -114,6 +137,19 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
    * @param maxFiles The maximum number of files to store on disk
    */
   public FileBackedCache(File directoryToCacheIn, int maxFiles) {
+    this(directoryToCacheIn, maxFiles, null);
+  }
+
+  /**
+   * Create a file backed cache in a particular directory; either inheriting the elements in the directory
+   * or starting with an empty cache.
+   * This constructor may exception, and will create the directory in question if it does not exist.
+   * @param directoryToCacheIn The directory to create the cache in
+   * @param maxFiles The maximum number of files to store on disk
+   * @param codecOrNull If not null, store each bucket as an indexed append-only log of records encoded with this codec.
+   *                    If null, store each bucket as a single stream written with the (overridable) stream hooks.
+   */
+  public FileBackedCache(File directoryToCacheIn, int maxFiles, Codec<KEY, T> codecOrNull) {
     // Ensure directory exists
     if (!directoryToCacheIn.exists()) {
       if (!directoryToCacheIn.mkdirs()) {
@@ -131,6 +167,7 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
     // Save cache directory
     this.cacheDir = directoryToCacheIn;
     this.maxFiles = maxFiles;
+    this.codec = codecOrNull;
     // Start cache cleaner
     /*
     Occasionally clean up the cache, removing keys which have been garbage collected.
@@ -171,6 +208,26 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
     };
     mappingCleaner.setDaemon(true);
     mappingCleaner.start();
+    // Start log compactor
+    if (codec != null) {
+      Thread compactor = new Thread() {
+        @SuppressWarnings("InfiniteLoopStatement")
+        @Override
+        public void run() {
+          while (true) {
+            try {
+              compactionQueue.take().compact();
+            } catch (InterruptedException e) {
+              return;
+            } catch (IOException | RuntimeException e) {
+              warn("FileBackedCache", "Could not compact bucket: " + e.getMessage());
+            }
+          }
+        }
+      };
+      compactor.setDaemon(true);
+      compactor.start();
+    }
   }
 
   /**
@@ -253,6 +310,16 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
    */
   @Override
   public int size() {
+    if (codec != null) {
+      // Only the index is needed to count the keys
+      int count = 0;
+      try {
+        for (File log : listBlocks()) { count += bucket(log).size(); }
+      } catch (IOException e) {
+        throw throwSafe(e);
+      }
+      return count;
+    }
     return readCache();
   }
 
@@ -287,6 +354,14 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
     // Early exits
     if (mapping.containsKey(key)) return true;
     if (!tryFile(key)) return false;
+    // Look up the key in the bucket's index
+    if (codec != null) {
+      try {
+        return bucket(key.hashCode()).contains(key);
+      } catch (IOException e) {
+        throw throwSafe(e);
+      }
+    }
     // Read the block for this key
     Collection<Pair<KEY, T>> elementsRead = readBlock(key);
     for (Pair<KEY, T> pair : elementsRead) {
@@ -324,6 +399,17 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
     if (likelyReferenceOrNull == null) {
       // Case: We don't know about this element being in the cache
       if (!tryFile(key)) { return null; }  // Case: there's no hope of finding this element
+      if (codec != null) {
+        // Seek to the key in its bucket
+        try {
+          T value = bucket(key.hashCode()).read(key);
+          if (value != null) { mapping.put((KEY) key, new SoftReference<T>(value, this.reaper)); }
+          return value;
+        } catch (IOException e) {
+          err("Could not read bucket for key: " + key);
+          throw throwSafe(e);
+        }
+      }
       Collection<Pair<KEY, T>> elemsRead = readBlock(key);  // Read the block for this key
       for (Pair<KEY, T> pair : elemsRead) {
         if (pair.first.equals(key)) { return pair.second; }
@@ -373,6 +459,7 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
   @Override
   public T remove(Object key) {
     if (!tryFile(key)) return null;
+    if (codec != null) { mapping.remove(key); }
     try {
       return updateBlockOrDelete((KEY) key, null);
     } catch (ClassCastException e) {
@@ -473,15 +560,13 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
    */
   @Override
   public Iterator<Entry<KEY,T>> iterator() {
-    final File[] files = cacheDir.listFiles();
-    if (files == null || files.length == 0) return Generics.<Entry<KEY,T>>newLinkedList().iterator();
-    for (int i = 0; i < files.length; ++i) {
-      try {
-        files[i] = canonicalFile.intern(files[i].getCanonicalFile());
-      } catch (IOException e) {
-        throw throwSafe(e);
-      }
+    final File[] files;
+    try {
+      files = listBlocks();
+    } catch (IOException e) {
+      throw throwSafe(e);
     }
+    if (files.length == 0) return Generics.<Entry<KEY,T>>newLinkedList().iterator();
 
     return new Iterator<Entry<KEY,T>>() {
       Iterator<Pair<KEY, T>> elements = readBlock(files[0]).iterator();
@@ -563,14 +648,11 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
   //
   /** Reads the cache in its entirely -- this is potentially very slow */
   private int readCache() {
-    File[] files = cacheDir.listFiles();
-    if (files == null) { return 0; }
-    for (int i = 0; i < files.length; ++i) {
-      try {
-        files[i] = canonicalFile.intern(files[i].getCanonicalFile());
-      } catch (IOException e) {
-        throw throwSafe(e);
-      }
+    File[] files;
+    try {
+      files = listBlocks();
+    } catch (IOException e) {
+      throw throwSafe(e);
     }
     int count = 0;
     for (File f : files) {
@@ -587,7 +669,7 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
   /** Checks for the existence of the block associated with the key */
   private boolean tryFile(Object key) {
     try {
-      return hash2file(key.hashCode(), false).exists();
+      return hash2file(key.hashCode(), false).exists() || (codec != null && hash2log(key.hashCode()).exists());
     } catch (IOException e) {
       throw throwSafe(e);
     }
@@ -606,6 +688,14 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
   /** Appends a value to the block specified by the key */
   @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
   private void appendBlock(KEY key, T value) {
+    if (codec != null) {
+      try {
+        bucket(key.hashCode()).append(Collections.singletonList(Pair.makePair(key, value)));
+      } catch (IOException e) {
+        throw throwSafe(e);
+      }
+      return;
+    }
     boolean haveTakenLock = false;
     Pair<? extends OutputStream, CloseAction> writer = null;
     try {
@@ -632,6 +722,20 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
   /** Updates a block with the specified value; or deletes the block if the value is null */
   @SuppressWarnings({"unchecked", "SynchronizationOnLocalVariableOrMethodParameter"})
   private T updateBlockOrDelete(KEY key, T valueOrNull) {
+    if (codec != null) {
+      // Append the new value (or a tombstone); the old record is reclaimed on compaction
+      try {
+        Bucket bucket = bucket(key.hashCode());
+        T existingValue = bucket.read(key);
+        if (existingValue != null || valueOrNull != null) {
+          bucket.append(Collections.singletonList(Pair.makePair(key, valueOrNull)));
+        }
+        return existingValue;
+      } catch (IOException e) {
+        err(e);
+        throw throwSafe(e);
+      }
+    }
     Pair<? extends InputStream, CloseAction> reader = null;
     Pair<? extends OutputStream, CloseAction> writer = null;
     boolean haveClosedReader = false;
@@ -695,6 +799,18 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
   /** Completely reads a block into local memory */
   @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
   private Collection<Pair<KEY, T>> readBlock(File block) {
+    if (codec != null && block.getName().endsWith(LOG_SUFFIX)) {
+      try {
+        List<Pair<KEY, T>> read = bucket(block).readAll();
+        for (Pair<KEY, T> elem : read) {
+          mapping.put(elem.first, new SoftReference<T>(elem.second, this.reaper));
+        }
+        return read;
+      } catch (IOException e) {
+        err("Could not read file: " + block + ": " + e.getMessage());
+        return Generics.newLinkedList();
+      }
+    }
     boolean haveClosed = false;
     Pair<? extends InputStream, CloseAction> input = null;
 
@@ -769,6 +885,391 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
     else { return Math.abs(hashCode) % this.maxFiles; }
   }
 
+  /** Returns the log file corresponding to a hash code, for the log-structured layout */
+  private File hash2log(int hashCode) throws IOException {
+    return canonicalFile.intern(new File(cacheDir.getCanonicalPath() + File.separator + fileRoot(hashCode) + LOG_SUFFIX).getCanonicalFile());
+  }
+
+  /**
+   * Lists the (canonical) blocks in the cache directory.
+   * For the log-structured layout, these are the bucket logs, including logs not yet migrated from a stream block.
+   */
+  private File[] listBlocks() throws IOException {
+    File[] files = cacheDir.listFiles();
+    if (files == null) { return new File[0]; }
+    Set<File> blocks = new LinkedHashSet<File>();
+    for (File file : files) {
+      String name = file.getName();
+      if (codec == null) {
+        blocks.add(canonicalFile.intern(file.getCanonicalFile()));
+      } else if (name.endsWith(LOG_SUFFIX)) {
+        blocks.add(canonicalFile.intern(file.getCanonicalFile()));
+      } else if (name.endsWith(LEGACY_SUFFIX)) {
+        String root = name.substring(0, name.length() - LEGACY_SUFFIX.length());
+        blocks.add(canonicalFile.intern(new File(file.getParentFile(), root + LOG_SUFFIX).getCanonicalFile()));
+      }
+    }
+    return blocks.toArray(new File[blocks.size()]);
+  }
+
+  /** Returns the log-structured bucket for a hash code */
+  private Bucket bucket(int hashCode) throws IOException {
+    return bucket(hash2log(hashCode));
+  }
+
+  /** Returns the log-structured bucket for a canonical log file */
+  private Bucket bucket(File log) {
+    return buckets.computeIfAbsent(log, Bucket::new);
+  }
+
+  /**
+   * Compact every bucket of a log-structured cache, dropping superseded records and tombstones.
+   * This happens in the background anyway once a bucket is mostly dead records; this method is for
+   * when the cache is about to be copied or archived.
+   * For a cache without a codec, this does nothing.
+   */
+  public void compact() {
+    if (codec == null) { return; }
+    try {
+      for (File log : listBlocks()) { bucket(log).compact(); }
+    } catch (IOException e) {
+      throw throwSafe(e);
+    }
+  }
+
+  //
+  // Log-Structured Buckets
+  //
+
+  /** The suffix of a bucket written as a single serialized stream */
+  private static final String LEGACY_SUFFIX = ".block.ser.gz";
+  /** The suffix of a bucket written as an append-only log */
+  private static final String LOG_SUFFIX = ".block.log";
+  /** The magic number starting a log file */
+  private static final int LOG_MAGIC = 0x4642434c;
+  /** The magic number starting every record in a log file */
+  private static final int RECORD_MAGIC = 0x46424352;
+  /** The log header: the magic number, and a generation which changes every time the log is rewritten */
+  private static final int LOG_HEADER_BYTES = 4 + 8;
+  /** The record header: the magic number, the key length, and the value length (-1 for a tombstone) */
+  private static final int RECORD_HEADER_BYTES = 4 + 4 + 4;
+  /** Don't bother compacting a bucket until it has at least this many bytes of dead records */
+  private static final long COMPACTION_MIN_DEAD_BYTES = 1L << 20;
+  /** The source of log generations */
+  private static final Random generations = new Random();
+
+  /** The location of a record in a log */
+  private static class Extent {
+    public final long offset;
+    public final int length;
+    private Extent(long offset, int length) { this.offset = offset; this.length = length; }
+  }
+
+  /**
+   * <p>
+   * A bucket stored as an append-only log, along with an index from each live key to the offset of its latest record.
+   * The log is a header followed by records of the form
+   *   <code>[magic][key length][value length][key bytes][value bytes]</code>,
+   * where a value length of -1 marks a tombstone.
+   * </p>
+   *
+   * <p>
+   * The index is built by scanning only the record headers and keys, and is extended (rather than rebuilt) when another
+   * writer appends to the log. If the log was rewritten underneath us by a compaction its generation will
+   * have changed, and the index is rebuilt from scratch.
+   * All access is synchronized on the (interned) log file, as with the stream blocks.
+   * </p>
+   */
+  private class Bucket {
+    private final File logFile;
+    private final Map<KEY, Extent> index = new HashMap<KEY, Extent>();
+    private long generation = 0L;
+    private long indexedLength = 0L;
+    private long liveBytes = 0L;
+    private long deadBytes = 0L;
+    private boolean migrated = false;
+    private boolean queuedForCompaction = false;
+
+    private Bucket(File logFile) {
+      this.logFile = logFile;
+    }
+
+    /** The number of live keys in the bucket */
+    public int size() throws IOException {
+      synchronized (logFile) {
+        migrate();
+        if (!logFile.exists()) { return 0; }
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "r")) {
+          refresh(raf);
+          return index.size();
+        }
+      }
+    }
+
+    /** Whether the bucket has a live record for the key, without decoding any values */
+    public boolean contains(Object key) throws IOException {
+      synchronized (logFile) {
+        migrate();
+        if (!logFile.exists()) { return false; }
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "r")) {
+          refresh(raf);
+          return index.containsKey(key);
+        }
+      }
+    }
+
+    /** Read the latest value for a key, seeking directly to its record; or null if there is no such key */
+    public T read(Object key) throws IOException {
+      synchronized (logFile) {
+        migrate();
+        if (!logFile.exists()) { return null; }
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "r")) {
+          refresh(raf);
+          Extent extent = index.get(key);
+          return extent == null ? null : readValue(raf, extent);
+        }
+      }
+    }
+
+    /** Read every live entry in the bucket, in the order they appear in the log */
+    public List<Pair<KEY, T>> readAll() throws IOException {
+      synchronized (logFile) {
+        migrate();
+        if (!logFile.exists()) { return Generics.newLinkedList(); }
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "r")) {
+          refresh(raf);
+          List<Entry<KEY, Extent>> entries = new ArrayList<Entry<KEY, Extent>>(index.entrySet());
+          entries.sort((a, b) -> Long.compare(a.getValue().offset, b.getValue().offset));
+          List<Pair<KEY, T>> read = new ArrayList<Pair<KEY, T>>(entries.size());
+          for (Entry<KEY, Extent> entry : entries) {
+            read.add(Pair.makePair(entry.getKey(), readValue(raf, entry.getValue())));
+          }
+          return read;
+        }
+      }
+    }
+
+    /** Append a record for each of the given entries; a null value appends a tombstone */
+    public void append(Collection<Pair<KEY, T>> entries) throws IOException {
+      byte[] records = encode(entries);  // outside of the lock
+      synchronized (logFile) {
+        migrate();
+        write(records);
+      }
+    }
+
+    /** Rewrite the log with only its live records */
+    public void compact() throws IOException {
+      synchronized (logFile) {
+        queuedForCompaction = false;
+        migrate();
+        if (!logFile.exists()) { return; }
+        FileSemaphore lock = lockForAppend(logFile);
+        try {
+          File compacted = new File(logFile.getPath() + ".compact");
+          try (RandomAccessFile raf = new RandomAccessFile(logFile, "r")) {
+            refresh(raf);
+            if (deadBytes == 0) { return; }
+            List<Extent> live = new ArrayList<Extent>(index.values());
+            live.sort((a, b) -> Long.compare(a.offset, b.offset));
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)))) {
+              out.writeInt(LOG_MAGIC);
+              out.writeLong(generations.nextLong());
+              // Records are copied verbatim; nothing is decoded
+              byte[] record = new byte[0];
+              for (Extent extent : live) {
+                if (record.length < extent.length) { record = new byte[extent.length]; }
+                raf.seek(extent.offset);
+                raf.readFully(record, 0, extent.length);
+                out.write(record, 0, extent.length);
+              }
+            }
+          }
+          Files.move(compacted.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          reset();
+        } finally {
+          if (lock != null) { lock.release(); }
+        }
+      }
+    }
+
+    /** Append raw records to the end of the log, under the file lock */
+    private void write(byte[] records) throws IOException {
+      FileSemaphore lock = lockForAppend(logFile);
+      try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+        if (raf.length() < LOG_HEADER_BYTES) {
+          raf.setLength(0);
+          raf.writeInt(LOG_MAGIC);
+          raf.writeLong(generations.nextLong());
+        }
+        refresh(raf);
+        if (raf.length() > indexedLength) {
+          // Case: a writer died partway through a record
+          warn("FileBackedCache", "Truncating " + (raf.length() - indexedLength) + " bytes of partial records from " + logFile);
+          raf.setLength(indexedLength);
+        }
+        raf.seek(indexedLength);
+        raf.write(records);
+        refresh(raf);
+      } finally {
+        if (lock != null) { lock.release(); }
+      }
+      // Schedule compaction if the log is mostly dead records
+      if (!queuedForCompaction && deadBytes >= COMPACTION_MIN_DEAD_BYTES && deadBytes > liveBytes) {
+        queuedForCompaction = true;
+        compactionQueue.offer(this);
+      }
+    }
+
+    /** Bring the index up to date with the log, scanning only what was appended since we last looked */
+    private void refresh(RandomAccessFile raf) throws IOException {
+      long length = raf.length();
+      if (length < LOG_HEADER_BYTES) {  // Case: empty logFile (someone is about to write to it)
+        reset();
+        return;
+      }
+      raf.seek(0);
+      if (raf.readInt() != LOG_MAGIC) { throw new StreamCorruptedException("Not a cache log: " + logFile); }
+      long logGeneration = raf.readLong();
+      if (indexedLength == 0 || logGeneration != generation || length < indexedLength) {
+        // Case: the log is new to us, or was rewritten
+        reset();
+        generation = logGeneration;
+        indexedLength = LOG_HEADER_BYTES;
+      }
+      // Scan the new records
+      long position = indexedLength;
+      while (position + RECORD_HEADER_BYTES <= length) {
+        raf.seek(position);
+        if (raf.readInt() != RECORD_MAGIC) { break; }  // Case: a corrupted (partial) record
+        int keyLength = raf.readInt();
+        int valueLength = raf.readInt();
+        long recordLength = RECORD_HEADER_BYTES + keyLength + Math.max(0, valueLength);
+        if (keyLength < 0 || position + recordLength > length) { break; }  // Case: a record still being written
+        byte[] keyBytes = new byte[keyLength];
+        raf.readFully(keyBytes);
+        KEY key = codec.decodeKey(keyBytes);
+        Extent superseded = valueLength < 0 ? index.remove(key) : index.put(key, new Extent(position, (int) recordLength));
+        if (superseded != null) {
+          liveBytes -= superseded.length;
+          deadBytes += superseded.length;
+        }
+        if (valueLength < 0) { deadBytes += recordLength; } else { liveBytes += recordLength; }
+        position += recordLength;
+      }
+      indexedLength = position;
+    }
+
+    /** Forget everything we know about the log */
+    private void reset() {
+      index.clear();
+      generation = 0L;
+      indexedLength = 0L;
+      liveBytes = 0L;
+      deadBytes = 0L;
+    }
+
+    /** Encode entries as log records; a null value is encoded as a tombstone */
+    private byte[] encode(Collection<Pair<KEY, T>> entries) throws IOException {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      DataOutputStream records = new DataOutputStream(buffer);
+      for (Pair<KEY, T> entry : entries) {
+        byte[] keyBytes = codec.encodeKey(entry.first);
+        byte[] valueBytes = entry.second == null ? null : codec.encodeValue(entry.second);
+        records.writeInt(RECORD_MAGIC);
+        records.writeInt(keyBytes.length);
+        records.writeInt(valueBytes == null ? -1 : valueBytes.length);
+        records.write(keyBytes);
+        if (valueBytes != null) { records.write(valueBytes); }
+      }
+      records.flush();
+      return buffer.toByteArray();
+    }
+
+    /** Read and decode the value of the record at the given extent */
+    private T readValue(RandomAccessFile raf, Extent extent) throws IOException {
+      raf.seek(extent.offset + 4);
+      int keyLength = raf.readInt();
+      int valueLength = raf.readInt();
+      raf.seek(extent.offset + RECORD_HEADER_BYTES + keyLength);
+      byte[] valueBytes = new byte[valueLength];
+      raf.readFully(valueBytes);
+      return codec.decodeValue(valueBytes);
+    }
+
+    /** Move the entries of a block written with the stream hooks into this log, the first time we see the bucket */
+    private void migrate() throws IOException {
+      if (migrated) { return; }
+      migrated = true;
+      String name = logFile.getName();
+      File legacy = canonicalFile.intern(new File(logFile.getParentFile(), name.substring(0, name.length() - LOG_SUFFIX.length()) + LEGACY_SUFFIX).getCanonicalFile());
+      if (!legacy.exists()) { return; }
+      Collection<Pair<KEY, T>> entries = readBlock(legacy);
+      if (!entries.isEmpty()) { write(encode(entries)); }
+      if (!legacy.delete()) {
+        warn("FileBackedCache", "Could not delete migrated block: " + legacy);
+      }
+      log("FileBackedCache", "migrated " + entries.size() + " entries from " + legacy.getName() + " to " + logFile.getName());
+    }
+  }
+
+  /**
+   * <p>
+   * Encodes the keys and values of a cache using the log-structured layout.
+   * Keys are encoded with Java serialization unless overridden; values must be encoded by the implementation --
+   * for example, with Kryo, or with a protocol buffer's <code>toByteArray()</code> and <code>parseFrom()</code>
+   * (see {@link JavaSerializationCodec} for the simplest case).
+   * </p>
+   *
+   * <p>
+   * Decoding a key must produce an object equal to (and with the same hash code as) the key that was encoded.
+   * The methods may be called from multiple threads at once.
+   * </p>
+   */
+  public static abstract class Codec<KEY extends Serializable, T> {
+    public byte[] encodeKey(KEY key) throws IOException {
+      return javaSerialize(key);
+    }
+    @SuppressWarnings("unchecked")
+    public KEY decodeKey(byte[] bytes) throws IOException {
+      return (KEY) javaDeserialize(bytes);
+    }
+    public abstract byte[] encodeValue(T value) throws IOException;
+    public abstract T decodeValue(byte[] bytes) throws IOException;
+  }
+
+  /** A codec encoding both keys and values with Java serialization */
+  public static class JavaSerializationCodec<KEY extends Serializable, T extends Serializable> extends Codec<KEY, T> {
+    @Override
+    public byte[] encodeValue(T value) throws IOException {
+      return javaSerialize(value);
+    }
+    @SuppressWarnings("unchecked")
+    @Override
+    public T decodeValue(byte[] bytes) throws IOException {
+      return (T) javaDeserialize(bytes);
+    }
+  }
+
+  private static byte[] javaSerialize(Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(value);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static Object javaDeserialize(byte[] bytes) throws IOException {
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    try {
+      return in.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    } finally {
+      in.close();
+    }
+  }
+
   //
   // Java Hacks
   //
@@ -876,6 +1377,18 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
   //  POSSIBLE OVERRIDES
   //
 
+  /**
+   * Lock a bucket's log before appending to it or compacting it, for the log-structured layout.
+   * Readers never lock; a record is only indexed once it has been completely written.
+   * This may be overridden to return null, in which case writes are made without a file lock.
+   * @param log The log file to lock.
+   * @return The semaphore to release once the write is done, or null.
+   * @throws IOException
+   */
+  protected FileSemaphore lockForAppend(File log) throws IOException {
+    return acquireFileLock(log);
+  }
+
   /**
    * Create a new input stream, along with the code to close it and clean up.
    * This code may be overridden, but should match nextObjectOrNull().
@@ -1003,12 +1516,22 @@ public class FileBackedCache<KEY extends Serializable, T> implements Map<KEY, T>
         warn("FileBackedCache", "could not delete block: " + block);
       }
     }
+    destination.buckets.clear();
     endTrack("Clearing Destination");
 
     // (3) Write new files
     forceTrack("Writing New Files");
     try {
       for (Entry<String, Map<KEY, T>> blockEntry : combinedMapping.entrySet()) {
+        // Case: log-structured destination; every key in the block shares a bucket
+        if (destination.codec != null) {
+          List<Pair<KEY, T>> entries = Generics.newArrayList(blockEntry.getValue().size());
+          for (Entry<KEY, T> entry : blockEntry.getValue().entrySet()) {
+            entries.add(Pair.makePair(entry.getKey(), entry.getValue()));
+          }
+          destination.bucket(entries.get(0).first.hashCode()).append(entries);
+          continue;
+        }
         // Get File
         File toWrite = canonicalFile.intern(new File(destination.cacheDir + File.separator + blockEntry.getKey()).getCanonicalFile());
         boolean exists = toWrite.exists(); // should really be false;
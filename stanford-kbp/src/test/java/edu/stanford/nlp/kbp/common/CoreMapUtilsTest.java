@@ -0,0 +1,108 @@
+package edu.stanford.nlp.kbp.common;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CoreMapUtilsTest {
+
+  private static Annotation buildDocument(String text) {
+    CoreMap sentence = new ArrayCoreMap();
+    sentence.set(CoreAnnotations.TokensAnnotation.class, CoreMapUtils.tokenize(text));
+    List<CoreMap> sentences = new ArrayList<>();
+    sentences.add(sentence);
+    Annotation document = new Annotation(text);
+    document.set(CoreAnnotations.SentencesAnnotation.class, sentences);
+    document.set(CoreAnnotations.DocIDAnnotation.class, "docid");
+    return document;
+  }
+
+  private static CoreLabel firstToken(Annotation document) {
+    return document.get(CoreAnnotations.SentencesAnnotation.class).get(0).get(CoreAnnotations.TokensAnnotation.class).get(0);
+  }
+
+  @Test
+  public void testOverlayReadsThrough() {
+    Annotation original = buildDocument("Barack Obama");
+    Annotation overlay = CoreMapUtils.overlayDocument(original);
+    assertEquals("docid", overlay.get(CoreAnnotations.DocIDAnnotation.class));
+    CoreLabel token = firstToken(overlay);
+    assertNotSame(firstToken(original), token);
+    assertEquals("Barack", token.word());
+    assertEquals(firstToken(original).keySet(), token.keySet());
+    assertEquals(firstToken(original), token);
+  }
+
+  @Test
+  public void testOverlayWritesDoNotReachOriginal() {
+    Annotation original = buildDocument("Barack Obama");
+    Annotation overlay = CoreMapUtils.overlayDocument(original);
+    CoreLabel token = firstToken(overlay);
+    token.setNER("PERSON");
+    token.setWord("Barry");
+    assertEquals("PERSON", token.ner());
+    assertEquals("Barry", token.word());
+    assertNull(firstToken(original).ner());
+    assertEquals("Barack", firstToken(original).word());
+    overlay.get(CoreAnnotations.SentencesAnnotation.class).get(0).set(CoreAnnotations.TextAnnotation.class, "overlay");
+    assertNull(original.get(CoreAnnotations.SentencesAnnotation.class).get(0).get(CoreAnnotations.TextAnnotation.class));
+  }
+
+  @Test
+  public void testOverlayRemove() {
+    Annotation original = buildDocument("Barack Obama");
+    CoreLabel token = firstToken(CoreMapUtils.overlayDocument(original));
+    assertEquals("Barack", token.remove(CoreAnnotations.TextAnnotation.class));
+    assertFalse(token.containsKey(CoreAnnotations.TextAnnotation.class));
+    assertNull(token.get(CoreAnnotations.TextAnnotation.class));
+    assertFalse(token.keySet().contains(CoreAnnotations.TextAnnotation.class));
+    assertTrue(firstToken(original).containsKey(CoreAnnotations.TextAnnotation.class));
+    // Setting it again brings it back
+    token.set(CoreAnnotations.TextAnnotation.class, "Barry");
+    assertEquals("Barry", token.get(CoreAnnotations.TextAnnotation.class));
+    assertEquals(firstToken(original).keySet().size(), token.size());
+  }
+
+  @Test
+  public void testOverlayHoldsOnlyWrites() {
+    Annotation original = buildDocument("Barack Obama was born in Hawaii .");
+    List<CoreLabel> copied = CoreMapUtils.copyDocument(original).get(CoreAnnotations.SentencesAnnotation.class).get(0).get(CoreAnnotations.TokensAnnotation.class);
+    List<CoreLabel> overlaid = CoreMapUtils.overlayDocument(original).get(CoreAnnotations.SentencesAnnotation.class).get(0).get(CoreAnnotations.TokensAnnotation.class);
+    int copiedKeys = 0;
+    int overlaidKeys = 0;
+    for (int i = 0; i < copied.size(); ++i) {
+      copiedKeys += copied.get(i).size();
+      overlaidKeys += ((CoreMapUtils.OverlayCoreLabel) overlaid.get(i)).numOverlaidKeys();
+    }
+    // A copy holds every annotation of every token; an overlay holds nothing until it is written to
+    assertTrue(copiedKeys >= 2 * copied.size());
+    assertEquals(0, overlaidKeys);
+    overlaid.get(0).setNER("PERSON");
+    assertEquals(1, ((CoreMapUtils.OverlayCoreLabel) overlaid.get(0)).numOverlaidKeys());
+  }
+
+  @Test
+  public void testDetachSentence() {
+    Annotation original = buildDocument("Barack Obama");
+    CoreMap originalSentence = original.get(CoreAnnotations.SentencesAnnotation.class).get(0);
+    assertSame(originalSentence, CoreMapUtils.detachSentence(originalSentence));
+    CoreMap overlaid = CoreMapUtils.overlayDocument(original).get(CoreAnnotations.SentencesAnnotation.class).get(0);
+    overlaid.get(CoreAnnotations.TokensAnnotation.class).get(0).setNER("PERSON");
+    CoreMap detached = CoreMapUtils.detachSentence(overlaid);
+    CoreLabel token = detached.get(CoreAnnotations.TokensAnnotation.class).get(0);
+    assertFalse(token instanceof CoreMapUtils.OverlayCoreLabel);
+    assertEquals("PERSON", token.ner());
+    // Later changes to the original no longer show through
+    firstToken(original).setWord("Barry");
+    assertEquals("Barack", token.word());
+    assertEquals("Barry", overlaid.get(CoreAnnotations.TokensAnnotation.class).get(0).word());
+  }
+}
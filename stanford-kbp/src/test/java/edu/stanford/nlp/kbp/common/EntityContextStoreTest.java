@@ -0,0 +1,68 @@
+package edu.stanford.nlp.kbp.common;
+
+import edu.stanford.nlp.util.Pair;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that an {@link EntityContextStore} batches its writes, and that no entity context is encoded twice.
+ */
+public class EntityContextStoreTest {
+
+  private static EntityContext context(String name) {
+    return new EntityContext(KBPNew.entName(name).entType(NERTag.PERSON).KBPEntity());
+  }
+
+  @Test
+  public void testEncodeOnce() throws IOException {
+    EntityContext obama = context("Barack Obama");
+    byte[] encoding = obama.encode();
+    assertSame(encoding, obama.encode());
+    KBPProtos.EntityContext proto = KBPProtos.EntityContext.parseDelimitedFrom(new ByteArrayInputStream(encoding));
+    assertEquals(obama, EntityContext.fromProto(proto));
+  }
+
+  @Test
+  public void testBatchesAndNoDuplicateEncodings() {
+    List<List<Pair<String, EntityContext>>> batches = new ArrayList<>();
+    EntityContextStore store = new EntityContextStore(batches::add, 3);
+    List<EntityContext> contexts = new ArrayList<>();
+    for (int i = 0; i < 7; ++i) { contexts.add(context("Entity " + i)); }
+
+    // Every context is queued once; repeats (by key) are dropped
+    Map<EntityContext, byte[]> encodings = new IdentityHashMap<>();
+    for (int pass = 0; pass < 2; ++pass) {
+      for (EntityContext context : contexts) {
+        assertEquals(pass == 0, store.add(context));
+        encodings.putIfAbsent(context, context.encode());
+      }
+    }
+    assertFalse(store.add(context("Entity 0")));
+    assertEquals(2, batches.size());
+    store.flush();
+    assertEquals(3, batches.size());
+    assertEquals(3, batches.get(0).size());
+    assertEquals(1, batches.get(2).size());
+
+    // Everything written carries the one encoding of its context
+    int numWritten = 0;
+    for (List<Pair<String, EntityContext>> batch : batches) {
+      for (Pair<String, EntityContext> entry : batch) {
+        assertEquals(EntityContextStore.key(entry.second), entry.first);
+        assertSame(encodings.get(entry.second), entry.second.encode());
+        numWritten += 1;
+      }
+    }
+    assertEquals(contexts.size(), numWritten);
+    store.flush();
+    assertEquals(3, batches.size());
+  }
+}
@@ -0,0 +1,108 @@
+package edu.stanford.nlp.kbp.common;
+
+import edu.stanford.nlp.util.FileBackedCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the indexed, append-only layout of the FileBackedCache (i.e., a cache created with a codec).
+ */
+public class LogStructuredFileBackedCacheTest {
+
+  private File cacheDir;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDir = File.createTempFile("cache", ".dir");
+    assertTrue(cacheDir.delete());
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      for (File c : files) {
+        assertTrue(c.delete());
+      }
+    }
+    assertTrue(cacheDir.delete());
+  }
+
+  private FileBackedCache<String, String> newCache() {
+    return new FileBackedCache<String, String>(cacheDir, 2, new FileBackedCache.JavaSerializationCodec<String, String>());
+  }
+
+  @Test
+  public void testReadFromDisk() {
+    FileBackedCache<String, String> cache = newCache();
+    for (int i = 0; i < 10; ++i) { cache.put("key " + i, "value " + i); }
+    // A fresh cache has nothing in memory, so every read seeks into a log
+    FileBackedCache<String, String> reread = newCache();
+    assertEquals(10, reread.size());
+    assertEquals(0, reread.sizeInMemory());
+    for (int i = 0; i < 10; ++i) {
+      assertTrue(reread.containsKey("key " + i));
+      assertEquals("value " + i, reread.get("key " + i));
+    }
+    assertFalse(reread.containsKey("key 10"));
+    assertNull(reread.get("key 10"));
+  }
+
+  @Test
+  public void testOverwriteAndRemove() {
+    FileBackedCache<String, String> cache = newCache();
+    cache.put("a", "1");
+    cache.put("b", "2");
+    cache.put("a", "3");
+    assertEquals("2", cache.remove("b"));
+    FileBackedCache<String, String> reread = newCache();
+    assertEquals(1, reread.size());
+    assertEquals("3", reread.get("a"));
+    assertNull(reread.get("b"));
+    assertEquals(1, reread.entrySet().size());
+  }
+
+  @Test
+  public void testCompaction() {
+    FileBackedCache<String, String> cache = newCache();
+    for (int i = 0; i < 100; ++i) { cache.put("key", "value " + i); }
+    cache.put("other", "value");
+    long before = totalSize();
+    cache.compact();
+    assertTrue(totalSize() < before);
+    assertEquals("value 99", cache.get("key"));
+    FileBackedCache<String, String> reread = newCache();
+    assertEquals(2, reread.size());
+    assertEquals("value 99", reread.get("key"));
+    assertEquals("value", reread.get("other"));
+  }
+
+  @Test
+  public void testMigrateStreamBlocks() {
+    FileBackedCache<String, String> legacy = new FileBackedCache<String, String>(cacheDir, 2);
+    legacy.put("a", "1");
+    legacy.put("b", "2");
+    FileBackedCache<String, String> cache = newCache();
+    assertEquals("1", cache.get("a"));
+    assertEquals("2", cache.get("b"));
+    assertEquals(2, cache.size());
+    File[] files = cacheDir.listFiles();
+    assertNotNull(files);
+    for (File file : files) {
+      assertTrue(file.getName().endsWith(".block.log"));
+    }
+  }
+
+  private long totalSize() {
+    long size = 0;
+    File[] files = cacheDir.listFiles();
+    assertNotNull(files);
+    for (File file : files) { size += file.length(); }
+    return size;
+  }
+}
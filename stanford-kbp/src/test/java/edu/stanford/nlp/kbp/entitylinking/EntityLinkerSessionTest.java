@@ -0,0 +1,83 @@
+package edu.stanford.nlp.kbp.entitylinking;
+
+import edu.stanford.nlp.kbp.common.EntityContext;
+import edu.stanford.nlp.kbp.common.KBPNew;
+import edu.stanford.nlp.kbp.common.Maybe;
+import edu.stanford.nlp.kbp.common.NERTag;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a linking session links each distinct mention only once, and agrees with the linker it wraps.
+ */
+public class EntityLinkerSessionTest {
+
+  /** Links entities to their lowercased name, if it starts with "linked", and counts the calls */
+  private static class CountingLinker extends EntityLinker.HardConstraintsEntityLinker {
+    public int numLinks = 0;
+    public int numBackoffs = 0;
+
+    @Override
+    public Maybe<String> link(EntityContext context) {
+      numLinks += 1;
+      String name = context.entity.name.toLowerCase();
+      return name.startsWith("linked") ? Maybe.Just(name) : Maybe.<String>Nothing();
+    }
+
+    @Override
+    protected boolean sameEntityWithoutLinking(EntityContext entityOne, EntityContext entityTwo) {
+      numBackoffs += 1;
+      return super.sameEntityWithoutLinking(entityOne, entityTwo);
+    }
+  }
+
+  private static List<EntityContext> mentions() {
+    List<EntityContext> mentions = new ArrayList<>();
+    for (String name : new String[]{"Linked Obama", "linked obama", "Linked Biden", "Ben & Jerry", "B&J", "Samsung", "Samsung"}) {
+      // (a fresh context every time, as a document would create them)
+      mentions.add(new EntityContext(KBPNew.entName(name).entType(NERTag.ORGANIZATION).KBPEntity()));
+    }
+    return mentions;
+  }
+
+  @Test
+  public void testSameDecisions() {
+    CountingLinker linker = new CountingLinker();
+    EntityLinker.Session session = linker.newSession();
+    List<EntityContext> mentions = mentions();
+    for (EntityContext a : mentions) {
+      for (EntityContext b : mentions) {
+        assertEquals(linker.sameEntity(a, b), session.sameEntity(a, b));
+      }
+    }
+    assertTrue(session.sameEntity(mentions.get(0), mentions.get(1)));
+    assertFalse(session.sameEntity(mentions.get(0), mentions.get(2)));
+    assertTrue(session.sameEntity(mentions.get(3), mentions.get(4)));
+    assertTrue(session.sameEntity(mentions.get(5), mentions.get(6)));
+  }
+
+  @Test
+  public void testLinksOncePerMention() {
+    CountingLinker linker = new CountingLinker();
+    EntityLinker.Session session = linker.newSession();
+    List<EntityContext> mentions = mentions();
+    for (int pass = 0; pass < 3; ++pass) {
+      for (EntityContext a : mentions) {
+        for (EntityContext b : mentions()) {
+          session.sameEntity(a, b);
+        }
+      }
+    }
+    // 6 distinct mentions ("Samsung" appears twice)
+    assertEquals(6, linker.numLinks);
+    // Only the distinct pairs which can't be linked fall through to the backoff
+    int numBackoffs = linker.numBackoffs;
+    session.sameEntity(mentions.get(5), mentions.get(3));
+    assertEquals(numBackoffs, linker.numBackoffs);
+    assertEquals(6, linker.numLinks);
+  }
+}
@@ -0,0 +1,140 @@
+package edu.stanford.nlp.kbp.entitylinking;
+
+import edu.stanford.nlp.classify.Classifier;
+import edu.stanford.nlp.classify.LinearClassifier;
+import edu.stanford.nlp.kbp.common.EntityContext;
+import edu.stanford.nlp.kbp.common.KBPNew;
+import edu.stanford.nlp.kbp.common.Maybe;
+import edu.stanford.nlp.kbp.common.NERTag;
+import edu.stanford.nlp.ling.RVFDatum;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.Pair;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the compiled scorer of a {@link TrainedEntityLinker} makes the same decisions as featurizing
+ * each pair and asking the classifier directly, and that it featurizes each mention only once.
+ */
+public class TrainedEntityLinkerTest {
+
+  private static final String[] PEOPLE = {
+      "Barack Obama", "Obama", "Barack H. Obama", "Michelle Obama", "B. Obama", "Barry Obama",
+      "Bill Clinton", "William Clinton", "Hillary Clinton", "Clinton", "William Jefferson Clinton",
+      "Joe Biden", "Joseph Biden", "Biden" };
+  private static final String[] ORGANIZATIONS = {
+      "International Business Machines", "IBM", "I.B.M.", "Microsoft", "Microsoft Corporation", "MSFT",
+      "Stanford University", "Stanford", "Leland Stanford Junior University", "University of California" };
+
+  private static List<EntityContext> mentions(NERTag type, String[] names) {
+    List<EntityContext> mentions = new ArrayList<>();
+    for (String name : names) { mentions.add(new EntityContext(KBPNew.entName(name).entType(type).KBPEntity())); }
+    return mentions;
+  }
+
+  /** A linear classifier with random weights over every feature which fires on a pair of the given mentions */
+  private static LinearClassifier<Boolean, Feature> randomClassifier(EntityLinkingFeaturizer featurizer, List<EntityContext> mentions, long seed) {
+    Index<Feature> featureIndex = new HashIndex<>();
+    for (EntityContext a : mentions) {
+      for (EntityContext b : mentions) {
+        featureIndex.addAll(featurizer.featurize(Pair.makePair(a, b)).keySet());
+      }
+    }
+    Index<Boolean> labelIndex = new HashIndex<>();
+    labelIndex.add(true);
+    labelIndex.add(false);
+    Random rand = new Random(seed);
+    double[][] weights = new double[featureIndex.size()][labelIndex.size()];
+    for (double[] featureWeights : weights) {
+      for (int l = 0; l < featureWeights.length; ++l) { featureWeights[l] = rand.nextGaussian(); }
+    }
+    return new LinearClassifier<>(weights, featureIndex, labelIndex);
+  }
+
+  @Test
+  public void testCompiledScorerMatchesClassifier() {
+    EntityLinkingFeaturizer featurizer = new EntityLinkingFeaturizer();
+    for (Pair<NERTag, String[]> names : Arrays.asList(Pair.makePair(NERTag.PERSON, PEOPLE), Pair.makePair(NERTag.ORGANIZATION, ORGANIZATIONS))) {
+      List<EntityContext> mentions = mentions(names.first, names.second);
+      for (long seed = 0; seed < 5; ++seed) {
+        LinearClassifier<Boolean, Feature> classifier = randomClassifier(featurizer, mentions, seed);
+        TrainedEntityLinker.CompactLinearScorer scorer = new TrainedEntityLinker.CompactLinearScorer(classifier);
+        for (EntityContext a : mentions) {
+          for (EntityContext b : mentions) {
+            RVFDatum<Boolean, Feature> datum = featurizer.featurize(Pair.makePair(a, b), false);
+            double expected = classifier.scoreOf(datum, true) - classifier.scoreOf(datum, false);
+            double actual = scorer.score(featurizer, featurizer.precompute(a), featurizer.precompute(b));
+            assertEquals(a.entity.name + " / " + b.entity.name, expected, actual, 1e-8);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDecisionsMatchClassOf() {
+    EntityLinkingFeaturizer featurizer = new EntityLinkingFeaturizer();
+    List<EntityContext> people = mentions(NERTag.PERSON, PEOPLE);
+    List<EntityContext> organizations = mentions(NERTag.ORGANIZATION, ORGANIZATIONS);
+    Map<NERTag, Classifier<Boolean, Feature>> classifiers = new HashMap<>();
+    classifiers.put(NERTag.PERSON, randomClassifier(featurizer, people, 42));
+    classifiers.put(NERTag.ORGANIZATION, randomClassifier(featurizer, organizations, 43));
+    TrainedEntityLinker linker = new TrainedEntityLinker(classifiers, featurizer);
+    int linked = 0;
+    for (List<EntityContext> mentions : Arrays.asList(people, organizations)) {
+      Classifier<Boolean, Feature> classifier = classifiers.get(mentions.get(0).entity.type);
+      for (EntityContext a : mentions) {
+        for (EntityContext b : mentions) {
+          boolean expected = classifier.classOf(featurizer.featurize(Pair.makePair(a, b), false));
+          assertEquals(a.entity.name + " / " + b.entity.name, expected, linker.sameEntityWithoutLinking(a, b));
+          if (expected) { linked += 1; }
+        }
+      }
+    }
+    // (make sure the random classifiers exercise both decisions)
+    assertTrue(linked > 0);
+    assertTrue(linked < PEOPLE.length * PEOPLE.length + ORGANIZATIONS.length * ORGANIZATIONS.length);
+    // Mentions of different types are never linked
+    assertFalse(linker.sameEntityWithoutLinking(people.get(0), organizations.get(0)));
+  }
+
+  @Test
+  public void testEachMentionPrecomputedOnce() {
+    final AtomicInteger precomputed = new AtomicInteger(0);
+    EntityLinkingFeaturizer featurizer = new EntityLinkingFeaturizer() {
+      @Override
+      public PrecomputedMention precompute(EntityContext context) {
+        precomputed.incrementAndGet();
+        return super.precompute(context);
+      }
+    };
+    List<EntityContext> people = mentions(NERTag.PERSON, PEOPLE);
+    Map<NERTag, Classifier<Boolean, Feature>> classifiers = new HashMap<>();
+    classifiers.put(NERTag.PERSON, randomClassifier(new EntityLinkingFeaturizer(), people, 7));
+    TrainedEntityLinker linker = new TrainedEntityLinker(classifiers, featurizer);
+    for (EntityContext a : people) {
+      for (EntityContext b : people) {
+        linker.sameEntityWithoutLinking(a, b);
+      }
+    }
+    // The pairwise path (featurize(Pair)) would precompute two mentions per pair
+    assertEquals(people.size(), precomputed.get());
+  }
+
+  @Test
+  public void testScorerCompiledOncePerType() {
+    EntityLinkingFeaturizer featurizer = new EntityLinkingFeaturizer();
+    List<EntityContext> people = mentions(NERTag.PERSON, PEOPLE);
+    Map<NERTag, Classifier<Boolean, Feature>> classifiers = new HashMap<>();
+    classifiers.put(NERTag.PERSON, randomClassifier(featurizer, people, 7));
+    TrainedEntityLinker linker = new TrainedEntityLinker(classifiers, featurizer);
+    Maybe<TrainedEntityLinker.CompactLinearScorer> scorer = linker.scorer(NERTag.PERSON);
+    assertTrue(scorer.isDefined());
+    assertSame(scorer, linker.scorer(NERTag.PERSON));
+  }
+}
@@ -0,0 +1,160 @@
+package edu.stanford.nlp.kbp.entitylinking;
+
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the cache of articles in {@link WikidictEntityLinker}: eviction and promotion between its two generations,
+ * the entries pinned by a warm start, and the normalization of the names it is keyed on.
+ */
+public class WikidictArticleCacheTest {
+
+  private static WikidictEntityLinker.ArticleVector articles(String... articlesAndWeights) {
+    Counter<String> weights = new ClassicCounter<>();
+    for (int i = 0; i < articlesAndWeights.length; i += 2) {
+      weights.setCount(articlesAndWeights[i], Double.parseDouble(articlesAndWeights[i + 1]));
+    }
+    return WikidictEntityLinker.ArticleVector.of(weights);
+  }
+
+  private static void assertSameArticles(WikidictEntityLinker.ArticleVector expected, WikidictEntityLinker.ArticleVector actual) {
+    assertArrayEquals(expected.articles, actual.articles);
+    assertArrayEquals(expected.hashes, actual.hashes);
+    assertArrayEquals(expected.weights, actual.weights, 1e-10);
+  }
+
+  @Test
+  public void testEviction() {
+    WikidictEntityLinker.ArticleCache cache = new WikidictEntityLinker.ArticleCache(10, Collections.<String, WikidictEntityLinker.ArticleVector>emptyMap());
+    // The first generation fills up, and becomes the old generation...
+    for (int i = 0; i < 6; ++i) { cache.put("entity " + i, articles("Article_" + i, "1.0")); }
+    assertEquals(6, cache.entries().size());
+    // ... which is evicted once the next one fills up
+    for (int i = 6; i < 12; ++i) { cache.put("entity " + i, articles("Article_" + i, "1.0")); }
+    for (int i = 0; i < 6; ++i) { assertNull(cache.get("entity " + i)); }
+    for (int i = 6; i < 12; ++i) { assertNotNull(cache.get("entity " + i)); }
+  }
+
+  @Test
+  public void testBounded() {
+    WikidictEntityLinker.ArticleCache cache = new WikidictEntityLinker.ArticleCache(100, Collections.<String, WikidictEntityLinker.ArticleVector>emptyMap());
+    for (int i = 0; i < 10000; ++i) {
+      cache.put("entity " + i, WikidictEntityLinker.ArticleVector.EMPTY);
+      assertTrue(cache.entries().size() <= 101);
+    }
+    // The most recent entries are always kept
+    for (int i = 10000 - 50; i < 10000; ++i) { assertNotNull(cache.get("entity " + i)); }
+  }
+
+  @Test
+  public void testPromotion() {
+    WikidictEntityLinker.ArticleCache cache = new WikidictEntityLinker.ArticleCache(10, Collections.<String, WikidictEntityLinker.ArticleVector>emptyMap());
+    WikidictEntityLinker.ArticleVector obama = articles("Barack_Obama", "0.9", "Obama_(surname)", "0.1");
+    cache.put("Obama", obama);
+    for (int i = 0; i < 5; ++i) { cache.put("entity " + i, WikidictEntityLinker.ArticleVector.EMPTY); }
+    // (the first generation is now the old generation)
+    // A hit on the old generation is promoted to the young one...
+    assertSame(obama, cache.get("Obama"));
+    for (int i = 5; i < 11; ++i) { cache.put("entity " + i, WikidictEntityLinker.ArticleVector.EMPTY); }
+    // ... and so survives the eviction of its generation, while the other entries do not
+    assertSame(obama, cache.get("Obama"));
+    for (int i = 0; i < 5; ++i) { assertNull(cache.get("entity " + i)); }
+  }
+
+  @Test
+  public void testPinnedEntriesAreNeverEvicted() {
+    WikidictEntityLinker.ArticleVector obama = articles("Barack_Obama", "1.0");
+    WikidictEntityLinker.ArticleCache cache = new WikidictEntityLinker.ArticleCache(10, Collections.singletonMap("Obama", obama));
+    for (int i = 0; i < 100; ++i) { cache.put("entity " + i, WikidictEntityLinker.ArticleVector.EMPTY); }
+    assertSame(obama, cache.get("Obama"));
+    // Pinned entries take precedence over anything cached since
+    cache.put("Obama", WikidictEntityLinker.ArticleVector.EMPTY);
+    assertSame(obama, cache.get("Obama"));
+    assertSame(obama, cache.entries().get("Obama"));
+  }
+
+  @Test
+  public void testConcurrentUse() throws InterruptedException {
+    final WikidictEntityLinker.ArticleCache cache = new WikidictEntityLinker.ArticleCache(50, Collections.<String, WikidictEntityLinker.ArticleVector>emptyMap());
+    final List<WikidictEntityLinker.ArticleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 200; ++i) { vectors.add(articles("Article_" + i, "1.0")); }
+    final AtomicInteger numWrong = new AtomicInteger(0);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; ++t) {
+      final Random rand = new Random(t);
+      threads.add(new Thread(() -> {
+        for (int k = 0; k < 10000; ++k) {
+          int i = rand.nextInt(vectors.size());
+          WikidictEntityLinker.ArticleVector cached = cache.get("entity " + i);
+          if (cached == null) {
+            cache.put("entity " + i, vectors.get(i));
+          } else if (cached != vectors.get(i)) {
+            numWrong.incrementAndGet();
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) { thread.start(); }
+    for (Thread thread : threads) { thread.join(); }
+    // Every hit is the articles of its own entity
+    assertEquals(0, numWrong.get());
+    assertTrue(cache.entries().size() <= 51 + 8);
+  }
+
+  @Test
+  public void testNormalization() {
+    assertEquals("Barack Obama", WikidictEntityLinker.normalize("Barack Obama"));
+    assertEquals("Barack Obama", WikidictEntityLinker.normalize("  Barack \t Obama\n"));
+    // Case is left alone, as WikiDict is case sensitive
+    assertEquals("barack obama", WikidictEntityLinker.normalize("barack  obama"));
+  }
+
+  @Test
+  public void testWarmStartRoundTrip() throws IOException {
+    File file = File.createTempFile("articles", ".tab");
+    try {
+      WikidictEntityLinker.ArticleCache cache = new WikidictEntityLinker.ArticleCache(100, Collections.<String, WikidictEntityLinker.ArticleVector>emptyMap());
+      cache.put("Barack Obama", articles("Barack_Obama", "0.75", "Obama_(surname)", "0.125"));
+      cache.put("Stanford", articles("Stanford_University", "0.5"));
+      cache.put("Nowhere", WikidictEntityLinker.ArticleVector.EMPTY);
+      WikidictEntityLinker.writeArticleVectors(cache.entries(), file);
+
+      // Every entry comes back, with the same articles
+      Map<String, WikidictEntityLinker.ArticleVector> loaded = WikidictEntityLinker.loadArticleVectors(file);
+      assertEquals(cache.entries().keySet(), loaded.keySet());
+      for (Map.Entry<String, WikidictEntityLinker.ArticleVector> entry : cache.entries().entrySet()) {
+        assertSameArticles(entry.getValue(), loaded.get(entry.getKey()));
+      }
+      // ... and warm starts a new cache
+      WikidictEntityLinker.ArticleCache warm = new WikidictEntityLinker.ArticleCache(100, loaded);
+      assertSameArticles(articles("Stanford_University", "0.5"), warm.get("Stanford"));
+      assertEquals(0, warm.get("Nowhere").size());
+    } finally {
+      assertTrue(file.delete());
+    }
+  }
+
+  @Test
+  public void testWarmStartNormalizesNames() throws IOException {
+    File file = File.createTempFile("articles", ".tab");
+    try {
+      PrintWriter out = new PrintWriter(file);
+      out.println("  Barack   Obama \tBarack_Obama\t1.0");
+      out.close();
+      Map<String, WikidictEntityLinker.ArticleVector> loaded = WikidictEntityLinker.loadArticleVectors(file);
+      assertEquals(Collections.singleton("Barack Obama"), loaded.keySet());
+      assertSameArticles(articles("Barack_Obama", "1.0"), loaded.get("Barack Obama"));
+    } finally {
+      assertTrue(file.delete());
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package edu.stanford.nlp.kbp.entitylinking;
+
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.stats.Counters;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static edu.stanford.nlp.util.logging.Redwood.Util.log;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the merge-join article overlap in {@link WikidictEntityLinker} against the original counter-based overlap.
+ */
+public class WikidictArticleVectorTest {
+
+  private static List<Counter<String>> randomArticles(int count, Random rand) {
+    List<Counter<String>> articles = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      Counter<String> weights = new ClassicCounter<>();
+      int numArticles = rand.nextInt(100);
+      for (int k = 0; k < numArticles; ++k) {
+        weights.incrementCount("Article_" + rand.nextInt(2000), rand.nextDouble());
+      }
+      articles.add(weights);
+    }
+    return articles;
+  }
+
+  /** The overlap as it used to be computed, on counters */
+  private static boolean counterDecision(Counter<String> articlesOne, Counter<String> articlesTwo, double threshold) {
+    Counter<String> intersection = new ClassicCounter<>();
+    for (String key : articlesOne.keySet()) {
+      if (articlesTwo.containsKey(key)) {
+        double a = articlesOne.getCount(key);
+        double b = articlesTwo.getCount(key);
+        intersection.incrementCount(key, 2 * a * b / (a + b));
+      }
+    }
+    return intersection.size() >= 1 && Counters.max(intersection) >= threshold;
+  }
+
+  @Test
+  public void testEmptyOverlap() {
+    WikidictEntityLinker.ArticleVector empty = WikidictEntityLinker.ArticleVector.EMPTY;
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("Barack_Obama", 1.0);
+    WikidictEntityLinker.ArticleVector obama = WikidictEntityLinker.ArticleVector.of(weights);
+    assertEquals(Double.NEGATIVE_INFINITY, empty.maxHarmonicOverlap(obama), 0.0);
+    assertEquals(1.0, obama.maxHarmonicOverlap(obama), 1e-10);
+  }
+
+  @Test
+  public void testSameDecisions() {
+    Random rand = new Random(42);
+    List<Counter<String>> counters = randomArticles(300, rand);
+    List<WikidictEntityLinker.ArticleVector> vectors = new ArrayList<>();
+    for (Counter<String> counter : counters) { vectors.add(WikidictEntityLinker.ArticleVector.of(counter)); }
+    for (int i = 0; i < counters.size(); ++i) {
+      for (int j = 0; j < counters.size(); ++j) {
+        for (double threshold : new double[]{0.5, 0.9}) {
+          assertEquals(counterDecision(counters.get(i), counters.get(j), threshold),
+              vectors.get(i).maxHarmonicOverlap(vectors.get(j)) >= threshold);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testHashCollisions() {
+    // "Aa" and "BB" have the same hash code, but are different articles
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    Counter<String> one = new ClassicCounter<>();
+    one.setCount("Aa", 1.0);
+    Counter<String> two = new ClassicCounter<>();
+    two.setCount("BB", 1.0);
+    Counter<String> both = new ClassicCounter<>();
+    both.setCount("BB", 0.5);
+    both.setCount("Aa", 0.25);
+    assertEquals(Double.NEGATIVE_INFINITY, WikidictEntityLinker.ArticleVector.of(one).maxHarmonicOverlap(WikidictEntityLinker.ArticleVector.of(two)), 0.0);
+    assertEquals(2 * 1.0 * 0.5 / 1.5, WikidictEntityLinker.ArticleVector.of(two).maxHarmonicOverlap(WikidictEntityLinker.ArticleVector.of(both)), 1e-10);
+    assertEquals(2 * 1.0 * 0.25 / 1.25, WikidictEntityLinker.ArticleVector.of(one).maxHarmonicOverlap(WikidictEntityLinker.ArticleVector.of(both)), 1e-10);
+  }
+
+  /** Time every pairwise comparison of the given articles, returning comparisons per second and the number that agree */
+  private static double[] timeCounters(List<Counter<String>> counters, int rounds) {
+    int agree = 0;
+    long start = System.nanoTime();
+    for (int r = 0; r < rounds; ++r) {
+      for (Counter<String> a : counters) {
+        for (Counter<String> b : counters) {
+          if (counterDecision(a, b, 0.5)) { agree += 1; }
+        }
+      }
+    }
+    double seconds = (double) (System.nanoTime() - start) / 1e9;
+    return new double[]{ ((double) rounds * counters.size() * counters.size()) / seconds, agree };
+  }
+
+  /** @see WikidictArticleVectorTest#timeCounters(List, int) */
+  private static double[] timeVectors(List<WikidictEntityLinker.ArticleVector> vectors, int rounds) {
+    int agree = 0;
+    long start = System.nanoTime();
+    for (int r = 0; r < rounds; ++r) {
+      for (WikidictEntityLinker.ArticleVector a : vectors) {
+        for (WikidictEntityLinker.ArticleVector b : vectors) {
+          if (a.maxHarmonicOverlap(b) >= 0.5) { agree += 1; }
+        }
+      }
+    }
+    double seconds = (double) (System.nanoTime() - start) / 1e9;
+    return new double[]{ ((double) rounds * vectors.size() * vectors.size()) / seconds, agree };
+  }
+
+  /**
+   * A benchmark of the counter overlap against the merge join, in comparisons per second.
+   * This is timing-dependent, so it is not run with the other tests; run it by hand.
+   */
+  @Ignore
+  @Test
+  public void testComparisonsPerSecond() {
+    Random rand = new Random(42);
+    List<Counter<String>> counters = randomArticles(500, rand);
+    List<WikidictEntityLinker.ArticleVector> vectors = new ArrayList<>();
+    for (Counter<String> counter : counters) { vectors.add(WikidictEntityLinker.ArticleVector.of(counter)); }
+    // Warm up
+    timeCounters(counters, 1);
+    timeVectors(vectors, 1);
+    // Time
+    double[] counterResult = timeCounters(counters, 3);
+    double[] vectorResult = timeVectors(vectors, 3);
+    assertEquals(counterResult[1], vectorResult[1], 0.0);
+    log(String.format("article overlap comparisons per second: %.0f (counters) -> %.0f (merge join); %.1fx",
+        counterResult[0], vectorResult[0], vectorResult[0] / counterResult[0]));
+  }
+}
@@ -0,0 +1,158 @@
+package edu.stanford.nlp.kbp.slotfilling.classify;
+
+import edu.stanford.nlp.kbp.common.Maybe;
+import edu.stanford.nlp.ling.BasicDatum;
+import edu.stanford.nlp.ling.Datum;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a {@link ColumnarDataset} round trips to the same {@link KBPDataset} as building it on the heap.
+ */
+public class ColumnarDatasetTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("dataset", ".columnar");
+  }
+
+  @After
+  public void tearDown() {
+    assertTrue(file.delete());
+  }
+
+  private static List<ColumnarDataset.Group> randomGroups(int numGroups) {
+    Random rand = new Random(42);
+    String[] relations = {"per:title", "per:employee_of", "org:founded_by", "org:top_members/employees"};
+    List<ColumnarDataset.Group> groups = new ArrayList<>();
+    for (int g = 0; g < numGroups; ++g) {
+      Set<String> pos = new HashSet<>();
+      Set<String> neg = new HashSet<>();
+      for (String relation : relations) {
+        switch (rand.nextInt(3)) {
+          case 0: pos.add(relation); break;
+          case 1: neg.add(relation); break;
+          default: break;
+        }
+      }
+      List<List<String>> sentences = new ArrayList<>();
+      List<String> keys = new ArrayList<>();
+      int numSentences = 1 + rand.nextInt(4);
+      for (int s = 0; s < numSentences; ++s) {
+        List<String> features = new ArrayList<>();
+        int numFeatures = rand.nextInt(6);
+        for (int f = 0; f < numFeatures; ++f) { features.add("feature_" + rand.nextInt(g + 10)); }
+        sentences.add(features);
+        keys.add("key_" + g + "_" + s);
+      }
+      groups.add(new ColumnarDataset.Group(pos, neg, new HashSet<>(), sentences,
+          g % 3 == 0 ? Maybe.<List<String>>Nothing() : Maybe.Just(keys)));
+    }
+    return groups;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static KBPDataset<String, String> onHeap(List<ColumnarDataset.Group> groups) {
+    KBPDataset<String, String> dataset = new KBPDataset<>();
+    for (ColumnarDataset.Group group : groups) {
+      List<Datum<String, String>> datums = new ArrayList<>();
+      for (Collection<String> features : group.sentences) { datums.add(new BasicDatum<String, String>(features)); }
+      Maybe<String>[] annotatedLabels = new Maybe[datums.size()];
+      Arrays.fill(annotatedLabels, Maybe.<String>Nothing());
+      dataset.addDatum(group.positiveLabels, group.negativeLabels, group.unknownLabels, datums, group.sentenceGlossKeys, annotatedLabels);
+    }
+    return dataset;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    List<ColumnarDataset.Group> groups = randomGroups(500);
+    assertEquals(500, ColumnarDataset.write(groups.iterator(), Function.identity(), file, 3, 7));
+    KBPDataset<String, String> loaded = ColumnarDataset.load(file, 3);
+    KBPDataset<String, String> expected = onHeap(groups);
+    assertEquals(expected.size(), loaded.size());
+    assertEquals(expected.featureIndex(), loaded.featureIndex());
+    assertEquals(expected.labelIndex(), loaded.labelIndex());
+    assertEquals(expected, loaded);
+    for (int g = 0; g < expected.size(); ++g) {
+      assertArrayEquals(expected.getSentenceGlossKey(g), loaded.getSentenceGlossKey(g));
+    }
+  }
+
+  @Test
+  public void testDeterministicAcrossThreads() throws IOException {
+    List<ColumnarDataset.Group> groups = randomGroups(200);
+    ColumnarDataset.write(groups.iterator(), Function.identity(), file, 1, ColumnarDataset.DEFAULT_CHUNK_SIZE);
+    byte[] singleThreaded = Files.readAllBytes(file.toPath());
+    ColumnarDataset.write(groups.iterator(), Function.identity(), file, 4, 3);
+    assertArrayEquals(singleThreaded, Files.readAllBytes(file.toPath()));
+  }
+
+  private static void assertSameGroups(KBPDataset<String, String> expected, int offset, KBPDataset<String, String> chunk) {
+    for (int i = 0; i < chunk.size(); ++i) {
+      assertTrue(Arrays.deepEquals(expected.getGroup(offset + i), chunk.getGroup(i)));
+      assertEquals(expected.getPositiveLabels(offset + i), chunk.getPositiveLabels(i));
+      assertEquals(expected.getNegativeLabels(offset + i), chunk.getNegativeLabels(i));
+      assertEquals(expected.getUnknownLabels(offset + i), chunk.getUnknownLabels(i));
+    }
+  }
+
+  @Test
+  public void testReadInChunks() throws IOException {
+    List<ColumnarDataset.Group> groups = randomGroups(500);
+    ColumnarDataset.write(groups.iterator(), Function.identity(), file, 3, 7);
+    KBPDataset<String, String> expected = onHeap(groups);
+    try (ColumnarDataset.Reader reader = new ColumnarDataset.Reader(file)) {
+      assertEquals(500, reader.numGroups);
+      assertEquals(expected.featureIndex(), reader.featureIndex());
+      for (int start = 0; start < reader.numGroups; start += 64) {
+        int end = Math.min(reader.numGroups, start + 64);
+        KBPDataset<String, String> chunk = reader.read(start, end, 2);
+        assertEquals(end - start, chunk.size());
+        assertSame(reader.featureIndex(), chunk.featureIndex());
+        assertSameGroups(expected, start, chunk);
+        for (int i = 0; i < chunk.size(); ++i) {
+          assertEquals(expected.getNumSentencesInGroup(start + i), reader.numSentences(start + i));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFeatureCountThresholdWhileReading() throws IOException {
+    List<ColumnarDataset.Group> groups = randomGroups(500);
+    ColumnarDataset.write(groups.iterator(), Function.identity(), file, 3, 7);
+    KBPDataset<String, String> expected = onHeap(groups);
+    expected.applyFeatureCountThreshold(3);
+    try (ColumnarDataset.Reader reader = new ColumnarDataset.Reader(file)) {
+      reader.applyFeatureCountThreshold(3);
+      assertEquals(expected.featureIndex(), reader.featureIndex());
+      assertSameGroups(expected, 0, reader.read(0, 250, 2));
+      assertSameGroups(expected, 250, reader.read(250, 500, 2));
+      // Thresholding again composes with the first threshold
+      expected.applyFeatureCountThreshold(5);
+      reader.applyFeatureCountThreshold(5);
+      assertEquals(expected.featureIndex(), reader.featureIndex());
+      assertSameGroups(expected, 0, reader.read(0, 500, 1));
+    }
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    assertEquals(0, ColumnarDataset.write(Collections.<ColumnarDataset.Group>emptyIterator(), Function.identity(), file, 2, 7));
+    KBPDataset<String, String> loaded = ColumnarDataset.load(file, 2);
+    assertEquals(0, loaded.size());
+    assertEquals(0, loaded.featureIndex().size());
+  }
+}
@@ -0,0 +1,136 @@
+package edu.stanford.nlp.kbp.slotfilling.classify;
+
+import edu.stanford.nlp.classify.LinearClassifier;
+import edu.stanford.nlp.classify.RVFDataset;
+import edu.stanford.nlp.kbp.common.Props;
+import edu.stanford.nlp.ling.RVFDatum;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the M-step of MIML-RE: warm starting the Y classifiers from the previous epoch,
+ * and stopping EM once the Z classifiers stop changing.
+ */
+public class JointBayesMStepTest {
+
+  private File file;
+  private File modelDir;
+  private File originalModelDir;
+  private int originalEpochs;
+  private int originalFolds;
+  private double originalConvergence;
+  private boolean originalExact;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("dataset", ".columnar");
+    modelDir = Files.createTempDirectory("jointbayes").toFile();
+    originalModelDir = Props.KBP_MODEL_DIR;
+    originalEpochs = Props.TRAIN_JOINTBAYES_EPOCHS;
+    originalFolds = Props.TRAIN_JOINTBAYES_FOLDS;
+    originalConvergence = Props.TRAIN_JOINTBAYES_CONVERGENCE;
+    originalExact = Props.TRAIN_JOINTBAYES_MSTEP_EXACT;
+    Props.TRAIN_JOINTBAYES_EPOCHS = 4;
+    Props.TRAIN_JOINTBAYES_FOLDS = 2;
+  }
+
+  @After
+  public void tearDown() {
+    Props.KBP_MODEL_DIR = originalModelDir;
+    Props.TRAIN_JOINTBAYES_EPOCHS = originalEpochs;
+    Props.TRAIN_JOINTBAYES_FOLDS = originalFolds;
+    Props.TRAIN_JOINTBAYES_CONVERGENCE = originalConvergence;
+    Props.TRAIN_JOINTBAYES_MSTEP_EXACT = originalExact;
+    assertTrue(file.delete());
+    delete(modelDir);
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) { delete(child); }
+    }
+    assertTrue(f.delete());
+  }
+
+  private static Counter<String> features(String... names) {
+    Counter<String> counter = new ClassicCounter<>();
+    for (String name : names) { counter.setCount(name, 1.0); }
+    return counter;
+  }
+
+  @Test
+  public void testInitialYWeights() {
+    Index<String> featureIndex = new HashIndex<>(Arrays.asList("a", "b", "c"));
+    Index<String> labelIndex = new HashIndex<>(Arrays.asList("true", "false"));
+    double[][] weights = new double[3][2];
+    for (int f = 0; f < 3; ++f) {
+      for (int l = 0; l < 2; ++l) { weights[f][l] = 10 * f + l; }
+    }
+    LinearClassifier<String, String> previous = new LinearClassifier<>(weights, featureIndex, labelIndex);
+    // The new dataset has its features and labels in a different order, and a feature the previous classifier never saw
+    RVFDataset<String, String> trainSet = new RVFDataset<>();
+    trainSet.add(new RVFDatum<>(features("c", "d"), "false"));
+    trainSet.add(new RVFDatum<>(features("a"), "true"));
+    assertEquals(Arrays.asList("c", "d", "a"), trainSet.featureIndex().objectsList());
+    assertEquals(Arrays.asList("false", "true"), trainSet.labelIndex().objectsList());
+
+    double[][] initial = JointBayesRelationExtractor.initialYWeights(previous, trainSet);
+    assertEquals(3, initial.length);
+    assertArrayEquals(new double[]{ 21.0, 20.0 }, initial[0], 0.0);
+    assertArrayEquals(new double[]{ 0.0, 0.0 }, initial[1], 0.0);
+    assertArrayEquals(new double[]{ 1.0, 0.0 }, initial[2], 0.0);
+  }
+
+  @Test
+  public void testRelativeWeightChange() {
+    double[][][] before = new double[][][]{ {{ 3.0, 0.0 }}, {{ 0.0, 4.0 }} };
+    assertEquals(0.0, JointBayesRelationExtractor.relativeWeightChange(before, before), 0.0);
+    double[][][] after = new double[][][]{ {{ 3.0, 0.5 }}, {{ 0.0, 4.0 }} };
+    assertEquals(0.1, JointBayesRelationExtractor.relativeWeightChange(before, after), 1e-10);
+    // Nothing to compare against
+    assertEquals(Double.POSITIVE_INFINITY, JointBayesRelationExtractor.relativeWeightChange(new double[][][]{ null, before[1] }, after), 0.0);
+    assertEquals(Double.POSITIVE_INFINITY, JointBayesRelationExtractor.relativeWeightChange(new double[][][]{ {{ 0.0, 0.0 }}, {{ 0.0, 0.0 }} }, after), 0.0);
+    // Different layouts
+    assertEquals(Double.POSITIVE_INFINITY, JointBayesRelationExtractor.relativeWeightChange(new double[][][]{ {{ 3.0 }}, {{ 0.0, 4.0 }} }, after), 0.0);
+  }
+
+  /** Train MIML-RE on planted data, and return the number of epochs it ran for (as the number of epoch models it saved) */
+  private int epochsTrained(String name) throws IOException {
+    Props.KBP_MODEL_DIR = new File(modelDir, name);
+    assertTrue(Props.KBP_MODEL_DIR.mkdirs());
+    new JointBayesRelationExtractor(new Properties(), false).train(ColumnarDataset.load(file, 2));
+    File[] epochModels = Props.KBP_MODEL_DIR.listFiles((dir, fileName) -> fileName.contains("_EPOCH"));
+    assertNotNull(epochModels);
+    return epochModels.length;
+  }
+
+  @Test
+  public void testStopsOnConvergedWeights() throws IOException {
+    ColumnarDataset.write(JointBayesOutOfCoreTest.plantedGroups(30).iterator(), Function.identity(), file, 2, 7);
+    // Any change counts as converged: stop after the first epoch
+    Props.TRAIN_JOINTBAYES_CONVERGENCE = Double.POSITIVE_INFINITY;
+    assertEquals(1, epochsTrained("converged"));
+    // No change counts as converged: run every epoch
+    Props.TRAIN_JOINTBAYES_CONVERGENCE = 0.0;
+    assertEquals(Props.TRAIN_JOINTBAYES_EPOCHS, epochsTrained("unconverged"));
+    // The exact M-step never stops early
+    Props.TRAIN_JOINTBAYES_CONVERGENCE = Double.POSITIVE_INFINITY;
+    Props.TRAIN_JOINTBAYES_MSTEP_EXACT = true;
+    assertEquals(Props.TRAIN_JOINTBAYES_EPOCHS, epochsTrained("exact"));
+  }
+}
@@ -0,0 +1,150 @@
+package edu.stanford.nlp.kbp.slotfilling.classify;
+
+import edu.stanford.nlp.kbp.common.Maybe;
+import edu.stanford.nlp.kbp.common.Props;
+import edu.stanford.nlp.ling.BasicDatum;
+import edu.stanford.nlp.ling.Datum;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that training MIML-RE out of core, streaming a {@link ColumnarDataset}, filters and folds the groups as
+ * training on the heap does, and learns the same local classifiers up to the difference between the optimizers.
+ */
+public class JointBayesOutOfCoreTest {
+  private static final String[] RELATIONS = {"per:title", "per:employee_of", "org:founded_by"};
+
+  private File file;
+  private File modelDir;
+  private File originalModelDir;
+  private int originalEpochs;
+  private int originalFolds;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("dataset", ".columnar");
+    modelDir = Files.createTempDirectory("jointbayes").toFile();
+    originalModelDir = Props.KBP_MODEL_DIR;
+    originalEpochs = Props.TRAIN_JOINTBAYES_EPOCHS;
+    originalFolds = Props.TRAIN_JOINTBAYES_FOLDS;
+    Props.TRAIN_JOINTBAYES_EPOCHS = 2;
+    Props.TRAIN_JOINTBAYES_FOLDS = 2;
+  }
+
+  @After
+  public void tearDown() {
+    Props.KBP_MODEL_DIR = originalModelDir;
+    Props.TRAIN_JOINTBAYES_EPOCHS = originalEpochs;
+    Props.TRAIN_JOINTBAYES_FOLDS = originalFolds;
+    assertTrue(file.delete());
+    delete(modelDir);
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) { delete(child); }
+    }
+    assertTrue(f.delete());
+  }
+
+  /**
+   * Groups expressing a single relation each. Every sentence has the trigger feature of its relation, plus noise;
+   * every fifth group is too large for a {@link JointBayesRelationExtractor.LargeFilter} of threshold 3.
+   */
+  static List<ColumnarDataset.Group> plantedGroups(int numGroups) {
+    Random rand = new Random(42);
+    List<ColumnarDataset.Group> groups = new ArrayList<>();
+    for (int g = 0; g < numGroups; ++g) {
+      String relation = RELATIONS[g % RELATIONS.length];
+      Set<String> neg = new HashSet<>(Arrays.asList(RELATIONS));
+      neg.remove(relation);
+      List<List<String>> sentences = new ArrayList<>();
+      int numSentences = g % 5 == 4 ? 5 : 1 + rand.nextInt(3);
+      for (int s = 0; s < numSentences; ++s) {
+        List<String> features = new ArrayList<>();
+        features.add("trigger_" + relation);
+        for (int f = 0; f < 2; ++f) { features.add("noise_" + rand.nextInt(20)); }
+        sentences.add(features);
+      }
+      groups.add(new ColumnarDataset.Group(Collections.singleton(relation), neg, new HashSet<>(), sentences,
+          Maybe.<List<String>>Nothing()));
+    }
+    return groups;
+  }
+
+  private JointBayesRelationExtractor extractor(String name) {
+    Props.KBP_MODEL_DIR = new File(modelDir, name);
+    assertTrue(Props.KBP_MODEL_DIR.mkdirs());
+    return new JointBayesRelationExtractor(new Properties(), false, new JointBayesRelationExtractor.LargeFilter(3));
+  }
+
+  @Test
+  public void testFoldsMatchFilteredDataset() throws IOException {
+    List<ColumnarDataset.Group> groups = plantedGroups(53);
+    ColumnarDataset.write(groups.iterator(), Function.identity(), file, 2, 7);
+    int[] folds;
+    try (ColumnarDataset.Reader reader = new ColumnarDataset.Reader(file)) {
+      folds = extractor("folds").foldsOutOfCore(reader);
+    }
+    assertEquals(groups.size(), folds.length);
+    // Large groups are filtered out before folding, as on the heap
+    int numKept = 0;
+    for (int i = 0; i < groups.size(); ++i) {
+      if (groups.get(i).sentences.size() > 3) {
+        assertEquals(-1, folds[i]);
+      } else {
+        numKept += 1;
+      }
+    }
+    assertTrue(numKept < groups.size());
+    // ... and the kept groups are split into contiguous folds, the last one padded
+    int foldSize = numKept / Props.TRAIN_JOINTBAYES_FOLDS;
+    int keptI = 0;
+    for (int fold : folds) {
+      if (fold < 0) { continue; }
+      assertEquals(Math.min(keptI / foldSize, Props.TRAIN_JOINTBAYES_FOLDS - 1), fold);
+      keptI += 1;
+    }
+  }
+
+  @Test
+  public void testOutOfCoreMatchesInMemory() throws IOException {
+    List<ColumnarDataset.Group> groups = plantedGroups(60);
+    ColumnarDataset.write(groups.iterator(), Function.identity(), file, 2, 7);
+
+    JointBayesRelationExtractor inMemory = extractor("memory");
+    inMemory.train(ColumnarDataset.load(file, 2));
+    JointBayesRelationExtractor outOfCore = extractor("disk");
+    try (ColumnarDataset.Reader reader = new ColumnarDataset.Reader(file)) {
+      outOfCore.train(reader);
+    }
+
+    assertEquals(inMemory.zClassifiers.length, outOfCore.zClassifiers.length);
+    for (ColumnarDataset.Group group : groups) {
+      String relation = group.positiveLabels.iterator().next();
+      for (List<String> features : group.sentences) {
+        Datum<String, String> datum = new BasicDatum<String, String>(features);
+        for (int fold = 0; fold < inMemory.zClassifiers.length; ++fold) {
+          String expected = inMemory.zClassifiers[fold].classOf(datum);
+          String actual = outOfCore.zClassifiers[fold].classOf(datum);
+          // Both recover the planted relation...
+          assertEquals(relation, expected);
+          assertEquals(relation, actual);
+          // ... with similar confidence
+          assertEquals(inMemory.zClassifiers[fold].probabilityOf(datum).getCount(expected),
+              outOfCore.zClassifiers[fold].probabilityOf(datum).getCount(actual), 0.25);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,203 @@
+package edu.stanford.nlp.kbp.slotfilling.classify;
+
+import edu.stanford.nlp.kbp.common.Maybe;
+import edu.stanford.nlp.ling.BasicDatum;
+import edu.stanford.nlp.ling.Datum;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a compacted {@link KBPDataset} looks the same through its accessors as the original,
+ * and that its flat storage has no per-sentence object overhead, and is a fraction of the size of the nested form.
+ */
+public class KBPDatasetCompactTest {
+
+  private static final String[] RELATIONS = {"per:title", "per:employee_of", "per:cities_of_residence", "org:founded_by",
+      "org:top_members/employees", "org:alternate_names", "per:spouse", "per:origin"};
+
+  @SuppressWarnings("unchecked")
+  static KBPDataset<String, String> randomDataset(int numGroups, int maxSentences, int maxFeatures, Random rand) {
+    KBPDataset<String, String> dataset = new KBPDataset<>();
+    for (int g = 0; g < numGroups; ++g) {
+      Set<String> pos = new HashSet<>();
+      Set<String> neg = new HashSet<>();
+      Set<String> unk = new HashSet<>();
+      for (String relation : RELATIONS) {
+        switch (rand.nextInt(4)) {
+          case 0: pos.add(relation); break;
+          case 1: neg.add(relation); break;
+          case 2: unk.add(relation); break;
+          default: break;
+        }
+      }
+      List<Datum<String, String>> datums = new ArrayList<>();
+      List<String> keys = new ArrayList<>();
+      int numSentences = 1 + rand.nextInt(maxSentences);
+      for (int s = 0; s < numSentences; ++s) {
+        Set<String> features = new HashSet<>();
+        int numFeatures = rand.nextInt(maxFeatures);
+        for (int f = 0; f < numFeatures; ++f) { features.add("feature_" + rand.nextInt(1000)); }
+        datums.add(new BasicDatum<String, String>(features));
+        // (sentences are shared between groups, as they would be for different entity pairs in the same sentence)
+        keys.add(Integer.toHexString(rand.nextInt(numGroups)) + "0123456789abcdef0123456789abcdef:0-2:5-7");
+      }
+      Maybe<String>[] annotatedLabels = new Maybe[numSentences];
+      Arrays.fill(annotatedLabels, Maybe.<String>Nothing());
+      if (g % 7 == 0) { annotatedLabels[0] = Maybe.Just(RELATIONS[0]); }
+      dataset.addDatum(pos, neg, unk, datums, g % 5 == 0 ? Maybe.<List<String>>Nothing() : Maybe.Just(keys), annotatedLabels);
+    }
+    return dataset;
+  }
+
+  private static void assertSameContents(KBPDataset<String, String> expected, KBPDataset<String, String> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.getPositiveLabels(i), actual.getPositiveLabels(i));
+      assertEquals(expected.getNegativeLabels(i), actual.getNegativeLabels(i));
+      assertEquals(expected.getUnknownLabels(i), actual.getUnknownLabels(i));
+      assertEquals(expected.getNumSentencesInGroup(i), actual.getNumSentencesInGroup(i));
+      assertTrue(Arrays.deepEquals(expected.getGroup(i), actual.getGroup(i)));
+      assertArrayEquals(expected.getSentenceGlossKey(i), actual.getSentenceGlossKey(i));
+      assertArrayEquals(expected.getAnnotatedLabels(i), actual.getAnnotatedLabels(i));
+      List<Datum<String, String>> expectedGroup = expected.getDatumGroup(i);
+      List<Datum<String, String>> actualGroup = actual.getDatumGroup(i);
+      for (int s = 0; s < expectedGroup.size(); ++s) {
+        assertEquals(new ArrayList<>(expectedGroup.get(s).asFeatures()), new ArrayList<>(actualGroup.get(s).asFeatures()));
+      }
+    }
+    assertArrayEquals(expected.getFeatureCounts(), actual.getFeatureCounts(), 0.0f);
+  }
+
+  @Test
+  public void testCompactViews() {
+    KBPDataset<String, String> original = randomDataset(500, 5, 20, new Random(42));
+    KBPDataset<String, String> compacted = randomDataset(500, 5, 20, new Random(42)).compact();
+    assertTrue(compacted.isCompact());
+    assertSameContents(original, compacted);
+    assertEquals(original, compacted);
+    assertEquals(original.hashCode(), compacted.hashCode());
+    assertTrue(compacted.isCompact());
+  }
+
+  @Test
+  public void testExpand() {
+    KBPDataset<String, String> original = randomDataset(200, 5, 20, new Random(42));
+    KBPDataset<String, String> compacted = randomDataset(200, 5, 20, new Random(42)).compact();
+    // Array accessors expand the dataset
+    assertTrue(Arrays.deepEquals(original.getDataArray(), compacted.getDataArray()));
+    assertFalse(compacted.isCompact());
+    assertArrayEquals(original.getPositiveLabelsArray(), compacted.getPositiveLabelsArray());
+    assertArrayEquals(original.getNegativeLabelsArray(), compacted.getNegativeLabelsArray());
+    assertArrayEquals(original.getUnknownLabelsArray(), compacted.getUnknownLabelsArray());
+    // Saved labels survive a round trip
+    original.finalizeLabels();
+    compacted.finalizeLabels();
+    compacted.compact();
+    assertEquals(original, compacted);
+    original.randomize(7);
+    compacted.randomize(7);
+    original.restoreLabels();
+    compacted.restoreLabels();
+    assertSameContents(original, compacted);
+    // ...as does adding to the dataset
+    original.addDatum(original.getPositiveLabelIndices(1), original.getNegativeLabelIndices(1), original.getUnknownLabelIndices(1),
+        original.getGroup(1), original.getSentenceGlossKey(1), original.getAnnotatedLabels(1));
+    compacted.compact();
+    compacted.addDatum(compacted.getPositiveLabelIndices(1), compacted.getNegativeLabelIndices(1), compacted.getUnknownLabelIndices(1),
+        compacted.getGroup(1), compacted.getSentenceGlossKey(1), compacted.getAnnotatedLabels(1));
+    assertSameContents(original, compacted);
+  }
+
+  @Test
+  public void testFeatureCountThreshold() {
+    KBPDataset<String, String> original = randomDataset(300, 5, 20, new Random(42));
+    KBPDataset<String, String> compacted = randomDataset(300, 5, 20, new Random(42)).compact();
+    original.applyFeatureCountThreshold(5);
+    compacted.applyFeatureCountThreshold(5);
+    assertTrue(compacted.isCompact());
+    assertEquals(original.featureIndex(), compacted.featureIndex());
+    assertSameContents(original, compacted);
+  }
+
+  /** An estimate of the shallow size of a HashSet of the given label indices, with its backing HashMap */
+  private static long hashSetSizeInBytes(Set<Integer> labels) {
+    long bytes = 16 + 48;                                   // the HashSet, and its HashMap
+    if (!labels.isEmpty()) {
+      int capacity = 16;
+      while (labels.size() > capacity * 3 / 4) { capacity *= 2; }
+      bytes += 16 + 4 * capacity;                           // the table
+    }
+    for (Integer label : labels) {
+      bytes += 32;                                          // the entry
+      if (label < -128 || label > 127) { bytes += 16; }     // the boxed label, unless it's cached
+    }
+    return bytes;
+  }
+
+  /**
+   * An estimate of the heap size of the nested (uncompacted) form of a dataset: its feature arrays, its label sets and
+   * its gloss keys, counting an object header for every array, set, entry and string.
+   * Every count is a lower bound for a 64-bit JVM with compressed references, and compact (one byte per character)
+   * strings; the arrays' spare capacity and the indices are not counted.
+   */
+  private static long nestedSizeInBytes(KBPDataset<String, String> dataset) {
+    assertFalse(dataset.isCompact());
+    long bytes = 16 + 4L * dataset.size();                  // data
+    for (int i = 0; i < dataset.size(); ++i) {
+      bytes += 16 + 4L * dataset.data[i].length;            // the group
+      for (int[] sentence : dataset.data[i]) {
+        bytes += 16 + 4L * sentence.length;                 // each sentence
+      }
+    }
+    for (Set<Integer>[] labels : Arrays.asList(dataset.posLabels, dataset.negLabels, dataset.unkLabels, dataset.origPosLabels, dataset.origNegLabels)) {
+      if (labels == null) { continue; }
+      bytes += 16 + 4L * dataset.size();
+      for (int i = 0; i < dataset.size(); ++i) { bytes += hashSetSizeInBytes(labels[i]); }
+    }
+    bytes += 16 + 4L * dataset.size();                      // sentenceGlossKeys
+    Set<String> keysSeen = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (int i = 0; i < dataset.size(); ++i) {
+      if (dataset.sentenceGlossKeys[i] == null) { continue; }
+      bytes += 16 + 4L * dataset.sentenceGlossKeys[i].length;
+      for (String key : dataset.sentenceGlossKeys[i]) {
+        if (key != null && keysSeen.add(key)) { bytes += 24 + 16 + key.length(); }  // the String, and its bytes
+      }
+    }
+    return bytes;
+  }
+
+  @Test
+  public void testFlatStorageSize() {
+    // Sentence-level datums with few features each, which is where the per-object overhead dominates
+    KBPDataset<String, String> dataset = randomDataset(5000, 4, 6, new Random(42));
+    long numSentences = 0;
+    long numFeatures = 0;
+    Set<String> distinctKeys = new HashSet<>();
+    long numKeyBytes = 0;
+    for (int i = 0; i < dataset.size(); ++i) {
+      for (int[] sentence : dataset.getGroup(i)) {
+        numSentences += 1;
+        numFeatures += sentence.length;
+      }
+      if (dataset.getSentenceGlossKey(i) != null) {
+        for (String key : dataset.getSentenceGlossKey(i)) {
+          if (distinctKeys.add(key)) { numKeyBytes += key.length(); }
+        }
+      }
+    }
+    long nestedBytes = nestedSizeInBytes(dataset);
+    dataset.compact();
+    assertEquals(5000, dataset.size());
+    // Each feature costs 4 bytes; each sentence an offset and a gloss key id; each group two offsets and
+    // five one-word label sets; and each distinct gloss key its bytes and an offset.
+    // There is no per-object overhead: on the heap, each sentence alone would cost an array header.
+    long budget = 4 * numFeatures + 8 * numSentences + 48 * dataset.size() + numKeyBytes + 4 * distinctKeys.size() + 1024;
+    assertTrue(dataset.flat.sizeInBytes() >= 4 * numFeatures);
+    assertTrue(dataset.flat.sizeInBytes() + " > " + budget, dataset.flat.sizeInBytes() <= budget);
+    // ... and so the flat storage is at most a third of the nested form
+    assertTrue(nestedBytes + " < 3 * " + dataset.flat.sizeInBytes(), nestedBytes >= 3 * dataset.flat.sizeInBytes());
+  }
+}
@@ -0,0 +1,137 @@
+package edu.stanford.nlp.kbp.slotfilling.classify;
+
+import edu.stanford.nlp.util.Execution;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that counting, thresholding and shuffling a {@link KBPDataset} on several threads gives exactly
+ * what the original, sequential implementations did.
+ */
+public class KBPDatasetParallelTest {
+
+  private int threads;
+
+  @Before
+  public void setThreads() {
+    threads = Execution.threads;
+    Execution.threads = 4;
+  }
+
+  @After
+  public void resetThreads() {
+    Execution.threads = threads;
+  }
+
+  /** Shuffle the way {@link KBPDataset#randomize(int[][], int)} used to: one swap at a time */
+  private static <T> void sequentialShuffle(T[] array, int size, int randomSeed) {
+    Random rand = new Random(randomSeed);
+    for(int j = size - 1; j > 0; j --){
+      int randIndex = rand.nextInt(j);
+      T tmp = array[randIndex];
+      array[randIndex] = array[j];
+      array[j] = tmp;
+    }
+  }
+
+  /** Count features the way {@link KBPDataset#getFeatureCounts()} used to */
+  private static float[] sequentialCounts(int[][][] data, int numFeatures) {
+    float[] counts = new float[numFeatures];
+    for (int[][] group : data) {
+      for (int[] sentence : group) {
+        for (int feature : sentence) { counts[feature] += 1.0; }
+      }
+    }
+    return counts;
+  }
+
+  @Test
+  public void testFeatureCounts() {
+    KBPDataset<String, String> dataset = KBPDatasetCompactTest.randomDataset(50000, 4, 10, new Random(42));
+    float[] expected = sequentialCounts(dataset.getDataArray(), dataset.featureIndex().size());
+    assertArrayEquals(expected, dataset.getFeatureCounts(), 0.0f);
+    dataset.compact();
+    assertArrayEquals(expected, dataset.getFeatureCounts(), 0.0f);
+  }
+
+  @Test
+  public void testFeatureCountThreshold() {
+    KBPDataset<String, String> dataset = KBPDatasetCompactTest.randomDataset(50000, 4, 10, new Random(42));
+    int[][][] original = dataset.getDataArray().clone();
+    for (int i = 0; i < original.length; ++i) { original[i] = original[i].clone(); }  // thresholding replaces the sentences
+    List<String> originalFeatures = new ArrayList<>();
+    for (int f = 0; f < dataset.featureIndex().size(); ++f) { originalFeatures.add(dataset.featureIndex().get(f)); }
+    float[] counts = sequentialCounts(original, originalFeatures.size());
+    int threshold = 0;
+    for (float count : counts) { threshold += count; }
+    threshold /= counts.length;  // about half of the features fall below the mean count
+
+    dataset.applyFeatureCountThreshold(threshold);
+    // The surviving features keep their relative order
+    List<String> expectedFeatures = new ArrayList<>();
+    for (int f = 0; f < counts.length; ++f) {
+      if (counts[f] >= threshold) { expectedFeatures.add(originalFeatures.get(f)); }
+    }
+    assertTrue(expectedFeatures.size() < originalFeatures.size());
+    assertEquals(expectedFeatures.size(), dataset.featureIndex().size());
+    for (int f = 0; f < expectedFeatures.size(); ++f) { assertEquals(expectedFeatures.get(f), dataset.featureIndex().get(f)); }
+    // ...and every sentence keeps exactly its surviving features, in order
+    int[][][] thresholded = dataset.getDataArray();
+    for (int i = 0; i < original.length; ++i) {
+      for (int j = 0; j < original[i].length; ++j) {
+        List<String> expected = new ArrayList<>();
+        for (int feature : original[i][j]) {
+          if (counts[feature] >= threshold) { expected.add(originalFeatures.get(feature)); }
+        }
+        List<String> actual = new ArrayList<>();
+        for (int feature : thresholded[i][j]) { actual.add(dataset.featureIndex().get(feature)); }
+        assertEquals(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testRandomizeMatchesSequentialShuffle() {
+    KBPDataset<String, String> dataset = KBPDatasetCompactTest.randomDataset(50000, 4, 10, new Random(42));
+    dataset.finalizeLabels();
+    // (the array accessors return the dataset's own arrays, so copy them)
+    int[][][] data = dataset.getDataArray().clone();
+    Set<Integer>[] pos = dataset.getPositiveLabelsArray().clone();
+    Set<Integer>[] neg = dataset.getNegativeLabelsArray().clone();
+    Set<Integer>[] unk = dataset.getUnknownLabelsArray().clone();
+    int[][] zLabels = new int[dataset.size()][];
+    for (int i = 0; i < zLabels.length; ++i) { zLabels[i] = new int[]{ i }; }
+    int[][] expectedZLabels = zLabels.clone();
+    String[][] keys = new String[dataset.size()][];
+    for (int i = 0; i < keys.length; ++i) { keys[i] = dataset.getSentenceGlossKey(i); }
+
+    for (int seed : new int[]{ 7, 42 }) {
+      sequentialShuffle(data, data.length, seed);
+      sequentialShuffle(pos, pos.length, seed);
+      sequentialShuffle(neg, neg.length, seed);
+      sequentialShuffle(unk, unk.length, seed);
+      sequentialShuffle(expectedZLabels, expectedZLabels.length, seed);
+      dataset.randomize(zLabels, seed);
+      assertTrue(Arrays.deepEquals(data, dataset.getDataArray()));
+      assertArrayEquals(pos, dataset.getPositiveLabelsArray());
+      assertArrayEquals(neg, dataset.getNegativeLabelsArray());
+      assertArrayEquals(unk, dataset.getUnknownLabelsArray());
+      assertArrayEquals(expectedZLabels, zLabels);
+      // (as before, the sentence gloss keys stay where they are)
+      for (int i = 0; i < keys.length; ++i) { assertArrayEquals(keys[i], dataset.getSentenceGlossKey(i)); }
+    }
+
+    // Saved labels are shuffled along with everything else
+    dataset.randomize(3);
+    sequentialShuffle(data, data.length, 3);
+    sequentialShuffle(pos, pos.length, 3);
+    assertTrue(Arrays.deepEquals(data, dataset.getDataArray()));
+    dataset.restoreLabels();
+    assertArrayEquals(pos, dataset.getPositiveLabelsArray());
+  }
+}
@@ -0,0 +1,122 @@
+package edu.stanford.nlp.kbp.slotfilling.classify;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the sharded objective of the MIML-RE Z classifiers computes the right value and gradient,
+ * regardless of the number of shards.
+ */
+public class ParallelLogConditionalObjectiveFunctionTest {
+  private static final int NUM_FEATURES = 20;
+  private static final int NUM_CLASSES = 4;
+
+  private ExecutorService pool;
+  private int[][] data;
+  private int[] labels;
+  private double[] x;
+
+  @Before
+  public void setUp() {
+    pool = Executors.newFixedThreadPool(4);
+    Random rand = new Random(42);
+    data = new int[101][];
+    labels = new int[data.length];
+    for (int d = 0; d < data.length; ++d) {
+      data[d] = new int[1 + rand.nextInt(5)];
+      for (int f = 0; f < data[d].length; ++f) { data[d][f] = rand.nextInt(NUM_FEATURES); }
+      labels[d] = rand.nextInt(NUM_CLASSES);
+    }
+    x = new double[NUM_FEATURES * NUM_CLASSES];
+    for (int i = 0; i < x.length; ++i) { x[i] = rand.nextGaussian(); }
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  private ParallelLogConditionalObjectiveFunction objective(int numShards) {
+    return new ParallelLogConditionalObjectiveFunction(data, labels, NUM_FEATURES, NUM_CLASSES, 1.0, pool, numShards);
+  }
+
+  @Test
+  public void testValue() {
+    double expected = 0.0;
+    for (int d = 0; d < data.length; ++d) {
+      double[] scores = new double[NUM_CLASSES];
+      for (int feature : data[d]) {
+        for (int c = 0; c < NUM_CLASSES; ++c) { scores[c] += x[feature * NUM_CLASSES + c]; }
+      }
+      double total = 0.0;
+      for (double score : scores) { total += Math.exp(score); }
+      expected -= scores[labels[d]] - Math.log(total);
+    }
+    for (double w : x) { expected += w * w / 2.0; }
+    assertEquals(expected, objective(1).valueAt(x), 1e-8);
+  }
+
+  @Test
+  public void testGradientMatchesFiniteDifferences() {
+    ParallelLogConditionalObjectiveFunction objective = objective(3);
+    double[] gradient = objective.derivativeAt(x).clone();
+    double epsilon = 1e-5;
+    for (int i = 0; i < x.length; ++i) {
+      double[] plus = x.clone();
+      plus[i] += epsilon;
+      double[] minus = x.clone();
+      minus[i] -= epsilon;
+      double numeric = (objective.valueAt(plus) - objective.valueAt(minus)) / (2.0 * epsilon);
+      assertEquals(numeric, gradient[i], 1e-4);
+    }
+  }
+
+  @Test
+  public void testShardsAgree() {
+    ParallelLogConditionalObjectiveFunction single = objective(1);
+    double value = single.valueAt(x);
+    double[] gradient = single.derivativeAt(x).clone();
+    for (int numShards : new int[]{ 2, 3, 7, data.length, 1000 }) {
+      ParallelLogConditionalObjectiveFunction sharded = objective(numShards);
+      assertEquals(value, sharded.valueAt(x), 1e-8);
+      assertArrayEquals(gradient, sharded.derivativeAt(x), 1e-8);
+    }
+  }
+
+  @Test
+  public void testMinimizeWarmStart() {
+    double[][] fromZero = ParallelLogConditionalObjectiveFunction.minimize(data, labels, NUM_FEATURES, NUM_CLASSES, 1.0, 1e-6, null, 2);
+    double[][] warm = ParallelLogConditionalObjectiveFunction.minimize(data, labels, NUM_FEATURES, NUM_CLASSES, 1.0, 1e-6, fromZero, 3);
+    assertEquals(NUM_FEATURES, warm.length);
+    for (int f = 0; f < NUM_FEATURES; ++f) {
+      assertArrayEquals(fromZero[f], warm[f], 1e-3);
+    }
+  }
+
+  @Test
+  public void testWarmStartTakesFewerEvaluations() {
+    final int[] evaluations = new int[]{ 0 };
+    ParallelLogConditionalObjectiveFunction objective = new ParallelLogConditionalObjectiveFunction(data, labels, NUM_FEATURES, NUM_CLASSES, 1.0, pool, 3) {
+      @Override
+      protected void calculate(double[] x) {
+        evaluations[0] += 1;
+        super.calculate(x);
+      }
+    };
+    double[] fromZero = ParallelLogConditionalObjectiveFunction.minimize(objective, 1e-4, new double[NUM_FEATURES * NUM_CLASSES]);
+    int coldEvaluations = evaluations[0];
+    // Start next to the optimum, as the next epoch of EM would if the Z labels barely changed
+    double[] nearby = fromZero.clone();
+    for (int i = 0; i < nearby.length; ++i) { nearby[i] += 1e-3 * x[i]; }
+    evaluations[0] = 0;
+    ParallelLogConditionalObjectiveFunction.minimize(objective, 1e-4, nearby);
+    assertTrue(evaluations[0] + " warm vs " + coldEvaluations + " cold evaluations", evaluations[0] < coldEvaluations);
+  }
+}
@@ -0,0 +1,190 @@
+package edu.stanford.nlp.kbp.slotfilling.classify;
+
+import edu.stanford.nlp.classify.LinearClassifier;
+import edu.stanford.nlp.ie.machinereading.structure.RelationMention;
+import edu.stanford.nlp.kbp.common.*;
+import edu.stanford.nlp.kbp.slotfilling.ir.KBPRelationProvenance;
+import edu.stanford.nlp.ling.BasicDatum;
+import edu.stanford.nlp.math.ArrayMath;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.Execution;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests classifying batches of sentence groups: {@link RelationClassifier#parallelMap(int, java.util.function.IntFunction)},
+ * and the batched local classifiers of {@link JointBayesRelationExtractor} and {@link PerceptronExtractor},
+ * which should agree with classifying each sentence on its own.
+ */
+public class RelationClassifierBatchTest {
+  private static final String[] RELATIONS = {"per:title", "per:employee_of", "org:founded_by", RelationMention.UNRELATED};
+  private static final int NUM_FEATURES = 50;
+
+  private int originalThreads;
+
+  @Before
+  public void setUp() {
+    originalThreads = Execution.threads;
+    Execution.threads = 4;
+  }
+
+  @After
+  public void tearDown() {
+    Execution.threads = originalThreads;
+  }
+
+  private static List<Collection<String>> randomSentences(int count, Random rand) {
+    List<Collection<String>> sentences = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      Set<String> features = new HashSet<>();
+      int numFeatures = rand.nextInt(8);
+      // (including features the classifiers have never seen)
+      for (int f = 0; f < numFeatures; ++f) { features.add("feature_" + rand.nextInt(NUM_FEATURES + 10)); }
+      sentences.add(features);
+    }
+    return sentences;
+  }
+
+  private static void assertSameCounts(Counter<String> expected, Counter<String> actual) {
+    assertEquals(expected.keySet(), actual.keySet());
+    for (String key : expected.keySet()) { assertEquals(key, expected.getCount(key), actual.getCount(key), 1e-10); }
+  }
+
+  @Test
+  public void testParallelMapPreservesOrder() {
+    final AtomicIntegerArray calls = new AtomicIntegerArray(1000);
+    List<Integer> results = RelationClassifier.parallelMap(1000, i -> {
+      calls.incrementAndGet(i);
+      return i * i;
+    });
+    assertEquals(1000, results.size());
+    for (int i = 0; i < 1000; ++i) {
+      assertEquals(Integer.valueOf(i * i), results.get(i));
+      assertEquals(1, calls.get(i));
+    }
+  }
+
+  @Test
+  public void testParallelMapSequentialWithOneThread() {
+    Execution.threads = 1;
+    final Thread caller = Thread.currentThread();
+    List<Boolean> onCaller = RelationClassifier.parallelMap(100, i -> Thread.currentThread() == caller);
+    assertEquals(Collections.nCopies(100, true), onCaller);
+  }
+
+  @Test
+  public void testParallelMapPropagatesExceptions() {
+    try {
+      RelationClassifier.parallelMap(100, i -> {
+        if (i == 37) { throw new IllegalStateException("37"); }
+        return i;
+      });
+      fail("Expected the exception of fn(37)");
+    } catch (IllegalStateException e) {
+      assertEquals("37", e.getMessage());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testParallelMapNested() {
+    // Inner calls run on the shared pool's own threads, which must not wait on each other
+    List<List<Integer>> results = RelationClassifier.parallelMap(20, i -> RelationClassifier.parallelMap(20, j -> i * j));
+    for (int i = 0; i < 20; ++i) {
+      for (int j = 0; j < 20; ++j) { assertEquals(Integer.valueOf(i * j), results.get(i).get(j)); }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testJointBayesBatchLocalClassifier() {
+    Random rand = new Random(42);
+    Index<String> featureIndex = new HashIndex<>();
+    for (int f = 0; f < NUM_FEATURES; ++f) { featureIndex.add("feature_" + f); }
+    Index<String> labelIndex = new HashIndex<>(Arrays.asList(RELATIONS));
+    JointBayesRelationExtractor extractor = new JointBayesRelationExtractor(new Properties());
+    extractor.zClassifiers = new LinearClassifier[Props.TRAIN_JOINTBAYES_FOLDS];
+    for (int fold = 0; fold < extractor.zClassifiers.length; ++fold) {
+      double[][] weights = new double[featureIndex.size()][labelIndex.size()];
+      for (double[] featureWeights : weights) {
+        for (int l = 0; l < featureWeights.length; ++l) { featureWeights[l] = rand.nextGaussian(); }
+      }
+      extractor.zClassifiers[fold] = new LinearClassifier<>(weights, featureIndex, labelIndex);
+    }
+    Maybe<Function<Collection<String>, Counter<String>>> batch = extractor.batchLocalClassifier();
+    assertTrue(batch.isDefined());
+    for (Collection<String> sentence : randomSentences(200, rand)) {
+      assertSameCounts(extractor.classifyLocally(sentence), batch.get().apply(sentence));
+    }
+    // Classifiers which don't share their indices fall back to classifying each datum
+    extractor.zClassifiers[0] = new LinearClassifier<>(extractor.zClassifiers[0].weights(), new HashIndex<>(featureIndex.objectsList()), labelIndex);
+    assertFalse(extractor.batchLocalClassifier().isDefined());
+  }
+
+  private static PerceptronExtractor randomPerceptron(Random rand) throws IOException {
+    PerceptronExtractor extractor = new PerceptronExtractor(new Properties());
+    extractor.zFeatureIndex = new HashIndex<>();
+    for (int f = 0; f < NUM_FEATURES; ++f) { extractor.zFeatureIndex.add("feature_" + f); }
+    extractor.labelIndex = new HashIndex<>(Arrays.asList(RELATIONS));
+    extractor.nilIndex = extractor.labelIndex.indexOf(RelationMention.UNRELATED);
+    extractor.zWeights = new PerceptronExtractor.LabelWeights[RELATIONS.length];
+    for (int l = 0; l < RELATIONS.length; ++l) {
+      extractor.zWeights[l] = new PerceptronExtractor.LabelWeights(NUM_FEATURES);
+      for (int f = 0; f < NUM_FEATURES; ++f) { extractor.zWeights[l].avgWeights[f] = rand.nextGaussian(); }
+    }
+    return extractor;
+  }
+
+  @Test
+  public void testPerceptronLocalClassifier() throws IOException {
+    Random rand = new Random(42);
+    PerceptronExtractor extractor = randomPerceptron(rand);
+    Function<Collection<String>, Counter<String>> localClassifier = extractor.localClassifier();
+    for (Collection<String> sentence : randomSentences(200, rand)) {
+      // The softmax, as it used to be computed: one dot product and one normalizer per label
+      double[] scores = new double[RELATIONS.length];
+      double[] scaledScores = new double[RELATIONS.length];
+      for (int l = 0; l < RELATIONS.length; ++l) {
+        scores[l] = extractor.zWeights[l].avgDotProduct(sentence, extractor.zFeatureIndex);
+        scaledScores[l] = extractor.gamma * scores[l];
+      }
+      Counter<String> probs = localClassifier.apply(sentence);
+      assertEquals(new HashSet<>(Arrays.asList(RELATIONS)), probs.keySet());
+      for (int l = 0; l < RELATIONS.length; ++l) {
+        double expected = Math.exp((extractor.gamma * scores[l]) - ArrayMath.logSum(scaledScores));
+        assertEquals(expected, probs.getCount(extractor.labelIndex.get(l)), 1e-10);
+      }
+    }
+  }
+
+  @Test
+  public void testPerceptronBatchMatchesEachGroup() throws IOException {
+    Random rand = new Random(42);
+    PerceptronExtractor extractor = randomPerceptron(rand);
+    List<SentenceGroup> groups = new ArrayList<>();
+    List<Maybe<CoreMap[]>> rawSentences = new ArrayList<>();
+    int i = 0;
+    for (Collection<String> sentence : randomSentences(100, rand)) {
+      KBPair key = KBPNew.entName("entity " + i).entType(NERTag.PERSON).slotValue("slot " + i).KBPair();
+      groups.add(new SentenceGroup(key, new BasicDatum<String, String>(sentence), new KBPRelationProvenance("doc" + i, "index"), "key" + i));
+      rawSentences.add(Maybe.<CoreMap[]>Nothing());
+      i += 1;
+    }
+    List<Counter<Pair<String, Maybe<KBPRelationProvenance>>>> batch = extractor.classifyRelations(groups, rawSentences);
+    assertEquals(groups.size(), batch.size());
+    for (int g = 0; g < groups.size(); ++g) {
+      assertEquals(extractor.classifyRelations(groups.get(g), rawSentences.get(g)), batch.get(g));
+    }
+  }
+}
@@ -7,11 +7,9 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
+import static edu.stanford.nlp.util.logging.Redwood.Util.log;
 import static junit.framework.Assert.*;
 
 /**
@@ -145,6 +143,78 @@ public class GraphConsistencyPostProcessorsTest extends PostProcessorsData {
     assertFalse( filtered.get(julie).contains(fill(julie, RelationType.PER_EMPLOYEE_OF, "Stanford University", NERTag.ORGANIZATION, 0.8)) );
   }
 
+  /**
+   * Transitive completion and symmetric rewrites touch disjoint relations, and are fused into a single pass
+   * over the graph; this should produce the same graph as running them one after the other.
+   */
+  @Test
+  public void testFusedPassesOnLargeGraph() {
+    GraphConsistencyPostProcessor transitive = new GraphConsistencyPostProcessors.TransitiveRelationPostProcessor();
+    GraphConsistencyPostProcessor symmetric = new GraphConsistencyPostProcessors.SymmetricFunctionRewritePostProcessor();
+
+    long start = System.currentTimeMillis();
+    EntityGraph sequential = symmetric.postProcess(transitive.postProcess(largeGraph(2000)));
+    long sequentialTime = System.currentTimeMillis() - start;
+    start = System.currentTimeMillis();
+    EntityGraph fused = GraphConsistencyPostProcessor.all(transitive, symmetric).postProcess(largeGraph(2000));
+    long fusedTime = System.currentTimeMillis() - start;
+    log("sequential: " + sequentialTime + "ms; fused: " + fusedTime + "ms");
+
+    Map<KBPEntity, List<KBPSlotFill>> expected = sequential.toMap();
+    Map<KBPEntity, List<KBPSlotFill>> actual = fused.toMap();
+    assertEquals(expected.keySet(), actual.keySet());
+    for (KBPEntity entity : expected.keySet()) {
+      assertEquals(new HashSet<>(expected.get(entity)), new HashSet<>(actual.get(entity)));
+    }
+    assertEquals(sequential.getNumEdges(), fused.getNumEdges());
+  }
+
+  /**
+   * Adding an edge which already exists should merge it with the existing edge, not with itself.
+   */
+  @Test
+  public void testAddMergesExistingEdge() {
+    EntityGraph graph = new EntityGraph();
+    KBPSlotFill first = fill(julie, RelationType.PER_EMPLOYEE_OF, "Stanford", NERTag.ORGANIZATION, 0.5);
+    KBPEntity slot = first.key.getSlotEntity().orCrash();
+    graph.add(julie, slot, first);
+    graph.add(julie, slot, fill(julie, RelationType.PER_EMPLOYEE_OF, "Stanford", NERTag.ORGANIZATION, 0.2));
+    assertEquals(1, graph.getEdges(julie, slot).size());
+    assertEquals(0.6, graph.getEdges(julie, slot).get(0).score.orCrash(), 1e-5);
+
+    // Many merges on the same pair of vertices stay a single edge
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < 10000; ++i) {
+      graph.add(julie, slot, fill(julie, RelationType.PER_EMPLOYEE_OF, "Stanford", NERTag.ORGANIZATION, 0.0));
+    }
+    log("10000 merges: " + (System.currentTimeMillis() - start) + "ms");
+    assertEquals(1, graph.getEdges(julie, slot).size());
+    assertEquals(0.6, graph.getEdges(julie, slot).get(0).score.orCrash(), 1e-5);
+  }
+
+  /**
+   * A large graph of organizations, each with a chain of alternate names, a top employee, and that employee's spouse.
+   */
+  private EntityGraph largeGraph(int numOrganizations) {
+    EntityGraph graph = new EntityGraph();
+    for (int i = 0; i < numOrganizations; ++i) {
+      KBPEntity org = KBPNew.entName("Organization " + i).entType(NERTag.ORGANIZATION).KBPOfficialEntity();
+      KBPEntity head = org;
+      for (int k = 0; k < 3; ++k) {
+        KBPSlotFill altName = fill(head, RelationType.ORG_ALTERNATE_NAMES, "Organization " + i + " alias " + k, NERTag.ORGANIZATION, 0.9);
+        KBPEntity tail = altName.key.getSlotEntity().orCrash();
+        graph.add(head, tail, altName);
+        head = tail;
+      }
+      KBPSlotFill employee = fill(org, RelationType.ORG_TOP_MEMBERS_SLASH_EMPLOYEES, "Person " + i, NERTag.PERSON, 0.8);
+      KBPEntity person = employee.key.getSlotEntity().orCrash();
+      graph.add(org, person, employee);
+      KBPSlotFill spouse = fill(person, RelationType.PER_SPOUSE, "Spouse " + i, NERTag.PERSON, 0.7);
+      graph.add(person, spouse.key.getSlotEntity().orCrash(), spouse);
+    }
+    return graph;
+  }
+
   @Test
   public void testEntityMergingRegression1() {
     Lazy<EntityLinker> oldLinker = Props.ENTITYLINKING_LINKER;
@@ -310,6 +310,67 @@ public class HeuristicSlotfillPostProcessorsTest extends PostProcessorsData {
     assertTrue(filtered.get(stanford).contains(fill(stanford, RelationType.ORG_MEMBERS, "Stanford CS", 0.8)));
   }
 
+  @Test
+  public void testPairwiseScopes() {
+    assertTrue(new HeuristicSlotfillPostProcessor.Default().pairwiseScope().isEmpty());
+    assertFalse(new HeuristicSlotfillPostProcessor.Default().hasLeaveOneOutCheck());
+    assertEquals(EnumSet.of(HeuristicSlotfillPostProcessor.PairwiseScope.SAME_SLOT_VALUE),
+        new HeuristicSlotfillPostProcessors.NoDuplicates().pairwiseScope());
+    assertTrue(new HeuristicSlotfillPostProcessors.MitigateLocOfDeath().hasLeaveOneOutCheck());
+    // An unknown pairwise check could compare anything
+    HeuristicSlotfillPostProcessor custom = new HeuristicSlotfillPostProcessor.Default() {
+      @Override
+      public boolean pairwiseKeepLowerScoringFill(KBPEntity pivot, KBPSlotFill higherScoring, KBPSlotFill lowerScoring) {
+        return false;
+      }
+    };
+    assertEquals(EnumSet.of(HeuristicSlotfillPostProcessor.PairwiseScope.ANY), custom.pairwiseScope());
+    // Chained checks compare the union of their scopes
+    HeuristicSlotfillPostProcessor chained = (HeuristicSlotfillPostProcessor) new HeuristicSlotfillPostProcessors.NoDuplicates().and(
+        new HeuristicSlotfillPostProcessors.DuplicateRelationOnlyInListRelations()).and(new HeuristicSlotfillPostProcessors.MitigateLocOfDeath());
+    assertEquals(EnumSet.of(HeuristicSlotfillPostProcessor.PairwiseScope.SAME_SLOT_VALUE, HeuristicSlotfillPostProcessor.PairwiseScope.SAME_RELATION),
+        chained.pairwiseScope());
+    assertTrue(chained.hasLeaveOneOutCheck());
+  }
+
+  @Test
+  public void testConsistencyScalesToThousandsOfFills() {
+    // Count the pairwise comparisons (the chain asks its first check about every candidate pair)
+    final int[] comparisons = new int[]{ 0 };
+    SlotfillPostProcessor processor = new HeuristicSlotfillPostProcessors.NoDuplicates() {
+      @Override
+      public boolean pairwiseKeepLowerScoringFill(KBPEntity pivot, KBPSlotFill higherScoring, KBPSlotFill lowerScoring) {
+        comparisons[0] += 1;
+        return super.pairwiseKeepLowerScoringFill(pivot, higherScoring, lowerScoring);
+      }
+    }.and(new HeuristicSlotfillPostProcessors.DuplicateRelationOnlyInListRelations());
+    Map<Integer, Integer> comparisonsBySize = new HashMap<Integer, Integer>();
+    for (int numFills : new int[]{ 250, 500, 1000, 2000 }) {
+      // Every tenth fill is a distinct date of birth; the rest are titles, repeating every 200 fills
+      Map<KBPEntity, List<KBPSlotFill>> data = new HashMap<KBPEntity, List<KBPSlotFill>>();
+      data.put(julie, new ArrayList<KBPSlotFill>());
+      for (int i = 0; i < numFills; ++i) {
+        double score = 1.0 - ((double) i) / ((double) numFills);
+        if (i % 10 == 0) {
+          data.get(julie).add(fill(julie, RelationType.PER_DATE_OF_BIRTH, "date " + i, score));
+        } else {
+          data.get(julie).add(fill(julie, RelationType.PER_TITLE, "title " + (i % 200), score));
+        }
+      }
+      comparisons[0] = 0;
+      Map<KBPEntity, List<KBPSlotFill>> filtered = processor.postProcess(data);
+      comparisonsBySize.put(numFills, comparisons[0]);
+      // One date of birth, and one of each title
+      assertEquals(1 + Math.min(numFills, 200) * 9 / 10, filtered.get(julie).size());
+      assertTrue(filtered.get(julie).contains(fill(julie, RelationType.PER_DATE_OF_BIRTH, "date 0", 1.0)));
+      // Each fill is only compared against the kept fills it could conflict with, never against every other fill
+      assertTrue(comparisons[0] + " comparisons for " + numFills + " fills",
+          comparisons[0] <= numFills * filtered.get(julie).size());
+    }
+    // Once the set of kept fills stops growing, the number of comparisons grows linearly with the number of fills
+    assertTrue(comparisonsBySize.toString(), comparisonsBySize.get(2000) <= 2.5 * comparisonsBySize.get(1000));
+  }
+
   @Test
   public void testURLRewriteMatcher() {
     Matcher m = HeuristicSlotfillPostProcessors.FilterUnrelatedURL.baseURL.matcher("http://www.mass.gov/legis/member/bhj1.htm");
@@ -0,0 +1,308 @@
+package edu.stanford.nlp.kbp.slotfilling.evaluate.inference;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static edu.stanford.nlp.util.logging.Redwood.Util.warn;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the {@link BayesNetBuilder} grounds rules to the same instances as it did before rules were compiled
+ * into join orders; the old grounding is kept here, verbatim, as the reference.
+ */
+public class BayesNetBuilderGroundingTest {
+
+  /** A builder which records every rule instance it grounds, as a string */
+  private static class RecordingBuilder extends BayesNetBuilder {
+    final List<String> groundings = new ArrayList<>();
+
+    @Override
+    protected void registerRuleInstance(double logProbTrue, double logProbFalse, MLNText.Literal[] groundedLiterals) {
+      groundings.add(Arrays.toString(groundedLiterals));
+      super.registerRuleInstance(logProbTrue, logProbFalse, groundedLiterals);
+    }
+
+    List<String> ground(MLNText.Rule rule) {
+      groundings.clear();
+      registerRuleTemplate(rule, Math.log(0.8), Math.log(0.2));
+      List<String> sorted = new ArrayList<>(groundings);
+      Collections.sort(sorted);
+      return sorted;
+    }
+  }
+
+  /** A builder which grounds rules literal by literal, in the rule's order, as the builder used to */
+  private static class OldGroundingBuilder extends RecordingBuilder {
+    private final Map<String, MLNText.Predicate> predicates = new HashMap<>();
+    private final Map<String, Collection<String>> domains = new HashMap<>();
+    private final Map<MLNText.Predicate, List<MLNText.Literal>> closedWorldEvidence = new HashMap<>();
+
+    @Override
+    public BayesNetBuilder registerPredicate(MLNText.Predicate predicate) {
+      predicates.put(predicate.name, predicate);
+      if (predicate.closed && !closedWorldEvidence.containsKey(predicate)) { closedWorldEvidence.put(predicate, new ArrayList<>()); }
+      return super.registerPredicate(predicate);
+    }
+
+    @Override
+    public BayesNetBuilder registerDomain(String name) {
+      if (!domains.containsKey(name)) { domains.put(name, new HashSet<>()); }
+      return super.registerDomain(name);
+    }
+
+    @Override
+    public BayesNetBuilder registerDomain(String name, Collection<String> values) {
+      domains.put(name, values);
+      return super.registerDomain(name, values);
+    }
+
+    @Override
+    public BayesNetBuilder registerConstant(String typeName, String value) {
+      super.registerConstant(typeName, value);
+      domains.get(typeName).add(value);
+      return this;
+    }
+
+    @Override
+    public BayesNetBuilder registerEvidence(MLNText.Literal literal) {
+      closedWorldEvidence.get(predicates.get(literal.name)).add(literal);
+      return super.registerEvidence(literal);
+    }
+
+    @Override
+    protected BayesNetBuilder registerRuleTemplate(MLNText.Rule rule, double logProbTrue, double logProbFalse) {
+      MLNText.Literal[] literals = new MLNText.Literal[rule.literals.size()];
+      Map<String, String> binding = new HashMap<>();
+      registerRuleTemplateHelper(rule, logProbTrue, logProbFalse, literals, binding, 0);
+      return this;
+    }
+
+    private void registerRuleTemplateHelper(final MLNText.Rule rule, double logProbTrue, double logProbFalse, final MLNText.Literal[] groundedLiterals, final Map<String, String> binding, final int index) {
+      if (index >= groundedLiterals.length) {
+        registerRuleInstance(logProbTrue, logProbFalse, groundedLiterals);
+      } else {
+        // Try to bind this relation.
+        boolean[] backtrackBinding = {false, false};
+        MLNText.Literal literal = rule.literals.get(index);
+        MLNText.Predicate pred = predicates.get(literal.name);
+
+        if(pred.closed) {
+          // Go through all the evidence of this closed type and attempt to ground it.
+          for(MLNText.Literal groundedLiteral : closedWorldEvidence.get(pred) ) {
+            // Attempt to bind 1
+            if(isConstant(literal.arg1)) {
+              if(!groundedLiteral.arg1.equals(literal.arg1)) continue;
+            } else if(binding.containsKey(literal.arg1)) {
+              if(!groundedLiteral.arg1.equals(binding.get(literal.arg1))) continue;
+            } else {
+              backtrackBinding[0] = true;
+            }
+
+            if(isConstant(literal.arg2)) {
+              if(!groundedLiteral.arg2.equals(literal.arg2)) continue;
+            } else if(binding.containsKey(literal.arg2)) {
+              if(!groundedLiteral.arg2.equals(binding.get(literal.arg2))) continue;
+            } else {
+              backtrackBinding[1] = true;
+            }
+
+
+            if(backtrackBinding[0]) {
+              if(binding.containsValue(groundedLiteral.arg1)) continue;
+              binding.put(literal.arg1, groundedLiteral.arg1);
+            }
+            if(backtrackBinding[1]) {
+              if(binding.containsValue(groundedLiteral.arg2)) continue;
+              binding.put(literal.arg2, groundedLiteral.arg2);
+            }
+
+            // Store this as the current literal and proceed.
+            groundedLiterals[index] = literal.withArgs(groundedLiteral.arg1, groundedLiteral.arg2);
+            registerRuleTemplateHelper(rule, logProbTrue, logProbFalse, groundedLiterals, binding, index+1);
+            if(backtrackBinding[0])
+              binding.remove(literal.arg1);
+            if(backtrackBinding[1])
+              binding.remove(literal.arg2);
+          }
+        } else {
+          // Ground literals of index
+          String type1 = pred.type1;
+          String type2 = pred.type2;
+
+          // Error checking
+          if(domains.get(type1) == null) {
+            warn("No entities registered of type : " + type1 + "; see registerDomain()");
+            return;
+          }
+          if(domains.get(type2) == null) {
+            warn("No entities registered of type : " + type2 + "; see registerDomain()");
+            return;
+          }
+          // Is this variable bound?
+          Collection<String> candidates1;
+          if(isConstant(literal.arg1)) {// Capital letter => ground constant
+            candidates1 = Collections.singleton(literal.arg1);
+          } else if (binding.containsKey(literal.arg1)) {
+            candidates1 = Collections.singleton(binding.get(literal.arg1));
+          } else {
+            candidates1 = domains.get(type1);
+            backtrackBinding[0] = true;
+          }
+          Collection<String> candidates2;
+          if(isConstant(literal.arg2)) {// Capital letter => ground constant
+            candidates2 = Collections.singleton(literal.arg2);
+          } else if (binding.containsKey(literal.arg2)) {
+            candidates2 = Collections.singleton(binding.get(literal.arg2));
+          } else {
+            candidates2 = domains.get(type2);
+            backtrackBinding[1] = true;
+          }
+
+          for(String arg1 : candidates1) {
+            for(String arg2 : candidates2) {
+              // Make sure this is a valid pairing
+              if(validPairings.containsKey(arg1) && !validPairings.get(arg1).contains(arg2)) continue;
+
+              // Variable names are unique! so if you've bound this before, don't.
+              if(backtrackBinding[0]) {
+                if(binding.containsValue(arg1)) continue;
+                binding.put(literal.arg1, arg1);
+              }
+              if(backtrackBinding[1]) {
+                if(binding.containsValue(arg2)) continue;
+                binding.put(literal.arg2, arg2);
+              }
+
+              // Store this as the current literal and proceed.
+              groundedLiterals[index] = literal.withArgs(arg1, arg2);
+              // Recursive call -- eek intractable! Grounding is hard...
+              registerRuleTemplateHelper(rule, logProbTrue, logProbFalse, groundedLiterals, binding, index+1);
+              if(backtrackBinding[0])
+                binding.remove(literal.arg1);
+              if(backtrackBinding[1])
+                binding.remove(literal.arg2);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static MLNText.Literal lit(boolean truth, String name, String arg1, String arg2) {
+    return new MLNText.Literal(truth, name, arg1, arg2);
+  }
+
+  /** A small world of people, cities and countries, with evidence for where people live and which city is where */
+  private static <B extends RecordingBuilder> B world(B builder) {
+    builder.registerPredicate(new MLNText.Predicate(true, "livesIn", "PERSON", "CITY"));
+    builder.registerPredicate(new MLNText.Predicate(true, "cityOf", "CITY", "COUNTRY"));
+    builder.registerPredicate(new MLNText.Predicate(false, "bornIn", "PERSON", "CITY"));
+    builder.registerPredicate(new MLNText.Predicate(false, "citizenOf", "PERSON", "COUNTRY"));
+    builder.registerPredicate(new MLNText.Predicate(false, "spouse", "PERSON", "PERSON"));
+    builder.registerPredicate(new MLNText.Predicate(false, "knows", "PERSON", "PERSON"));
+    for (String person : Arrays.asList("Alice", "Bob", "Carol", "Dave")) { builder.registerConstant("PERSON", person); }
+    for (String city : Arrays.asList("Paris", "Lyon", "Berlin", "Boston")) { builder.registerConstant("CITY", city); }
+    for (String country : Arrays.asList("France", "Germany", "Usa")) { builder.registerConstant("COUNTRY", country); }
+    builder.registerEvidence(lit(true, "livesIn", "Alice", "Paris"));
+    builder.registerEvidence(lit(true, "livesIn", "Bob", "Berlin"));
+    builder.registerEvidence(lit(true, "livesIn", "Carol", "Paris"));
+    builder.registerEvidence(lit(false, "livesIn", "Dave", "Boston"));
+    builder.registerEvidence(lit(true, "cityOf", "Paris", "France"));
+    builder.registerEvidence(lit(true, "cityOf", "Lyon", "France"));
+    builder.registerEvidence(lit(true, "cityOf", "Berlin", "Germany"));
+    builder.registerEvidence(lit(true, "cityOf", "Boston", "Usa"));
+    // (no one pairs with themselves, and Dave only ever lived in Boston)
+    Map<String, Set<String>> validPairings = new HashMap<>();
+    validPairings.put("Alice", new HashSet<>(Arrays.asList("Bob", "Carol", "Paris", "Lyon", "France", "Germany")));
+    validPairings.put("Bob", new HashSet<>(Arrays.asList("Alice", "Berlin", "Germany")));
+    validPairings.put("Carol", new HashSet<>(Arrays.asList("Alice", "Dave", "Paris", "Lyon", "Berlin", "France", "Germany")));
+    validPairings.put("Dave", new HashSet<>(Arrays.asList("Boston", "Usa", "Carol")));
+    builder.setValidPairings(validPairings);
+    return builder;
+  }
+
+  private static final List<MLNText.Rule> RULES = Arrays.asList(
+      // closed evidence only
+      new MLNText.Rule(1.0, Arrays.asList(lit(false, "livesIn", "x", "y"), lit(false, "cityOf", "y", "z"), lit(true, "citizenOf", "x", "z"))),
+      // open literal before closed evidence, in the rule's order
+      new MLNText.Rule(1.0, Arrays.asList(lit(false, "bornIn", "x", "y"), lit(false, "cityOf", "y", "z"), lit(true, "citizenOf", "x", "z"))),
+      // a variable bound by an open literal, then joined against evidence by its second argument
+      new MLNText.Rule(1.0, Arrays.asList(lit(false, "spouse", "x", "y"), lit(false, "livesIn", "y", "c"), lit(true, "bornIn", "x", "c"))),
+      // constants, in both open and closed literals
+      new MLNText.Rule(1.0, Arrays.asList(lit(false, "livesIn", "x", "Paris"), lit(true, "citizenOf", "x", "France"))),
+      new MLNText.Rule(1.0, Arrays.asList(lit(false, "bornIn", "x", "Boston"), lit(false, "cityOf", "Boston", "z"), lit(true, "citizenOf", "x", "z"))),
+      new MLNText.Rule(1.0, Arrays.asList(lit(false, "citizenOf", "Alice", "z"), lit(true, "citizenOf", "x", "z")))
+  );
+
+  @Test
+  public void testGroundingsMatchOldBuilder() {
+    RecordingBuilder builder = world(new RecordingBuilder());
+    OldGroundingBuilder oldBuilder = world(new OldGroundingBuilder());
+    for (MLNText.Rule rule : RULES) {
+      List<String> expected = oldBuilder.ground(rule);
+      assertFalse(rule.toString(), expected.isEmpty());
+      assertEquals(rule.toString(), expected, builder.ground(rule));
+    }
+  }
+
+  @Test
+  public void testGroundingsRespectEvidenceAndPairings() {
+    RecordingBuilder builder = world(new RecordingBuilder());
+    List<String> groundings = builder.ground(RULES.get(0));
+    // Every grounding joins a piece of evidence -- including Dave's false livesIn -- with the country of its city
+    assertEquals(Arrays.asList(
+        "[!livesIn(Alice,Paris), !cityOf(Paris,France), citizenOf(Alice,France)]",
+        "[!livesIn(Bob,Berlin), !cityOf(Berlin,Germany), citizenOf(Bob,Germany)]",
+        "[!livesIn(Carol,Paris), !cityOf(Paris,France), citizenOf(Carol,France)]",
+        "[!livesIn(Dave,Boston), !cityOf(Boston,Usa), citizenOf(Dave,Usa)]"), groundings);
+    // Bob may only have been born in Berlin
+    for (String grounding : builder.ground(RULES.get(1))) {
+      if (grounding.contains("bornIn(Bob,")) { assertTrue(grounding, grounding.contains("bornIn(Bob,Berlin)")); }
+    }
+  }
+
+  /**
+   * A variable repeated within a literal takes the same value in both places.
+   * The old builder instead bound the variable twice, so it never grounded p(x,x) to p(a,a);
+   * what it produced instead depended on the iteration order of the domain.
+   */
+  @Test
+  public void testRepeatedVariableGroundsToSameValue() {
+    MLNText.Rule rule = new MLNText.Rule(1.0, Arrays.asList(lit(false, "knows", "x", "x"), lit(true, "citizenOf", "x", "z")));
+    List<String> expected = new ArrayList<>();
+    for (String person : Arrays.asList("Alice", "Bob", "Carol", "Dave")) {
+      for (String country : Arrays.asList("France", "Germany", "Usa")) {
+        expected.add("[!knows(" + person + "," + person + "), citizenOf(" + person + "," + country + ")]");
+      }
+    }
+    Collections.sort(expected);
+    RecordingBuilder builder = world(new RecordingBuilder());
+    builder.setValidPairings(new HashMap<>());
+    assertEquals(expected, builder.ground(rule));
+    // (the old builder never produced a reflexive grounding)
+    OldGroundingBuilder oldBuilder = world(new OldGroundingBuilder());
+    oldBuilder.setValidPairings(new HashMap<>());
+    for (String grounding : oldBuilder.ground(rule)) {
+      for (String person : Arrays.asList("Alice", "Bob", "Carol", "Dave")) {
+        assertFalse(grounding, grounding.contains("knows(" + person + "," + person + ")"));
+      }
+    }
+  }
+
+  /** Distinct variables still never take the same value */
+  @Test
+  public void testDistinctVariablesTakeDistinctValues() {
+    MLNText.Rule rule = new MLNText.Rule(1.0, Arrays.asList(lit(false, "knows", "x", "y"), lit(true, "spouse", "x", "y")));
+    RecordingBuilder builder = world(new RecordingBuilder());
+    builder.setValidPairings(new HashMap<>());
+    List<String> groundings = builder.ground(rule);
+    // (every ordered pair of different people)
+    assertEquals(4 * 3, groundings.size());
+    for (String grounding : groundings) {
+      for (String person : Arrays.asList("Alice", "Bob", "Carol", "Dave")) {
+        assertFalse(grounding, grounding.contains("knows(" + person + "," + person + ")"));
+      }
+    }
+  }
+}
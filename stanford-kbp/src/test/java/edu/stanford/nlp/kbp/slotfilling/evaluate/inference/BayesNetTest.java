@@ -196,6 +196,35 @@ public class BayesNetTest {
     assertEquals(expectedPositive, overlap);
   }
 
+  @Test
+  public void testBayesNetGibbsDeterministic() {
+    int oldThreads = Execution.threads;
+    Execution.threads = 4;
+    try {
+      for (boolean checkConvergence : new boolean[]{ false, true }) {
+        Set<MLNText.Literal> first = null;
+        for (int run = 0; run < 3; ++run) {
+          Set<MLNText.Literal> inferredPositive = new BayesNetBuilder()
+              .registerPredicate(new MLNText.Predicate("likes", "PERSON", "COUNTRY"))
+              .registerPredicate(new MLNText.Predicate("origin", "PERSON", "COUNTRY"))
+              .registerPredicate(new MLNText.Predicate("welcomes home", "COUNTRY", "PERSON"))
+              .addRule(singleton(0.29, "Julie:PER", "likes", "Canada:CRY"))
+              .addRule(singleton(0.29, "Canada:CRY", "welcomes home", "Julie:PER"))
+              .addRule(singleton(0.99, "Julie:PER", "origin", "Canada:CRY"))
+              .addRule(binary(0.9, "Julie:PER", "origin", "Canada:CRY", "Julie:PER", "likes", "Canada:CRY"))
+              .addRule(binary(0.9, "Julie:PER", "likes", "Canada:CRY", "Canada:CRY", "welcomes home", "Julie:PER"))
+              .paramCheckConvergence(checkConvergence)
+              .build().gibbsMAP(10000).keySet();
+          if (first == null) { first = inferredPositive; }
+          assertEquals(first, inferredPositive);
+        }
+        assertTrue(first.contains(triple("Canada:CRY", "welcomes home", "Julie:PER")));
+      }
+    } finally {
+      Execution.threads = oldThreads;
+    }
+  }
+
   @Test
   public void testBayesNetChainRuleInference() {
     // Simple case
@@ -0,0 +1,218 @@
+package edu.stanford.nlp.kbp.slotfilling.ir;
+
+import edu.stanford.nlp.kbp.common.*;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.IterableIterator;
+import edu.stanford.nlp.util.Pair;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the indices of the KnowledgeBase
+ */
+public class KnowledgeBaseTest {
+
+  private static KBPSlotFill fill(String entity, String relation, String slotValue) {
+    return KBPNew.entName(entity).entType(NERTag.PERSON).slotValue(slotValue).rel(relation).slotType(NERTag.CITY).KBPSlotFill();
+  }
+
+  private static KnowledgeBase mkKB() {
+    KnowledgeBase kb = new KnowledgeBase();
+    kb.put(fill("Barack Obama", "per:city_of_birth", "Honolulu"));
+    kb.put(fill("Barack Obama", "per:cities_of_residence", "Honolulu"));
+    kb.put(fill("Barack Obama", "per:cities_of_residence", "Chicago"));
+    kb.put(fill("Bruno Mars", "per:city_of_birth", "Honolulu"));
+    return kb;
+  }
+
+  @Test
+  public void testContains() {
+    KnowledgeBase kb = mkKB();
+    assertTrue(kb.contains(fill("Barack Obama", "per:city_of_birth", "Honolulu").key));
+    assertTrue(kb.contains(fill("Barack Obama", "per:cities_of_residence", "Chicago").key));
+    assertFalse(kb.contains(fill("Barack Obama", "per:city_of_birth", "Chicago").key));
+    assertFalse(kb.contains(fill("Bruno Mars", "per:cities_of_residence", "Honolulu").key));
+    assertFalse(kb.contains(fill("Nobody", "per:city_of_birth", "Honolulu").key));
+  }
+
+  @Test
+  public void testContainsPair() {
+    KnowledgeBase kb = mkKB();
+    assertTrue(kb.contains(KBPNew.from(fill("Barack Obama", "per:city_of_birth", "Chicago").key).KBPair()));
+    assertFalse(kb.contains(KBPNew.from(fill("Bruno Mars", "per:city_of_birth", "Chicago").key).KBPair()));
+  }
+
+  @Test
+  public void testLookups() {
+    KnowledgeBase kb = mkKB();
+    KBPEntity obama = KBPNew.entName("Barack Obama").entType(NERTag.PERSON).KBPEntity();
+    assertEquals(2, kb.getByRelation(obama, "per:cities_of_residence").size());
+    assertEquals(1, kb.getByRelation(obama, "per:city_of_birth").size());
+    assertEquals(0, kb.getByRelation(obama, "per:spouse").size());
+    assertEquals(2, kb.getBySlotValue(obama, "Honolulu").size());
+    assertEquals(2, kb.getBySlotValueAndRelation("Honolulu", "per:city_of_birth").size());
+    assertEquals(0, kb.getBySlotValueAndRelation("Chicago", "per:city_of_birth").size());
+  }
+
+  @Test
+  public void testDuplicatesNotIndexedTwice() {
+    KnowledgeBase kb = mkKB();
+    kb.put(fill("Barack Obama", "per:city_of_birth", "Honolulu"));
+    KBPEntity obama = KBPNew.entName("Barack Obama").entType(NERTag.PERSON).KBPEntity();
+    assertEquals(1, kb.getByRelation(obama, "per:city_of_birth").size());
+    assertEquals(3, kb.get(obama).get().size());
+  }
+
+  @Test
+  public void testFreeze() {
+    KnowledgeBase kb = mkKB().freeze();
+    assertTrue(kb.isFrozen);
+    assertTrue(kb.contains(fill("Barack Obama", "per:city_of_birth", "Honolulu").key));
+    assertEquals(2, kb.getBySlotValueAndRelation("Honolulu", "per:city_of_birth").size());
+    assertEquals(kb, kb.freeze());
+    try {
+      kb.put(fill("Barack Obama", "per:spouse", "Michelle Obama"));
+      fail("Should not be able to add to a frozen knowledge base");
+    } catch (UnsupportedOperationException ignored) { }
+    // ... nor to modify its fills directly
+    KBPEntity obama = KBPNew.entName("Barack Obama").entType(NERTag.PERSON).KBPEntity();
+    try {
+      kb.data.remove(obama);
+      fail("Should not be able to remove from a frozen knowledge base");
+    } catch (UnsupportedOperationException ignored) { }
+    try {
+      kb.data.get(obama).clear();
+      fail("Should not be able to remove from a frozen knowledge base");
+    } catch (UnsupportedOperationException ignored) { }
+    try {
+      kb.get(obama).get().add(fill("Barack Obama", "per:spouse", "Michelle Obama"));
+      fail("Should not be able to add to a frozen knowledge base");
+    } catch (UnsupportedOperationException ignored) { }
+    try {
+      kb.dataByName.put("Michelle Obama", new HashSet<>());
+      fail("Should not be able to add to a frozen knowledge base");
+    } catch (UnsupportedOperationException ignored) { }
+    assertEquals(3, kb.get(obama).get().size());
+    // The original is untouched, and still modifiable
+    KnowledgeBase original = mkKB();
+    original.freeze();
+    original.put(fill("Barack Obama", "per:spouse", "Michelle Obama"));
+    assertEquals(4, original.get(obama).get().size());
+  }
+
+  @Test
+  public void testSnapshotRoundTrip() throws IOException {
+    File file = File.createTempFile("kb", ".snapshot.gz");
+    file.deleteOnExit();
+    KnowledgeBase kb = mkKB();
+    kb.put(KBPNew.entName("Bruno Mars").entType(NERTag.PERSON).entId("E0001").slotValue("singer").rel("per:title").KBPSlotFill());
+    kb.writeSnapshot(file, "key");
+    KnowledgeBase reread = KnowledgeBase.readSnapshot(file, "key").get();
+    assertEquals(kb.triples(), reread.triples());
+    assertEquals(new ArrayList<>(kb.data.keySet()), new ArrayList<>(reread.data.keySet()));
+    assertTrue(reread.contains(fill("Barack Obama", "per:cities_of_residence", "Chicago").key));
+    assertFalse(KnowledgeBase.readSnapshot(file, "otherkey").isDefined());
+  }
+
+  /** An IR with no documents, whose knowledge base fails to load with the given error */
+  private static KBPIR failingIR(final Error error, final CountDownLatch loading, final AtomicInteger numLoads) {
+    return new KBPIR() {
+      @Override
+      protected KnowledgeBase readKnowledgeBase() {
+        numLoads.incrementAndGet();
+        try {
+          loading.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        throw error;
+      }
+      @Override
+      protected <E extends CoreMap> List<E> queryCoreMaps(String tableName, Class<E> expectedOutput, KBPEntity entity, Maybe<KBPEntity> slotValue, Maybe<String> relation, Set<String> docidsToForce, int maxDocuments, boolean officialIndexOnly) {
+        return Collections.EMPTY_LIST;
+      }
+      @Override
+      public Annotation fetchDocument(String docId, boolean officialIndexOnly) {
+        return new Annotation("");
+      }
+      @Override
+      public int queryNumHits(Collection<String> terms) {
+        return 0;
+      }
+      @Override
+      public Stream<Annotation> slurpDocuments(int maxDocuments) {
+        return Stream.empty();
+      }
+      @Override
+      protected List<String> queryDocIDs(String entityName, Maybe<NERTag> entityType, Maybe<String> relation, Maybe<String> slotValue, Maybe<NERTag> slotValueType, int maxDocuments, boolean officialIndexOnly) {
+        return Collections.EMPTY_LIST;
+      }
+      @Override
+      public Set<String> getKnownRelationsForPair(KBPair pair) {
+        return Collections.EMPTY_SET;
+      }
+      @Override
+      public List<KBPSlotFill> getKnownSlotFillsForEntity(KBPEntity entity) {
+        return Collections.EMPTY_LIST;
+      }
+      @Override
+      public IterableIterator<Pair<Annotation, Double>> queryKeywords(Collection<String> words, Maybe<Integer> maxDocs) {
+        return new IterableIterator<Pair<Annotation, Double>>(Collections.EMPTY_LIST.iterator());
+      }
+    };
+  }
+
+  @Test(timeout = 60000)
+  public void testLoadErrorReachesEveryCaller() throws InterruptedException {
+    final Error error = new Error("simulated failure to load the knowledge base");
+    final CountDownLatch loading = new CountDownLatch(1);
+    final AtomicInteger numLoads = new AtomicInteger(0);
+    final KBPIR ir = failingIR(error, loading, numLoads);
+    // A caller waiting on the load gets the error too, rather than waiting forever
+    final AtomicReference<Throwable> waiterSaw = new AtomicReference<>();
+    Thread waiter = new Thread(() -> {
+      try {
+        ir.getKnowledgeBase();
+      } catch (Throwable t) {
+        waiterSaw.set(t);
+      }
+    });
+    Thread loader = new Thread(() -> {
+      while (numLoads.get() == 0) { Thread.yield(); }
+      waiter.start();
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException ignored) { }
+      loading.countDown();
+    });
+    loader.start();
+    try {
+      ir.getKnowledgeBase();
+      fail("Expected the error of the load");
+    } catch (Error e) {
+      assertSame(error, e);
+    }
+    loader.join();
+    waiter.join();
+    assertSame(error, waiterSaw.get());
+    // The next caller tries again
+    int loadsSoFar = numLoads.get();
+    try {
+      ir.getKnowledgeBase();
+      fail("Expected the error of the load");
+    } catch (Error e) {
+      assertSame(error, e);
+    }
+    assertEquals(loadsSoFar + 1, numLoads.get());
+  }
+}
@@ -0,0 +1,139 @@
+package edu.stanford.nlp.kbp.slotfilling.ir.query;
+
+import edu.stanford.nlp.kbp.common.Maybe;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the checkpointing logic in the CorpusScanner, and that an interrupted scan resumes where it left off
+ */
+public class CorpusScannerTest {
+
+  @Test
+  public void testCheckpointMergesAdjacentRanges() {
+    CorpusScanner.Checkpoint checkpoint = new CorpusScanner.Checkpoint();
+    checkpoint.markDone(0, 10);
+    checkpoint.markDone(20, 30);
+    assertEquals(2, checkpoint.numRanges());
+    checkpoint.markDone(10, 20);
+    assertEquals(1, checkpoint.numRanges());
+    assertEquals(30, checkpoint.numDone());
+    assertTrue(checkpoint.isDone(0, 30));
+  }
+
+  @Test
+  public void testCheckpointOutOfOrder() {
+    CorpusScanner.Checkpoint checkpoint = new CorpusScanner.Checkpoint();
+    checkpoint.markDone(30, 40);
+    checkpoint.markDone(10, 20);
+    checkpoint.markDone(0, 5);
+    assertTrue(checkpoint.isDone(10, 20));
+    assertTrue(checkpoint.isDone(12, 15));
+    assertFalse(checkpoint.isDone(5, 10));
+    assertFalse(checkpoint.isDone(15, 25));
+    checkpoint.markDone(5, 30);
+    assertEquals(1, checkpoint.numRanges());
+    assertTrue(checkpoint.isDone(0, 40));
+    assertFalse(checkpoint.isDone(0, 41));
+  }
+
+  @Test
+  public void testCheckpointSaveLoad() throws IOException {
+    File file = File.createTempFile("scan", ".checkpoint");
+    file.deleteOnExit();
+    CorpusScanner.Checkpoint checkpoint = new CorpusScanner.Checkpoint();
+    checkpoint.markDone(0, 1000);
+    checkpoint.markDone(2000, 3000);
+    checkpoint.save(file);
+    CorpusScanner.Checkpoint reread = CorpusScanner.Checkpoint.load(file);
+    assertEquals(2, reread.numRanges());
+    assertEquals(2000, reread.numDone());
+    assertTrue(reread.isDone(2000, 3000));
+    assertFalse(reread.isDone(1000, 2000));
+  }
+
+  @Test
+  public void testMissingCheckpointIsEmpty() throws IOException {
+    CorpusScanner.Checkpoint checkpoint = CorpusScanner.Checkpoint.load(new File("/tmp/this_checkpoint_does_not_exist"));
+    assertEquals(0, checkpoint.numRanges());
+  }
+
+  /** A corpus of documents whose text is their doc id, with every seventh document deleted */
+  private static final CorpusScanner.DocumentSource CORPUS = new CorpusScanner.DocumentSource() {
+    @Override
+    public int maxDoc() { return 100; }
+    @Override
+    public boolean isLive(int docId) { return docId % 7 != 3; }
+    @Override
+    public Maybe<Annotation> fetch(int docId) { return Maybe.Just(new Annotation(Integer.toString(docId))); }
+  };
+
+  private static int docId(Annotation doc) {
+    return Integer.parseInt(doc.get(CoreAnnotations.TextAnnotation.class));
+  }
+
+  @Test
+  public void testScanResumesFromCheckpoint() throws IOException {
+    File dir = Files.createTempDirectory("scan").toFile();
+    File file = CorpusScanner.checkpointFile(dir, new File("/index/test_index"), "featurize_table");
+    CorpusScanner scanner = new CorpusScanner(null, CORPUS, 1, 1, 10, Maybe.Just(file));
+
+    // Die part way through the third chunk
+    final Set<Integer> firstPass = Collections.synchronizedSet(new HashSet<>());
+    scanner.forEach(Integer.MAX_VALUE, doc -> {
+      if (docId(doc) == 25) { throw new Error("died"); }
+      firstPass.add(docId(doc));
+    });
+    assertTrue(file.exists());
+    CorpusScanner.Checkpoint checkpoint = CorpusScanner.Checkpoint.load(file);
+    assertTrue(checkpoint.isDone(0, 20));
+    assertFalse(checkpoint.isDone(20, 30));
+
+    // Resume, with the rest of the corpus and only the rest of the corpus
+    final List<Integer> secondPass = Collections.synchronizedList(new ArrayList<>());
+    new CorpusScanner(null, CORPUS, 3, 1, 10, Maybe.Just(file)).forEach(Integer.MAX_VALUE, doc -> secondPass.add(docId(doc)));
+    Set<Integer> expected = new HashSet<>();
+    for (int id = 20; id < 100; ++id) { if (CORPUS.isLive(id)) { expected.add(id); } }
+    assertEquals(expected.size(), secondPass.size());
+    assertEquals(expected, new HashSet<>(secondPass));
+    for (int id = 0; id < 20; ++id) { assertEquals(CORPUS.isLive(id), firstPass.contains(id)); }
+
+    // A finished scan leaves no checkpoint behind, so the next scan starts over
+    assertFalse(file.exists());
+    final List<Integer> thirdPass = Collections.synchronizedList(new ArrayList<>());
+    new CorpusScanner(null, CORPUS, 2, 1, 10, Maybe.Just(file)).forEach(50, doc -> thirdPass.add(docId(doc)));
+    assertEquals(43, thirdPass.size());
+    assertFalse(file.exists());
+    assertTrue(dir.delete());
+  }
+
+  @Test
+  public void testCheckpointKeyedByJobAndIndex() {
+    File dir = new File("/tmp/checkpoints");
+    File index = new File("/index/test_index");
+    assertEquals(new File(dir, "test_index.featurize_table.checkpoint"), CorpusScanner.checkpointFile(dir, index, "featurize_table"));
+    assertFalse(CorpusScanner.checkpointFile(dir, index, "featurize_table").equals(CorpusScanner.checkpointFile(dir, index, "featurize_other")));
+    assertFalse(CorpusScanner.checkpointFile(dir, index, "job").equals(CorpusScanner.checkpointFile(dir, new File("/index/other_index"), "job")));
+    // (jobs can't escape the checkpoint directory)
+    assertEquals(dir, CorpusScanner.checkpointFile(dir, index, "../../etc/job").getParentFile());
+  }
+
+  @Test
+  public void testStreamSeesEveryDocumentOnce() {
+    CorpusScanner scanner = new CorpusScanner(null, CORPUS, 4, 2, 10, Maybe.<File>Nothing());
+    List<Integer> seen = new ArrayList<>();
+    scanner.stream(Integer.MAX_VALUE).forEach(doc -> seen.add(docId(doc)));
+    Set<Integer> expected = new HashSet<>();
+    for (int id = 0; id < 100; ++id) { if (CORPUS.isLive(id)) { expected.add(id); } }
+    assertEquals(expected.size(), seen.size());
+    assertEquals(expected, new HashSet<>(seen));
+  }
+}
@@ -10,6 +10,8 @@ import edu.stanford.nlp.util.IterableIterator;
 import edu.stanford.nlp.util.Pair;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Stream;
 
@@ -308,4 +310,56 @@ public class MineInferentialPathsTest {
         }}),
     1e-5);
   }
+
+  @Test
+  public void testSingleThreadedExtraction() {
+    EntityGraph graph = new EntityGraph();
+    graph.add(julie, canada, KBPNew.from(julie).slotValue(canada).rel(RelationType.PER_COUNTRY_OF_BIRTH).KBPSlotFill());
+    graph.add(canada, gabor, KBPNew.from(canada).slotValue(gabor).rel(RelationType.ORG_FOUNDED_BY).KBPSlotFill());
+    graph.add(gabor, stanford, KBPNew.from(gabor).slotValue(stanford).rel(RelationType.PER_EMPLOYEE_OF).KBPSlotFill());
+
+    Counter<List<KBTriple>> threaded = MineInferentialPaths.extractAllFormulas(graph, dummyIR, 4);
+    Counter<List<KBTriple>> local = MineInferentialPaths.extractAllFormulas(graph, dummyIR, 1);
+    assertEquals(threaded, local);
+  }
+
+  @Test
+  public void testCheckpoint() throws IOException {
+    File file = File.createTempFile("mined", ".checkpoint");
+    assertTrue(file.delete());
+    try {
+      MineInferentialPaths.Checkpoint checkpoint = new MineInferentialPaths.Checkpoint(file, "table=formulas cutoff=0.0");
+      assertEquals(0, checkpoint.size());
+      checkpoint.record(Arrays.asList(julie, stanford));
+      assertTrue(checkpoint.contains(julie));
+      assertFalse(checkpoint.contains(arun));
+      checkpoint.record(Collections.singletonList(arun));
+
+      // Resume
+      MineInferentialPaths.Checkpoint resumed = new MineInferentialPaths.Checkpoint(file, "table=formulas cutoff=0.0");
+      assertEquals(3, resumed.size());
+      assertTrue(resumed.contains(julie));
+      assertTrue(resumed.contains(stanford));
+      assertTrue(resumed.contains(arun));
+      assertFalse(resumed.contains(gabor));
+      assertFalse(resumed.contains(KBPNew.entName("Stanford").entType(NERTag.PERSON).KBPEntity()));
+
+      // A run with different inputs can't resume from this checkpoint
+      try {
+        new MineInferentialPaths.Checkpoint(file, "table=other_formulas cutoff=0.0");
+        fail("Resumed from the checkpoint of a different run");
+      } catch (IllegalStateException ignored) { }
+    } finally {
+      assertTrue(file.delete());
+    }
+  }
+
+  @Test
+  public void testNoCheckpoint() throws IOException {
+    MineInferentialPaths.Checkpoint checkpoint = new MineInferentialPaths.Checkpoint();
+    assertEquals(0, checkpoint.size());
+    checkpoint.record(Arrays.asList(julie, stanford));
+    assertTrue(checkpoint.contains(julie));
+    assertEquals(2, checkpoint.size());
+  }
 }
@@ -0,0 +1,209 @@
+package edu.stanford.nlp.kbp.slotfilling.shallowdive;
+
+import edu.stanford.nlp.kbp.common.*;
+import edu.stanford.nlp.kbp.slotfilling.ir.KBPIR;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.IterableIterator;
+import edu.stanford.nlp.util.Pair;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the passes of {@link TextOps} over every sentence of the corpus: the per-worker resources,
+ * and the delivery of each document's usable sentences.
+ */
+public class TextOpsTest {
+
+  /** An IR whose only documents are the given ones, scanned in parallel */
+  private static KBPIR documentIR(final List<Annotation> documents) {
+    return new KBPIR() {
+      @Override
+      protected <E extends CoreMap> List<E> queryCoreMaps(String tableName, Class<E> expectedOutput, KBPEntity entity, Maybe<KBPEntity> slotValue, Maybe<String> relation, Set<String> docidsToForce, int maxDocuments, boolean officialIndexOnly) {
+        return Collections.EMPTY_LIST;
+      }
+      @Override
+      public Annotation fetchDocument(String docId, boolean officialIndexOnly) {
+        return new Annotation("");
+      }
+      @Override
+      public int queryNumHits(Collection<String> terms) {
+        return 1;
+      }
+      @Override
+      public Stream<Annotation> slurpDocuments(int maxDocuments) {
+        return documents.parallelStream().limit(maxDocuments);
+      }
+      @Override
+      protected List<String> queryDocIDs(String entityName, Maybe<NERTag> entityType, Maybe<String> relation, Maybe<String> slotValue, Maybe<NERTag> slotValueType, int maxDocuments, boolean officialIndexOnly) {
+        return Collections.EMPTY_LIST;
+      }
+      @Override
+      public Set<String> getKnownRelationsForPair(KBPair pair) {
+        return Collections.EMPTY_SET;
+      }
+      @Override
+      public List<KBPSlotFill> getKnownSlotFillsForEntity(KBPEntity entity) {
+        return Collections.EMPTY_LIST;
+      }
+      @Override
+      public IterableIterator<Pair<Annotation, Double>> queryKeywords(Collection<String> words, Maybe<Integer> maxDocs) {
+        return new IterableIterator<Pair<Annotation, Double>>(Collections.EMPTY_LIST.iterator());
+      }
+    };
+  }
+
+  private static CoreMap sentence(String text, int numTokens, boolean parsed) {
+    List<CoreLabel> tokens = new ArrayList<>();
+    for (int i = 0; i < numTokens; ++i) {
+      CoreLabel token = new CoreLabel();
+      token.setWord("w" + i);
+      tokens.add(token);
+    }
+    CoreMap sentence = new ArrayCoreMap();
+    sentence.set(CoreAnnotations.TextAnnotation.class, text);
+    sentence.set(CoreAnnotations.TokensAnnotation.class, tokens);
+    if (parsed) { sentence.set(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class, new SemanticGraph()); }
+    return sentence;
+  }
+
+  /**
+   * Documents of a few sentences each. The text of each usable sentence is added to the given set;
+   * the rest are too long, or have no dependency parse, and should never be seen.
+   */
+  private static List<Annotation> documents(int numDocuments, Set<String> usableSentences) {
+    Random rand = new Random(42);
+    List<Annotation> documents = new ArrayList<>();
+    for (int d = 0; d < numDocuments; ++d) {
+      List<CoreMap> sentences = new ArrayList<>();
+      List<CoreLabel> tokens = new ArrayList<>();
+      int numSentences = rand.nextInt(6);
+      for (int s = 0; s < numSentences; ++s) {
+        String text = "doc" + d + " sentence" + s;
+        int kind = rand.nextInt(5);
+        CoreMap sentence = sentence(text, kind == 0 ? 51 : 1 + rand.nextInt(20), kind != 1);
+        if (kind > 1) { usableSentences.add(text); }
+        sentences.add(sentence);
+        tokens.addAll(sentence.get(CoreAnnotations.TokensAnnotation.class));
+      }
+      Annotation document = new Annotation("");
+      document.set(CoreAnnotations.DocIDAnnotation.class, "doc" + d);
+      document.set(CoreAnnotations.TokensAnnotation.class, tokens);
+      document.set(CoreAnnotations.SentencesAnnotation.class, sentences);
+      documents.add(document);
+    }
+    return documents;
+  }
+
+  @Test
+  public void testWorkerResourceOnePerThread() throws InterruptedException {
+    final AtomicInteger numCreated = new AtomicInteger(0);
+    final TextOps.WorkerResource<Object> resource = new TextOps.WorkerResource<>(() -> {
+      numCreated.incrementAndGet();
+      return new Object();
+    });
+    final Set<Object> seen = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    final AtomicInteger numChanged = new AtomicInteger(0);
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < 8; ++t) {
+      workers.add(new Thread(() -> {
+        Object mine = resource.get();
+        for (int i = 0; i < 100; ++i) {
+          if (resource.get() != mine) { numChanged.incrementAndGet(); }
+        }
+        seen.add(mine);
+      }));
+    }
+    for (Thread worker : workers) { worker.start(); }
+    for (Thread worker : workers) { worker.join(); }
+    // One resource per worker, which doesn't change
+    assertEquals(0, numChanged.get());
+    assertEquals(8, numCreated.get());
+    assertEquals(8, seen.size());
+    assertEquals(seen, new HashSet<>(resource.created()));
+    // Clearing drops every resource; asking again creates a new one
+    resource.clear();
+    assertTrue(resource.created().isEmpty());
+    Object fresh = resource.get();
+    assertFalse(seen.contains(fresh));
+    assertEquals(9, numCreated.get());
+    assertEquals(Collections.singletonList(fresh), new ArrayList<>(resource.created()));
+  }
+
+  @Test
+  public void testBatchCallbackSeesEverySentenceOnce() {
+    Set<String> usableSentences = new HashSet<>();
+    List<Annotation> documents = documents(500, usableSentences);
+    TextOps ops = new TextOps(documentIR(documents), null, null, Collections.emptySet());
+
+    // (the pass logs, rather than throws, errors from the callback; so, count them)
+    final AtomicInteger numErrors = new AtomicInteger(0);
+    final Map<String, AtomicInteger> timesSeen = new ConcurrentHashMap<>();
+    final Map<String, AtomicInteger> documentsSeen = new ConcurrentHashMap<>();
+    final TextOps.WorkerResource<Thread> resource = new TextOps.WorkerResource<>(Thread::currentThread);
+    ops.applyToEverySentence(resource, (worker, document, sentences, openieExtractions) -> {
+      // The resource is the worker's own
+      if (worker != Thread.currentThread()) { numErrors.incrementAndGet(); }
+      documentsSeen.computeIfAbsent(document.get(CoreAnnotations.DocIDAnnotation.class), x -> new AtomicInteger(0)).incrementAndGet();
+      for (CoreMap sentence : sentences) {
+        // Every sentence comes with its own document
+        if (!document.get(CoreAnnotations.SentencesAnnotation.class).contains(sentence)) { numErrors.incrementAndGet(); }
+        timesSeen.computeIfAbsent(sentence.get(CoreAnnotations.TextAnnotation.class), x -> new AtomicInteger(0)).incrementAndGet();
+      }
+    }, Integer.MAX_VALUE);
+
+    // Every document is handed over once, and every usable sentence is seen exactly once
+    assertEquals(0, numErrors.get());
+    assertEquals(documents.size(), documentsSeen.size());
+    for (Map.Entry<String, AtomicInteger> entry : documentsSeen.entrySet()) { assertEquals(entry.getKey(), 1, entry.getValue().get()); }
+    assertEquals(usableSentences, timesSeen.keySet());
+    for (Map.Entry<String, AtomicInteger> entry : timesSeen.entrySet()) { assertEquals(entry.getKey(), 1, entry.getValue().get()); }
+    // The pass leaves the resource to its owner
+    assertFalse(resource.created().isEmpty());
+    resource.clear();
+    assertTrue(resource.created().isEmpty());
+  }
+
+  @Test
+  public void testSentenceCallbackOncePerWorker() {
+    Set<String> usableSentences = new HashSet<>();
+    List<Annotation> documents = documents(500, usableSentences);
+    TextOps ops = new TextOps(documentIR(documents), null, null, Collections.emptySet());
+
+    final AtomicInteger numErrors = new AtomicInteger(0);
+    final Set<Thread> workers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    final AtomicInteger numCreated = new AtomicInteger(0);
+    final AtomicInteger numDestroyed = new AtomicInteger(0);
+    final Map<String, AtomicInteger> timesSeen = new ConcurrentHashMap<>();
+    ops.applyToEverySentence(
+        () -> { numCreated.incrementAndGet(); return Thread.currentThread(); },
+        worker -> {
+          if (worker != Thread.currentThread()) { numErrors.incrementAndGet(); }
+          workers.add(worker);
+          numDestroyed.incrementAndGet();
+          return null;
+        },
+        (worker, document, sentence, openieExtractions) -> {
+          if (worker != Thread.currentThread()) { numErrors.incrementAndGet(); }
+          timesSeen.computeIfAbsent(sentence.get(CoreAnnotations.TextAnnotation.class), x -> new AtomicInteger(0)).incrementAndGet();
+        }, Integer.MAX_VALUE);
+
+    // The data is created once per worker, and destroyed after every document
+    assertEquals(0, numErrors.get());
+    assertEquals(workers.size(), numCreated.get());
+    assertEquals(documents.size(), numDestroyed.get());
+    assertEquals(usableSentences, timesSeen.keySet());
+    for (Map.Entry<String, AtomicInteger> entry : timesSeen.entrySet()) { assertEquals(entry.getKey(), 1, entry.getValue().get()); }
+  }
+}
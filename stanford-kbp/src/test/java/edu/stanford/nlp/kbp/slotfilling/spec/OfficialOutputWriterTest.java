@@ -0,0 +1,219 @@
+package edu.stanford.nlp.kbp.slotfilling.spec;
+
+import edu.stanford.nlp.ie.machinereading.structure.Span;
+import edu.stanford.nlp.kbp.common.*;
+import edu.stanford.nlp.kbp.slotfilling.ir.KBPRelationProvenance;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.Execution;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests writing the official output: slot fills are resolved one provenance document at a time,
+ * possibly concurrently, but the output is written in the official order regardless.
+ */
+public class OfficialOutputWriterTest {
+  private static final RelationType[] RELATIONS = {RelationType.PER_TITLE, RelationType.PER_EMPLOYEE_OF, RelationType.PER_CHILDREN};
+
+  private int originalThreads;
+  private Props.YEAR originalYear;
+
+  @Before
+  public void setUp() {
+    originalThreads = Execution.threads;
+    originalYear = Props.KBP_YEAR;
+    Props.KBP_YEAR = Props.YEAR.KBP2013;
+  }
+
+  @After
+  public void tearDown() {
+    Execution.threads = originalThreads;
+    Props.KBP_YEAR = originalYear;
+  }
+
+  /** A writer which records the batches of fills it is asked to write, taking a random time over each */
+  private static class RecordingWriter extends OfficialOutputWriter {
+    public final List<List<KBPSlotFill>> batches = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void yieldLine(StringBuilder builder, KBPSlotFill fill) {
+      builder.append(fill.provenance.isDefined() ? fill.provenance.get().docId : "UNKDOC").append(tab()).append(escapeSlotValue(fill.key.slotValue));
+    }
+
+    @Override
+    protected void yieldLines(List<StringBuilder> builders, List<KBPSlotFill> fills) throws IOException {
+      batches.add(new ArrayList<>(fills));
+      try {
+        Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      super.yieldLines(builders, fills);
+    }
+  }
+
+  /** Entities with a number of slot fills each, justified by a handful of shared documents (and some by none) */
+  private static Map<KBPOfficialEntity, Collection<KBPSlotFill>> relations(int numEntities, int numDocuments) {
+    Random rand = new Random(42);
+    Map<KBPOfficialEntity, Collection<KBPSlotFill>> relations = new HashMap<>();
+    for (int e = 0; e < numEntities; ++e) {
+      KBPOfficialEntity entity = KBPNew.entName("Entity " + e).entType(NERTag.PERSON)
+          .queryId(String.format("SF_%03d", numEntities - e)).ignoredSlots(new HashSet<>()).KBPOfficialEntity();
+      List<KBPSlotFill> fills = new ArrayList<>();
+      for (int f = 0; f < 5; ++f) {
+        RelationType relation = RELATIONS[rand.nextInt(RELATIONS.length)];
+        Maybe<KBPRelationProvenance> provenance = rand.nextInt(10) == 0 ? Maybe.<KBPRelationProvenance>Nothing()
+            : Maybe.Just(new KBPRelationProvenance("doc" + rand.nextInt(numDocuments), "index"));
+        fills.add(KBPNew.from(entity).slotValue("value " + e + " " + f).rel(relation).provenance(provenance).score(1.0).KBPSlotFill());
+      }
+      relations.put(entity, fills);
+    }
+    return relations;
+  }
+
+  private static String output(OfficialOutputWriter writer, Map<KBPOfficialEntity, Collection<KBPSlotFill>> relations) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream os = new PrintStream(bytes);
+    writer.outputRelations(os, "run", relations, new HashMap<>());
+    os.close();
+    return bytes.toString();
+  }
+
+  @Test
+  public void testGroupsFillsByDocument() {
+    Execution.threads = 4;
+    Map<KBPOfficialEntity, Collection<KBPSlotFill>> relations = relations(20, 7);
+    RecordingWriter writer = new RecordingWriter();
+    output(writer, relations);
+    // Every fill is written exactly once...
+    List<KBPSlotFill> written = new ArrayList<>();
+    for (List<KBPSlotFill> batch : writer.batches) { written.addAll(batch); }
+    List<KBPSlotFill> expected = new ArrayList<>();
+    for (Collection<KBPSlotFill> fills : relations.values()) { expected.addAll(fills); }
+    assertEquals(expected.size(), written.size());
+    assertEquals(new HashSet<>(expected), new HashSet<>(written));
+    // ... in a single batch per provenance document
+    Set<String> documentsSeen = new HashSet<>();
+    for (List<KBPSlotFill> batch : writer.batches) {
+      Set<String> documents = new HashSet<>();
+      for (KBPSlotFill fill : batch) { documents.add(fill.provenance.isDefined() ? fill.provenance.get().docId : ""); }
+      assertEquals(1, documents.size());
+      assertTrue(documentsSeen.addAll(documents));
+    }
+  }
+
+  @Test
+  public void testOutputOrder() {
+    Map<KBPOfficialEntity, Collection<KBPSlotFill>> relations = relations(20, 7);
+    Execution.threads = 1;
+    String sequential = output(new RecordingWriter(), relations);
+    Execution.threads = 4;
+    assertEquals(sequential, output(new RecordingWriter(), relations));
+    // Lines are sorted by query id, and every relation of every entity gets at least one line
+    String lastQueryId = "";
+    Set<String> slots = new HashSet<>();
+    for (String line : sequential.split("\n")) {
+      String[] fields = line.split("\t");
+      assertTrue(fields[0].compareTo(lastQueryId) >= 0);
+      lastQueryId = fields[0];
+      slots.add(fields[0] + "\t" + fields[1]);
+    }
+    int personRelations = 0;
+    Set<String> relationNames = new HashSet<>();
+    for (RelationType relation : RelationType.values()) {
+      if (relation.entityType == NERTag.PERSON && relationNames.add(OfficialOutputWriter.officialRelationName(relation))) { personRelations += 1; }
+    }
+    assertEquals(20 * personRelations, slots.size());
+  }
+
+  @Test
+  public void testConcurrentUse() throws InterruptedException, ExecutionException {
+    Map<KBPOfficialEntity, Collection<KBPSlotFill>> relations = relations(20, 7);
+    Execution.threads = 1;
+    String sequential = output(new RecordingWriter(), relations);
+    // Several callers share a writer, and the resolver pool
+    Execution.threads = 4;
+    final RecordingWriter writer = new RecordingWriter();
+    ExecutorService callers = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> outputs = new ArrayList<>();
+      for (int i = 0; i < 16; ++i) { outputs.add(callers.submit(() -> output(writer, relations))); }
+      for (Future<String> output : outputs) { assertEquals(sequential, output.get()); }
+    } finally {
+      callers.shutdown();
+    }
+  }
+
+  /** A document of one sentence, whose tokens start at every fourth character */
+  private static Annotation document(String docid, String... words) {
+    List<CoreLabel> tokens = new ArrayList<>();
+    for (int i = 0; i < words.length; ++i) {
+      CoreLabel token = new CoreLabel();
+      token.setWord(words[i]);
+      token.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class, 4 * i);
+      token.set(CoreAnnotations.CharacterOffsetEndAnnotation.class, 4 * i + words[i].length());
+      tokens.add(token);
+    }
+    CoreMap sentence = new ArrayCoreMap();
+    sentence.set(CoreAnnotations.TokensAnnotation.class, tokens);
+    Annotation doc = new Annotation(String.join(" ", words));
+    doc.set(CoreAnnotations.DocIDAnnotation.class, docid);
+    doc.set(CoreAnnotations.TokensAnnotation.class, tokens);
+    doc.set(CoreAnnotations.SentencesAnnotation.class, Collections.singletonList(sentence));
+    return doc;
+  }
+
+  @Test
+  public void testCorefDocumentPerFill() {
+    Execution.threads = 1;
+    final Annotation shared = document("doc", "He", "is", "the", "CEO");
+    final Map<String, Integer> fetches = new HashMap<>();
+    final List<Annotation> corefDocuments = new ArrayList<>();
+    OfficialOutputWriter writer = new OfficialOutputWriter.OfficialOutputWriter2013(null) {
+      @Override
+      protected ProvenanceDocument fetchProvenanceDocument(String docid) {
+        fetches.put(docid, fetches.containsKey(docid) ? fetches.get(docid) + 1 : 1);
+        return new ProvenanceDocument(docid, shared);
+      }
+      @Override
+      protected Maybe<Span> resolveLiteralCoref(Annotation doc, KBTriple key, boolean entity) {
+        corefDocuments.add(doc);
+        return Maybe.Nothing();
+      }
+    };
+    // Neither the entity ("He") nor the slot value ("the CEO") match their names, so both are resolved
+    KBPOfficialEntity entity = KBPNew.entName("Jane Doe").entType(NERTag.PERSON)
+        .queryId("SF_001").ignoredSlots(new HashSet<>()).KBPOfficialEntity();
+    List<KBPSlotFill> fills = new ArrayList<>();
+    for (String value : Arrays.asList("chief executive", "executive")) {
+      fills.add(KBPNew.from(entity).slotValue(value).rel(RelationType.PER_TITLE)
+          .provenance(new KBPRelationProvenance("doc", "index", 0, new Span(0, 1), new Span(2, 4))).score(1.0).KBPSlotFill());
+    }
+    Map<KBPOfficialEntity, Collection<KBPSlotFill>> relations = new HashMap<>();
+    relations.put(entity, fills);
+    String output = output(writer, relations);
+    assertTrue(output.contains("SF_001\tper:title\trun\tdoc\tchief executive\t8-15\t0-2\t0-15\t1.000"));
+    // The document is fetched once...
+    assertEquals(Collections.singletonMap("doc", 1), fetches);
+    // ... each fill resolves both of its mentions in one overlay of it...
+    assertEquals(4, corefDocuments.size());
+    assertSame(corefDocuments.get(0), corefDocuments.get(1));
+    assertSame(corefDocuments.get(2), corefDocuments.get(3));
+    // ... and no two fills share an overlay, or annotate the document itself
+    assertNotSame(corefDocuments.get(0), corefDocuments.get(2));
+    for (Annotation corefDocument : corefDocuments) { assertNotSame(shared, corefDocument); }
+  }
+}